@@ -29,7 +29,6 @@ import static org.apache.tinkerpop.gremlin.structure.Column.*;
 
 import net.ellitron.torc.*;
 import net.ellitron.torc.util.UInt128;
-import net.ellitron.torc.TorcGraphProviderOptimizationStrategy;
 
 import com.ldbc.driver.control.LoggingService;
 import com.ldbc.driver.Db;
@@ -131,6 +130,40 @@ import java.util.concurrent.ThreadLocalRandom;
  * for read queries (Note: at time of writing complex read queries touch too
  * much data and trying to do these transactionally will result in a timeout.
  * This is currently being fixed in RAMCloud).</li>
+ * <li>nativeQueries - comma separated list of complex queries (e.g. 13,14)
+ * to execute with their native handlers, which traverse the graph directly
+ * instead of through Gremlin, in place of the Gremlin handlers. "all"
+ * selects every query that has a native handler.</li>
+ * <li>timeOrderedMessages - the creationDate, in milliseconds since the
+ * epoch, of the newest message in a graph loaded with GraphLoader
+ * --timeOrderedMessages, which tells the handlers that the top messages of a
+ * person can be found without reading them all. Messages added by updates
+ * must be newer than this. Only set it for a graph loaded that way: the
+ * handlers can't tell, and on any other graph they silently return wrong
+ * results.</li>
+ * <li>rootPostCacheSize - number of Comments to cache the root Post of their
+ * thread for (default: 0, disabled).</li>
+ * <li>rootPostEdges - the presence of this switch tells the handlers that
+ * the graph has rootPost edges (GraphLoader rootPosts), which are then used
+ * on root Post cache misses and added for new Comments.</li>
+ * <li>propertyCacheSize - number of vertices to cache the names and titles of
+ * (see TorcDbPropertyCache), which never change (default: 0, disabled).</li>
+ * <li>friendCacheSize - number of persons to cache the friends, and friends
+ * of friends, of (see TorcDbFriendCache) (default: 0, disabled).</li>
+ * <li>nameIndexDir - directory of the SNB dataset's place files, from which
+ * to index country names (see TorcDbNameIndex).</li>
+ * <li>queryParallelism - maximum number of threads to split each of
+ * LdbcQuery3, 4, 6 and 9 across, by friend (see TorcDbParallelExecutor)
+ * (default: 1, disabled). Ignored with txReads.</li>
+ * <li>parallelPoolSize - number of threads shared by all the queries split
+ * this way (default: 0, one per core).</li>
+ * <li>parallelChunkSize - minimum number of friends for each thread of a
+ * split query (default: 64).</li>
+ * <li>groupCommitWindow - microseconds to wait for more LdbcUpdate2, 3 and 5
+ * updates to commit in the same transaction (see TorcDbGroupCommit)
+ * (default: 0, disabled).</li>
+ * <li>groupCommitSize - maximum number of updates to commit in one
+ * transaction (default: 64).</li>
  * </ul>
  * <p>
  * References:<br>
@@ -156,6 +189,7 @@ public class TorcDb extends Db {
   private static String messageIDsFilename;
   private static List<Long> personIDs;
   private static List<Long> messageIDs;
+  private static Set<Integer> nativeQueries = new HashSet<>();
 
   // Maximum number of times to try a transaction before giving up.
   private static int MAX_TX_ATTEMPTS = 100;
@@ -170,6 +204,10 @@ public class TorcDb extends Db {
       doTransactionalReads = true;
     }
 
+    if (properties.containsKey("nativeQueries")) {
+      nativeQueries = parseNativeQueries(properties.get("nativeQueries"));
+    }
+
     if (properties.containsKey("personIDsFile") && 
         properties.containsKey("messageIDsFile")) {
       this.personIDsFilename = properties.get("personIDsFile");
@@ -209,15 +247,18 @@ public class TorcDb extends Db {
      * Register operation handlers with the benchmark.
      */
     registerOperationHandler(LdbcQuery1.class,
-        LdbcQuery1Handler.class);
+        nativeQueries.contains(1) 
+            ? LdbcQuery1NativeHandler.class : LdbcQuery1Handler.class);
     registerOperationHandler(LdbcQuery2.class,
-        LdbcQuery2Handler.class);
+        nativeQueries.contains(2) 
+            ? LdbcQuery2NativeHandler.class : LdbcQuery2Handler.class);
     registerOperationHandler(LdbcQuery3.class,
         LdbcQuery3Handler.class);
     registerOperationHandler(LdbcQuery4.class,
         LdbcQuery4Handler.class);
     registerOperationHandler(LdbcQuery5.class,
-        LdbcQuery5Handler.class);
+        nativeQueries.contains(5) 
+            ? LdbcQuery5NativeHandler.class : LdbcQuery5Handler.class);
     registerOperationHandler(LdbcQuery6.class,
         LdbcQuery6Handler.class);
     registerOperationHandler(LdbcQuery7.class,
@@ -225,7 +266,8 @@ public class TorcDb extends Db {
     registerOperationHandler(LdbcQuery8.class,
         LdbcQuery8Handler.class);
     registerOperationHandler(LdbcQuery9.class,
-        LdbcQuery9Handler.class);
+        nativeQueries.contains(9) 
+            ? LdbcQuery9NativeHandler.class : LdbcQuery9Handler.class);
     registerOperationHandler(LdbcQuery10.class,
         LdbcQuery10Handler.class);
     registerOperationHandler(LdbcQuery11.class,
@@ -233,9 +275,11 @@ public class TorcDb extends Db {
     registerOperationHandler(LdbcQuery12.class,
         LdbcQuery12Handler.class);
     registerOperationHandler(LdbcQuery13.class,
-        LdbcQuery13Handler.class);
+        nativeQueries.contains(13) 
+            ? LdbcQuery13NativeHandler.class : LdbcQuery13Handler.class);
     registerOperationHandler(LdbcQuery14.class,
-        LdbcQuery14Handler.class);
+        nativeQueries.contains(14) 
+            ? LdbcQuery14NativeHandler.class : LdbcQuery14Handler.class);
 
     registerOperationHandler(LdbcShortQuery1PersonProfile.class,
         LdbcShortQuery1PersonProfileHandler.class);
@@ -272,9 +316,46 @@ public class TorcDb extends Db {
 
   @Override
   protected void onClose() throws IOException {
+    TorcDbPropertyCache propertyCache = connectionState.getPropertyCache();
+    if (propertyCache.isEnabled()) {
+      System.out.print(propertyCache.getReport());
+    }
+    TorcDbGroupCommit groupCommit = connectionState.getGroupCommit();
+    if (groupCommit.isEnabled()) {
+      System.out.print(groupCommit.getReport());
+    }
     connectionState.close();
   }
 
+  /**
+   * Complex queries that have native handlers.
+   */
+  public static final Set<Integer> NATIVE_QUERIES = 
+      Collections.unmodifiableSet(new HashSet<>(Arrays.asList(1, 2, 5, 9, 13, 14)));
+
+  /**
+   * Parses a nativeQueries list.
+   *
+   * @param list Comma separated query numbers, or "all".
+   * @return Numbers of the queries to execute natively.
+   */
+  public static Set<Integer> parseNativeQueries(String list) {
+    if (list.equals("all")) {
+      return NATIVE_QUERIES;
+    }
+
+    Set<Integer> queries = new HashSet<>();
+    for (String q : list.split(",")) {
+      int n = Integer.parseInt(q.trim());
+      if (!NATIVE_QUERIES.contains(n)) {
+        throw new IllegalArgumentException(
+            "No native handler for query " + n);
+      }
+      queries.add(n);
+    }
+    return queries;
+  }
+
   @Override
   protected DbConnectionState getConnectionState() throws DbException {
     return connectionState;
@@ -342,12 +423,11 @@ public class TorcDb extends Db {
 
       int txAttempts = 0;
       while (txAttempts < MAX_TX_ATTEMPTS) {
-        GraphTraversalSource g = graph.traversal();
+        GraphTraversalSource g = TorcDbTraversals.source(graph);
 
         List<LdbcQuery1Result> result = new ArrayList<>(limit);
 
-        g.withStrategies(TorcGraphProviderOptimizationStrategy.instance())
-          .withSideEffect("result", result).V(torcPersonId).as("person")
+        g.withSideEffect("result", result).V(torcPersonId).as("person")
           .aggregate("seenSet")
           .repeat(
             barrier()
@@ -410,8 +490,8 @@ public class TorcDb extends Db {
               ((UInt128)t.get().get("friendId")).getLowerLong(),
               (String)t.get().get("lastName"),
               ((Long)t.get().get("distance")).intValue() - 1,
-              Long.valueOf((String)t.get().get("birthday")),
-              Long.valueOf((String)t.get().get("creationDate")),
+              TorcDbProperties.toLong(t.get().get("birthday")),
+              TorcDbProperties.toLong(t.get().get("creationDate")),
               (String)t.get().get("gender"),
               (String)t.get().get("browserUsed"),
               (String)t.get().get("locationIP"),
@@ -439,6 +519,327 @@ public class TorcDb extends Db {
     }
   }
 
+  /**
+   * Native version of LdbcQuery1Handler. The search is a level synchronous
+   * breadth first search which reads the properties of all the persons newly
+   * reached on a level with a single multi-get, and stops after the first
+   * level on which limit matches have been found in total. The properties,
+   * universities and companies of the persons in the result, and the cities
+   * they and their universities and companies are located in, are then read
+   * with one multi-get each.
+   */
+  public static class LdbcQuery1NativeHandler
+      implements OperationHandler<LdbcQuery1, DbConnectionState> {
+
+    final static Logger logger =
+        LoggerFactory.getLogger(LdbcQuery1NativeHandler.class);
+
+    private static final int MAX_DISTANCE = 3;
+
+    private static final String[] KNOWS = new String[] {"knows"};
+    private static final String[] IS_LOCATED_IN = 
+        new String[] {"isLocatedIn"};
+    private static final String[] STUDY_AT = new String[] {"studyAt"};
+    private static final String[] WORK_AT = new String[] {"workAt"};
+    private static final String[] PERSON = 
+        new String[] {TorcEntity.PERSON.label};
+    private static final String[] ORGANISATION = 
+        new String[] {TorcEntity.ORGANISATION.label};
+    private static final String[] PLACE = 
+        new String[] {TorcEntity.PLACE.label};
+
+    /**
+     * A person with the given first name, and its distance from the start
+     * person.
+     */
+    private static class Match {
+      public final Vertex person;
+      public final long id;
+      public final String lastName;
+      public final int distance;
+
+      public Match(Vertex person, String lastName, int distance) {
+        this.person = person;
+        this.id = ((UInt128) person.id()).getLowerLong();
+        this.lastName = lastName;
+        this.distance = distance;
+      }
+    }
+
+    @Override
+    public void executeOperation(final LdbcQuery1 operation,
+        DbConnectionState dbConnectionState,
+        ResultReporter resultReporter) throws DbException {
+      if (fakeComplexReads) {
+        List<LdbcQuery1Result> result = new ArrayList<>(operation.limit());
+
+        for (int i = 0; i < operation.limit(); i++) {
+          int n1 = ThreadLocalRandom.current().nextInt(0, personIDs.size());
+          Long pid = personIDs.get(n1);
+          result.add(new LdbcQuery1Result(
+              pid,
+              null,
+              0,
+              0,
+              0,
+              null,
+              null,
+              null,
+              null,
+              null,
+              null,
+              null,
+              null));
+        }
+
+        resultReporter.report(result.size(), result, operation);
+        return;
+      }
+
+      // Parameters of this query
+      final long personId = operation.personId();
+      final String firstName = operation.firstName();
+      final int limit = operation.limit();
+
+      Graph graph = ((TorcDbConnectionState) dbConnectionState).getClient();
+      TorcDbPropertyCache propertyCache = 
+          ((TorcDbConnectionState) dbConnectionState).getPropertyCache();
+
+      int txAttempts = 0;
+      while (txAttempts < MAX_TX_ATTEMPTS) {
+        List<Match> matches = new ArrayList<>();
+
+        TorcIdSet seen = TorcIdScratch.get().set(0);
+        seen.add(personId);
+        List<Vertex> frontier = new ArrayList<>(1);
+        frontier.add(graph.vertices(
+            new UInt128(TorcEntity.PERSON.idSpace, personId)).next());
+
+        for (int distance = 1; distance <= MAX_DISTANCE; distance++) {
+          /*
+           * Friends whose first name is cached and doesn't match go straight
+           * on to the next frontier. The rest are read in one multi-get,
+           * which also loads the properties getResults() needs of matches.
+           */
+          List<Vertex> nextFrontier = new ArrayList<>();
+          List<Object> levelIds = new ArrayList<>();
+          for (Vertex v : frontier) {
+            Iterator<Edge> edges = 
+                ((TorcVertex) v).edges(Direction.OUT, KNOWS, PERSON);
+            while (edges.hasNext()) {
+              Vertex friend = edges.next().inVertex();
+              UInt128 friendId = (UInt128) friend.id();
+              if (!seen.add(friendId.getLowerLong())) {
+                continue;
+              }
+
+              String cached = propertyCache.peek(friendId, 
+                  TorcEntity.PERSON.label, "firstName");
+              if (cached != null && !firstName.equals(cached)) {
+                nextFrontier.add(friend);
+              } else {
+                levelIds.add(friendId);
+              }
+            }
+          }
+
+          if (!levelIds.isEmpty()) {
+            Iterator<Vertex> level = graph.vertices(levelIds.toArray());
+            while (level.hasNext()) {
+              Vertex friend = level.next();
+              nextFrontier.add(friend);
+              if (firstName.equals(propertyCache.get(friend, "firstName"))) {
+                matches.add(new Match(friend, 
+                    propertyCache.get(friend, "lastName"), distance));
+              }
+            }
+          }
+
+          if (nextFrontier.isEmpty()) {
+            break;
+          }
+          frontier = nextFrontier;
+
+          if (matches.size() >= limit) {
+            break;
+          }
+        }
+
+        matches.sort((a, b) -> {
+          if (a.distance != b.distance) {
+            return Integer.compare(a.distance, b.distance);
+          }
+          int c = a.lastName.compareTo(b.lastName);
+          if (c != 0) {
+            return c;
+          }
+          return Long.compare(a.id, b.id);
+        });
+        if (matches.size() > limit) {
+          matches = matches.subList(0, limit);
+        }
+
+        List<LdbcQuery1Result> result = 
+            getResults(graph, propertyCache, matches);
+
+        if (doTransactionalReads) {
+          try {
+            graph.tx().commit();
+          } catch (RuntimeException e) {
+            txAttempts++;
+            continue;
+          }
+        } else {
+          graph.tx().rollback();
+        }
+
+        resultReporter.report(result.size(), result, operation);
+        break;
+      }
+    }
+
+    /**
+     * Builds the results for the matched persons, in the same order.
+     */
+    private static List<LdbcQuery1Result> getResults(Graph graph,
+        TorcDbPropertyCache propertyCache, List<Match> matches) {
+      // Edges out of each match, and the ids of everything they lead to.
+      List<List<Edge>> studyAt = new ArrayList<>(matches.size());
+      List<List<Edge>> workAt = new ArrayList<>(matches.size());
+      List<Object> cityIds = new ArrayList<>(matches.size());
+      Map<Object, Vertex> orgs = new HashMap<>();
+      for (Match m : matches) {
+        TorcVertex person = (TorcVertex) m.person;
+
+        Iterator<Edge> city = 
+            person.edges(Direction.OUT, IS_LOCATED_IN, PLACE);
+        cityIds.add(city.hasNext() ? city.next().inVertex().id() : null);
+
+        List<Edge> study = new ArrayList<>();
+        person.edges(Direction.OUT, STUDY_AT, ORGANISATION)
+            .forEachRemaining((e) -> {
+              study.add(e);
+              orgs.put(e.inVertex().id(), e.inVertex());
+            });
+        studyAt.add(study);
+
+        List<Edge> work = new ArrayList<>();
+        person.edges(Direction.OUT, WORK_AT, ORGANISATION)
+            .forEachRemaining((e) -> {
+              work.add(e);
+              orgs.put(e.inVertex().id(), e.inVertex());
+            });
+        workAt.add(work);
+      }
+
+      // Organisations, and the cities they are located in.
+      Map<Object, String> orgNames = names(graph, propertyCache, 
+          orgs.keySet(), TorcEntity.ORGANISATION.label);
+      Map<Object, Object> orgCityIds = new HashMap<>();
+      Set<Object> placeIds = new HashSet<>();
+      for (Object id : cityIds) {
+        if (id != null) {
+          placeIds.add(id);
+        }
+      }
+      for (Vertex org : orgs.values()) {
+        Iterator<Edge> city = 
+            ((TorcVertex) org).edges(Direction.OUT, IS_LOCATED_IN, PLACE);
+        if (city.hasNext()) {
+          Object cityId = city.next().inVertex().id();
+          orgCityIds.put(org.id(), cityId);
+          placeIds.add(cityId);
+        }
+      }
+
+      Map<Object, String> placeNames = names(graph, propertyCache, 
+          placeIds, TorcEntity.PLACE.label);
+
+      List<LdbcQuery1Result> result = new ArrayList<>(matches.size());
+      for (int i = 0; i < matches.size(); i++) {
+        Match m = matches.get(i);
+        Vertex person = m.person;
+
+        List<String> emails = new ArrayList<>();
+        person.<String>properties("email")
+            .forEachRemaining((p) -> emails.add(p.value()));
+        List<String> languages = new ArrayList<>();
+        person.<String>properties("language")
+            .forEachRemaining((p) -> languages.add(p.value()));
+
+        result.add(new LdbcQuery1Result(
+            m.id,
+            m.lastName,
+            m.distance,
+            TorcDbProperties.getLong(person, "birthday"),
+            TorcDbProperties.getLong(person, "creationDate"),
+            person.<String>property("gender").value(),
+            person.<String>property("browserUsed").value(),
+            person.<String>property("locationIP").value(),
+            emails,
+            languages,
+            placeNames.get(cityIds.get(i)),
+            organisationInfo(studyAt.get(i), "classYear", orgNames, 
+                orgCityIds, placeNames),
+            organisationInfo(workAt.get(i), "workFrom", orgNames, 
+                orgCityIds, placeNames)));
+      }
+
+      return result;
+    }
+
+    /**
+     * Returns the names of the vertices with the given ids and label, reading
+     * those not in the property cache in one multi-get.
+     */
+    private static Map<Object, String> names(Graph graph,
+        TorcDbPropertyCache propertyCache, Set<Object> ids, String label) {
+      Map<Object, String> names = new HashMap<>();
+      List<Object> uncached = new ArrayList<>();
+      for (Object id : ids) {
+        String name = propertyCache.peek((UInt128) id, label, "name");
+        if (name != null) {
+          names.put(id, name);
+        } else {
+          uncached.add(id);
+        }
+      }
+
+      if (!uncached.isEmpty()) {
+        graph.vertices(uncached.toArray()).forEachRemaining((v) -> {
+          names.put(v.id(), propertyCache.load(v, "name"));
+        });
+      }
+
+      return names;
+    }
+
+    /**
+     * Returns [organisation name, edge property, city name] for each of a
+     * person's studyAt or workAt edges whose organisation has a city, as
+     * LdbcQuery1Handler does.
+     */
+    private static List<List<Object>> organisationInfo(List<Edge> edges,
+        String edgeProperty, Map<Object, String> orgNames,
+        Map<Object, Object> orgCityIds, Map<Object, String> placeNames) {
+      List<List<Object>> info = new ArrayList<>(edges.size());
+      for (Edge e : edges) {
+        Object orgId = e.inVertex().id();
+        Object cityId = orgCityIds.get(orgId);
+        if (cityId == null) {
+          continue;
+        }
+
+        List<Object> entry = new ArrayList<>(3);
+        entry.add(orgNames.get(orgId));
+        entry.add(e.<String>property(edgeProperty).value());
+        entry.add(placeNames.get(cityId));
+        info.add(entry);
+      }
+      return info;
+    }
+  }
+
   /**
    * Given a start Person, find (most recent) Posts and Comments from all of
    * that Person’s friends, that were created before (and including) a given
@@ -489,17 +890,16 @@ public class TorcDb extends Db {
 
       int txAttempts = 0;
       while (txAttempts < MAX_TX_ATTEMPTS) {
-        GraphTraversalSource g = graph.traversal();
+        GraphTraversalSource g = TorcDbTraversals.source(graph);
 
         List<LdbcQuery2Result> result = new ArrayList<>(limit);
 
-        g.withStrategies(TorcGraphProviderOptimizationStrategy.instance())
-          .withSideEffect("result", result).V(torcPersonId)
+        g.withSideEffect("result", result).V(torcPersonId)
           .out("knows").hasLabel("Person").as("friend")
           .in("hasCreator").hasLabel("Comment", "Post").as("message")
           .order().by("creationDate", decr).by(id(), incr)
           .filter(t -> 
-              Long.valueOf(t.get().value("creationDate")) <= maxDate)
+              TorcDbProperties.getLong(t.get(), "creationDate") <= maxDate)
           .limit(limit)
           .project("personId", "firstName", "lastName", "messageId", 
               "content", "creationDate")
@@ -518,7 +918,7 @@ public class TorcDb extends Db {
               (String)t.get().get("lastName"),
               ((UInt128)t.get().get("messageId")).getLowerLong(), 
               (String)t.get().get("content"),
-              Long.valueOf((String)t.get().get("creationDate"))))
+              TorcDbProperties.toLong(t.get().get("creationDate"))))
           .store("result").iterate(); 
 
         if (doTransactionalReads) {
@@ -538,6 +938,99 @@ public class TorcDb extends Db {
     }
   }
 
+  /**
+   * Native version of LdbcQuery2Handler. Finds the newest messages of the
+   * start person's friends with TorcDbMessageMerge, which on a graph loaded
+   * with time ordered hasCreator edge lists stops reading after the top
+   * messages, rather than sorting every message of every friend.
+   */
+  public static class LdbcQuery2NativeHandler
+      implements OperationHandler<LdbcQuery2, DbConnectionState> {
+
+    final static Logger logger =
+        LoggerFactory.getLogger(LdbcQuery2NativeHandler.class);
+
+    @Override
+    public void executeOperation(final LdbcQuery2 operation,
+        DbConnectionState dbConnectionState,
+        ResultReporter resultReporter) throws DbException {
+      if (fakeComplexReads) {
+        List<LdbcQuery2Result> result = new ArrayList<>(operation.limit());
+
+        for (int i = 0; i < operation.limit(); i++) {
+          int n1 = ThreadLocalRandom.current().nextInt(0, personIDs.size());
+          int n2 = ThreadLocalRandom.current().nextInt(0, messageIDs.size());
+          Long pid = personIDs.get(n1);
+          Long mid = messageIDs.get(n2);
+          result.add(new LdbcQuery2Result(
+              pid, 
+              null,
+              null,
+              mid,
+              null,
+              0));
+        }
+
+        resultReporter.report(result.size(), result, operation);
+        return;
+      }
+
+      TorcDbConnectionState connectionState = 
+          (TorcDbConnectionState) dbConnectionState;
+      Graph graph = connectionState.getClient();
+      TorcDbPropertyCache propertyCache = connectionState.getPropertyCache();
+
+      int txAttempts = 0;
+      while (txAttempts < MAX_TX_ATTEMPTS) {
+        Vertex person = graph.vertices(
+            new UInt128(TorcEntity.PERSON.idSpace, operation.personId()))
+            .next();
+
+        List<Vertex> friends = new ArrayList<>();
+        ((TorcVertex) person).edges(Direction.OUT, 
+            new String[] {"knows"}, 
+            new String[] {TorcEntity.PERSON.label})
+            .forEachRemaining((e) -> friends.add(e.inVertex()));
+
+        List<TorcDbMessageMerge.Message> messages = 
+            TorcDbMessageMerge.newest(friends, 
+                operation.maxDate().getTime(), operation.limit(), 
+                connectionState.getMessageLoadCutoff(),
+                (a, b) -> {
+                  if (a.creationDate != b.creationDate) {
+                    return Long.compare(b.creationDate, a.creationDate);
+                  }
+                  return Long.compare(a.id, b.id);
+                });
+
+        List<LdbcQuery2Result> result = new ArrayList<>(messages.size());
+        for (TorcDbMessageMerge.Message m : messages) {
+          result.add(new LdbcQuery2Result(
+              m.creatorId(),
+              propertyCache.get(m.creator, "firstName"),
+              propertyCache.get(m.creator, "lastName"),
+              m.id,
+              m.content(),
+              m.creationDate));
+        }
+
+        if (doTransactionalReads) {
+          try {
+            graph.tx().commit();
+          } catch (RuntimeException e) {
+            txAttempts++;
+            continue;
+          }
+        } else {
+          graph.tx().rollback();
+        }
+
+        resultReporter.report(result.size(), result, operation);
+        break;
+      }
+    }
+  }
+
   /**
    * Given a start Person, find Persons that are their friends and friends of
    * friends (excluding start Person) that have made Posts/Comments in both of
@@ -587,71 +1080,99 @@ public class TorcDb extends Db {
 
       final long endDate = startDate + (durationDays * 24L * 60L * 60L * 1000L);
 
-      final UInt128 torcPersonId = 
-          new UInt128(TorcEntity.PERSON.idSpace, personId);
-
       Graph graph = ((TorcDbConnectionState) dbConnectionState).getClient();
+      TorcDbFriendCache friendCache = 
+          ((TorcDbConnectionState) dbConnectionState).getFriendCache();
+      TorcDbParallelExecutor parallelExecutor = 
+          ((TorcDbConnectionState) dbConnectionState).getParallelExecutor();
+      TorcDbNameIndex.Matcher countries = 
+          ((TorcDbConnectionState) dbConnectionState).getNameIndex()
+              .countries(countryXName, countryYName);
 
       int txAttempts = 0;
       while (txAttempts < MAX_TX_ATTEMPTS) {
-        GraphTraversalSource g = graph.traversal();
+        Object[] friendIds = TorcDbFriendCache.toVertexIds(
+            friendCache.withinTwoHops(graph, personId));
 
         List<LdbcQuery3Result> result = new ArrayList<>(limit);
 
-        g.withStrategies(TorcGraphProviderOptimizationStrategy.instance())
-          .withSideEffect("result", result).V(torcPersonId).as("person")
-          .out("knows").hasLabel("Person")
-          .union(identity(), out("knows").hasLabel("Person")).dedup().where(neq("person"))
-          .where(
-            out("isLocatedIn").hasLabel("Place").out("isPartOf").hasLabel("Place").is(without(countryXName, countryYName))
-          )
-          .as("friend")
-          .in("hasCreator").hasLabel("Comment", "Post")
-          .filter(t -> {
-                    long date = Long.valueOf(t.get().value("creationDate"));
-                    return date <= endDate && date >= startDate;
+        // V() with no ids would mean all vertices.
+        if (friendIds.length > 0) {
+          // Each friend's counts come from one chunk, so the top results are
+          // among the top results of the chunks.
+          List<List<LdbcQuery3Result>> partials = 
+              parallelExecutor.map(graph, friendIds, (chunk) -> {
+            GraphTraversalSource g = TorcDbTraversals.source(graph);
+            List<LdbcQuery3Result> partial = new ArrayList<>(limit);
+
+            g.withSideEffect("result", partial).V(chunk.toArray())
+              .where(
+                out("isLocatedIn").hasLabel("Place").out("isPartOf").hasLabel("Place").filter(t -> !countries.matches(t.get()))
+              )
+              .as("friend")
+              .in("hasCreator").hasLabel("Comment", "Post")
+              .filter(t -> {
+                        long date = 
+                            TorcDbProperties.getLong(t.get(), "creationDate");
+                        return date <= endDate && date >= startDate;
+                      })
+              .out("isLocatedIn").hasLabel("Place")
+              .filter(t -> countries.matches(t.get()))
+              .map(t -> countries.nameOf(t.get()))
+              .group().by(select("friend"))
+              .flatMap(t -> {
+                    Map m = t.get();
+                    List removeList = new ArrayList<Object>();
+                    for (Object k : m.keySet()) {
+                      List v = (List) m.get(k);
+                      if ( !v.contains(countryXName) || !v.contains(countryYName) )
+                        removeList.add(k);
+                    }
+
+                    for (Object k : removeList)
+                      m.remove(k);
+
+                    return m.entrySet().iterator();
                   })
-          .out("isLocatedIn").hasLabel("Place").values("name")
-          .where( is(within(countryXName, countryYName)) )
-          .group().by(select("friend"))
-          .flatMap(t -> {
-                Map m = t.get();
-                List removeList = new ArrayList<Object>();
-                for (Object k : m.keySet()) {
-                  List v = (List) m.get(k);
-                  if ( !v.contains(countryXName) || !v.contains(countryYName) )
-                    removeList.add(k);
-                }
-
-                for (Object k : removeList)
-                  m.remove(k);
+              .order()
+                .by(select(values).unfold().count(), decr)
+                .by(select(keys).id(), incr)
+              .limit(limit)
+              .project("personId",
+                  "firstName",
+                  "lastName",
+                  "countryXCount",
+                  "countryYCount",
+                  "totalCount")
+                .by(select(keys).id())
+                .by(select(keys).values("firstName"))
+                .by(select(keys).values("lastName"))
+                .by(select(values).unfold().is(eq(countryXName)).count())
+                .by(select(values).unfold().is(eq(countryYName)).count())
+                .by(select(values).unfold().count())
+              .map(t -> new LdbcQuery3Result(
+                  ((UInt128)((Traverser<Map>)t).get().get("personId")).getLowerLong(),
+                  (String)((Traverser<Map>)t).get().get("firstName"), 
+                  (String)((Traverser<Map>)t).get().get("lastName"),
+                  (Long)((Traverser<Map>)t).get().get("countryXCount"),
+                  (Long)((Traverser<Map>)t).get().get("countryYCount"),
+                  (Long)((Traverser<Map>)t).get().get("totalCount")))
+              .store("result").iterate();
+
+            return partial;
+          });
 
-                return m.entrySet().iterator();
-              })
-          .order()
-            .by(select(values).unfold().count(), decr)
-            .by(select(keys).id(), incr)
-          .limit(limit)
-          .project("personId",
-              "firstName",
-              "lastName",
-              "countryXCount",
-              "countryYCount",
-              "totalCount")
-            .by(select(keys).id())
-            .by(select(keys).values("firstName"))
-            .by(select(keys).values("lastName"))
-            .by(select(values).unfold().is(eq(countryXName)).count())
-            .by(select(values).unfold().is(eq(countryYName)).count())
-            .by(select(values).unfold().count())
-          .map(t -> new LdbcQuery3Result(
-              ((UInt128)((Traverser<Map>)t).get().get("personId")).getLowerLong(),
-              (String)((Traverser<Map>)t).get().get("firstName"), 
-              (String)((Traverser<Map>)t).get().get("lastName"),
-              (Long)((Traverser<Map>)t).get().get("countryXCount"),
-              (Long)((Traverser<Map>)t).get().get("countryYCount"),
-              (Long)((Traverser<Map>)t).get().get("totalCount")))
-          .store("result").iterate(); 
+          partials.forEach(result::addAll);
+          result.sort((a, b) -> {
+                if (a.count() != b.count()) {
+                  return Long.compare(b.count(), a.count());
+                }
+                return Long.compare(a.personId(), b.personId());
+              });
+          if (result.size() > limit) {
+            result.subList(limit, result.size()).clear();
+          }
+        }
 
         if (doTransactionalReads) {
           try {
@@ -685,6 +1206,16 @@ public class TorcDb extends Db {
     final static Logger logger =
         LoggerFactory.getLogger(LdbcQuery4Handler.class);
 
+    /**
+     * The Tags on the Posts of a chunk of friends.
+     */
+    private static class TagCounts {
+      // Tags on Posts created before startDate.
+      public final Set<String> oldTags = new HashSet<>();
+      // Number of Posts created in the period with each Tag.
+      public final Map<String, Long> postCounts = new HashMap<>();
+    }
+
     @Override
     public void executeOperation(final LdbcQuery4 operation,
         DbConnectionState dbConnectionState,
@@ -710,54 +1241,81 @@ public class TorcDb extends Db {
 
       final long endDate = startDate + (durationDays * 24L * 60L * 60L * 1000L);
 
-      final UInt128 torcPersonId = 
-          new UInt128(TorcEntity.PERSON.idSpace, personId);
-
       Graph graph = ((TorcDbConnectionState) dbConnectionState).getClient();
+      TorcDbFriendCache friendCache = 
+          ((TorcDbConnectionState) dbConnectionState).getFriendCache();
+      TorcDbParallelExecutor parallelExecutor = 
+          ((TorcDbConnectionState) dbConnectionState).getParallelExecutor();
 
       int txAttempts = 0;
       while (txAttempts < MAX_TX_ATTEMPTS) {
-        GraphTraversalSource g = graph.traversal();
+        Object[] friendIds = TorcDbFriendCache.toVertexIds(
+            friendCache.friends(graph, personId));
+
+        Map<String, Long> postCounts = new HashMap<>();
+
+        // V() with no ids would mean all vertices.
+        if (friendIds.length > 0) {
+          // A Tag on an older Post in one chunk isn't new in any other, so
+          // the chunks count all the Tags in the period, and the old Tags of
+          // every chunk are removed after adding up the counts.
+          List<TagCounts> partials = 
+              parallelExecutor.map(graph, friendIds, (chunk) -> {
+            GraphTraversalSource g = TorcDbTraversals.source(graph);
+            TagCounts partial = new TagCounts();
+
+            g.V(chunk.toArray())
+              .in("hasCreator").hasLabel("Post")
+              .as("post")
+              .values("creationDate")
+              .map(t -> TorcDbProperties.toLong(t.get()))
+              .filter(t -> t.get() <= endDate)
+              .as("creationDate")
+              .select("post")
+              .out("hasTag").hasLabel("Tag")
+              .values("name")
+              .as("tagName")
+              .select("creationDate", "tagName")
+              .forEachRemaining(m -> {
+                    long date = (Long) m.get("creationDate");
+                    String tagName = (String) m.get("tagName");
+                    if (date < startDate) {
+                      partial.oldTags.add(tagName);
+                    } else {
+                      partial.postCounts.merge(tagName, 1L, Long::sum);
+                    }
+                  });
+
+            return partial;
+          });
 
-        List<LdbcQuery4Result> result = new ArrayList<>(limit);
+          Set<String> oldTags = new HashSet<>();
+          for (TagCounts partial : partials) {
+            oldTags.addAll(partial.oldTags);
+            partial.postCounts.forEach((tagName, count) -> {
+                  postCounts.merge(tagName, count, Long::sum);
+                });
+          }
+          postCounts.keySet().removeAll(oldTags);
+        }
 
-        g.withStrategies(TorcGraphProviderOptimizationStrategy.instance())
-          .withSideEffect("result", result).V(torcPersonId)
-          .out("knows").hasLabel("Person")
-          .in("hasCreator").hasLabel("Post")
-          .as("post")
-          .values("creationDate")
-          .sideEffect(
-              filter(t -> {
-                    long date = Long.valueOf((String)t.get());
-                    return date < startDate;
-                    })
-              .select("post").out("hasTag").hasLabel("Tag").dedup().aggregate("oldTags")
-          )
-          .barrier()
-          .filter(t -> {
-                    long date = Long.valueOf((String)t.get());
-                    return date <= endDate && date >= startDate;
-                  })
-          .select("post")
-          .out("hasTag").hasLabel("Tag")
-          .where(without("oldTags")).values("name")
-          .as("newTags")
-          .select("post")
-          .group().by(select("newTags")).by(count())
-          .order(local)
-            .by(select(values), decr)
-            .by(select(keys), incr)
-          .limit(local, limit)
-          .unfold()
-          .project("tagName",
-              "postCount")
-            .by(select(keys))
-            .by(select(values))
-          .map(t -> new LdbcQuery4Result(
-              (String)(t.get().get("tagName")), 
-              ((Long)(t.get().get("postCount"))).intValue()))
-          .store("result").iterate(); 
+        List<Map.Entry<String, Long>> tagCounts = 
+            new ArrayList<>(postCounts.entrySet());
+        tagCounts.sort((a, b) -> {
+              if (!a.getValue().equals(b.getValue())) {
+                return Long.compare(b.getValue(), a.getValue());
+              }
+              return a.getKey().compareTo(b.getKey());
+            });
+
+        List<LdbcQuery4Result> result = new ArrayList<>(limit);
+        for (Map.Entry<String, Long> tagCount : tagCounts) {
+          if (result.size() == limit) {
+            break;
+          }
+          result.add(new LdbcQuery4Result(tagCount.getKey(), 
+              tagCount.getValue().intValue()));
+        }
 
         if (doTransactionalReads) {
           try {
@@ -813,77 +1371,240 @@ public class TorcDb extends Db {
       final long minDate = operation.minDate().getTime();
       final int limit = operation.limit();
 
-      final UInt128 torcPersonId = 
-          new UInt128(TorcEntity.PERSON.idSpace, personId);
-
       Graph graph = ((TorcDbConnectionState) dbConnectionState).getClient();
+      TorcDbFriendCache friendCache = 
+          ((TorcDbConnectionState) dbConnectionState).getFriendCache();
 
       int txAttempts = 0;
       while (txAttempts < MAX_TX_ATTEMPTS) {
-        GraphTraversalSource g = graph.traversal();
+        GraphTraversalSource g = TorcDbTraversals.source(graph);
+
+        Object[] friendIds = TorcDbFriendCache.toVertexIds(
+            friendCache.withinTwoHops(graph, personId));
 
         List<LdbcQuery5Result> result = new ArrayList<>(limit);
         List<Vertex> forums = new ArrayList<>();
 
-        g.withStrategies(TorcGraphProviderOptimizationStrategy.instance())
-          .withSideEffect("result", result).withSideEffect("forums", forums)
-          .V(torcPersonId).as("person")
-          .out("knows").hasLabel("Person")
-          .union(identity(), out("knows").hasLabel("Person")).dedup().where(neq("person"))
-          .as("friend")
-          .aggregate("friendAgg")
-          .inE("hasMember")
-          .as("memberEdge")
-          .values("joinDate")
-          .filter(t -> {
-                    long date = Long.valueOf((String)t.get());
-                    return date > minDate;
-                })
-          .select("memberEdge")
-          .outV().hasLabel("Forum")
-          .store("forums")
-          .barrier()
-          .group()
-            .by(select("friend"))
-          .as("friendForums")
-          .select("friendAgg")
-          .unfold()
-          .as("friend")
-          .in("hasCreator").hasLabel("Comment", "Post")
-          .as("post")
-          .in("containerOf").hasLabel("Forum")
-          .as("forum")
-          .filter(t -> {
-                    Map<Vertex, List<Vertex>> m = t.path("friendForums");
-                    Vertex v = t.path("friend");
-                    List<Vertex> friendForums = m.get(v);
-                    Vertex thisForum = t.get();
-                    if (friendForums == null)
-                      return false;
-                    else
-                      return friendForums.contains(thisForum);
+        // V() with no ids would mean all vertices.
+        if (friendIds.length > 0) {
+          g.withSideEffect("result", result).withSideEffect("forums", forums)
+            .V(friendIds)
+            .as("friend")
+            .aggregate("friendAgg")
+            .inE("hasMember")
+            .as("memberEdge")
+            .values("joinDate")
+            .filter(t -> {
+                      long date = TorcDbProperties.toLong(t.get());
+                      return date > minDate;
+                  })
+            .select("memberEdge")
+            .outV().hasLabel("Forum")
+            .store("forums")
+            .barrier()
+            .group()
+              .by(select("friend"))
+            .as("friendForums")
+            .select("friendAgg")
+            .unfold()
+            .as("friend")
+            .in("hasCreator").hasLabel("Comment", "Post")
+            .as("post")
+            .in("containerOf").hasLabel("Forum")
+            .as("forum")
+            .filter(t -> {
+                      Map<Vertex, List<Vertex>> m = t.path("friendForums");
+                      Vertex v = t.path("friend");
+                      List<Vertex> friendForums = m.get(v);
+                      Vertex thisForum = t.get();
+                      if (friendForums == null)
+                        return false;
+                      else
+                        return friendForums.contains(thisForum);
+                  })
+            .groupCount()
+            .map(t -> {
+                    Map<Object, Long> m = t.get();
+                    for (Vertex v : forums) {
+                      if (!m.containsKey((Object)v))
+                        m.put(v, 0L);
+                    }
+                    return t.get();
                 })
-          .groupCount()
-          .map(t -> {
-                  Map<Object, Long> m = t.get();
-                  for (Vertex v : forums) {
-                    if (!m.containsKey((Object)v))
-                      m.put(v, 0L);
-                  }
-                  return t.get();
-              })
-          .order(local)
-            .by(select(values), decr)
-            .by(select(keys).id(), incr)
-          .limit(local, limit)
-          .unfold()
-          .project("forumTitle", "postCount")
-            .by(select(keys).values("title"))
-            .by(select(values))
-          .map(t -> new LdbcQuery5Result(
-              (String)(t.get().get("forumTitle")), 
-              ((Long)(t.get().get("postCount"))).intValue()))
-          .store("result").iterate(); 
+            .order(local)
+              .by(select(values), decr)
+              .by(select(keys).id(), incr)
+            .limit(local, limit)
+            .unfold()
+            .project("forumTitle", "postCount")
+              .by(select(keys).values("title"))
+              .by(select(values))
+            .map(t -> new LdbcQuery5Result(
+                (String)(t.get().get("forumTitle")), 
+                ((Long)(t.get().get("postCount"))).intValue()))
+            .store("result").iterate();
+        }
+
+        if (doTransactionalReads) {
+          try {
+            graph.tx().commit();
+          } catch (RuntimeException e) {
+            txAttempts++;
+            continue;
+          }
+        } else {
+          graph.tx().rollback();
+        }
+
+        resultReporter.report(result.size(), result, operation);
+        break;
+      }
+    }
+  }
+
+  /**
+   * Native version of LdbcQuery5Handler. The Gremlin handler groups each
+   * friend's Forums into a list and then scans that list for every one of
+   * the friend's Posts. Here each friend's Forums joined after minDate go
+   * into a TorcIdSet, so that one pass over the friend's Posts counts them
+   * with a hash lookup each, and titles are read only for the top Forums.
+   */
+  public static class LdbcQuery5NativeHandler
+      implements OperationHandler<LdbcQuery5, DbConnectionState> {
+
+    final static Logger logger =
+        LoggerFactory.getLogger(LdbcQuery5NativeHandler.class);
+
+    private static final String[] HAS_MEMBER = new String[] {"hasMember"};
+    private static final String[] HAS_CREATOR = new String[] {"hasCreator"};
+    private static final String[] CONTAINER_OF = 
+        new String[] {"containerOf"};
+    private static final String[] FORUM = 
+        new String[] {TorcEntity.FORUM.label};
+    private static final String[] POST = new String[] {TorcEntity.POST.label};
+
+    @Override
+    public void executeOperation(final LdbcQuery5 operation,
+        DbConnectionState dbConnectionState,
+        ResultReporter resultReporter) throws DbException {
+      if (fakeComplexReads) {
+        List<LdbcQuery5Result> result = new ArrayList<>(operation.limit());
+
+        for (int i = 0; i < operation.limit(); i++) {
+          result.add(new LdbcQuery5Result(
+              null,
+              0));
+        }
+
+        resultReporter.report(result.size(), result, operation);
+        return;
+      }
+
+      // Parameters of this query
+      final long personId = operation.personId();
+      final long minDate = operation.minDate().getTime();
+      final int limit = operation.limit();
+
+      TorcDbConnectionState connectionState = 
+          (TorcDbConnectionState) dbConnectionState;
+      Graph graph = connectionState.getClient();
+      TorcDbPropertyCache propertyCache = connectionState.getPropertyCache();
+      TorcDbFriendCache friendCache = connectionState.getFriendCache();
+
+      int txAttempts = 0;
+      while (txAttempts < MAX_TX_ATTEMPTS) {
+        long[] friendIds = friendCache.withinTwoHops(graph, personId);
+
+        List<Vertex> friends = new ArrayList<>(friendIds.length);
+        // vertices() with no ids would mean all vertices.
+        if (friendIds.length > 0) {
+          graph.vertices(TorcDbFriendCache.toVertexIds(friendIds))
+              .forEachRemaining(friends::add);
+        }
+
+        // Forums any friend joined after minDate, to their friends' Posts
+        // in them. Forums without such Posts count too, with 0.
+        TorcIdLongMap postCounts = TorcIdScratch.get().longMap(0);
+        TorcIdSet friendForums = TorcIdScratch.get().set(0);
+        for (Vertex friend : friends) {
+          friendForums.clear();
+          ((TorcVertex) friend).edges(Direction.IN, HAS_MEMBER, FORUM)
+              .forEachRemaining((e) -> {
+                if (TorcDbProperties.getLong(e, "joinDate") > minDate) {
+                  long forumId = ((UInt128) e.outVertex().id()).getLowerLong();
+                  friendForums.add(forumId);
+                  postCounts.add(forumId, 0);
+                }
+              });
+
+          if (friendForums.isEmpty()) {
+            continue;
+          }
+
+          Iterator<Edge> posts = 
+              ((TorcVertex) friend).edges(Direction.IN, HAS_CREATOR, POST);
+          while (posts.hasNext()) {
+            Iterator<Edge> forum = ((TorcVertex) posts.next().outVertex())
+                .edges(Direction.IN, CONTAINER_OF, FORUM);
+            if (!forum.hasNext()) {
+              continue;
+            }
+
+            long forumId = 
+                ((UInt128) forum.next().outVertex().id()).getLowerLong();
+            if (friendForums.contains(forumId)) {
+              postCounts.add(forumId, 1);
+            }
+          }
+        }
+
+        // Top limit Forums by Post count, then id. The heap's head is the
+        // last of those so far.
+        PriorityQueue<Long> top = new PriorityQueue<>(limit + 1, (a, b) -> {
+              long countA = postCounts.get(a);
+              long countB = postCounts.get(b);
+              if (countA != countB) {
+                return Long.compare(countA, countB);
+              }
+              return Long.compare(b, a);
+            });
+        postCounts.forEach((forumId, count) -> {
+              top.add(forumId);
+              if (top.size() > limit) {
+                top.poll();
+              }
+            });
+
+        long[] topForums = new long[top.size()];
+        for (int i = topForums.length - 1; i >= 0; i--) {
+          topForums[i] = top.poll();
+        }
+
+        // Read the titles not in the property cache in one multi-get.
+        Map<Long, String> titles = new HashMap<>();
+        List<Object> uncached = new ArrayList<>();
+        for (long forumId : topForums) {
+          UInt128 id = new UInt128(TorcEntity.FORUM.idSpace, forumId);
+          String title = propertyCache.peek(id, TorcEntity.FORUM.label, 
+              "title");
+          if (title != null) {
+            titles.put(forumId, title);
+          } else {
+            uncached.add(id);
+          }
+        }
+        if (!uncached.isEmpty()) {
+          graph.vertices(uncached.toArray()).forEachRemaining((v) -> {
+            titles.put(((UInt128) v.id()).getLowerLong(), 
+                propertyCache.load(v, "title"));
+          });
+        }
+
+        List<LdbcQuery5Result> result = new ArrayList<>(topForums.length);
+        for (long forumId : topForums) {
+          result.add(new LdbcQuery5Result(titles.get(forumId), 
+              (int) postCounts.get(forumId)));
+        }
 
         if (doTransactionalReads) {
           try {
@@ -938,59 +1659,80 @@ public class TorcDb extends Db {
       final String tagName = operation.tagName();
       final int limit = operation.limit();
 
-      final UInt128 torcPersonId = 
-          new UInt128(TorcEntity.PERSON.idSpace, personId);
-
       Graph graph = ((TorcDbConnectionState) dbConnectionState).getClient();
+      TorcDbFriendCache friendCache = 
+          ((TorcDbConnectionState) dbConnectionState).getFriendCache();
+      TorcDbParallelExecutor parallelExecutor = 
+          ((TorcDbConnectionState) dbConnectionState).getParallelExecutor();
 
       int txAttempts = 0;
       while (txAttempts < MAX_TX_ATTEMPTS) {
-        GraphTraversalSource g = graph.traversal();
-
-        List<LdbcQuery6Result> result = new ArrayList<>(limit);
+        Object[] friendIds = TorcDbFriendCache.toVertexIds(
+            friendCache.withinTwoHops(graph, personId));
+
+        Map<String, Long> postCounts = new HashMap<>();
+
+        // V() with no ids would mean all vertices.
+        if (friendIds.length > 0) {
+          // Each Post is counted in the chunk of its creator, so the counts
+          // of the chunks add up.
+          List<Map<Object, Long>> partials = 
+              parallelExecutor.map(graph, friendIds, (chunk) -> {
+            GraphTraversalSource g = TorcDbTraversals.source(graph);
+
+            return g.V(chunk.toArray())
+              .as("friend")
+              .in("hasCreator").hasLabel("Post")
+              .as("post")
+              .out("hasTag").hasLabel("Tag")
+              .values("name")
+              .as("tag")
+              .group()
+                .by(select("post"))
+              .as("postToTagMap")
+              .flatMap(t -> {
+                      Map m = t.get();
+                      List removeList = new ArrayList<Object>();
+                      for (Object k : m.keySet()) {
+                        List v = (List) m.get(k);
+                        if ( !v.contains(tagName) )
+                          removeList.add(k);
+                      }
+
+                      for (Object k : removeList)
+                        m.remove(k);
+
+                      return m.entrySet().iterator();
+                    })
+              .select(values).unfold()
+              .where(is(neq(tagName)))
+              .groupCount().next();
+          });
 
-        g.withStrategies(TorcGraphProviderOptimizationStrategy.instance())
-          .withSideEffect("result", result).V(torcPersonId).as("person")
-          .out("knows").hasLabel("Person")
-          .union(identity(), out("knows").hasLabel("Person")).dedup().where(neq("person"))
-          .as("friend")
-          .in("hasCreator").hasLabel("Post")
-          .as("post")
-          .out("hasTag").hasLabel("Tag")
-          .values("name")
-          .as("tag")
-          .group()
-            .by(select("post"))
-          .as("postToTagMap")
-          .flatMap(t -> {
-                  Map m = t.get();
-                  List removeList = new ArrayList<Object>();
-                  for (Object k : m.keySet()) {
-                    List v = (List) m.get(k);
-                    if ( !v.contains(tagName) )
-                      removeList.add(k);
-                  }
+          for (Map<Object, Long> partial : partials) {
+            partial.forEach((tag, count) -> {
+                  postCounts.merge((String) tag, count, Long::sum);
+                });
+          }
+        }
 
-                  for (Object k : removeList)
-                    m.remove(k);
+        List<Map.Entry<String, Long>> tagCounts = 
+            new ArrayList<>(postCounts.entrySet());
+        tagCounts.sort((a, b) -> {
+              if (!a.getValue().equals(b.getValue())) {
+                return Long.compare(b.getValue(), a.getValue());
+              }
+              return a.getKey().compareTo(b.getKey());
+            });
 
-                  return m.entrySet().iterator();
-                })
-          .select(values).unfold()
-          .where(is(neq(tagName)))
-          .groupCount()
-          .order(local)
-            .by(select(values), decr)
-            .by(select(keys), incr)
-          .limit(local, limit)
-          .unfold()
-          .project("tagName", "postCount")
-            .by(select(keys))
-            .by(select(values))
-          .map(t -> new LdbcQuery6Result(
-              (String)(((Traverser<Map>)t).get().get("tagName")), 
-              ((Long)(((Traverser<Map>)t).get().get("postCount"))).intValue()))
-          .store("result").iterate(); 
+        List<LdbcQuery6Result> result = new ArrayList<>(limit);
+        for (Map.Entry<String, Long> tagCount : tagCounts) {
+          if (result.size() == limit) {
+            break;
+          }
+          result.add(new LdbcQuery6Result(tagCount.getKey(), 
+              tagCount.getValue().intValue()));
+        }
 
         if (doTransactionalReads) {
           try {
@@ -1064,12 +1806,11 @@ public class TorcDb extends Db {
 
       int txAttempts = 0;
       while (txAttempts < MAX_TX_ATTEMPTS) {
-        GraphTraversalSource g = graph.traversal();
+        GraphTraversalSource g = TorcDbTraversals.source(graph);
 
         List<LdbcQuery7Result> result = new ArrayList<>(limit);
 
-        g.withStrategies(TorcGraphProviderOptimizationStrategy.instance())
-          .withSideEffect("result", result).V(torcPersonId).as("person")
+        g.withSideEffect("result", result).V(torcPersonId).as("person")
           .in("hasCreator").hasLabel("Comment", "Post").as("message")
           .inE("likes").as("like")
           .outV().hasLabel("Person").as("liker")
@@ -1091,14 +1832,14 @@ public class TorcDb extends Db {
               .by(select("liker").values("firstName"))
               .by(select("liker").values("lastName"))
               .by(select("like").values("creationDate")
-                  .map(t -> Long.valueOf((String)t.get())))
+                  .map(t -> TorcDbProperties.toLong(t.get())))
               .by(select("message").id())
               .by(select("message")
                   .choose(values("content").is(neq("")),
                       values("content"),
                       values("imageFile")))
               .by(select("message").values("creationDate")
-                  .map(t -> Long.valueOf((String)t.get())))
+                  .map(t -> TorcDbProperties.toLong(t.get())))
               .by(choose(
                   where(select("person").out("knows").hasLabel("Person").as("liker")),
                   constant(false),
@@ -1183,12 +1924,11 @@ public class TorcDb extends Db {
 
       int txAttempts = 0;
       while (txAttempts < MAX_TX_ATTEMPTS) {
-        GraphTraversalSource g = graph.traversal();
+        GraphTraversalSource g = TorcDbTraversals.source(graph);
 
         List<LdbcQuery8Result> result = new ArrayList<>(limit);
 
-        g.withStrategies(TorcGraphProviderOptimizationStrategy.instance())
-          .withSideEffect("result", result).V(torcPersonId).as("person")
+        g.withSideEffect("result", result).V(torcPersonId).as("person")
           .in("hasCreator").hasLabel("Comment", "Post").as("message")
           .in("replyOf").hasLabel("Comment").as("comment")
           .order()
@@ -1218,7 +1958,7 @@ public class TorcDb extends Db {
               ((UInt128)t.get().get("personId")).getLowerLong(),
               (String)t.get().get("personFirstName"), 
               (String)t.get().get("personLastName"),
-              Long.valueOf((String)t.get().get("commentCreationDate")),
+              TorcDbProperties.toLong(t.get().get("commentCreationDate")),
               ((UInt128)t.get().get("commentId")).getLowerLong(), 
               (String)t.get().get("commentContent")))
           .store("result").iterate(); 
@@ -1241,18 +1981,153 @@ public class TorcDb extends Db {
   }
 
   /**
-   * Given a start Person, find the (most recent) Posts/Comments created by
-   * that Person’s friends or friends of friends (excluding start Person). Only
-   * consider the Posts/Comments created before a given date (excluding that
-   * date). Return the top 20 Posts/Comments, and the Person that created each
-   * of those Posts/Comments. Sort results descending by creation date of
-   * Post/Comment, and then ascending by Post/Comment identifier.[1]
+   * Given a start Person, find the (most recent) Posts/Comments created by
+   * that Person’s friends or friends of friends (excluding start Person). Only
+   * consider the Posts/Comments created before a given date (excluding that
+   * date). Return the top 20 Posts/Comments, and the Person that created each
+   * of those Posts/Comments. Sort results descending by creation date of
+   * Post/Comment, and then ascending by Post/Comment identifier.[1]
+   */
+  public static class LdbcQuery9Handler
+      implements OperationHandler<LdbcQuery9, DbConnectionState> {
+
+    final static Logger logger =
+        LoggerFactory.getLogger(LdbcQuery9Handler.class);
+
+    @Override
+    public void executeOperation(final LdbcQuery9 operation,
+        DbConnectionState dbConnectionState,
+        ResultReporter resultReporter) throws DbException {
+      if (fakeComplexReads) {
+        List<LdbcQuery9Result> result = new ArrayList<>(operation.limit());
+
+        for (int i = 0; i < operation.limit(); i++) {
+          int n1 = ThreadLocalRandom.current().nextInt(0, personIDs.size());
+          int n2 = ThreadLocalRandom.current().nextInt(0, messageIDs.size());
+          Long pid = personIDs.get(n1);
+          Long mid = messageIDs.get(n2);
+          result.add(new LdbcQuery9Result(
+              pid,
+              null,
+              null,
+              mid,
+              null,
+              0));
+        }
+
+        resultReporter.report(result.size(), result, operation);
+        return;
+      }
+
+      // Parameters of this query
+      final long personId = operation.personId();
+      final long maxDate = operation.maxDate().getTime();
+      final int limit = operation.limit();
+      
+      Graph graph = ((TorcDbConnectionState) dbConnectionState).getClient();
+      TorcDbFriendCache friendCache = 
+          ((TorcDbConnectionState) dbConnectionState).getFriendCache();
+      TorcDbParallelExecutor parallelExecutor = 
+          ((TorcDbConnectionState) dbConnectionState).getParallelExecutor();
+
+      int txAttempts = 0;
+      while (txAttempts < MAX_TX_ATTEMPTS) {
+        Object[] friendIds = TorcDbFriendCache.toVertexIds(
+            friendCache.withinTwoHops(graph, personId));
+
+        List<LdbcQuery9Result> result = new ArrayList<>(limit);
+
+        // V() with no ids would mean all vertices.
+        if (friendIds.length > 0) {
+          // The top messages are among the top messages of each chunk's
+          // friends.
+          List<List<LdbcQuery9Result>> partials = 
+              parallelExecutor.map(graph, friendIds, (chunk) -> {
+            GraphTraversalSource g = TorcDbTraversals.source(graph);
+            List<LdbcQuery9Result> partial = new ArrayList<>(limit);
+
+            g.withSideEffect("result", partial).V(chunk.toArray())
+              .as("friend")
+              .in("hasCreator").hasLabel("Comment", "Post")
+              .as("commentOrPost")
+              .values("creationDate")
+              .map(t -> TorcDbProperties.toLong(t.get()))
+              .as("creationDate")
+              .where(is(lt(maxDate)))
+              .order()
+                .by(decr)
+                .by(select("friend").id(), incr)
+              .limit(limit)
+              .project("personId", 
+                  "personFirstName", 
+                  "personLastName", 
+                  "commentOrPostId",
+                  "commentOrPostContent",
+                  "commentOrPostCreationDate")
+                  .by(select("friend").id())
+                  .by(select("friend").values("firstName"))
+                  .by(select("friend").values("lastName"))
+                  .by(select("commentOrPost").id())
+                  .by(select("commentOrPost")
+                      .choose(values("content").is(neq("")),
+                          values("content"),
+                          values("imageFile")))
+                  .by(select("creationDate"))
+              .map(t -> new LdbcQuery9Result(
+                  ((UInt128)t.get().get("personId")).getLowerLong(),
+                  (String)t.get().get("personFirstName"), 
+                  (String)t.get().get("personLastName"),
+                  ((UInt128)t.get().get("commentOrPostId")).getLowerLong(), 
+                  (String)t.get().get("commentOrPostContent"),
+                  (Long)t.get().get("commentOrPostCreationDate")))
+              .store("result").iterate();
+
+            return partial;
+          });
+
+          partials.forEach(result::addAll);
+          result.sort((a, b) -> {
+                if (a.commentOrPostCreationDate() 
+                    != b.commentOrPostCreationDate()) {
+                  return Long.compare(b.commentOrPostCreationDate(), 
+                      a.commentOrPostCreationDate());
+                }
+                return Long.compare(a.personId(), b.personId());
+              });
+          if (result.size() > limit) {
+            result.subList(limit, result.size()).clear();
+          }
+        }
+
+        if (doTransactionalReads) {
+          try {
+            graph.tx().commit();
+          } catch (RuntimeException e) {
+            txAttempts++;
+            continue;
+          }
+        } else {
+          graph.tx().rollback();
+        }
+
+        resultReporter.report(result.size(), result, operation);
+        break;
+      }
+    }
+  }
+
+  /**
+   * Native version of LdbcQuery9Handler. Finds the newest messages of the
+   * start person's friends and friends of friends with TorcDbMessageMerge,
+   * which on a graph loaded with time ordered hasCreator edge lists stops
+   * reading after the top messages, rather than sorting every message of
+   * every person in the two hop neighborhood.
    */
-  public static class LdbcQuery9Handler
+  public static class LdbcQuery9NativeHandler
       implements OperationHandler<LdbcQuery9, DbConnectionState> {
 
     final static Logger logger =
-        LoggerFactory.getLogger(LdbcQuery9Handler.class);
+        LoggerFactory.getLogger(LdbcQuery9NativeHandler.class);
 
     @Override
     public void executeOperation(final LdbcQuery9 operation,
@@ -1279,60 +2154,64 @@ public class TorcDb extends Db {
         return;
       }
 
-      // Parameters of this query
-      final long personId = operation.personId();
-      final long maxDate = operation.maxDate().getTime();
-      final int limit = operation.limit();
-      
-      final UInt128 torcPersonId = 
-          new UInt128(TorcEntity.PERSON.idSpace, personId);
-
-      Graph graph = ((TorcDbConnectionState) dbConnectionState).getClient();
+      TorcDbConnectionState connectionState = 
+          (TorcDbConnectionState) dbConnectionState;
+      Graph graph = connectionState.getClient();
+      TorcDbPropertyCache propertyCache = connectionState.getPropertyCache();
+      TorcDbFriendCache friendCache = connectionState.getFriendCache();
+      TorcDbParallelExecutor parallelExecutor = 
+          connectionState.getParallelExecutor();
 
       int txAttempts = 0;
       while (txAttempts < MAX_TX_ATTEMPTS) {
-        GraphTraversalSource g = graph.traversal();
+        List<Vertex> creators;
+        if (friendCache.isEnabled()) {
+          // One multi-get of the cached ids, instead of reading the knows
+          // edges of every friend.
+          long[] ids = 
+              friendCache.withinTwoHops(graph, operation.personId());
+          creators = new ArrayList<>(ids.length);
+          if (ids.length > 0) {
+            graph.vertices(TorcDbFriendCache.toVertexIds(ids))
+                .forEachRemaining(creators::add);
+          }
+        } else {
+          creators = friendsWithinTwoHops(graph, operation.personId());
+        }
 
-        List<LdbcQuery9Result> result = new ArrayList<>(limit);
+        Comparator<TorcDbMessageMerge.Message> order = (a, b) -> {
+              if (a.creationDate != b.creationDate) {
+                return Long.compare(b.creationDate, a.creationDate);
+              }
+              return Long.compare(a.id, b.id);
+            };
+
+        // Messages created strictly before maxDate. The newest messages are
+        // among the newest messages of each chunk of creators.
+        List<List<TorcDbMessageMerge.Message>> partials = 
+            parallelExecutor.map(graph, creators, (chunk) -> {
+              return TorcDbMessageMerge.newest(chunk, 
+                  operation.maxDate().getTime() - 1, operation.limit(), 
+                  connectionState.getMessageLoadCutoff(), order);
+            });
+
+        List<TorcDbMessageMerge.Message> messages = new ArrayList<>();
+        partials.forEach(messages::addAll);
+        messages.sort(order);
+        if (messages.size() > operation.limit()) {
+          messages.subList(operation.limit(), messages.size()).clear();
+        }
 
-        g.withStrategies(TorcGraphProviderOptimizationStrategy.instance())
-          .withSideEffect("result", result).V(torcPersonId).as("person")
-          .out("knows").hasLabel("Person")
-          .union(identity(), out("knows").hasLabel("Person")).dedup().where(neq("person"))
-          .as("friend")
-          .in("hasCreator").hasLabel("Comment", "Post")
-          .as("commentOrPost")
-          .values("creationDate")
-          .map(t -> Long.valueOf((String)t.get()))
-          .as("creationDate")
-          .where(is(lt(maxDate)))
-          .order()
-            .by(decr)
-            .by(select("friend").id(), incr)
-          .limit(limit)
-          .project("personId", 
-              "personFirstName", 
-              "personLastName", 
-              "commentOrPostId",
-              "commentOrPostContent",
-              "commentOrPostCreationDate")
-              .by(select("friend").id())
-              .by(select("friend").values("firstName"))
-              .by(select("friend").values("lastName"))
-              .by(select("commentOrPost").id())
-              .by(select("commentOrPost")
-                  .choose(values("content").is(neq("")),
-                      values("content"),
-                      values("imageFile")))
-              .by(select("creationDate"))
-          .map(t -> new LdbcQuery9Result(
-              ((UInt128)t.get().get("personId")).getLowerLong(),
-              (String)t.get().get("personFirstName"), 
-              (String)t.get().get("personLastName"),
-              ((UInt128)t.get().get("commentOrPostId")).getLowerLong(), 
-              (String)t.get().get("commentOrPostContent"),
-              (Long)t.get().get("commentOrPostCreationDate")))
-          .store("result").iterate(); 
+        List<LdbcQuery9Result> result = new ArrayList<>(messages.size());
+        for (TorcDbMessageMerge.Message m : messages) {
+          result.add(new LdbcQuery9Result(
+              m.creatorId(),
+              propertyCache.get(m.creator, "firstName"),
+              propertyCache.get(m.creator, "lastName"),
+              m.id,
+              m.content(),
+              m.creationDate));
+        }
 
         if (doTransactionalReads) {
           try {
@@ -1349,6 +2228,42 @@ public class TorcDb extends Db {
         break;
       }
     }
+
+    /**
+     * Returns a person's friends and friends of friends, excluding the
+     * person.
+     */
+    private static List<Vertex> friendsWithinTwoHops(Graph graph,
+        long personId) {
+      final String[] knows = new String[] {"knows"};
+      final String[] personLabel = new String[] {TorcEntity.PERSON.label};
+
+      Vertex person = graph.vertices(
+          new UInt128(TorcEntity.PERSON.idSpace, personId)).next();
+
+      TorcIdSet seen = TorcIdScratch.get().set(0);
+      seen.add(personId);
+      List<Vertex> friends = new ArrayList<>();
+      ((TorcVertex) person).edges(Direction.OUT, knows, personLabel)
+          .forEachRemaining((e) -> {
+            Vertex friend = e.inVertex();
+            if (seen.add(((UInt128) friend.id()).getLowerLong())) {
+              friends.add(friend);
+            }
+          });
+
+      List<Vertex> creators = new ArrayList<>(friends);
+      for (Vertex friend : friends) {
+        ((TorcVertex) friend).edges(Direction.OUT, knows, personLabel)
+            .forEachRemaining((e) -> {
+              Vertex fof = e.inVertex();
+              if (seen.add(((UInt128) fof.id()).getLowerLong())) {
+                creators.add(fof);
+              }
+            });
+      }
+      return creators;
+    }
   }
 
   /**
@@ -1411,17 +2326,15 @@ public class TorcDb extends Db {
 
       int txAttempts = 0;
       while (txAttempts < MAX_TX_ATTEMPTS) {
-        GraphTraversalSource g = graph.traversal();
+        GraphTraversalSource g = TorcDbTraversals.source(graph);
 
         List<Map<UInt128, Long>> postCountMap = new ArrayList<>();
         List<Map<UInt128, Long>> commonPostCountMap = new ArrayList<>();
         List<UInt128> friendIds = new ArrayList<>();
 
-        g.withStrategies(TorcGraphProviderOptimizationStrategy.instance())
-          .withSideEffect("postCountMap", postCountMap)
+        g.withSideEffect("postCountMap", postCountMap)
           .withSideEffect("commonPostCountMap", commonPostCountMap)
           .withSideEffect("friendIds", friendIds)
-          .withStrategies(TorcGraphProviderOptimizationStrategy.instance())
           .V(torcPersonId).as("person")
           .aggregate("done")
           .out("hasInterest").hasLabel("Tag")
@@ -1431,7 +2344,7 @@ public class TorcDb extends Db {
           .out("knows").hasLabel("Person").where(without("done")).dedup()
           .filter(t -> {
               calendar.setTimeInMillis(
-                  Long.valueOf(t.get().value("birthday")));
+                  TorcDbProperties.getLong(t.get(), "birthday"));
               int bmonth = calendar.get(Calendar.MONTH); // zero based 
               int bday = calendar.get(Calendar.DAY_OF_MONTH); // starts with 1
               if ((bmonth == month && bday >= 21) || 
@@ -1496,8 +2409,7 @@ public class TorcDb extends Db {
 
         List<LdbcQuery10Result> result = new ArrayList<>(limit);
 
-        g.withStrategies(TorcGraphProviderOptimizationStrategy.instance())
-          .withSideEffect("result", result)
+        g.withSideEffect("result", result)
           .V(topFriends.toArray())
           .project("personId", 
               "personFirstName", 
@@ -1577,47 +2489,53 @@ public class TorcDb extends Db {
       final int workFromYear = operation.workFromYear();
       final int limit = operation.limit();
 
-      final UInt128 torcPersonId = 
-          new UInt128(TorcEntity.PERSON.idSpace, personId);
-
       Graph graph = ((TorcDbConnectionState) dbConnectionState).getClient();
+      TorcDbFriendCache friendCache = 
+          ((TorcDbConnectionState) dbConnectionState).getFriendCache();
+      TorcDbNameIndex.Matcher country = 
+          ((TorcDbConnectionState) dbConnectionState).getNameIndex()
+              .countries(countryName);
 
       int txAttempts = 0;
       while (txAttempts < MAX_TX_ATTEMPTS) {
-        GraphTraversalSource g = graph.traversal();
+        GraphTraversalSource g = TorcDbTraversals.source(graph);
+
+        Object[] friendIds = TorcDbFriendCache.toVertexIds(
+            friendCache.withinTwoHops(graph, personId));
 
         List<LdbcQuery11Result> result = new ArrayList<>(limit);
 
-        g.withStrategies(TorcGraphProviderOptimizationStrategy.instance())
-          .withSideEffect("result", result).V(torcPersonId).as("person")
-          .out("knows").hasLabel("Person")
-          .union(identity(), out("knows").hasLabel("Person")).dedup().where(neq("person")).as("friend")
-          .outE("workAt").has("workFrom", lt(String.valueOf(workFromYear)))
-          .as("workAt")
-          .inV().hasLabel("Organisation").as("company")
-          .out("isLocatedIn").hasLabel("Place").has("name", countryName)
-          .order()
-              .by(select("workAt").values("workFrom"), incr)
-              .by(select("friend").id())
-              .by(select("company").values("name"), decr)
-          .limit(limit)
-          .project("personId", 
-              "personFirstName", 
-              "personLastName", 
-              "organizationName", 
-              "organizationWorkFromYear")
-              .by(select("friend").id())
-              .by(select("friend").values("firstName"))
-              .by(select("friend").values("lastName"))
-              .by(select("company").values("name"))
-              .by(select("workAt").values("workFrom"))
-          .map(t -> new LdbcQuery11Result(
-              ((UInt128)t.get().get("personId")).getLowerLong(),
-              (String)t.get().get("personFirstName"), 
-              (String)t.get().get("personLastName"),
-              (String)t.get().get("organizationName"),
-              Integer.valueOf((String)t.get().get("organizationWorkFromYear"))))
-          .store("result").iterate(); 
+        // V() with no ids would mean all vertices.
+        if (friendIds.length > 0) {
+          g.withSideEffect("result", result).V(friendIds).as("friend")
+            .outE("workAt").has("workFrom", lt(TorcDbProperties.encode(workFromYear)))
+            .as("workAt")
+            .inV().hasLabel("Organisation").as("company")
+            .out("isLocatedIn").hasLabel("Place")
+            .filter(t -> country.matches(t.get()))
+            .order()
+                .by(select("workAt").values("workFrom"), incr)
+                .by(select("friend").id())
+                .by(select("company").values("name"), decr)
+            .limit(limit)
+            .project("personId", 
+                "personFirstName", 
+                "personLastName", 
+                "organizationName", 
+                "organizationWorkFromYear")
+                .by(select("friend").id())
+                .by(select("friend").values("firstName"))
+                .by(select("friend").values("lastName"))
+                .by(select("company").values("name"))
+                .by(select("workAt").values("workFrom"))
+            .map(t -> new LdbcQuery11Result(
+                ((UInt128)t.get().get("personId")).getLowerLong(),
+                (String)t.get().get("personFirstName"), 
+                (String)t.get().get("personLastName"),
+                (String)t.get().get("organizationName"),
+                TorcDbProperties.toInt(t.get().get("organizationWorkFromYear"))))
+            .store("result").iterate();
+        }
 
         if (doTransactionalReads) {
           try {
@@ -1684,20 +2602,21 @@ public class TorcDb extends Db {
           new UInt128(TorcEntity.PERSON.idSpace, personId);
 
       Graph graph = ((TorcDbConnectionState) dbConnectionState).getClient();
+      TorcDbTagClassIndex tagClassIndex = 
+          ((TorcDbConnectionState) dbConnectionState).getTagClassIndex();
 
       int txAttempts = 0;
       while (txAttempts < MAX_TX_ATTEMPTS) {
-        GraphTraversalSource g = graph.traversal();
+        GraphTraversalSource g = TorcDbTraversals.source(graph);
 
         List<LdbcQuery12Result> result = new ArrayList<>(limit);
 
-        g.withStrategies(TorcGraphProviderOptimizationStrategy.instance())
-          .withSideEffect("result", result).V(torcPersonId).as("person")
+        g.withSideEffect("result", result).V(torcPersonId).as("person")
           .out("knows").hasLabel("Person").as("friend")
           .in("hasCreator").hasLabel("Comment").as("comment")
           .out("replyOf").hasLabel("Post")
           .out("hasTag").hasLabel("Tag")
-          .where(repeat(out("hasType").hasLabel("TagClass")).until(values("name").is(eq(tagClassName))))
+          .filter(t -> tagClassIndex.isInClass(t.get(), tagClassName))
           .values("name")
           .group()
             .by(select("friend"))
@@ -1779,10 +2698,9 @@ public class TorcDb extends Db {
 
       int txAttempts = 0;
       while (txAttempts < MAX_TX_ATTEMPTS) {
-        GraphTraversalSource g = graph.traversal();
+        GraphTraversalSource g = TorcDbTraversals.source(graph);
 
-        Long pathLength = g.withStrategies(TorcGraphProviderOptimizationStrategy.instance())
-          .V(torcPerson1Id)
+        Long pathLength = g.V(torcPerson1Id)
           .choose(where(out("knows").hasLabel("Person")),
               repeat(out("knows").hasLabel("Person").simplePath())
                   .until(hasId(torcPerson2Id)
@@ -1813,6 +2731,52 @@ public class TorcDb extends Db {
     }
   }
 
+  /**
+   * Native implementation of LdbcQuery13Handler. Finds the path with a
+   * bidirectional breadth first search (see TorcDbPathFinder) that visits
+   * each person at most once, instead of a Gremlin traversal enumerating
+   * paths.
+   */
+  public static class LdbcQuery13NativeHandler
+      implements OperationHandler<LdbcQuery13, DbConnectionState> {
+
+    final static Logger logger =
+        LoggerFactory.getLogger(LdbcQuery13NativeHandler.class);
+
+    @Override
+    public void executeOperation(final LdbcQuery13 operation,
+        DbConnectionState dbConnectionState,
+        ResultReporter resultReporter) throws DbException {
+      if (fakeComplexReads) {
+        resultReporter.report(1, new LdbcQuery13Result(0), operation);
+        return;
+      }
+
+      Graph graph = ((TorcDbConnectionState) dbConnectionState).getClient();
+
+      int txAttempts = 0;
+      while (txAttempts < MAX_TX_ATTEMPTS) {
+        int pathLength = TorcDbPathFinder.shortestPathLength(graph, 
+            operation.person1Id(), operation.person2Id());
+
+        if (doTransactionalReads) {
+          try {
+            graph.tx().commit();
+          } catch (RuntimeException e) {
+            txAttempts++;
+            continue;
+          }
+        } else {
+          graph.tx().rollback();
+        }
+
+        resultReporter.report(1, new LdbcQuery13Result(pathLength), 
+            operation);
+        break;
+      }
+    }
+  }
+
   /**
    * Given two Persons, find all (unweighted) shortest paths between these two
    * Persons, in the subgraph induced by the Knows relationship. Then, for each
@@ -1863,13 +2827,12 @@ public class TorcDb extends Db {
 
       int txAttempts = 0;
       while (txAttempts < MAX_TX_ATTEMPTS) {
-        GraphTraversalSource g = graph.traversal();
+        GraphTraversalSource g = TorcDbTraversals.source(graph);
 
         List<LdbcQuery14Result> result = new ArrayList<>();
 
         // First get the length of the shortest path
-        Long minPathLen = g.withStrategies(TorcGraphProviderOptimizationStrategy.instance())
-          .V(torcPerson1Id)
+        Long minPathLen = g.V(torcPerson1Id)
           .repeat(outE("knows").inV().hasLabel("Person").simplePath())
             .until(hasId(torcPerson2Id))
           .limit(1)
@@ -1877,8 +2840,7 @@ public class TorcDb extends Db {
           .count(local)
           .next();
 
-        g.withStrategies(TorcGraphProviderOptimizationStrategy.instance())
-          .withSideEffect("result", result).V(torcPerson1Id)
+        g.withSideEffect("result", result).V(torcPerson1Id)
           .repeat(outE("knows").as("e").inV().hasLabel("Person").simplePath())
             .until(hasId(torcPerson2Id).or().path().count(local).is(eq(minPathLen)))
           .where(id().is(eq(torcPerson2Id)))
@@ -1962,6 +2924,145 @@ public class TorcDb extends Db {
     }
   }
 
+  /**
+   * Native version of LdbcQuery14Handler. Finds all shortest paths with
+   * TorcDbPathFinder, which reads them off the DAG of shortest paths built by
+   * one bidirectional search, rather than enumerating paths with repeat()
+   * twice. Weights are then computed for every pair of persons adjacent on
+   * the DAG in one pass over each DAG person's comments, rather than with a
+   * separate set of match() traversals for each edge, and each path's weight
+   * is the sum of the weights of the pairs along it.
+   */
+  public static class LdbcQuery14NativeHandler
+      implements OperationHandler<LdbcQuery14, DbConnectionState> {
+
+    final static Logger logger =
+        LoggerFactory.getLogger(LdbcQuery14NativeHandler.class);
+
+    private static final String[] HAS_CREATOR = new String[] {"hasCreator"};
+    private static final String[] REPLY_OF = new String[] {"replyOf"};
+    private static final String[] COMMENT =
+        new String[] {TorcEntity.COMMENT.label};
+    private static final String[] MESSAGE =
+        new String[] {TorcEntity.POST.label, TorcEntity.COMMENT.label};
+    private static final String[] PERSON =
+        new String[] {TorcEntity.PERSON.label};
+
+    @Override
+    public void executeOperation(final LdbcQuery14 operation,
+        DbConnectionState dbConnectionState,
+        ResultReporter resultReporter) throws DbException {
+      if (fakeComplexReads) {
+        List<LdbcQuery14Result> result = new ArrayList<>(1);
+        
+        List<Long> personIDsInPath = new ArrayList<>(2);
+        personIDsInPath.add(operation.person1Id());
+        personIDsInPath.add(operation.person2Id());
+
+        result.add(new LdbcQuery14Result(
+            personIDsInPath,
+            42.0));
+
+        resultReporter.report(result.size(), result, operation);
+        return;
+      }
+
+      Graph graph = ((TorcDbConnectionState) dbConnectionState).getClient();
+
+      int txAttempts = 0;
+      while (txAttempts < MAX_TX_ATTEMPTS) {
+        List<long[]> paths = TorcDbPathFinder.shortestPaths(graph,
+            operation.person1Id(), operation.person2Id());
+
+        // Persons adjacent to each person on the DAG.
+        Map<Long, TorcIdSet> dagNeighbors = new HashMap<>();
+        for (long[] path : paths) {
+          for (int i = 0; i < path.length - 1; i++) {
+            dagNeighbors.computeIfAbsent(path[i], (k) -> new TorcIdSet(4))
+                .add(path[i + 1]);
+            dagNeighbors.computeIfAbsent(path[i + 1], (k) -> new TorcIdSet(4))
+                .add(path[i]);
+          }
+        }
+
+        // replyWeights.get(a).get(b) is the weight of a's replies to b's
+        // messages.
+        Map<Long, TorcIdDoubleMap> replyWeights = new HashMap<>();
+        for (Map.Entry<Long, TorcIdSet> entry : dagNeighbors.entrySet()) {
+          replyWeights.put(entry.getKey(),
+              replyWeights(graph, entry.getKey(), entry.getValue()));
+        }
+
+        List<LdbcQuery14Result> result = new ArrayList<>(paths.size());
+        for (long[] path : paths) {
+          List<Long> personIdsInPath = new ArrayList<>(path.length);
+          double pathWeight = 0.0;
+          for (int i = 0; i < path.length; i++) {
+            personIdsInPath.add(path[i]);
+            if (i > 0) {
+              pathWeight += replyWeights.get(path[i - 1]).get(path[i]);
+              pathWeight += replyWeights.get(path[i]).get(path[i - 1]);
+            }
+          }
+          result.add(new LdbcQuery14Result(personIdsInPath, pathWeight));
+        }
+
+        result.sort((a, b) -> Double.compare(b.pathWeight(), a.pathWeight()));
+
+        if (doTransactionalReads) {
+          try {
+            graph.tx().commit();
+          } catch (RuntimeException e) {
+            txAttempts++;
+            continue;
+          }
+        } else {
+          graph.tx().rollback();
+        }
+
+        resultReporter.report(result.size(), result, operation);
+        break;
+      }
+    }
+
+    /**
+     * Returns, for each of the given persons, the weight of personId's
+     * replies to their messages: 1.0 for each reply to a Post and 0.5 for
+     * each reply to a Comment.
+     */
+    private static TorcIdDoubleMap replyWeights(Graph graph, long personId,
+        TorcIdSet persons) {
+      TorcIdDoubleMap weights = new TorcIdDoubleMap(persons.size());
+      TorcVertex person = (TorcVertex) TorcDbPathFinder.getPerson(graph, 
+          personId);
+      Iterator<Edge> comments = 
+          person.edges(Direction.IN, HAS_CREATOR, COMMENT);
+      while (comments.hasNext()) {
+        TorcVertex comment = (TorcVertex) comments.next().outVertex();
+        Iterator<Edge> replyOf = comment.edges(Direction.OUT, REPLY_OF, 
+            MESSAGE);
+        if (!replyOf.hasNext()) {
+          continue;
+        }
+
+        TorcVertex message = (TorcVertex) replyOf.next().inVertex();
+        Iterator<Edge> creator = message.edges(Direction.OUT, HAS_CREATOR, 
+            PERSON);
+        if (!creator.hasNext()) {
+          continue;
+        }
+
+        long creatorId = TorcDbPathFinder.idOf(creator.next().inVertex());
+        if (persons.contains(creatorId)) {
+          double weight = 
+              message.label().equals(TorcEntity.POST.label) ? 1.0 : 0.5;
+          weights.add(creatorId, weight);
+        }
+      }
+      return weights;
+    }
+  }
+
   /**
    * ------------------------------------------------------------------------
    * Short Queries
@@ -2004,12 +3105,12 @@ public class TorcDb extends Db {
             new LdbcShortQuery1PersonProfileResult(
                 propertyMap.get("firstName"),
                 propertyMap.get("lastName"),
-                Long.parseLong(propertyMap.get("birthday")),
+                TorcDbProperties.decodeLong(propertyMap.get("birthday")),
                 propertyMap.get("locationIP"),
                 propertyMap.get("browserUsed"),
                 placeId,
                 propertyMap.get("gender"),
-                Long.parseLong(propertyMap.get("creationDate")));
+                TorcDbProperties.decodeLong(propertyMap.get("creationDate")));
 
         if (doTransactionalReads) {
           try {
@@ -2050,47 +3151,28 @@ public class TorcDb extends Db {
       int txAttempts = 0;
       while (txAttempts < MAX_TX_ATTEMPTS) {
         Graph client = ((TorcDbConnectionState) dbConnectionState).getClient();
+        TorcDbPropertyCache propertyCache = 
+            ((TorcDbConnectionState) dbConnectionState).getPropertyCache();
 
         List<LdbcShortQuery2PersonPostsResult> result = new ArrayList<>();
 
         Vertex person = client.vertices(
             new UInt128(TorcEntity.PERSON.idSpace, operation.personId()))
             .next();
-        Iterator<Edge> edges = ((TorcVertex) person).edges(Direction.IN, 
-            new String[] {"hasCreator"}, 
-            new String[] {TorcEntity.POST.label, TorcEntity.COMMENT.label});
-
-        List<Vertex> messageList = new ArrayList<>();
-        edges.forEachRemaining((e) -> messageList.add(e.outVertex()));
-        messageList.sort((a, b) -> {
-          Vertex v1 = (Vertex) a;
-          Vertex v2 = (Vertex) b;
-
-          long v1Date =
-              Long.decode(v1.<String>property("creationDate").value());
-          long v2Date =
-              Long.decode(v2.<String>property("creationDate").value());
-
-          if (v1Date > v2Date) {
-            return -1;
-          } else if (v1Date < v2Date) {
-            return 1;
-          } else {
-            long v1Id = ((UInt128) v1.id()).getLowerLong();
-            long v2Id = ((UInt128) v2.id()).getLowerLong();
-            if (v1Id > v2Id) {
-              return -1;
-            } else if (v1Id < v2Id) {
-              return 1;
-            } else {
-              return 0;
-            }
-          }
-        });
+        List<TorcDbMessageMerge.Message> messageList = 
+            TorcDbMessageMerge.newest(Collections.singletonList(person), 
+                Long.MAX_VALUE, operation.limit(), 
+                ((TorcDbConnectionState) dbConnectionState)
+                    .getMessageLoadCutoff(),
+                (a, b) -> {
+                  if (a.creationDate != b.creationDate) {
+                    return Long.compare(b.creationDate, a.creationDate);
+                  }
+                  return Long.compare(b.id, a.id);
+                });
 
-        for (int i = 0; i < Integer.min(operation.limit(), messageList.size());
-            i++) {
-          Vertex message = messageList.get(i);
+        for (int i = 0; i < messageList.size(); i++) {
+          Vertex message = messageList.get(i).message;
 
           Map<String, String> propMap = new HashMap<>();
           message.<String>properties().forEachRemaining((vp) -> {
@@ -2106,7 +3188,8 @@ public class TorcDb extends Db {
             messageContent = propMap.get("imageFile");
           }
 
-          long messageCreationDate = Long.decode(propMap.get("creationDate"));
+          long messageCreationDate = 
+              TorcDbProperties.decodeLong(propMap.get("creationDate"));
 
           long originalPostId;
           long originalPostAuthorId;
@@ -2115,41 +3198,23 @@ public class TorcDb extends Db {
           if (message.label().equals(TorcEntity.POST.label)) {
             originalPostId = messageId;
             originalPostAuthorId = ((UInt128) person.id()).getLowerLong();
-            originalPostAuthorFirstName =
-                person.<String>property("firstName").value();
-            originalPostAuthorLastName =
-                person.<String>property("lastName").value();
+            originalPostAuthorFirstName = 
+                propertyCache.get(person, "firstName");
+            originalPostAuthorLastName = 
+                propertyCache.get(person, "lastName");
           } else {
-            Vertex parentMessage =
-                ((TorcVertex) message).edges(Direction.OUT, 
-                  new String[] {"replyOf"},
-                  new String[] {TorcEntity.POST.label, 
-                    TorcEntity.COMMENT.label})
-                  .next().inVertex();
-            while (true) {
-              if (parentMessage.label().equals(TorcEntity.POST.label)) {
-                originalPostId = ((UInt128) parentMessage.id()).getLowerLong();
-
-                Vertex author =
-                    ((TorcVertex) parentMessage).edges(Direction.OUT, 
-                      new String[] {"hasCreator"}, 
-                      new String[] {TorcEntity.PERSON.label})
-                    .next().inVertex();
-                originalPostAuthorId = ((UInt128) author.id()).getLowerLong();
-                originalPostAuthorFirstName =
-                    author.<String>property("firstName").value();
-                originalPostAuthorLastName =
-                    author.<String>property("lastName").value();
-                break;
-              } else {
-                parentMessage =
-                    ((TorcVertex) parentMessage).edges(Direction.OUT, 
-                      new String[] {"replyOf"},
-                      new String[] {TorcEntity.POST.label, 
-                        TorcEntity.COMMENT.label})
-                    .next().inVertex();
-              }
-            }
+            TorcDbRootPostCache.RootPost rootPost = 
+                ((TorcDbConnectionState) dbConnectionState)
+                    .getRootPostCache().resolve(message);
+            originalPostId = rootPost.postId;
+            originalPostAuthorId = rootPost.authorId();
+
+            UInt128 authorId = 
+                new UInt128(TorcEntity.PERSON.idSpace, originalPostAuthorId);
+            originalPostAuthorFirstName = propertyCache.get(client, authorId,
+                TorcEntity.PERSON.label, "firstName");
+            originalPostAuthorLastName = propertyCache.get(client, authorId,
+                TorcEntity.PERSON.label, "lastName");
           }
 
           LdbcShortQuery2PersonPostsResult res =
@@ -2200,6 +3265,8 @@ public class TorcDb extends Db {
       int txAttempts = 0;
       while (txAttempts < MAX_TX_ATTEMPTS) {
         Graph client = ((TorcDbConnectionState) dbConnectionState).getClient();
+        TorcDbPropertyCache propertyCache = 
+            ((TorcDbConnectionState) dbConnectionState).getPropertyCache();
 
         List<LdbcShortQuery3PersonFriendsResult> result = new ArrayList<>();
 
@@ -2212,15 +3279,14 @@ public class TorcDb extends Db {
             new String[] {TorcEntity.PERSON.label});
 
         edges.forEachRemaining((e) -> {
-          long creationDate = Long.decode(e.<String>property("creationDate")
-              .value());
+          long creationDate = TorcDbProperties.getLong(e, "creationDate");
 
           Vertex friend = e.inVertex();
 
           long personId = ((UInt128) friend.id()).getLowerLong();
 
-          String firstName = friend.<String>property("firstName").value();
-          String lastName = friend.<String>property("lastName").value();
+          String firstName = propertyCache.get(friend, "firstName");
+          String lastName = propertyCache.get(friend, "lastName");
 
           LdbcShortQuery3PersonFriendsResult res =
               new LdbcShortQuery3PersonFriendsResult(
@@ -2295,7 +3361,7 @@ public class TorcDb extends Db {
             .next();
 
         long creationDate =
-            Long.decode(message.<String>property("creationDate").value());
+            TorcDbProperties.getLong(message, "creationDate");
         String content = message.<String>property("content").value();
         if (content.length() == 0) {
           content = message.<String>property("imageFile").value();
@@ -2340,6 +3406,8 @@ public class TorcDb extends Db {
       int txAttempts = 0;
       while (txAttempts < MAX_TX_ATTEMPTS) {
         Graph client = ((TorcDbConnectionState) dbConnectionState).getClient();
+        TorcDbPropertyCache propertyCache = 
+            ((TorcDbConnectionState) dbConnectionState).getPropertyCache();
 
         Vertex message = client.vertices(
             new UInt128(TorcEntity.COMMENT.idSpace, operation.messageId()))
@@ -2353,9 +3421,9 @@ public class TorcDb extends Db {
         long creatorId = ((UInt128) creator.id()).getLowerLong();
 
         String creatorFirstName =
-            creator.<String>property("firstName").value();
+            propertyCache.get(creator, "firstName");
         String creatorLastName =
-            creator.<String>property("lastName").value();
+            propertyCache.get(creator, "lastName");
 
         LdbcShortQuery5MessageCreatorResult result =
             new LdbcShortQuery5MessageCreatorResult(
@@ -2400,49 +3468,37 @@ public class TorcDb extends Db {
       int txAttempts = 0;
       while (txAttempts < MAX_TX_ATTEMPTS) {
         Graph client = ((TorcDbConnectionState) dbConnectionState).getClient();
+        TorcDbPropertyCache propertyCache = 
+            ((TorcDbConnectionState) dbConnectionState).getPropertyCache();
 
-        Vertex vertex = client.vertices(
+        Vertex message = client.vertices(
             new UInt128(TorcEntity.COMMENT.idSpace, operation.messageId()))
             .next();
 
-        LdbcShortQuery6MessageForumResult result;
-        while (true) {
-          if (vertex.label().equals(TorcEntity.FORUM.label)) {
-            long forumId = ((UInt128) vertex.id()).getLowerLong();
-            String forumTitle = vertex.<String>property("title").value();
-
-            Vertex moderator =
-                ((TorcVertex) vertex).edges(Direction.OUT, 
-                  new String[] {"hasModerator"},
-                  new String[] {TorcEntity.PERSON.label}).next().inVertex();
+        // Comments are contained in the Forum of their thread's root Post.
+        Vertex forum;
+        if (message.label().equals(TorcEntity.POST.label)) {
+          forum = ((TorcVertex) message).edges(Direction.IN, 
+                new String[] {"containerOf"},
+                new String[] {TorcEntity.FORUM.label}).next().outVertex();
+        } else {
+          forum = ((TorcDbConnectionState) dbConnectionState)
+              .getRootPostCache().resolve(message).forum(client);
+        }
+        String forumTitle = propertyCache.get(forum, "title");
 
-            long moderatorId = ((UInt128) moderator.id()).getLowerLong();
-            String moderatorFirstName =
-                moderator.<String>property("firstName").value();
-            String moderatorLastName =
-                moderator.<String>property("lastName").value();
+        Vertex moderator =
+            ((TorcVertex) forum).edges(Direction.OUT, 
+              new String[] {"hasModerator"},
+              new String[] {TorcEntity.PERSON.label}).next().inVertex();
 
-            result = new LdbcShortQuery6MessageForumResult(
-                forumId,
+        LdbcShortQuery6MessageForumResult result = 
+            new LdbcShortQuery6MessageForumResult(
+                ((UInt128) forum.id()).getLowerLong(),
                 forumTitle,
-                moderatorId,
-                moderatorFirstName,
-                moderatorLastName);
-
-            break;
-          } else if (vertex.label().equals(TorcEntity.POST.label)) {
-            vertex =
-                ((TorcVertex) vertex).edges(Direction.IN, 
-                  new String[] {"containerOf"},
-                  new String[] {TorcEntity.FORUM.label}).next().outVertex();
-          } else {
-            vertex = ((TorcVertex) vertex).edges(Direction.OUT, 
-                  new String[] {"replyOf"},
-                  new String[] {TorcEntity.POST.label, 
-                    TorcEntity.COMMENT.label})
-                  .next().inVertex();
-          }
-        }
+                ((UInt128) moderator.id()).getLowerLong(),
+                propertyCache.get(moderator, "firstName"),
+                propertyCache.get(moderator, "lastName"));
 
         if (doTransactionalReads) {
           try {
@@ -2482,6 +3538,8 @@ public class TorcDb extends Db {
       int txAttempts = 0;
       while (txAttempts < MAX_TX_ATTEMPTS) {
         Graph client = ((TorcDbConnectionState) dbConnectionState).getClient();
+        TorcDbPropertyCache propertyCache = 
+            ((TorcDbConnectionState) dbConnectionState).getPropertyCache();
 
         Vertex message = client.vertices(
             new UInt128(TorcEntity.COMMENT.idSpace, operation.messageId()))
@@ -2513,7 +3571,7 @@ public class TorcDb extends Db {
           long replyId = ((UInt128) reply.id()).getLowerLong();
           String replyContent = reply.<String>property("content").value();
           long replyCreationDate =
-              Long.decode(reply.<String>property("creationDate").value());
+              TorcDbProperties.getLong(reply, "creationDate");
 
           Vertex replyAuthor =
               ((TorcVertex) reply).edges(Direction.OUT, 
@@ -2521,9 +3579,9 @@ public class TorcDb extends Db {
                   new String[] {TorcEntity.PERSON.label}).next().inVertex();
           long replyAuthorId = ((UInt128) replyAuthor.id()).getLowerLong();
           String replyAuthorFirstName =
-              replyAuthor.<String>property("firstName").value();
+              propertyCache.get(replyAuthor, "firstName");
           String replyAuthorLastName =
-              replyAuthor.<String>property("lastName").value();
+              propertyCache.get(replyAuthor, "lastName");
 
           boolean knows = false;
           if (messageAuthorId != replyAuthorId) {
@@ -2625,9 +3683,11 @@ public class TorcDb extends Db {
       personKeyValues.add("gender");
       personKeyValues.add(operation.gender());
       personKeyValues.add("birthday");
-      personKeyValues.add(String.valueOf(operation.birthday().getTime()));
+      personKeyValues.add(
+          TorcDbProperties.encode(operation.birthday().getTime()));
       personKeyValues.add("creationDate");
-      personKeyValues.add(String.valueOf(operation.creationDate().getTime()));
+      personKeyValues.add(
+          TorcDbProperties.encode(operation.creationDate().getTime()));
       personKeyValues.add("locationIP");
       personKeyValues.add(operation.locationIp());
       personKeyValues.add("browserUsed");
@@ -2668,7 +3728,7 @@ public class TorcDb extends Db {
         for (LdbcUpdate1AddPerson.Organization org : operation.studyAt()) {
           studiedAtKeyValues.clear();
           studiedAtKeyValues.add("classYear");
-          studiedAtKeyValues.add(String.valueOf(org.year()));
+          studiedAtKeyValues.add(TorcDbProperties.encode(org.year()));
           Vertex orgV = client.vertices(
               new UInt128(TorcEntity.ORGANISATION.idSpace,
                   org.organizationId()))
@@ -2681,7 +3741,7 @@ public class TorcDb extends Db {
         for (LdbcUpdate1AddPerson.Organization org : operation.workAt()) {
           workedAtKeyValues.clear();
           workedAtKeyValues.add("workFrom");
-          workedAtKeyValues.add(String.valueOf(org.year()));
+          workedAtKeyValues.add(TorcDbProperties.encode(org.year()));
           Vertex orgV = client.vertices(
               new UInt128(TorcEntity.ORGANISATION.idSpace,
                   org.organizationId())).next();
@@ -2702,6 +3762,10 @@ public class TorcDb extends Db {
         }
       } while (!txSucceeded);
 
+      // The new person has no friends yet, so no one else's sets change.
+      ((TorcDbConnectionState) dbConnectionState).getFriendCache()
+          .invalidate(operation.personId());
+
       reporter.report(0, LdbcNoResult.INSTANCE, operation);
     }
   }
@@ -2726,16 +3790,30 @@ public class TorcDb extends Db {
       UInt128 postId =
           new UInt128(TorcEntity.POST.idSpace, operation.postId());
 
-      boolean txSucceeded = false;
-      int txFailCount = 0;
-      do {
-        Iterator<Vertex> results = client.vertices(personId, postId);
+      TorcDbGroupCommit.Update update = (graph) -> {
+        Iterator<Vertex> results = graph.vertices(personId, postId);
         Vertex person = results.next();
         Vertex post = results.next();
         List<Object> keyValues = new ArrayList<>(2);
         keyValues.add("creationDate");
-        keyValues.add(String.valueOf(operation.creationDate().getTime()));
+        keyValues.add(
+            TorcDbProperties.encode(operation.creationDate().getTime()));
         person.addEdge("likes", post, keyValues.toArray());
+      };
+
+      TorcDbGroupCommit groupCommit = 
+          ((TorcDbConnectionState) dbConnectionState).getGroupCommit();
+      if (groupCommit.isEnabled()) {
+        groupCommit.execute(operation, new Object[] {personId, postId}, 
+            update);
+        reporter.report(0, LdbcNoResult.INSTANCE, operation);
+        return;
+      }
+
+      boolean txSucceeded = false;
+      int txFailCount = 0;
+      do {
+        update.apply(client);
 
         try {
           client.tx().commit();
@@ -2775,16 +3853,30 @@ public class TorcDb extends Db {
       UInt128 commentId =
           new UInt128(TorcEntity.COMMENT.idSpace, operation.commentId());
 
-      boolean txSucceeded = false;
-      int txFailCount = 0;
-      do {
-        Iterator<Vertex> results = client.vertices(personId, commentId);
+      TorcDbGroupCommit.Update update = (graph) -> {
+        Iterator<Vertex> results = graph.vertices(personId, commentId);
         Vertex person = results.next();
         Vertex comment = results.next();
         List<Object> keyValues = new ArrayList<>(2);
         keyValues.add("creationDate");
-        keyValues.add(String.valueOf(operation.creationDate().getTime()));
+        keyValues.add(
+            TorcDbProperties.encode(operation.creationDate().getTime()));
         person.addEdge("likes", comment, keyValues.toArray());
+      };
+
+      TorcDbGroupCommit groupCommit = 
+          ((TorcDbConnectionState) dbConnectionState).getGroupCommit();
+      if (groupCommit.isEnabled()) {
+        groupCommit.execute(operation, new Object[] {personId, commentId}, 
+            update);
+        reporter.report(0, LdbcNoResult.INSTANCE, operation);
+        return;
+      }
+
+      boolean txSucceeded = false;
+      int txFailCount = 0;
+      do {
+        update.apply(client);
 
         try {
           client.tx().commit();
@@ -2828,7 +3920,8 @@ public class TorcDb extends Db {
       forumKeyValues.add("title");
       forumKeyValues.add(operation.forumTitle());
       forumKeyValues.add("creationDate");
-      forumKeyValues.add(String.valueOf(operation.creationDate().getTime()));
+      forumKeyValues.add(
+          TorcDbProperties.encode(operation.creationDate().getTime()));
 
       boolean txSucceeded = false;
       int txFailCount = 0;
@@ -2891,18 +3984,31 @@ public class TorcDb extends Db {
       ids.add(new UInt128(TorcEntity.FORUM.idSpace, operation.forumId()));
       ids.add(new UInt128(TorcEntity.PERSON.idSpace, operation.personId()));
 
-      boolean txSucceeded = false;
-      int txFailCount = 0;
-      do {
-        Iterator<Vertex> vItr = client.vertices(ids.toArray());
+      TorcDbGroupCommit.Update update = (graph) -> {
+        Iterator<Vertex> vItr = graph.vertices(ids.toArray());
         Vertex forum = vItr.next();
         Vertex member = vItr.next();
 
         List<Object> edgeKeyValues = new ArrayList<>(2);
         edgeKeyValues.add("joinDate");
-        edgeKeyValues.add(String.valueOf(operation.joinDate().getTime()));
+        edgeKeyValues.add(
+            TorcDbProperties.encode(operation.joinDate().getTime()));
 
         forum.addEdge("hasMember", member, edgeKeyValues.toArray());
+      };
+
+      TorcDbGroupCommit groupCommit = 
+          ((TorcDbConnectionState) dbConnectionState).getGroupCommit();
+      if (groupCommit.isEnabled()) {
+        groupCommit.execute(operation, ids.toArray(), update);
+        reporter.report(0, LdbcNoResult.INSTANCE, operation);
+        return;
+      }
+
+      boolean txSucceeded = false;
+      int txFailCount = 0;
+      do {
+        update.apply(client);
 
         try {
           client.tx().commit();
@@ -2946,7 +4052,8 @@ public class TorcDb extends Db {
       postKeyValues.add("imageFile");
       postKeyValues.add(operation.imageFile());
       postKeyValues.add("creationDate");
-      postKeyValues.add(String.valueOf(operation.creationDate().getTime()));
+      postKeyValues.add(
+          TorcDbProperties.encode(operation.creationDate().getTime()));
       postKeyValues.add("locationIP");
       postKeyValues.add(operation.locationIp());
       postKeyValues.add("browserUsed");
@@ -2956,7 +4063,7 @@ public class TorcDb extends Db {
       postKeyValues.add("content");
       postKeyValues.add(operation.content());
       postKeyValues.add("length");
-      postKeyValues.add(String.valueOf(operation.length()));
+      postKeyValues.add(TorcDbProperties.encode(operation.length()));
 
       boolean txSucceeded = false;
       int txFailCount = 0;
@@ -3028,7 +4135,8 @@ public class TorcDb extends Db {
       commentKeyValues.add(T.label);
       commentKeyValues.add(TorcEntity.COMMENT.label);
       commentKeyValues.add("creationDate");
-      commentKeyValues.add(String.valueOf(operation.creationDate().getTime()));
+      commentKeyValues.add(
+          TorcDbProperties.encode(operation.creationDate().getTime()));
       commentKeyValues.add("locationIP");
       commentKeyValues.add(operation.locationIp());
       commentKeyValues.add("browserUsed");
@@ -3036,11 +4144,30 @@ public class TorcDb extends Db {
       commentKeyValues.add("content");
       commentKeyValues.add(operation.content());
       commentKeyValues.add("length");
-      commentKeyValues.add(String.valueOf(operation.length()));
+      commentKeyValues.add(TorcDbProperties.encode(operation.length()));
+
+      TorcDbRootPostCache rootPostCache =
+          ((TorcDbConnectionState) dbConnectionState).getRootPostCache();
+      UInt128 parentId;
+      if (operation.replyToPostId() != -1) {
+        parentId =
+            new UInt128(TorcEntity.POST.idSpace, operation.replyToPostId());
+      } else {
+        parentId = new UInt128(TorcEntity.COMMENT.idSpace,
+            operation.replyToCommentId());
+      }
 
+      TorcDbRootPostCache.RootPost rootPost = null;
       boolean txSucceeded = false;
       int txFailCount = 0;
       do {
+        // Root Post of the thread the new Comment joins, for the root Post
+        // cache and rootPost edges. Resolved in the same transaction that
+        // adds the Comment.
+        if (rootPostCache.isEnabled()) {
+          rootPost = rootPostCache.resolve(client.vertices(parentId).next());
+        }
+
         Vertex comment = client.addVertex(commentKeyValues.toArray());
 
         List<UInt128> ids = new ArrayList<>(2);
@@ -3077,6 +4204,12 @@ public class TorcDb extends Db {
           }
         });
 
+        if (rootPost != null && rootPostCache.useRootPostEdges()) {
+          comment.addEdge("rootPost", client.vertices(
+                new UInt128(TorcEntity.POST.idSpace, rootPost.postId))
+              .next());
+        }
+
         try {
           client.tx().commit();
           txSucceeded = true;
@@ -3091,6 +4224,10 @@ public class TorcDb extends Db {
         }
       } while (!txSucceeded);
 
+      if (rootPost != null) {
+        rootPostCache.put(operation.commentId(), rootPost);
+      }
+
       reporter.report(0, LdbcNoResult.INSTANCE, operation);
     }
   }
@@ -3113,7 +4250,7 @@ public class TorcDb extends Db {
       List<Object> knowsEdgeKeyValues = new ArrayList<>(2);
       knowsEdgeKeyValues.add("creationDate");
       knowsEdgeKeyValues.add(
-          String.valueOf(operation.creationDate().getTime()));
+          TorcDbProperties.encode(operation.creationDate().getTime()));
 
       List<UInt128> ids = new ArrayList<>(2);
       ids.add(new UInt128(TorcEntity.PERSON.idSpace, operation.person1Id()));
@@ -3144,6 +4281,11 @@ public class TorcDb extends Db {
         }
       } while (!txSucceeded);
 
+      ((TorcDbConnectionState) dbConnectionState).getFriendCache()
+          .invalidateFriendship(client, operation.person1Id(), 
+              operation.person2Id());
+      client.tx().rollback();
+
       reporter.report(0, LdbcNoResult.INSTANCE, operation);
     }
   }
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import com.ldbc.driver.Operation;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery1;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery2;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery3;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery4;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery5;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery6;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery7;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery8;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery9;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery10;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery11;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery12;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery13;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery14;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery1PersonProfile;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery2PersonPosts;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery3PersonFriends;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery4MessageContent;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery5MessageCreator;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery6MessageForum;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery7MessageReplies;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate1AddPerson;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate2AddPostLike;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate3AddCommentLike;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate4AddForum;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate5AddForumMembership;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate6AddPost;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate7AddComment;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate8AddFriendship;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Routes each operation to a server by its primary entity, so that repeated
+ * operations on the same neighbourhood of the graph land on the same server
+ * and find its caches warm. The primary entity is the start person of person
+ * centric queries and updates, and the message of LdbcShortQuery4..7. Its id
+ * is hashed onto a consistent hash ring of the servers, with many virtual
+ * nodes per server to even out the load.
+ *
+ * If the server owning an id is unavailable, the id goes to the next
+ * available server clockwise on the ring, so only the ids owned by the failed
+ * server move. Operations without a primary entity go to a random available
+ * server.
+ */
+public class TorcDbAffinityPolicy implements TorcDbServerSelectionPolicy {
+
+  // Points on the ring per server.
+  private static final int VIRTUAL_NODES = 128;
+
+  /**
+   * The ring, as sorted hash points and the server owning each point.
+   */
+  private static class Ring {
+    public final long[] points;
+    public final int[] owners;
+
+    public Ring(TorcDbServerStats[] servers) {
+      long[][] entries = new long[servers.length * VIRTUAL_NODES][];
+      for (int s = 0; s < servers.length; s++) {
+        for (int v = 0; v < VIRTUAL_NODES; v++) {
+          entries[s * VIRTUAL_NODES + v] = new long[] {
+            hash(servers[s].getAddress() + "#" + v), s};
+        }
+      }
+
+      Arrays.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+
+      points = new long[entries.length];
+      owners = new int[entries.length];
+      for (int i = 0; i < entries.length; i++) {
+        points[i] = entries[i][0];
+        owners[i] = (int) entries[i][1];
+      }
+    }
+  }
+
+  // Built on first use, since the set of servers is only known then.
+  private volatile Ring ring = null;
+
+  @Override
+  public int selectServer(Operation op, TorcDbServerStats[] servers) {
+    long id = primaryEntityId(op);
+    if (id == -1 || servers.length == 1) {
+      return TorcDbServerSelectionPolicy.randomAvailable(servers);
+    }
+
+    Ring r = ring;
+    if (r == null) {
+      r = new Ring(servers);
+      ring = r;
+    }
+
+    int i = Arrays.binarySearch(r.points, mix(id));
+    if (i < 0) {
+      i = -(i + 1);
+    }
+
+    // Walk clockwise to the first available server. If none is available,
+    // stick with the owner.
+    for (int j = 0; j < r.points.length; j++) {
+      int s = r.owners[(i + j) % r.points.length];
+      if (servers[s].isAvailable()) {
+        return s;
+      }
+    }
+
+    return r.owners[i % r.points.length];
+  }
+
+  /**
+   * Returns the id of the entity the operation is centered on, or -1 if it
+   * has none.
+   */
+  public static long primaryEntityId(Operation op) {
+    if (op instanceof LdbcQuery1) {
+      return ((LdbcQuery1) op).personId();
+    } else if (op instanceof LdbcQuery2) {
+      return ((LdbcQuery2) op).personId();
+    } else if (op instanceof LdbcQuery3) {
+      return ((LdbcQuery3) op).personId();
+    } else if (op instanceof LdbcQuery4) {
+      return ((LdbcQuery4) op).personId();
+    } else if (op instanceof LdbcQuery5) {
+      return ((LdbcQuery5) op).personId();
+    } else if (op instanceof LdbcQuery6) {
+      return ((LdbcQuery6) op).personId();
+    } else if (op instanceof LdbcQuery7) {
+      return ((LdbcQuery7) op).personId();
+    } else if (op instanceof LdbcQuery8) {
+      return ((LdbcQuery8) op).personId();
+    } else if (op instanceof LdbcQuery9) {
+      return ((LdbcQuery9) op).personId();
+    } else if (op instanceof LdbcQuery10) {
+      return ((LdbcQuery10) op).personId();
+    } else if (op instanceof LdbcQuery11) {
+      return ((LdbcQuery11) op).personId();
+    } else if (op instanceof LdbcQuery12) {
+      return ((LdbcQuery12) op).personId();
+    } else if (op instanceof LdbcQuery13) {
+      return ((LdbcQuery13) op).person1Id();
+    } else if (op instanceof LdbcQuery14) {
+      return ((LdbcQuery14) op).person1Id();
+    } else if (op instanceof LdbcShortQuery1PersonProfile) {
+      return ((LdbcShortQuery1PersonProfile) op).personId();
+    } else if (op instanceof LdbcShortQuery2PersonPosts) {
+      return ((LdbcShortQuery2PersonPosts) op).personId();
+    } else if (op instanceof LdbcShortQuery3PersonFriends) {
+      return ((LdbcShortQuery3PersonFriends) op).personId();
+    } else if (op instanceof LdbcShortQuery4MessageContent) {
+      return ((LdbcShortQuery4MessageContent) op).messageId();
+    } else if (op instanceof LdbcShortQuery5MessageCreator) {
+      return ((LdbcShortQuery5MessageCreator) op).messageId();
+    } else if (op instanceof LdbcShortQuery6MessageForum) {
+      return ((LdbcShortQuery6MessageForum) op).messageId();
+    } else if (op instanceof LdbcShortQuery7MessageReplies) {
+      return ((LdbcShortQuery7MessageReplies) op).messageId();
+    } else if (op instanceof LdbcUpdate1AddPerson) {
+      return ((LdbcUpdate1AddPerson) op).personId();
+    } else if (op instanceof LdbcUpdate2AddPostLike) {
+      return ((LdbcUpdate2AddPostLike) op).personId();
+    } else if (op instanceof LdbcUpdate3AddCommentLike) {
+      return ((LdbcUpdate3AddCommentLike) op).personId();
+    } else if (op instanceof LdbcUpdate4AddForum) {
+      return ((LdbcUpdate4AddForum) op).moderatorPersonId();
+    } else if (op instanceof LdbcUpdate5AddForumMembership) {
+      return ((LdbcUpdate5AddForumMembership) op).personId();
+    } else if (op instanceof LdbcUpdate6AddPost) {
+      return ((LdbcUpdate6AddPost) op).authorPersonId();
+    } else if (op instanceof LdbcUpdate7AddComment) {
+      return ((LdbcUpdate7AddComment) op).authorPersonId();
+    } else if (op instanceof LdbcUpdate8AddFriendship) {
+      return ((LdbcUpdate8AddFriendship) op).person1Id();
+    } else {
+      return -1;
+    }
+  }
+
+  /**
+   * Spreads ids, which in LDBC SNB datasets are dense and share their upper
+   * bits, evenly around the ring (splitmix64 finalizer).
+   */
+  private static long mix(long x) {
+    x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+    x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+    return x ^ (x >>> 31);
+  }
+
+  /**
+   * 64-bit FNV-1a of the string, mixed.
+   */
+  private static long hash(String s) {
+    long h = 0xcbf29ce484222325L;
+    for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+      h ^= (b & 0xff);
+      h *= 0x100000001b3L;
+    }
+    return mix(h);
+  }
+}
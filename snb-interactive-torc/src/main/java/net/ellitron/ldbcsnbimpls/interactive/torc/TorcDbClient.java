@@ -83,7 +83,13 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * An LDBC SNB driver database implementation for TorcDB that spreads query load
@@ -155,6 +161,16 @@ public class TorcDbClient extends Db {
 
   @Override
   protected void onClose() throws IOException {
+    System.out.println("TorcDbClient: Requests per server:");
+    for (int i = 0; i < connectionState.getServerCount(); i++) {
+      System.out.println("  " + connectionState.getServerStats(i));
+    }
+
+    if (connectionState.getHedgingPolicy() != null) {
+      System.out.println("TorcDbClient: Hedged requests:");
+      System.out.print(connectionState.getHedgingPolicy());
+    }
+
     connectionState.close();
   }
 
@@ -166,12 +182,64 @@ public class TorcDbClient extends Db {
   public static void executeQuery(Operation operation, 
       TorcDbClientConnectionState connState, ResultReporter resultReporter) 
       throws DbException {
+    // Pick server according to the configured serverSelection policy.
+    int n = connState.selectServer(operation);
+
+    if (connState.isMultiplexed()) {
+      // Completes the server's stats when the request completes, which can be
+      // after this returns if a hedged request answers first.
+      executeQueryMultiplexed(operation, n, connState, resultReporter);
+      return;
+    }
+
+    TorcDbServerStats stats = connState.getServerStats(n);
+    long startTime = stats.requestStarted();
+    boolean success = false;
+    try {
+      if (connState.isShmTransport()) {
+        executeQueryShm(operation, n, connState, resultReporter);
+      } else if (connState.isBinaryProtocol()) {
+        executeQueryBinary(operation, n, connState, resultReporter);
+      } else {
+        executeQueryObjectStream(operation, n, connState, resultReporter);
+      }
+      success = true;
+    } catch (DbException | RuntimeException e) {
+      if (isConnectionFailure(e)) {
+        stats.markUnavailable();
+      }
+      throw e;
+    } finally {
+      stats.requestCompleted(startTime, success);
+    }
+  }
+
+  /**
+   * Returns whether the failure was caused by a problem with a server or the
+   * connection to it, as opposed to an error executing the query.
+   */
+  private static boolean isConnectionFailure(Throwable e) {
+    for (Throwable t = e; t != null; t = t.getCause()) {
+      if (t instanceof TorcDbWireProtocol.ServerException) {
+        return false;
+      } else if (t instanceof IOException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Executes the operation on the given TorcDbServer using Java object
+   * serialization.
+   */
+  private static void executeQueryObjectStream(Operation operation, int n,
+      TorcDbClientConnectionState connState, ResultReporter resultReporter) 
+      throws DbException {
     try {
       List<ObjectOutputStream> oStreams = connState.getObjectOutputStreams();
       List<ObjectInputStream> iStreams = connState.getObjectInputStreams();
 
-      // Pick server uniformly at random.
-      int n = (int) (Math.random() * oStreams.size());
       ObjectOutputStream out = oStreams.get(n);
       ObjectInputStream in = iStreams.get(n);
 
@@ -549,6 +617,195 @@ public class TorcDbClient extends Db {
     }
   }
 
+  /**
+   * Executes the operation on a TorcDbServer using TorcDbWireProtocol instead
+   * of Java object serialization.
+   */
+  private static void executeQueryBinary(Operation operation, int n,
+      TorcDbClientConnectionState connState, ResultReporter resultReporter) 
+      throws DbException {
+    try {
+      List<DataOutputStream> oStreams = connState.getDataOutputStreams();
+      List<DataInputStream> iStreams = connState.getDataInputStreams();
+
+      DataOutputStream out = oStreams.get(n);
+      DataInputStream in = iStreams.get(n);
+
+      TorcDbWireProtocol.writeRequest(out, 0, operation);
+
+      ByteBuffer frame = TorcDbWireProtocol.readFrame(in);
+      frame.getInt(); // requestId
+      Object result = TorcDbWireProtocol.decodeResponse(frame, operation);
+
+      resultReporter.report(TorcDbWireProtocol.resultCount(result), result,
+          operation);
+    } catch (TorcDbWireProtocol.ServerException e) {
+      throw new DbException("TorcDbServer failed to execute operation", e);
+    } catch (IOException e) {
+      throw new DbException(e);
+    }
+  }
+
+  /**
+   * Executes the operation on a TorcDbServer on this host over this thread's
+   * shared memory channel, speaking the binary protocol.
+   */
+  private static void executeQueryShm(Operation operation, int n,
+      TorcDbClientConnectionState connState, ResultReporter resultReporter) 
+      throws DbException {
+    try {
+      TorcDbShmChannel ch = connState.getShmChannels().get(n);
+
+      TorcDbWireProtocol.FrameBuffer buf = 
+          TorcDbWireProtocol.getThreadLocalFrameBuffer();
+      TorcDbWireProtocol.encodeRequest(buf, 0, operation);
+      ch.send(buf.frame());
+
+      ByteBuffer frame = ch.receive();
+      frame.getInt(); // requestId
+      Object result = TorcDbWireProtocol.decodeResponse(frame, operation);
+
+      resultReporter.report(TorcDbWireProtocol.resultCount(result), result,
+          operation);
+    } catch (TorcDbWireProtocol.ServerException e) {
+      throw new DbException("TorcDbServer failed to execute operation", e);
+    } catch (IOException e) {
+      throw new DbException(e);
+    }
+  }
+
+  /**
+   * Executes the operation on a TorcDbServer over one of the connections
+   * shared by all threads, which may have other threads' requests in flight
+   * on it at the same time.
+   */
+  private static void executeQueryMultiplexed(Operation operation, int n,
+      TorcDbClientConnectionState connState, ResultReporter resultReporter) 
+      throws DbException {
+    try {
+      TorcDbHedgingPolicy hedging = connState.getHedgingPolicy();
+
+      Object result;
+      if (hedging == null || !TorcDbHedgingPolicy.isHedgeable(operation)) {
+        result = submitMultiplexed(operation, n, connState).get();
+      } else {
+        result = executeQueryHedged(operation, n, connState, hedging);
+      }
+
+      resultReporter.report(TorcDbWireProtocol.resultCount(result), result,
+          operation);
+    } catch (ExecutionException e) {
+      // Failures of the request itself, including ServerExceptions.
+      throw new DbException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DbException(e);
+    } catch (IOException e) {
+      throw new DbException(e);
+    }
+  }
+
+  /**
+   * Submits the operation on the multiplexed connection to server n. The
+   * request is counted in the server's stats until its future completes,
+   * whether or not anyone is still waiting for it then.
+   */
+  private static CompletableFuture<Object> submitMultiplexed(
+      Operation operation, int n, TorcDbClientConnectionState connState)
+      throws IOException {
+    TorcDbServerStats stats = connState.getServerStats(n);
+    long startTime = stats.requestStarted();
+    CompletableFuture<Object> future;
+    try {
+      future = connState.getMultiplexedConnection(n).submit(operation);
+    } catch (IOException | RuntimeException e) {
+      stats.requestCompleted(startTime, false);
+      if (isConnectionFailure(e)) {
+        stats.markUnavailable();
+      }
+      throw e;
+    }
+    future.whenComplete((r, t) -> {
+      stats.requestCompleted(startTime, t == null);
+      if (t != null && isConnectionFailure(t)) {
+        stats.markUnavailable();
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Sends the read to server n and, if it has not answered by the time the
+   * hedging policy's threshold has passed, sends it again to another server.
+   * Returns whichever result arrives first. The slower request is left to
+   * complete in the background and its result thrown away.
+   */
+  private static Object executeQueryHedged(Operation operation, int n,
+      TorcDbClientConnectionState connState, TorcDbHedgingPolicy hedging)
+      throws IOException, InterruptedException, ExecutionException {
+    long thresholdNanos = hedging.getThresholdNanos(operation);
+
+    long primaryStart = System.nanoTime();
+    CompletableFuture<Object> primary = 
+        submitMultiplexed(operation, n, connState);
+    primary.whenComplete((r, t) -> {
+      if (t == null) {
+        hedging.recordLatency(operation, System.nanoTime() - primaryStart);
+      }
+    });
+
+    if (thresholdNanos == 0) {
+      return primary.get();
+    }
+
+    try {
+      return primary.get(thresholdNanos, TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      // Fall through and hedge.
+    }
+
+    int m = connState.selectHedgeServer(n);
+    if (m == -1) {
+      return primary.get();
+    }
+
+    long hedgeStart = System.nanoTime();
+    CompletableFuture<Object> hedge;
+    try {
+      hedge = submitMultiplexed(operation, m, connState);
+    } catch (IOException e) {
+      return primary.get();
+    }
+    hedging.hedgeFired(operation);
+    hedge.whenComplete((r, t) -> {
+      if (t == null) {
+        hedging.recordLatency(operation, System.nanoTime() - hedgeStart);
+      }
+    });
+
+    // First successful response wins. Only fail if both requests fail.
+    CompletableFuture<Object> first = new CompletableFuture<>();
+    AtomicInteger failures = new AtomicInteger(0);
+    primary.whenComplete((r, t) -> {
+      if (t == null) {
+        first.complete(r);
+      } else if (failures.incrementAndGet() == 2) {
+        first.completeExceptionally(t);
+      }
+    });
+    hedge.whenComplete((r, t) -> {
+      if (t == null) {
+        if (first.complete(r)) {
+          hedging.hedgeWon(operation);
+        }
+      } else if (failures.incrementAndGet() == 2) {
+        first.completeExceptionally(t);
+      }
+    });
+
+    return first.get();
+  }
+
   /**
    * ------------------------------------------------------------------------
    * Complex Queries
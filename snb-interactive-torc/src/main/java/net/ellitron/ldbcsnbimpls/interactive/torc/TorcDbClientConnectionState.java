@@ -17,10 +17,12 @@
 package net.ellitron.ldbcsnbimpls.interactive.torc;
 
 import com.ldbc.driver.DbConnectionState;
+import com.ldbc.driver.Operation;
 
 import java.io.*;
 import java.net.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.*;
 
 /**
@@ -29,7 +31,10 @@ import java.util.*;
  * Notes:
  * This object is shared among multiple threads in the LDBC SNB driver, however
  * each thread in this implementation gets its own set of open socket
- * connections to each of the TorcDbServers.
+ * connections to each of the TorcDbServers. Alternatively, when
+ * connectionsPerServer is set, all threads share a small fixed number of
+ * multiplexed connections to each server, each of which can carry many
+ * requests at once.
  *
  * @author Jonathan Ellithorpe (jde@cs.stanford.edu)
  */
@@ -41,6 +46,39 @@ public class TorcDbClientConnectionState extends DbConnectionState {
   // TorcDbServer port
   private final int port;
 
+  // Wire protocol used to talk to TorcDbServers. Either "java" for Java object
+  // serialization of the wrappers in LdbcSerializableQueriesAndResults, or
+  // "binary" for TorcDbWireProtocol. Must match the servers' --protocol.
+  private final String protocol;
+
+  // How requests reach the servers. Either "tcp" for sockets, or "shm" for
+  // TorcDbShmChannels to a server on the same host watching shmDir.
+  private final String transport;
+  private final String shmDir;
+  private final int shmRingSize;
+
+  // Number of shared multiplexed connections to open to each server. 0 means
+  // each thread opens its own connections instead.
+  private final int connectionsPerServer;
+
+  // Shared connections to each server when connectionsPerServer > 0, indexed
+  // by server then connection. Opened on first use, and reopened on the next
+  // use after they fail.
+  private volatile TorcDbMultiplexedConnection[][] multiplexedConnections = 
+      null;
+
+  // Used to spread requests across a server's shared connections.
+  private final AtomicInteger nextMultiplexedConnection = new AtomicInteger(0);
+
+  // Chooses the server for each request (serverSelection property), based on
+  // what we've seen of each server's load so far.
+  private final TorcDbServerSelectionPolicy serverSelectionPolicy;
+  private final TorcDbServerStats[] serverStats;
+
+  // Decides when to hedge reads (hedgePercentile property), or null if
+  // hedging is off.
+  private final TorcDbHedgingPolicy hedgingPolicy;
+
   // Each thread has its own private open socket connections to servers.
   // Would have used a ThreadLocal object here but it's not easy to iterate over
   // a ThreadLocal to clean up state, which we need to do when close() is called
@@ -55,6 +93,17 @@ public class TorcDbClientConnectionState extends DbConnectionState {
   private final ConcurrentHashMap<Thread, List<ObjectInputStream>> 
       threadLocalInputStreamList = new ConcurrentHashMap<>();
 
+  // Buffered data streams used instead of the object streams above when
+  // speaking the binary protocol.
+  private final ConcurrentHashMap<Thread, List<DataOutputStream>> 
+      threadLocalDataOutputStreamList = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Thread, List<DataInputStream>> 
+      threadLocalDataInputStreamList = new ConcurrentHashMap<>();
+
+  // Each thread's own shared memory channel when transport is shm.
+  private final ConcurrentHashMap<Thread, List<TorcDbShmChannel>> 
+      threadLocalShmChannelList = new ConcurrentHashMap<>();
+
   public TorcDbClientConnectionState(Map<String, String> props) {
     if (props.containsKey("serverIPs")) {
       this.serverIPs = props.get("serverIPs").split(",");
@@ -67,6 +116,81 @@ public class TorcDbClientConnectionState extends DbConnectionState {
     } else {
       this.port = 5577;
     }
+
+    if (props.containsKey("protocol")) {
+      this.protocol = props.get("protocol");
+      if (!protocol.equals("java") && !protocol.equals("binary")) {
+        throw new IllegalArgumentException(
+            "Unrecognized protocol: " + protocol);
+      }
+    } else {
+      this.protocol = "java";
+    }
+
+    if (props.containsKey("connectionsPerServer")) {
+      this.connectionsPerServer = 
+          Integer.decode(props.get("connectionsPerServer"));
+      if (connectionsPerServer > 0 && !isBinaryProtocol()) {
+        throw new IllegalArgumentException(
+            "connectionsPerServer requires the binary protocol");
+      }
+    } else {
+      this.connectionsPerServer = 0;
+    }
+
+    this.transport = props.getOrDefault("transport", "tcp");
+    if (transport.equals("shm")) {
+      if (!isBinaryProtocol()) {
+        throw new IllegalArgumentException(
+            "The shm transport requires the binary protocol");
+      }
+      if (isMultiplexed()) {
+        throw new IllegalArgumentException(
+            "The shm transport does not support connectionsPerServer");
+      }
+      if (serverIPs.length != 1) {
+        throw new IllegalArgumentException(
+            "The shm transport talks to a single server on this host");
+      }
+      if (!TorcDbShmChannel.isSupported()) {
+        throw new IllegalArgumentException(
+            "The shm transport requires a Java 9 or later runtime");
+      }
+    } else if (!transport.equals("tcp")) {
+      throw new IllegalArgumentException(
+          "Unrecognized transport: " + transport);
+    }
+    this.shmDir = props.getOrDefault("shmDir", "/dev/shm/torcdb");
+    if (props.containsKey("shmRingSize")) {
+      this.shmRingSize = Integer.decode(props.get("shmRingSize"));
+    } else {
+      this.shmRingSize = TorcDbShmChannel.DEFAULT_RING_SIZE;
+    }
+
+    this.serverSelectionPolicy = TorcDbServerSelectionPolicy.create(props);
+    this.serverStats = new TorcDbServerStats[serverIPs.length];
+    for (int i = 0; i < serverIPs.length; i++) {
+      serverStats[i] = new TorcDbServerStats(serverIPs[i] + ":" + port);
+    }
+
+    double hedgePercentile = 0;
+    if (props.containsKey("hedgePercentile")) {
+      hedgePercentile = Double.parseDouble(props.get("hedgePercentile"));
+      if (hedgePercentile < 0 || hedgePercentile >= 100) {
+        throw new IllegalArgumentException(
+            "hedgePercentile must be between 0 and 100");
+      }
+      if (hedgePercentile > 0 && !isMultiplexed()) {
+        throw new IllegalArgumentException(
+            "hedgePercentile requires connectionsPerServer");
+      }
+    }
+
+    if (hedgePercentile > 0 && serverIPs.length > 1) {
+      this.hedgingPolicy = new TorcDbHedgingPolicy(hedgePercentile);
+    } else {
+      this.hedgingPolicy = null;
+    }
   }
 
   @Override
@@ -82,6 +206,152 @@ public class TorcDbClientConnectionState extends DbConnectionState {
     });
 
     threadLocalServerConnList.clear();
+
+    threadLocalShmChannelList.forEach((thread, chList) -> {
+      for (TorcDbShmChannel ch : chList) {
+        try {
+          ch.close();
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+
+    threadLocalShmChannelList.clear();
+
+    if (multiplexedConnections != null) {
+      for (TorcDbMultiplexedConnection[] serverConns : multiplexedConnections) {
+        for (TorcDbMultiplexedConnection c : serverConns) {
+          c.close();
+        }
+      }
+      multiplexedConnections = null;
+    }
+  }
+
+  public boolean isBinaryProtocol() {
+    return protocol.equals("binary");
+  }
+
+  public boolean isShmTransport() {
+    return transport.equals("shm");
+  }
+
+  public boolean isMultiplexed() {
+    return connectionsPerServer > 0;
+  }
+
+  public int getServerCount() {
+    return serverIPs.length;
+  }
+
+  /**
+   * Chooses the server to send the operation to.
+   *
+   * @return Index of the server in serverIPs.
+   */
+  public int selectServer(Operation op) {
+    return serverSelectionPolicy.selectServer(op, serverStats);
+  }
+
+  public TorcDbServerStats getServerStats(int server) {
+    return serverStats[server];
+  }
+
+  /**
+   * Returns the policy deciding when to hedge reads, or null if hedging is
+   * off.
+   */
+  public TorcDbHedgingPolicy getHedgingPolicy() {
+    return hedgingPolicy;
+  }
+
+  /**
+   * Chooses the server to send a hedge of a request to. This is the least
+   * loaded available server other than the one the request was originally
+   * sent to.
+   *
+   * @param exclude Index of the server the request was originally sent to.
+   * @return Index of the server in serverIPs, or -1 if there is no other
+   * available server.
+   */
+  public int selectHedgeServer(int exclude) {
+    int best = -1;
+    int bestOutstanding = Integer.MAX_VALUE;
+    for (int i = 0; i < serverStats.length; i++) {
+      if (i == exclude || !serverStats[i].isAvailable()) {
+        continue;
+      }
+      int outstanding = serverStats[i].getOutstanding();
+      if (outstanding < bestOutstanding) {
+        best = i;
+        bestOutstanding = outstanding;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Returns one of the shared connections to the given server, rotating
+   * through them on successive calls. A connection that has failed is
+   * replaced with a new one first.
+   *
+   * @param server Index of the server in serverIPs.
+   *
+   * @throws IOException If a failed connection could not be reopened.
+   */
+  public TorcDbMultiplexedConnection getMultiplexedConnection(int server) 
+      throws IOException {
+    TorcDbMultiplexedConnection[][] conns = multiplexedConnections;
+    if (conns == null) {
+      conns = openMultiplexedConnections();
+    }
+
+    int n = (nextMultiplexedConnection.getAndIncrement() & Integer.MAX_VALUE)
+        % connectionsPerServer;
+    TorcDbMultiplexedConnection conn = conns[server][n];
+    if (conn.isFailed()) {
+      conn = reopenMultiplexedConnection(conns, server, n, conn);
+    }
+    return conn;
+  }
+
+  /**
+   * Replaces a failed shared connection, unless another thread already has.
+   *
+   * @return The connection now in its place.
+   */
+  private synchronized TorcDbMultiplexedConnection 
+      reopenMultiplexedConnection(TorcDbMultiplexedConnection[][] conns,
+      int server, int n, TorcDbMultiplexedConnection failed) 
+      throws IOException {
+    if (conns[server][n] == failed) {
+      try {
+        failed.close();
+      } catch (IOException e) {
+        // Already broken, nothing more to do.
+      }
+      conns[server][n] = 
+          new TorcDbMultiplexedConnection(serverIPs[server], port);
+    }
+    return conns[server][n];
+  }
+
+  private synchronized TorcDbMultiplexedConnection[][] 
+      openMultiplexedConnections() throws IOException {
+    if (multiplexedConnections == null) {
+      TorcDbMultiplexedConnection[][] conns = 
+          new TorcDbMultiplexedConnection[serverIPs.length][];
+      for (int i = 0; i < serverIPs.length; i++) {
+        conns[i] = new TorcDbMultiplexedConnection[connectionsPerServer];
+        for (int j = 0; j < connectionsPerServer; j++) {
+          conns[i][j] = new TorcDbMultiplexedConnection(serverIPs[i], port);
+        }
+      }
+      multiplexedConnections = conns;
+    }
+
+    return multiplexedConnections;
   }
 
   public List<Socket> getConnections() throws IOException {
@@ -90,7 +360,13 @@ public class TorcDbClientConnectionState extends DbConnectionState {
     if (threadLocalServerConnList.get(us) == null) {
       List<Socket> sList = new ArrayList<>(serverIPs.length);
       for (String ip : serverIPs) {
-        sList.add(new Socket(ip, port));
+        Socket s = new Socket(ip, port);
+        if (isBinaryProtocol()) {
+          // Requests are small and written in one go, don't let Nagle hold
+          // them back.
+          s.setTcpNoDelay(true);
+        }
+        sList.add(s);
       }
       threadLocalServerConnList.put(us, sList);
     } 
@@ -129,4 +405,52 @@ public class TorcDbClientConnectionState extends DbConnectionState {
 
     return threadLocalInputStreamList.get(us);
   }
+
+  public List<DataOutputStream> getDataOutputStreams() throws IOException {
+    Thread us = Thread.currentThread();
+    
+    if (threadLocalDataOutputStreamList.get(us) == null) {
+      List<Socket> servers = getConnections();
+      List<DataOutputStream> osList = 
+          new ArrayList<>(servers.size());
+      for (Socket s : servers) {
+        osList.add(new DataOutputStream(
+            new BufferedOutputStream(s.getOutputStream())));
+      }
+      threadLocalDataOutputStreamList.put(us, osList);
+    } 
+
+    return threadLocalDataOutputStreamList.get(us);
+  }
+
+  public List<DataInputStream> getDataInputStreams() throws IOException {
+    Thread us = Thread.currentThread();
+    
+    if (threadLocalDataInputStreamList.get(us) == null) {
+      List<Socket> servers = getConnections();
+      List<DataInputStream> isList = 
+          new ArrayList<>(servers.size());
+      for (Socket s : servers) {
+        isList.add(new DataInputStream(
+            new BufferedInputStream(s.getInputStream())));
+      }
+      threadLocalDataInputStreamList.put(us, isList);
+    } 
+
+    return threadLocalDataInputStreamList.get(us);
+  }
+
+  public List<TorcDbShmChannel> getShmChannels() throws IOException {
+    Thread us = Thread.currentThread();
+
+    if (threadLocalShmChannelList.get(us) == null) {
+      List<TorcDbShmChannel> chList = new ArrayList<>(serverIPs.length);
+      for (int i = 0; i < serverIPs.length; i++) {
+        chList.add(TorcDbShmChannel.create(shmDir, shmRingSize));
+      }
+      threadLocalShmChannelList.put(us, chList);
+    }
+
+    return threadLocalShmChannelList.get(us);
+  }
 }
@@ -38,6 +38,20 @@ import java.util.logging.Logger;
 public class TorcDbConnectionState extends DbConnectionState {
 
   private final Graph client;
+  private final long messageLoadCutoff;
+  private final TorcDbRootPostCache rootPostCache;
+  private final TorcDbPropertyCache propertyCache;
+  private final TorcDbFriendCache friendCache;
+  private final TorcDbTagClassIndex tagClassIndex = new TorcDbTagClassIndex();
+  private final TorcDbNameIndex nameIndex;
+  private final TorcDbParallelExecutor parallelExecutor;
+  private final TorcDbGroupCommit groupCommit;
+
+  // Default minimum number of friends per parallel chunk.
+  private static final int DEFAULT_PARALLEL_CHUNK_SIZE = 64;
+
+  // Default maximum number of updates per group commit.
+  private static final int DEFAULT_GROUP_COMMIT_SIZE = 64;
   
   public TorcDbConnectionState(Map<String, String> props) {
     BaseConfiguration config = new BaseConfiguration();
@@ -76,10 +90,79 @@ public class TorcDbConnectionState extends DbConnectionState {
         graphName);
 
     this.client = TorcGraph.open(config);
+
+    if (props.containsKey("timeOrderedMessages")) {
+      this.messageLoadCutoff = Long.decode(props.get("timeOrderedMessages"));
+    } else {
+      this.messageLoadCutoff = Long.MIN_VALUE;
+    }
+
+    int rootPostCacheSize = 0;
+    if (props.containsKey("rootPostCacheSize")) {
+      rootPostCacheSize = Integer.decode(props.get("rootPostCacheSize"));
+    }
+    this.rootPostCache = new TorcDbRootPostCache(rootPostCacheSize,
+        props.containsKey("rootPostEdges"));
+
+    int propertyCacheSize = 0;
+    if (props.containsKey("propertyCacheSize")) {
+      propertyCacheSize = Integer.decode(props.get("propertyCacheSize"));
+    }
+    this.propertyCache = new TorcDbPropertyCache(propertyCacheSize);
+
+    int friendCacheSize = 0;
+    if (props.containsKey("friendCacheSize")) {
+      friendCacheSize = Integer.decode(props.get("friendCacheSize"));
+    }
+    this.friendCache = new TorcDbFriendCache(friendCacheSize);
+
+    if (props.containsKey("nameIndexDir")) {
+      try {
+        this.nameIndex = TorcDbNameIndex.load(props.get("nameIndexDir"));
+      } catch (IOException ex) {
+        throw new RuntimeException(ex);
+      }
+    } else {
+      this.nameIndex = TorcDbNameIndex.empty();
+    }
+
+    // Chunks on pool threads would read outside the query's transaction.
+    int queryParallelism = 1;
+    if (props.containsKey("queryParallelism")
+        && !props.containsKey("txReads")) {
+      queryParallelism = Integer.decode(props.get("queryParallelism"));
+    }
+
+    int parallelPoolSize = 0;
+    if (props.containsKey("parallelPoolSize")) {
+      parallelPoolSize = Integer.decode(props.get("parallelPoolSize"));
+    }
+
+    int parallelChunkSize = DEFAULT_PARALLEL_CHUNK_SIZE;
+    if (props.containsKey("parallelChunkSize")) {
+      parallelChunkSize = Integer.decode(props.get("parallelChunkSize"));
+    }
+    this.parallelExecutor = new TorcDbParallelExecutor(parallelPoolSize,
+        queryParallelism, parallelChunkSize);
+
+    long groupCommitWindow = 0;
+    if (props.containsKey("groupCommitWindow")) {
+      groupCommitWindow = Long.decode(props.get("groupCommitWindow"));
+    }
+
+    int groupCommitSize = DEFAULT_GROUP_COMMIT_SIZE;
+    if (props.containsKey("groupCommitSize")) {
+      groupCommitSize = Integer.decode(props.get("groupCommitSize"));
+    }
+    this.groupCommit = new TorcDbGroupCommit(client, groupCommitWindow,
+        groupCommitSize);
   }
 
   @Override
   public void close() throws IOException {
+    parallelExecutor.close();
+    groupCommit.close();
+    TorcDbTraversals.release(client);
     try {
       client.close();
     } catch (Exception ex) {
@@ -92,4 +175,72 @@ public class TorcDbConnectionState extends DbConnectionState {
   public Graph getClient() {
     return client;
   }
+
+  /**
+   * Returns the creationDate of the newest message loaded with GraphLoader
+   * --timeOrderedMessages, up to which each person's hasCreator edge lists
+   * are ordered newest message first (see TorcDbMessageMerge), or
+   * Long.MIN_VALUE if the graph wasn't loaded in time order.
+   */
+  public long getMessageLoadCutoff() {
+    return messageLoadCutoff;
+  }
+
+  /**
+   * Returns the cache of Comments' root Posts shared by all users of this
+   * connection state.
+   */
+  public TorcDbRootPostCache getRootPostCache() {
+    return rootPostCache;
+  }
+
+  /**
+   * Returns the cache of immutable vertex properties shared by all users of
+   * this connection state. Disabled unless the propertyCacheSize property is
+   * set.
+   */
+  public TorcDbPropertyCache getPropertyCache() {
+    return propertyCache;
+  }
+
+  /**
+   * Returns the cache of persons' friends and friends of friends shared by
+   * all users of this connection state. Disabled unless the friendCacheSize
+   * property is set.
+   */
+  public TorcDbFriendCache getFriendCache() {
+    return friendCache;
+  }
+
+  /**
+   * Returns the index of the Tags in each TagClass, built on first use.
+   */
+  public TorcDbTagClassIndex getTagClassIndex() {
+    return tagClassIndex;
+  }
+
+  /**
+   * Returns the index of country names, which is empty
+   * unless the nameIndexDir property is set.
+   */
+  public TorcDbNameIndex getNameIndex() {
+    return nameIndex;
+  }
+
+  /**
+   * Returns the executor that splits complex reads across threads, which is
+   * disabled unless the queryParallelism property is greater than 1.
+   */
+  public TorcDbParallelExecutor getParallelExecutor() {
+    return parallelExecutor;
+  }
+
+  /**
+   * Returns the committer that batches small updates into shared
+   * transactions, which is disabled unless the groupCommitWindow property is
+   * set.
+   */
+  public TorcDbGroupCommit getGroupCommit() {
+    return groupCommit;
+  }
 }
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import net.ellitron.torc.*;
+import net.ellitron.torc.util.UInt128;
+
+import org.apache.tinkerpop.gremlin.structure.Direction;
+import org.apache.tinkerpop.gremlin.structure.Edge;
+import org.apache.tinkerpop.gremlin.structure.Graph;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded cache of the ids of each person's friends, and of their friends
+ * and friends of friends, for the queries that start from these sets
+ * (LdbcQuery3, 4, 5, 6, 9 and 11). Shared by all the threads using a
+ * TorcDbConnectionState.
+ *
+ * Computing the two hop set reads the knows edges of every friend, which for
+ * persons of high degree is hundreds of reads. Here each person's friends are
+ * cached as one entry, which the two hop sets of all their friends then
+ * share, and the two hop set is added to the person's entry once computed.
+ *
+ * The knows graph changes only through LdbcUpdate8AddFriendshipHandler,
+ * which calls invalidateFriendship() after committing. A new friendship
+ * between persons A and B changes the friends of A and B, and the two hop
+ * sets of A, B, and all their friends, so those entries are removed. Every
+ * invalidation also bumps a generation number, and a set computed while one
+ * happened is returned but not cached, since it may have been read from
+ * before the new edges. Other updates don't change the knows graph.
+ *
+ * Like TorcDbPropertyCache, the cache is split into segments of LRU maps by
+ * id hash.
+ */
+public class TorcDbFriendCache {
+
+  private static final String[] KNOWS = new String[] {"knows"};
+  private static final String[] PERSON =
+      new String[] {TorcEntity.PERSON.label};
+
+  private static final int NUM_SEGMENTS = 16;
+
+  /**
+   * A person's friends, and once computed, their friends and friends of
+   * friends, excluding the person.
+   */
+  private static class Entry {
+    public final long[] friends;
+    public volatile long[] withinTwoHops;
+
+    public Entry(long[] friends) {
+      this.friends = friends;
+    }
+  }
+
+  /**
+   * One segment of the cache, in least recently used first order.
+   */
+  private static class Segment extends LinkedHashMap<Long, Entry> {
+    public final ReentrantLock lock = new ReentrantLock();
+    private final int capacity;
+
+    public Segment(int capacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+      return size() > capacity;
+    }
+  }
+
+  private final int capacity;
+  private final Segment[] segments;
+  private final AtomicLong generation = new AtomicLong();
+
+  /**
+   * @param capacity Maximum number of persons to cache. 0 disables the
+   * cache.
+   */
+  public TorcDbFriendCache(int capacity) {
+    this.capacity = capacity;
+    this.segments = new Segment[NUM_SEGMENTS];
+    int segmentCapacity = (capacity + NUM_SEGMENTS - 1) / NUM_SEGMENTS;
+    for (int i = 0; i < NUM_SEGMENTS; i++) {
+      segments[i] = new Segment(segmentCapacity);
+    }
+  }
+
+  public boolean isEnabled() {
+    return capacity > 0;
+  }
+
+  /**
+   * Returns the ids of a person's friends. The array must not be modified.
+   */
+  public long[] friends(Graph graph, long personId) {
+    Entry entry = lookup(personId);
+    if (entry != null) {
+      return entry.friends;
+    }
+
+    long gen = generation.get();
+    long[] friends = readFriends(graph, personId);
+    store(personId, gen, new Entry(friends));
+    return friends;
+  }
+
+  /**
+   * Returns the ids of a person's friends and friends of friends, excluding
+   * the person. The array must not be modified.
+   */
+  public long[] withinTwoHops(Graph graph, long personId) {
+    // Read before the lookup, whose friends may be reused below, so that an
+    // invalidation that removes the entry after the lookup stops the store.
+    long gen = generation.get();
+    Entry entry = lookup(personId);
+    if (entry != null && entry.withinTwoHops != null) {
+      return entry.withinTwoHops;
+    }
+
+    long[] friends = (entry != null) ? entry.friends
+        : readFriends(graph, personId);
+
+    TorcIdSet seen = new TorcIdSet(friends.length * 16);
+    seen.add(personId);
+    for (long friend : friends) {
+      seen.add(friend);
+    }
+    for (long friend : friends) {
+      for (long fof : friends(graph, friend)) {
+        seen.add(fof);
+      }
+    }
+
+    long[] withinTwoHops = new long[seen.size() - 1];
+    int n = 0;
+    for (long id : seen.toArray()) {
+      if (id != personId) {
+        withinTwoHops[n++] = id;
+      }
+    }
+
+    Entry newEntry = new Entry(friends);
+    newEntry.withinTwoHops = withinTwoHops;
+    store(personId, gen, newEntry);
+    return withinTwoHops;
+  }
+
+  /**
+   * Removes the entries that a new friendship between two persons makes
+   * stale. Must be called after the friendship is committed.
+   */
+  public void invalidateFriendship(Graph graph, long person1Id,
+      long person2Id) {
+    if (capacity == 0) {
+      return;
+    }
+
+    generation.incrementAndGet();
+    invalidate(person1Id);
+    invalidate(person2Id);
+    for (long personId : new long[] {person1Id, person2Id}) {
+      for (long friend : readFriends(graph, personId)) {
+        invalidate(friend);
+      }
+    }
+  }
+
+  /**
+   * Removes a person's entry.
+   */
+  public void invalidate(long personId) {
+    if (capacity == 0) {
+      return;
+    }
+
+    generation.incrementAndGet();
+    Segment segment = segmentFor(personId);
+    segment.lock.lock();
+    try {
+      segment.remove(personId);
+    } finally {
+      segment.lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the vertex ids of the given persons, e.g. for a Gremlin V() step.
+   */
+  public static Object[] toVertexIds(long[] personIds) {
+    Object[] ids = new Object[personIds.length];
+    for (int i = 0; i < personIds.length; i++) {
+      ids[i] = new UInt128(TorcEntity.PERSON.idSpace, personIds[i]);
+    }
+    return ids;
+  }
+
+  private Entry lookup(long personId) {
+    if (capacity == 0) {
+      return null;
+    }
+
+    Segment segment = segmentFor(personId);
+    segment.lock.lock();
+    try {
+      return segment.get(personId);
+    } finally {
+      segment.lock.unlock();
+    }
+  }
+
+  /**
+   * Caches an entry computed from reads that started at generation gen,
+   * unless there has been an invalidation since.
+   */
+  private void store(long personId, long gen, Entry entry) {
+    if (capacity == 0) {
+      return;
+    }
+
+    Segment segment = segmentFor(personId);
+    segment.lock.lock();
+    try {
+      if (generation.get() == gen) {
+        segment.put(personId, entry);
+      }
+    } finally {
+      segment.lock.unlock();
+    }
+  }
+
+  private Segment segmentFor(long personId) {
+    return segments[(TorcIdSet.hash(personId) & 0x7fffffff) % NUM_SEGMENTS];
+  }
+
+  private static long[] readFriends(Graph graph, long personId) {
+    TorcVertex person = (TorcVertex) graph.vertices(
+        new UInt128(TorcEntity.PERSON.idSpace, personId)).next();
+    TorcIdSet friends = new TorcIdSet();
+    Iterator<Edge> edges = person.edges(Direction.OUT, KNOWS, PERSON);
+    while (edges.hasNext()) {
+      friends.add(((UInt128) edges.next().inVertex().id()).getLowerLong());
+    }
+    return friends.toArray();
+  }
+}
@@ -0,0 +1,440 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import com.ldbc.driver.Operation;
+
+import org.apache.tinkerpop.gremlin.structure.Graph;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+/**
+ * Commits small updates from many threads together, in one TorcDB
+ * transaction per batch, for the updates that only add an edge between two
+ * existing vertices (LdbcUpdate2AddPostLike, LdbcUpdate3AddCommentLike,
+ * LdbcUpdate5AddForumMembership). Shared by all the threads using a
+ * TorcDbConnectionState.
+ *
+ * TorcDB transactions belong to the thread that opened them, so the updates
+ * are applied by one committer thread. Handlers queue an update with the ids
+ * of the vertices it writes, and wait. The committer takes updates into a
+ * batch until it has maxBatchSize of them or windowMicros have passed since
+ * the first, applies them all, and commits once. An update that writes a
+ * vertex already written in the batch is held for the next one, so that a
+ * batch never writes the same edge lists twice.
+ *
+ * If a batch fails to commit, each of its updates is retried in a
+ * transaction of its own, like the handlers do without group commit, so
+ * each handler learns whether its own update committed.
+ *
+ * Commits and latencies, from queueing to commit, are counted per
+ * operation class.
+ */
+public class TorcDbGroupCommit implements TorcDbGroupCommitMBean {
+
+  // Maximum number of times to try an update on its own, as in TorcDb.
+  private static final int MAX_TX_ATTEMPTS = 100;
+
+  /**
+   * The writes of one update.
+   */
+  public interface Update {
+    /**
+     * Applies the writes in the calling thread's transaction on the graph,
+     * without committing.
+     */
+    void apply(Graph graph);
+  }
+
+  /**
+   * An update waiting to be committed.
+   */
+  private static class Pending {
+    public final Operation operation;
+    public final Object[] vertexIds;
+    public final Update update;
+    public final long queuedAt = System.nanoTime();
+    public final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    public Pending(Operation operation, Object[] vertexIds, Update update) {
+      this.operation = operation;
+      this.vertexIds = vertexIds;
+      this.update = update;
+    }
+  }
+
+  /**
+   * Counts for one operation class.
+   */
+  private static class OperationStats {
+    public final LongAdder failed = new LongAdder();
+    public final TorcDbLatencyHistogram latency =
+        new TorcDbLatencyHistogram();
+  }
+
+  private final Graph graph;
+  private final long windowNanos;
+  private final int maxBatchSize;
+  private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+  private final Thread committer;
+  private volatile boolean running = true;
+
+  private final long startTime = System.nanoTime();
+  private final LongAdder batches = new LongAdder();
+  private final LongAdder batchedUpdates = new LongAdder();
+  private final LongAdder failedBatches = new LongAdder();
+  private final ConcurrentHashMap<Class<?>, OperationStats> stats =
+      new ConcurrentHashMap<>();
+
+  /**
+   * @param graph Graph to apply updates to.
+   * @param windowMicros Longest time to wait for more updates after the
+   * first of a batch. 0 disables group commit.
+   * @param maxBatchSize Maximum number of updates per batch.
+   */
+  public TorcDbGroupCommit(Graph graph, long windowMicros,
+      int maxBatchSize) {
+    this.graph = graph;
+    this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+    this.maxBatchSize = Math.max(1, maxBatchSize);
+
+    if (windowMicros > 0) {
+      this.committer = new Thread(this::run, "TorcDbGroupCommit");
+      this.committer.setDaemon(true);
+      this.committer.start();
+    } else {
+      this.committer = null;
+    }
+  }
+
+  public boolean isEnabled() {
+    return committer != null;
+  }
+
+  /**
+   * Queues an update and waits for it to commit.
+   *
+   * @param operation The operation the update is for.
+   * @param vertexIds Ids of the vertices the update writes.
+   * @param update The writes.
+   *
+   * @throws RuntimeException If the update failed, with the exception it
+   * failed with, or if it couldn't commit in MAX_TX_ATTEMPTS attempts.
+   * @throws IllegalStateException If group commit has been closed, or its
+   * committer thread died before committing the update.
+   */
+  public void execute(Operation operation, Object[] vertexIds,
+      Update update) {
+    if (!running) {
+      throw new IllegalStateException("Group commit is closed");
+    }
+
+    Pending p = new Pending(operation, vertexIds, update);
+    queue.add(p);
+
+    // If we raced with close(), the committer may already have stopped
+    // taking updates. Whoever removes the update from the queue completes
+    // it, so only fail it here if it's still there.
+    if (!running && queue.remove(p)) {
+      throw new IllegalStateException("Group commit is closed");
+    }
+
+    try {
+      p.done.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Stops the committer thread once it has committed the updates queued so
+   * far. Updates still queued after that, such as those queued while it was
+   * stopping, fail.
+   */
+  public void close() {
+    if (committer == null) {
+      return;
+    }
+
+    running = false;
+    try {
+      committer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    failQueued(new IllegalStateException("Group commit is closed"));
+  }
+
+  private void run() {
+    // Updates held back from a batch, which go first into the next.
+    ArrayDeque<Pending> held = new ArrayDeque<>();
+    List<Pending> batch = new ArrayList<>(maxBatchSize);
+
+    try {
+      run(held, batch);
+    } catch (Throwable t) {
+      // Don't leave handlers waiting on updates that will never commit.
+      running = false;
+      IllegalStateException e = 
+          new IllegalStateException("Group commit thread failed", t);
+      for (Pending p : batch) {
+        if (!p.done.isDone()) {
+          complete(p, e);
+        }
+      }
+      for (Pending p : held) {
+        complete(p, e);
+      }
+      failQueued(e);
+      throw t;
+    }
+  }
+
+  private void run(ArrayDeque<Pending> held, List<Pending> batch) {
+    Set<Object> written = new HashSet<>();
+
+    while (running || !queue.isEmpty() || !held.isEmpty()) {
+      batch.clear();
+      written.clear();
+
+      // Start with whatever was held back, in order.
+      Iterator<Pending> it = held.iterator();
+      while (it.hasNext() && batch.size() < maxBatchSize) {
+        Pending p = it.next();
+        if (addIfDisjoint(p, batch, written)) {
+          it.remove();
+        }
+      }
+
+      if (batch.isEmpty()) {
+        Pending first;
+        try {
+          first = queue.poll(100, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          continue;
+        }
+        if (first == null) {
+          continue;
+        }
+        addIfDisjoint(first, batch, written);
+      }
+
+      long deadline = System.nanoTime() + windowNanos;
+      while (batch.size() < maxBatchSize) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          break;
+        }
+
+        Pending p;
+        try {
+          p = queue.poll(remaining, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+          break;
+        }
+        if (p == null) {
+          break;
+        }
+
+        if (!addIfDisjoint(p, batch, written)) {
+          held.add(p);
+        }
+      }
+
+      commit(batch);
+    }
+  }
+
+  /**
+   * Fails every update still in the queue.
+   */
+  private void failQueued(RuntimeException e) {
+    Pending p;
+    while ((p = queue.poll()) != null) {
+      complete(p, e);
+    }
+  }
+
+  /**
+   * Adds an update to the batch if it writes none of the vertices already
+   * written by the batch.
+   */
+  private static boolean addIfDisjoint(Pending p, List<Pending> batch,
+      Set<Object> written) {
+    for (Object id : p.vertexIds) {
+      if (written.contains(id)) {
+        return false;
+      }
+    }
+    Collections.addAll(written, p.vertexIds);
+    batch.add(p);
+    return true;
+  }
+
+  private void commit(List<Pending> batch) {
+    if (batch.size() > 1) {
+      try {
+        for (Pending p : batch) {
+          p.update.apply(graph);
+        }
+        graph.tx().commit();
+      } catch (RuntimeException e) {
+        graph.tx().rollback();
+        failedBatches.increment();
+        for (Pending p : batch) {
+          commitAlone(p);
+        }
+        return;
+      }
+
+      batches.increment();
+      batchedUpdates.add(batch.size());
+      for (Pending p : batch) {
+        complete(p, null);
+      }
+    } else {
+      commitAlone(batch.get(0));
+    }
+  }
+
+  /**
+   * Commits an update in transactions of its own until one succeeds.
+   */
+  private void commitAlone(Pending p) {
+    int txFailCount = 0;
+    while (true) {
+      try {
+        p.update.apply(graph);
+      } catch (RuntimeException e) {
+        graph.tx().rollback();
+        complete(p, e);
+        return;
+      }
+
+      try {
+        graph.tx().commit();
+        complete(p, null);
+        return;
+      } catch (Exception e) {
+        txFailCount++;
+      }
+
+      if (txFailCount >= MAX_TX_ATTEMPTS) {
+        complete(p, new RuntimeException(String.format(
+            "ERROR: Transaction failed %d times, aborting...",
+            txFailCount)));
+        return;
+      }
+    }
+  }
+
+  private void complete(Pending p, RuntimeException e) {
+    OperationStats s = stats.computeIfAbsent(p.operation.getClass(),
+        (k) -> new OperationStats());
+    if (e == null) {
+      s.latency.record(System.nanoTime() - p.queuedAt);
+      p.done.complete(null);
+    } else {
+      s.failed.increment();
+      p.done.completeExceptionally(e);
+    }
+  }
+
+  @Override
+  public long getBatches() {
+    return batches.sum();
+  }
+
+  @Override
+  public long getBatchedUpdates() {
+    return batchedUpdates.sum();
+  }
+
+  @Override
+  public long getFailedBatches() {
+    return failedBatches.sum();
+  }
+
+  @Override
+  public double getMeanBatchSize() {
+    long b = batches.sum();
+    return (b == 0) ? 0.0 : (double) batchedUpdates.sum() / b;
+  }
+
+  @Override
+  public String getReport() {
+    double seconds = (System.nanoTime() - startTime) / 1e9;
+
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("Group commit: batches %d, mean batch size "
+        + "%.2f, failed batches %d\n", getBatches(), getMeanBatchSize(),
+        getFailedBatches()));
+
+    // Sort by operation name for a stable layout.
+    Map<String, OperationStats> sorted = new TreeMap<>();
+    stats.forEach((k, v) -> sorted.put(k.getSimpleName(), v));
+
+    sb.append(String.format("%-32s %10s %8s %10s %10s %10s %10s %10s\n",
+        "Operation", "Committed", "Failed", "Ops/s", "Mean(us)", "50th(us)",
+        "99th(us)", "Max(us)"));
+    sorted.forEach((opName, s) -> {
+      TorcDbLatencyHistogram h = s.latency;
+      sb.append(String.format(
+          "%-32s %10d %8d %10.1f %10.1f %10.1f %10.1f %10.1f\n",
+          opName,
+          h.getCount(),
+          s.failed.sum(),
+          h.getCount() / seconds,
+          h.getMean() / 1000.0,
+          h.getPercentile(50) / 1000.0,
+          h.getPercentile(99) / 1000.0,
+          h.getMax() / 1000.0));
+    });
+    return sb.toString();
+  }
+
+  /**
+   * Registers these metrics with the platform MBean server, so that they can
+   * be read with jconsole and the like.
+   */
+  public void registerMBean() throws Exception {
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+        new ObjectName(
+            "net.ellitron.ldbcsnbimpls.interactive.torc:type=GroupCommit"));
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+/**
+ * JMX management interface for TorcDbGroupCommit.
+ */
+public interface TorcDbGroupCommitMBean {
+
+  /**
+   * Returns the number of batch transactions committed.
+   */
+  long getBatches();
+
+  /**
+   * Returns the number of updates committed in batch transactions.
+   */
+  long getBatchedUpdates();
+
+  /**
+   * Returns the number of batch transactions that failed, whose updates
+   * were then retried one at a time.
+   */
+  long getFailedBatches();
+
+  /**
+   * Returns batched updates / batches, or 0 if there were none.
+   */
+  double getMeanBatchSize();
+
+  /**
+   * Returns a summary of the above, followed by one line per operation
+   * with its throughput and latency.
+   */
+  String getReport();
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import com.ldbc.driver.Operation;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides when TorcDbClient should hedge a read, that is send a second copy
+ * of it to another TorcDbServer and take whichever response comes back
+ * first. A read is hedged once it has been outstanding for longer than the
+ * configured percentile of recent latencies of reads of the same type, which
+ * cuts off the tail caused by a single stalled server at the cost of a few
+ * percent extra load. Updates are never hedged, since they are not
+ * idempotent.
+ *
+ * Configured with the hedgePercentile property (e.g. 95). Hedging is off when
+ * the property is absent or 0. It needs connectionsPerServer to be set, since
+ * it relies on having two requests in flight for the same thread.
+ */
+public class TorcDbHedgingPolicy {
+
+  // Number of recent latencies kept per operation type.
+  private static final int WINDOW_SIZE = 1024;
+
+  // Don't hedge an operation type until we have this many samples for it.
+  private static final int MIN_SAMPLES = 100;
+
+  // Recompute the hedging threshold every this many samples.
+  private static final int RECOMPUTE_INTERVAL = 128;
+
+  /**
+   * Recent latencies and hedging counters for one operation type.
+   */
+  private static class OpStats {
+    public final AtomicLongArray window = new AtomicLongArray(WINDOW_SIZE);
+    public final AtomicLong samples = new AtomicLong(0);
+    public volatile long thresholdNanos = 0;
+    public final LongAdder hedgesFired = new LongAdder();
+    public final LongAdder hedgesWon = new LongAdder();
+  }
+
+  private final double percentile;
+
+  private final ConcurrentHashMap<Class<?>, OpStats> opStats =
+      new ConcurrentHashMap<>();
+
+  public TorcDbHedgingPolicy(double percentile) {
+    this.percentile = percentile;
+  }
+
+  private OpStats statsFor(Operation op) {
+    OpStats s = opStats.get(op.getClass());
+    if (s == null) {
+      s = opStats.computeIfAbsent(op.getClass(), (k) -> new OpStats());
+    }
+    return s;
+  }
+
+  /**
+   * Returns whether the operation may be hedged at all.
+   */
+  public static boolean isHedgeable(Operation op) {
+    return TorcDbRequestScheduler.OperationClass.of(op)
+        != TorcDbRequestScheduler.OperationClass.UPDATE;
+  }
+
+  /**
+   * Returns how long to wait for a response to the operation before hedging
+   * it, or 0 if it should not be hedged (yet).
+   */
+  public long getThresholdNanos(Operation op) {
+    if (!isHedgeable(op)) {
+      return 0;
+    }
+    return statsFor(op).thresholdNanos;
+  }
+
+  /**
+   * Records the latency of a single request for the operation to a single
+   * server.
+   */
+  public void recordLatency(Operation op, long nanos) {
+    OpStats s = statsFor(op);
+    long n = s.samples.getAndIncrement();
+    s.window.set((int) (n % WINDOW_SIZE), nanos);
+
+    if (n + 1 >= MIN_SAMPLES && (n + 1) % RECOMPUTE_INTERVAL == 0) {
+      int size = (int) Math.min(n + 1, WINDOW_SIZE);
+      long[] sorted = new long[size];
+      for (int i = 0; i < size; i++) {
+        sorted[i] = s.window.get(i);
+      }
+      Arrays.sort(sorted);
+      int idx = (int) Math.min(size - 1,
+          Math.ceil(percentile / 100.0 * size) - 1);
+      s.thresholdNanos = sorted[Math.max(idx, 0)];
+    }
+  }
+
+  /**
+   * Records that a hedge was sent for the operation.
+   */
+  public void hedgeFired(Operation op) {
+    statsFor(op).hedgesFired.increment();
+  }
+
+  /**
+   * Records that the hedge for the operation answered before the original
+   * request did.
+   */
+  public void hedgeWon(Operation op) {
+    statsFor(op).hedgesWon.increment();
+  }
+
+  @Override
+  public String toString() {
+    Map<String, OpStats> sorted = new TreeMap<>();
+    opStats.forEach((k, v) -> sorted.put(k.getSimpleName(), v));
+
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%-32s %10s %12s %10s %10s\n", "Operation",
+        "Requests", "Threshold(us)", "Hedged", "HedgesWon"));
+    sorted.forEach((opName, s) -> {
+      sb.append(String.format("%-32s %10d %12.1f %10d %10d\n", opName,
+          s.samples.get(), s.thresholdNanos / 1000.0, s.hedgesFired.sum(),
+          s.hedgesWon.sum()));
+    });
+    return sb.toString();
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds, cheap enough to record
+ * into on every request from many threads at once.
+ *
+ * Values are counted in log-linear buckets: each power of two range is split
+ * into 8 equal sub-buckets, so a percentile read back from the histogram is
+ * within 12.5% of the true value.
+ */
+public class TorcDbLatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int NUM_BUCKETS =
+      (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Long::max, 0L);
+
+  private static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) Math.max(value, 0);
+    }
+    int exp = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exp - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  /**
+   * Returns the smallest value that falls into the given bucket.
+   */
+  private static long lowerBoundOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exp = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    int sub = bucket % SUB_BUCKETS;
+    return ((long) (SUB_BUCKETS + sub)) << (exp - SUB_BUCKET_BITS);
+  }
+
+  /**
+   * Records a value.
+   *
+   * @param nanos Latency in nanoseconds.
+   */
+  public void record(long nanos) {
+    counts.incrementAndGet(bucketOf(nanos));
+    count.increment();
+    sum.add(nanos);
+    max.accumulate(nanos);
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public double getMean() {
+    long n = count.sum();
+    return (n == 0) ? 0.0 : sum.sum() / (double) n;
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Returns an estimate of the given percentile of recorded values.
+   *
+   * @param percentile Percentile between 0 and 100.
+   */
+  public long getPercentile(double percentile) {
+    long[] snapshot = new long[NUM_BUCKETS];
+    long total = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = (long) Math.ceil(percentile / 100.0 * total);
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank && snapshot[i] > 0) {
+        // Report the middle of the bucket.
+        long lo = lowerBoundOf(i);
+        long hi = (i + 1 < NUM_BUCKETS) ? lowerBoundOf(i + 1) : lo;
+        return Math.min(lo + (hi - lo) / 2, getMax());
+      }
+    }
+
+    return getMax();
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import net.ellitron.torc.*;
+import net.ellitron.torc.util.UInt128;
+
+import org.apache.tinkerpop.gremlin.structure.Direction;
+import org.apache.tinkerpop.gremlin.structure.Edge;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Finds the most recent messages created by a set of persons, for the queries
+ * that return the top messages by creationDate of a person or their friends
+ * (LdbcShortQuery2PersonPosts, LdbcQuery2, LdbcQuery9).
+ *
+ * Each person's Posts and Comments are kept in two separate hasCreator edge
+ * lists. When the graph was loaded with GraphLoader --timeOrderedMessages
+ * the loaded part of each of these lists is ordered newest message first,
+ * since the loader adds each person's edges in ascending creationDate order
+ * and TorcDB adds new edges to the front of an edge list. Messages added
+ * later by LdbcUpdate6 and LdbcUpdate7 go in front of them, but concurrent
+ * updates may commit in any order, so those are not trusted to be ordered.
+ * Given the load cutoff, the creationDate of the newest message loaded, each
+ * list's messages created after the cutoff are read and sorted, and the
+ * loaded messages behind them are read lazily. The lists are then merged
+ * with a k-way merge, which reads the creationDate of only as many loaded
+ * messages as it takes to find the top ones. Without a cutoff each list is
+ * read and sorted in full.
+ */
+public class TorcDbMessageMerge {
+
+  private static final String[] HAS_CREATOR = new String[] {"hasCreator"};
+  private static final String[][] MESSAGE_LABELS = new String[][] {
+      new String[] {TorcEntity.POST.label},
+      new String[] {TorcEntity.COMMENT.label}};
+
+  /**
+   * A message, its creator, and its creationDate.
+   */
+  public static class Message {
+    public final Vertex creator;
+    public final Vertex message;
+    public final long id;
+    public final long creationDate;
+
+    public Message(Vertex creator, Vertex message) {
+      this.creator = creator;
+      this.message = message;
+      this.id = ((UInt128) message.id()).getLowerLong();
+      this.creationDate = TorcDbProperties.getLong(message, "creationDate");
+    }
+
+    public long creatorId() {
+      return ((UInt128) creator.id()).getLowerLong();
+    }
+
+    /**
+     * Returns the message's content, or for Posts without content its
+     * imageFile.
+     */
+    public String content() {
+      String content = message.<String>property("content").value();
+      if (content.length() != 0) {
+        return content;
+      }
+      return message.<String>property("imageFile").value();
+    }
+  }
+
+  /**
+   * Reads one of a person's hasCreator edge lists, newest message first.
+   */
+  private static class Cursor {
+    private final Iterator<Message> messages;
+    public Message head;
+
+    public Cursor(Vertex creator, String[] messageLabel, long loadCutoff) {
+      Iterator<Edge> edges = ((TorcVertex) creator).edges(Direction.IN,
+          HAS_CREATOR, messageLabel);
+
+      // Messages created after the cutoff were added by updates, in commit
+      // order, and are at the front of the list. Sort them, up to the first
+      // loaded message, behind which the rest are already newest first.
+      List<Message> added = new ArrayList<>();
+      while (edges.hasNext()) {
+        Message m = new Message(creator, edges.next().outVertex());
+        added.add(m);
+        if (m.creationDate <= loadCutoff) {
+          break;
+        }
+      }
+      added.sort((a, b) -> Long.compare(b.creationDate, a.creationDate));
+
+      Iterator<Message> first = added.iterator();
+      this.messages = new Iterator<Message>() {
+        @Override
+        public boolean hasNext() {
+          return first.hasNext() || edges.hasNext();
+        }
+
+        @Override
+        public Message next() {
+          if (first.hasNext()) {
+            return first.next();
+          }
+          return new Message(creator, edges.next().outVertex());
+        }
+      };
+    }
+
+    /**
+     * Moves head to the next message created on or before maxDate.
+     *
+     * @return False if there is none.
+     */
+    public boolean advance(long maxDate) {
+      while (messages.hasNext()) {
+        head = messages.next();
+        if (head.creationDate <= maxDate) {
+          return true;
+        }
+      }
+      head = null;
+      return false;
+    }
+  }
+
+  /**
+   * Returns the top messages created by the given persons on or before
+   * maxDate.
+   *
+   * @param creators Persons whose messages to consider. Must not contain
+   * duplicates.
+   * @param maxDate Latest creationDate to include, inclusive.
+   * @param limit Number of messages to return.
+   * @param loadCutoff creationDate of the newest message loaded with
+   * GraphLoader --timeOrderedMessages, or Long.MIN_VALUE if the graph wasn't
+   * loaded in time order. Messages added by updates must all be newer than
+   * this.
+   * @param order Order of the result. Must sort newer messages first, but
+   * may order messages with the same creationDate in any way.
+   *
+   * @return Up to limit messages, in the given order.
+   */
+  public static List<Message> newest(Collection<Vertex> creators,
+      long maxDate, int limit, long loadCutoff,
+      Comparator<Message> order) {
+    if (limit <= 0) {
+      return new ArrayList<>();
+    }
+
+    PriorityQueue<Cursor> heads = new PriorityQueue<>(
+        Math.max(1, creators.size() * MESSAGE_LABELS.length),
+        (a, b) -> Long.compare(b.head.creationDate, a.head.creationDate));
+    for (Vertex creator : creators) {
+      for (String[] messageLabel : MESSAGE_LABELS) {
+        Cursor c = new Cursor(creator, messageLabel, loadCutoff);
+        if (c.advance(maxDate)) {
+          heads.add(c);
+        }
+      }
+    }
+
+    /*
+     * Take messages newest first until we have limit of them, and then keep
+     * going through any more with the same creationDate as the last one
+     * taken, since order may put those ahead of it.
+     */
+    List<Message> taken = new ArrayList<>(limit);
+    while (!heads.isEmpty()) {
+      Cursor c = heads.peek();
+      if (taken.size() >= limit && c.head.creationDate
+          < taken.get(taken.size() - 1).creationDate) {
+        break;
+      }
+
+      heads.poll();
+      taken.add(c.head);
+      if (c.advance(maxDate)) {
+        heads.add(c);
+      }
+    }
+
+    taken.sort(order);
+    if (taken.size() > limit) {
+      return new ArrayList<>(taken.subList(0, limit));
+    }
+    return taken;
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import com.ldbc.driver.Operation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A connection to a TorcDbServer that is shared by many threads, each of which
+ * can have requests in flight on it at the same time. Requests are tagged with
+ * a request ID and written to the socket as they are submitted. A dedicated
+ * reader thread matches responses back to their requests by that ID, in
+ * whatever order the server sends them.
+ *
+ * Only the binary protocol (TorcDbWireProtocol) is supported, since Java
+ * object streams have no way to tag messages.
+ */
+public class TorcDbMultiplexedConnection {
+
+  /**
+   * A request that has been sent but not yet answered.
+   */
+  private static class PendingRequest {
+    public final Operation op;
+    public final CompletableFuture<Object> future;
+
+    public PendingRequest(Operation op) {
+      this.op = op;
+      this.future = new CompletableFuture<>();
+    }
+  }
+
+  private final Socket socket;
+  private final DataOutputStream out;
+  private final DataInputStream in;
+  private final Thread readerThread;
+
+  // Serializes writes of whole frames to out. A lock rather than a
+  // synchronized block so that callers on virtual threads don't pin their
+  // carrier while writing.
+  private final ReentrantLock writeLock = new ReentrantLock();
+
+  // Requests awaiting a response, keyed by request ID.
+  private final ConcurrentHashMap<Integer, PendingRequest> pendingRequests =
+      new ConcurrentHashMap<>();
+
+  private final AtomicInteger nextRequestId = new AtomicInteger(0);
+
+  // Set once the connection has failed or been closed. Requests submitted
+  // after this point fail immediately.
+  private volatile IOException failure = null;
+
+  public TorcDbMultiplexedConnection(String ip, int port) throws IOException {
+    this.socket = new Socket(ip, port);
+    this.socket.setTcpNoDelay(true);
+    this.out = new DataOutputStream(
+        new BufferedOutputStream(socket.getOutputStream()));
+    this.in = new DataInputStream(
+        new BufferedInputStream(socket.getInputStream()));
+    this.readerThread = new Thread(() -> readResponses(),
+        "TorcDbMultiplexedConnection-" + ip + ":" + port);
+    this.readerThread.setDaemon(true);
+    this.readerThread.start();
+  }
+
+  /**
+   * Sends a request to the server.
+   *
+   * @param op Operation to execute.
+   * @return Future that completes with the decoded result of the operation,
+   * or exceptionally if the server reports an error or the connection fails.
+   */
+  public CompletableFuture<Object> submit(Operation op) {
+    int requestId = nextRequestId.getAndIncrement();
+    PendingRequest req = new PendingRequest(op);
+    pendingRequests.put(requestId, req);
+
+    // Encode outside of the lock, we only need to serialize the writes.
+    TorcDbWireProtocol.FrameBuffer buf =
+        TorcDbWireProtocol.getThreadLocalFrameBuffer();
+    TorcDbWireProtocol.encodeRequest(buf, requestId, op);
+
+    try {
+      if (failure != null) {
+        throw failure;
+      }
+
+      writeLock.lock();
+      try {
+        buf.writeTo(out);
+        out.flush();
+      } finally {
+        writeLock.unlock();
+      }
+    } catch (IOException e) {
+      pendingRequests.remove(requestId);
+      req.future.completeExceptionally(e);
+    }
+
+    return req.future;
+  }
+
+  /**
+   * Returns the number of requests sent on this connection that are still
+   * awaiting a response.
+   */
+  public int getOutstandingRequests() {
+    return pendingRequests.size();
+  }
+
+  /**
+   * Returns whether the connection has failed or been closed, in which case
+   * every request submitted on it fails and it needs to be replaced.
+   */
+  public boolean isFailed() {
+    return failure != null;
+  }
+
+  /**
+   * Closes the connection. Requests still in flight fail.
+   */
+  public void close() throws IOException {
+    fail(new IOException("Connection closed"));
+    socket.close();
+  }
+
+  private void readResponses() {
+    try {
+      while (true) {
+        ByteBuffer frame = TorcDbWireProtocol.readFrame(in);
+        int requestId = frame.getInt();
+        PendingRequest req = pendingRequests.remove(requestId);
+        if (req == null) {
+          throw new IOException("Response for unknown request " + requestId);
+        }
+
+        try {
+          req.future.complete(TorcDbWireProtocol.decodeResponse(frame, req.op));
+        } catch (TorcDbWireProtocol.ServerException e) {
+          // The server failed to execute this operation, but the connection
+          // itself is still fine.
+          req.future.completeExceptionally(e);
+        }
+      }
+    } catch (IOException e) {
+      fail(e);
+    } catch (RuntimeException e) {
+      // Malformed frame.
+      fail(new IOException(e));
+    }
+  }
+
+  private void fail(IOException e) {
+    if (failure == null) {
+      failure = e;
+    }
+
+    pendingRequests.forEach((requestId, req) -> {
+      if (pendingRequests.remove(requestId) != null) {
+        req.future.completeExceptionally(failure);
+      }
+    });
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import net.ellitron.ldbcsnbimpls.interactive.core.SnbEntity;
+import net.ellitron.torc.util.UInt128;
+
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps the names of countries, which LdbcQuery3 and LdbcQuery11 take as
+ * parameters, to the ids of their vertices. TorcDB has no secondary indexes,
+ * so without this the handlers find these vertices by reading the name of
+ * every candidate they traverse to. Countries are few and no update adds to
+ * them, so the index is read once, when the TorcDbConnectionState is
+ * created, from the same place files of the SNB dataset that GraphLoader
+ * loads.
+ *
+ * Handlers use it through Matchers, which compare vertices by id when the
+ * index is loaded and otherwise fall back to reading their names. Tags and
+ * TagClasses are not indexed: LdbcQuery12 goes through TorcDbTagClassIndex,
+ * which is keyed by name, and the other queries with a Tag parameter reach
+ * the Tag from the Posts they already read.
+ */
+public class TorcDbNameIndex {
+
+  private final boolean loaded;
+  private final Map<String, UInt128> countries = new HashMap<>();
+
+  /**
+   * Matches vertices against a set of names.
+   */
+  public static class Matcher {
+    private final String[] names;
+    // Ids of the named vertices, or null if the index isn't loaded. An id is
+    // null if there is no vertex of that name.
+    private final UInt128[] ids;
+
+    private Matcher(String[] names, UInt128[] ids) {
+      this.names = names;
+      this.ids = ids;
+    }
+
+    /**
+     * Returns whether the vertex has one of the names.
+     */
+    public boolean matches(Vertex v) {
+      return indexOf(v) != -1;
+    }
+
+    /**
+     * Returns the vertex's name, without reading it if it is one of the
+     * names.
+     */
+    public String nameOf(Vertex v) {
+      int i = indexOf(v);
+      if (i != -1) {
+        return names[i];
+      }
+      return v.<String>property("name").value();
+    }
+
+    private int indexOf(Vertex v) {
+      if (ids != null) {
+        Object id = v.id();
+        for (int i = 0; i < ids.length; i++) {
+          if (id.equals(ids[i])) {
+            return i;
+          }
+        }
+        return -1;
+      }
+
+      String name = v.<String>property("name").value();
+      for (int i = 0; i < names.length; i++) {
+        if (names[i].equals(name)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+  }
+
+  private TorcDbNameIndex(boolean loaded) {
+    this.loaded = loaded;
+  }
+
+  /**
+   * Returns an index that isn't loaded, whose Matchers read names.
+   */
+  public static TorcDbNameIndex empty() {
+    return new TorcDbNameIndex(false);
+  }
+
+  /**
+   * Reads the index from the place files in an SNB dataset directory.
+   */
+  public static TorcDbNameIndex load(String dir) throws IOException {
+    TorcDbNameIndex index = new TorcDbNameIndex(true);
+    index.readCountries(dir);
+    return index;
+  }
+
+  private void readCountries(String dir) throws IOException {
+    String placeName = SnbEntity.PLACE.name;
+    File[] files = new File(dir).listFiles((d, name) -> name.matches(
+        "^" + placeName + "_[0-9]+_[0-9]+\\.csv"));
+    if (files == null || files.length == 0) {
+      throw new IOException(String.format("No %s files found in %s",
+          placeName, dir));
+    }
+
+    for (File f : files) {
+      try (BufferedReader in =
+          Files.newBufferedReader(f.toPath(), StandardCharsets.UTF_8)) {
+        List<String> fieldNames = Arrays.asList(in.readLine().split("\\|"));
+        int idField = fieldNames.indexOf("id");
+        int nameField = fieldNames.indexOf("name");
+        int typeField = fieldNames.indexOf("type");
+
+        String line;
+        while ((line = in.readLine()) != null) {
+          String[] fieldValues = line.split("\\|");
+          if (!fieldValues[typeField].equals("country")) {
+            continue;
+          }
+
+          countries.put(fieldValues[nameField], new UInt128(
+              TorcEntity.PLACE.idSpace, Long.parseLong(fieldValues[idField])));
+        }
+      }
+    }
+  }
+
+  public boolean isLoaded() {
+    return loaded;
+  }
+
+  /**
+   * Returns a Matcher for Places that are the named countries.
+   */
+  public Matcher countries(String... names) {
+    if (!loaded) {
+      return new Matcher(names, null);
+    }
+
+    UInt128[] ids = new UInt128[names.length];
+    for (int i = 0; i < names.length; i++) {
+      ids[i] = countries.get(names[i]);
+    }
+    return new Matcher(names, ids);
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import org.apache.tinkerpop.gremlin.structure.Graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Splits the per friend work of a complex read across threads, for the
+ * queries that aggregate over the messages of dozens to thousands of friends
+ * and friends of friends (LdbcQuery3, 4, 6 and 9). Shared by all the threads
+ * using a TorcDbConnectionState.
+ *
+ * A query's friends are split into chunks, each chunk is mapped to a partial
+ * result on its own thread, and the handler merges the partial results. The
+ * threads come from one ForkJoinPool of a fixed size, so that however many
+ * complex reads run at once they add at most that many threads. Each query
+ * splits into at most queryParallelism chunks, so that a few big queries
+ * can't take the whole pool, and chunks have at least minChunkSize friends,
+ * so that small queries don't pay for the hand off. The calling thread works
+ * on chunks too, and takes any that no pool thread has started by the time
+ * it is done with its own, so a busy pool makes a query no slower than
+ * running it on one thread.
+ *
+ * Chunks run on pool threads read in their own TorcDB transactions, which
+ * are rolled back, rather than the caller's. So the executor is disabled
+ * when reads are transactional (txReads).
+ */
+public class TorcDbParallelExecutor {
+
+  private final ForkJoinPool pool;
+  private final int queryParallelism;
+  private final int minChunkSize;
+
+  /**
+   * @param poolSize Number of pool threads. 0 means one per core.
+   * @param queryParallelism Maximum number of chunks to split one query
+   * into. 1 disables the executor.
+   * @param minChunkSize Minimum number of items per chunk.
+   */
+  public TorcDbParallelExecutor(int poolSize, int queryParallelism,
+      int minChunkSize) {
+    if (queryParallelism > 1) {
+      if (poolSize == 0) {
+        poolSize = Runtime.getRuntime().availableProcessors();
+      }
+      this.pool = new ForkJoinPool(poolSize);
+    } else {
+      this.pool = null;
+    }
+    this.queryParallelism = queryParallelism;
+    this.minChunkSize = Math.max(1, minChunkSize);
+  }
+
+  public boolean isEnabled() {
+    return pool != null;
+  }
+
+  /**
+   * Splits items into chunks, and maps each chunk to a partial result. If
+   * the executor is disabled or there are too few items to split, the whole
+   * list is mapped on the calling thread.
+   *
+   * @param graph Graph the function reads, whose transactions on pool
+   * threads are rolled back when they run out of chunks.
+   * @param items Items to split. Must not be modified until this returns.
+   * @param function Maps a chunk of items to a partial result. Must be safe
+   * to call from several threads at once.
+   *
+   * @return The partial results, one per chunk.
+   */
+  public <E, T> List<T> map(Graph graph, List<E> items,
+      Function<List<E>, T> function) {
+    int chunks = 1;
+    if (pool != null) {
+      chunks = Math.min(queryParallelism, items.size() / minChunkSize);
+    }
+
+    if (chunks <= 1) {
+      return Collections.singletonList(function.apply(items));
+    }
+
+    final int numChunks = chunks;
+    Object[] results = new Object[numChunks];
+    AtomicInteger next = new AtomicInteger();
+    CountDownLatch done = new CountDownLatch(numChunks);
+    AtomicReference<Throwable> error = new AtomicReference<>();
+
+    // Takes chunks until there are none left.
+    Runnable work = () -> {
+      int i;
+      while ((i = next.getAndIncrement()) < numChunks) {
+        int size = items.size();
+        List<E> chunk = items.subList(
+            (int) ((long) size * i / numChunks),
+            (int) ((long) size * (i + 1) / numChunks));
+        try {
+          results[i] = function.apply(chunk);
+        } catch (Throwable t) {
+          error.compareAndSet(null, t);
+        } finally {
+          done.countDown();
+        }
+      }
+    };
+
+    for (int i = 1; i < numChunks; i++) {
+      pool.execute(() -> {
+        try {
+          work.run();
+        } finally {
+          graph.tx().rollback();
+        }
+      });
+    }
+    work.run();
+
+    try {
+      done.await();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(ex);
+    }
+
+    Throwable t = error.get();
+    if (t instanceof RuntimeException) {
+      throw (RuntimeException) t;
+    } else if (t instanceof Error) {
+      throw (Error) t;
+    } else if (t != null) {
+      throw new RuntimeException(t);
+    }
+
+    List<T> partials = new ArrayList<>(numChunks);
+    for (Object result : results) {
+      partials.add((T) result);
+    }
+    return partials;
+  }
+
+  /**
+   * Same as map() over the items of an array.
+   */
+  public <E, T> List<T> map(Graph graph, E[] items,
+      Function<List<E>, T> function) {
+    return map(graph, Arrays.asList(items), function);
+  }
+
+  /**
+   * Stops the pool threads.
+   */
+  public void close() {
+    if (pool != null) {
+      pool.shutdown();
+    }
+  }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import net.ellitron.torc.*;
+import net.ellitron.torc.util.UInt128;
+
+import org.apache.tinkerpop.gremlin.structure.Direction;
+import org.apache.tinkerpop.gremlin.structure.Edge;
+import org.apache.tinkerpop.gremlin.structure.Graph;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shortest path search over the knows graph, used by the native query
+ * handlers in place of Gremlin repeat() traversals. The Gremlin traversals
+ * enumerate paths, the number of which grows combinatorially with the degree
+ * of the persons involved, whereas the search here visits each person at
+ * most once.
+ *
+ * The search is a bidirectional breadth first search. Each step expands one
+ * whole level of the smaller of the two frontiers, reading the adjacency list
+ * of each person on it, and remembers the ids seen on each side by level in
+ * TorcIdSets. The search ends with the first level on which the two sides
+ * meet. When all shortest paths are wanted, each side also remembers, for
+ * every person it reaches, which persons on the previous level it was reached
+ * from. These form the DAG of shortest paths, from which the paths are read
+ * off without searching again.
+ */
+public class TorcDbPathFinder {
+
+  private static final String[] KNOWS = new String[] {"knows"};
+  private static final String[] PERSON =
+      new String[] {TorcEntity.PERSON.label};
+
+  /**
+   * One side of a bidirectional search.
+   */
+  private static class Side {
+    // Ids seen at each distance from this side's start.
+    public final List<TorcIdSet> levels = new ArrayList<>();
+    public List<Vertex> frontier = new ArrayList<>();
+
+    // For each id seen, the ids one step closer to this side's start that it
+    // is adjacent to. Only kept when we need the paths themselves.
+    public final Map<Long, List<Long>> parents;
+
+    public Side(Vertex start, boolean recordParents) {
+      TorcIdSet level0 = new TorcIdSet(1);
+      level0.add(idOf(start));
+      levels.add(level0);
+      frontier.add(start);
+      parents = recordParents ? new HashMap<>() : null;
+    }
+
+    public int depth() {
+      return levels.size() - 1;
+    }
+
+    /**
+     * Returns the distance of the id from this side's start, or -1 if it
+     * hasn't been seen.
+     */
+    public int distanceOf(long id) {
+      for (int i = 0; i < levels.size(); i++) {
+        if (levels.get(i).contains(id)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+  }
+
+  /**
+   * State of a finished bidirectional search.
+   */
+  private static class Search {
+    public final Side fwd;
+    public final Side bwd;
+    // Length of the shortest path, or -1 if there is none.
+    public int length = -1;
+    // Ids at which the two sides met on shortest paths.
+    public final List<Long> meets = new ArrayList<>();
+
+    public Search(Side fwd, Side bwd) {
+      this.fwd = fwd;
+      this.bwd = bwd;
+    }
+  }
+
+  /**
+   * Returns the length of the shortest path between two persons in the knows
+   * graph.
+   *
+   * @return Length of the path in edges, 0 if the persons are the same, or
+   * -1 if they are not connected.
+   */
+  public static int shortestPathLength(Graph graph, long person1Id,
+      long person2Id) {
+    if (person1Id == person2Id) {
+      return 0;
+    }
+
+    return search(graph, person1Id, person2Id, false).length;
+  }
+
+  /**
+   * Returns all shortest paths between two persons in the knows graph.
+   *
+   * @return Each path as the ids of the persons on it, from person1Id to
+   * person2Id. Empty if they are not connected.
+   */
+  public static List<long[]> shortestPaths(Graph graph, long person1Id,
+      long person2Id) {
+    List<long[]> paths = new ArrayList<>();
+    if (person1Id == person2Id) {
+      paths.add(new long[] {person1Id});
+      return paths;
+    }
+
+    Search search = search(graph, person1Id, person2Id, true);
+    if (search.length == -1) {
+      return paths;
+    }
+
+    for (long meet : search.meets) {
+      // Fill in the path from the meeting point back to person1, then for
+      // each way of doing that, from the meeting point on to person2.
+      int meetPos = search.fwd.distanceOf(meet);
+      List<long[]> heads = new ArrayList<>();
+      collectChains(search.fwd, meet, new long[search.length + 1], meetPos,
+          -1, heads);
+      for (long[] head : heads) {
+        collectChains(search.bwd, meet, head, meetPos, +1, paths);
+      }
+    }
+
+    return paths;
+  }
+
+  /**
+   * Fills in path with every chain of parents from id back to side's start,
+   * adding a copy of the path to out for each.
+   *
+   * @param pos Position of id in path.
+   * @param step Change in position for each step towards side's start, -1 for
+   * the forward side and +1 for the backward side.
+   */
+  private static void collectChains(Side side, long id, long[] path, int pos,
+      int step, List<long[]> out) {
+    path[pos] = id;
+    List<Long> parents = side.parents.get(id);
+    if (parents == null) {
+      // This is the side's start.
+      out.add(path.clone());
+      return;
+    }
+
+    for (long parent : parents) {
+      collectChains(side, parent, path, pos + step, step, out);
+    }
+  }
+
+  private static Search search(Graph graph, long person1Id, long person2Id,
+      boolean recordParents) {
+    Search search = new Search(
+        new Side(getPerson(graph, person1Id), recordParents),
+        new Side(getPerson(graph, person2Id), recordParents));
+
+    while (!search.fwd.frontier.isEmpty() && !search.bwd.frontier.isEmpty()) {
+      Side side;
+      Side other;
+      if (search.fwd.frontier.size() <= search.bwd.frontier.size()) {
+        side = search.fwd;
+        other = search.bwd;
+      } else {
+        side = search.bwd;
+        other = search.fwd;
+      }
+
+      if (expand(side, other, search)) {
+        break;
+      }
+    }
+
+    return search;
+  }
+
+  /**
+   * Expands one level of side's frontier.
+   *
+   * @return True if the new level meets the other side, in which case the
+   * search's length and meets are filled in.
+   */
+  private static boolean expand(Side side, Side other, Search search) {
+    int depth = side.depth();
+    TorcIdSet next = new TorcIdSet(side.frontier.size() * 16);
+    List<Vertex> nextFrontier = new ArrayList<>();
+    List<Long> meets = new ArrayList<>();
+    List<Integer> meetLengths = new ArrayList<>();
+    int best = -1;
+
+    for (Vertex v : side.frontier) {
+      long vId = idOf(v);
+      Iterator<Edge> edges = knowsEdges(v);
+      while (edges.hasNext()) {
+        Vertex friend = edges.next().inVertex();
+        long id = idOf(friend);
+        if (side.distanceOf(id) != -1) {
+          continue;
+        }
+
+        if (side.parents != null) {
+          side.parents.computeIfAbsent(id, (k) -> new ArrayList<>(1))
+              .add(vId);
+        }
+
+        if (!next.add(id)) {
+          continue;
+        }
+        nextFrontier.add(friend);
+
+        int d = other.distanceOf(id);
+        if (d != -1) {
+          int length = depth + 1 + d;
+          meets.add(id);
+          meetLengths.add(length);
+          if (best == -1 || length < best) {
+            best = length;
+          }
+        }
+      }
+    }
+
+    side.levels.add(next);
+    side.frontier = nextFrontier;
+
+    if (best == -1) {
+      return false;
+    }
+
+    search.length = best;
+    for (int i = 0; i < meets.size(); i++) {
+      if (meetLengths.get(i) == best) {
+        search.meets.add(meets.get(i));
+      }
+    }
+    return true;
+  }
+
+  static Vertex getPerson(Graph graph, long personId) {
+    return graph.vertices(new UInt128(TorcEntity.PERSON.idSpace, personId))
+        .next();
+  }
+
+  static Iterator<Edge> knowsEdges(Vertex person) {
+    return ((TorcVertex) person).edges(Direction.OUT, KNOWS, PERSON);
+  }
+
+  static long idOf(Vertex v) {
+    return ((UInt128) v.id()).getLowerLong();
+  }
+}
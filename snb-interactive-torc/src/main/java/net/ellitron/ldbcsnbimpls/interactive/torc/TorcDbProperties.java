@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import org.apache.tinkerpop.gremlin.structure.Element;
+
+/**
+ * Encoding of the numeric properties of SNB entities and relations in TorcDB:
+ * creationDate, birthday and joinDate, in milliseconds since January 1, 1970,
+ * 00:00:00 GMT, and length, classYear and workFrom.
+ *
+ * TorcDB stores every property value as a String (TorcGraph.loadVertex and
+ * loadEdges take their properties as a Map<String, List<String>>), so these
+ * are stored as the decimal string of their value. The loaders and handlers
+ * encode and decode them only through this class, so that the encoding is
+ * defined in one place. Values are decoded with Long.parseLong, which
+ * returns a primitive, unlike Long.valueOf.
+ */
+public class TorcDbProperties {
+
+  /**
+   * Returns the stored form of a numeric property value.
+   */
+  public static String encode(long value) {
+    return Long.toString(value);
+  }
+
+  /**
+   * Decodes a stored numeric property value.
+   *
+   * @throws NumberFormatException If the value is not a decimal number.
+   */
+  public static long decodeLong(String value) {
+    return Long.parseLong(value);
+  }
+
+  /**
+   * Decodes a stored numeric property value that fits in an int (length,
+   * classYear, workFrom).
+   */
+  public static int decodeInt(String value) {
+    return (int) decodeLong(value);
+  }
+
+  /**
+   * Decodes a numeric property value produced by a Gremlin values() step,
+   * which is the stored String.
+   */
+  public static long toLong(Object value) {
+    if (value instanceof Number) {
+      return ((Number) value).longValue();
+    }
+    return decodeLong((String) value);
+  }
+
+  /**
+   * Decodes a numeric property value produced by a Gremlin values() step that
+   * fits in an int.
+   */
+  public static int toInt(Object value) {
+    return (int) toLong(value);
+  }
+
+  /**
+   * Returns the decoded value of a numeric property of a vertex or edge.
+   */
+  public static long getLong(Element element, String key) {
+    return decodeLong(element.<String>property(key).value());
+  }
+
+  /**
+   * Returns the decoded value of a numeric property of a vertex or edge that
+   * fits in an int.
+   */
+  public static int getInt(Element element, String key) {
+    return decodeInt(element.<String>property(key).value());
+  }
+}
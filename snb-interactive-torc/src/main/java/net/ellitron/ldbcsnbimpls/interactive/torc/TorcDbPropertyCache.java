@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import net.ellitron.torc.util.UInt128;
+
+import org.apache.tinkerpop.gremlin.structure.Graph;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.management.ObjectName;
+
+/**
+ * A bounded read-through cache of the vertex properties that never change
+ * once a vertex is created and that the handlers read most often: the names
+ * of Persons, Places, Tags, TagClasses and Organisations, and the titles of
+ * Forums. Shared by all the threads using a TorcDbConnectionState.
+ *
+ * Entries are keyed by vertex id and hold all the cached properties of the
+ * vertex's label, so reading one of them caches the others. Reads of any
+ * other property, or of any property when the cache is disabled, bypass the
+ * cache and go to the vertex, so properties that can change are never served
+ * stale.
+ *
+ * The cache is split into segments by id hash, each an LRU map under its own
+ * lock, so that threads reading different vertices rarely contend. Hits,
+ * misses and evictions are counted, and can be read through JMX or the
+ * TorcDbServer statistics dumps.
+ */
+public class TorcDbPropertyCache implements TorcDbPropertyCacheMBean {
+
+  // Cached properties of each vertex label.
+  private static final Map<String, String[]> CACHED_PROPERTIES =
+      new HashMap<>();
+
+  static {
+    CACHED_PROPERTIES.put(TorcEntity.PERSON.label,
+        new String[] {"firstName", "lastName"});
+    CACHED_PROPERTIES.put(TorcEntity.PLACE.label, new String[] {"name"});
+    CACHED_PROPERTIES.put(TorcEntity.TAG.label, new String[] {"name"});
+    CACHED_PROPERTIES.put(TorcEntity.TAGCLASS.label, new String[] {"name"});
+    CACHED_PROPERTIES.put(TorcEntity.ORGANISATION.label,
+        new String[] {"name"});
+    CACHED_PROPERTIES.put(TorcEntity.FORUM.label, new String[] {"title"});
+  }
+
+  private static final int NUM_SEGMENTS = 16;
+
+  /**
+   * One segment of the cache, in least recently used first order.
+   */
+  private class Segment extends LinkedHashMap<UInt128, String[]> {
+    // A lock rather than synchronized blocks so that callers on virtual
+    // threads don't pin their carrier while they wait for it.
+    public final ReentrantLock lock = new ReentrantLock();
+    private final int capacity;
+
+    public Segment(int capacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(
+        Map.Entry<UInt128, String[]> eldest) {
+      if (size() > capacity) {
+        evictions.increment();
+        return true;
+      }
+      return false;
+    }
+  }
+
+  private final int capacity;
+  private final Segment[] segments;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * @param capacity Maximum number of vertices to cache. 0 disables the
+   * cache.
+   */
+  public TorcDbPropertyCache(int capacity) {
+    this.capacity = capacity;
+    this.segments = new Segment[NUM_SEGMENTS];
+    int segmentCapacity = (capacity + NUM_SEGMENTS - 1) / NUM_SEGMENTS;
+    for (int i = 0; i < NUM_SEGMENTS; i++) {
+      segments[i] = new Segment(segmentCapacity);
+    }
+  }
+
+  public boolean isEnabled() {
+    return capacity > 0;
+  }
+
+  /**
+   * Returns a property of a vertex, from the cache if it is a cached
+   * property, and otherwise from the vertex.
+   */
+  public String get(Vertex v, String key) {
+    String value = peek((UInt128) v.id(), v.label(), key);
+    if (value != null) {
+      return value;
+    }
+    return load(v, key);
+  }
+
+  /**
+   * Returns a property of the vertex with the given id and label, reading
+   * the vertex only if the property is not in the cache.
+   */
+  public String get(Graph graph, UInt128 id, String label, String key) {
+    String value = peek(id, label, key);
+    if (value != null) {
+      return value;
+    }
+    return load(graph.vertices(id).next(), key);
+  }
+
+  /**
+   * Returns a property of the vertex with the given id and label if it is in
+   * the cache, without reading the vertex. Lets callers that read many
+   * vertices read only the ones not cached, in one multi-get, and then
+   * load() them.
+   *
+   * @return The value, or null if the property is not cached.
+   */
+  public String peek(UInt128 id, String label, String key) {
+    if (capacity == 0) {
+      return null;
+    }
+
+    String[] keys = CACHED_PROPERTIES.get(label);
+    int i = indexOf(keys, key);
+    if (i == -1) {
+      return null;
+    }
+
+    Segment segment = segmentFor(id);
+    String[] values;
+    segment.lock.lock();
+    try {
+      values = segment.get(id);
+    } finally {
+      segment.lock.unlock();
+    }
+
+    if (values == null) {
+      misses.increment();
+      return null;
+    }
+
+    hits.increment();
+    return values[i];
+  }
+
+  /**
+   * Returns a property read from the vertex, caching all the cached
+   * properties of the vertex if this is one of them.
+   */
+  public String load(Vertex v, String key) {
+    String[] keys = CACHED_PROPERTIES.get(v.label());
+    int i = indexOf(keys, key);
+    if (capacity == 0 || i == -1) {
+      return v.<String>property(key).value();
+    }
+
+    String[] values = new String[keys.length];
+    for (int j = 0; j < keys.length; j++) {
+      values[j] = v.<String>property(keys[j]).value();
+    }
+
+    UInt128 id = (UInt128) v.id();
+    Segment segment = segmentFor(id);
+    segment.lock.lock();
+    try {
+      segment.put(id, values);
+    } finally {
+      segment.lock.unlock();
+    }
+
+    return values[i];
+  }
+
+  private Segment segmentFor(UInt128 id) {
+    return segments[(id.hashCode() & 0x7fffffff) % NUM_SEGMENTS];
+  }
+
+  private static int indexOf(String[] keys, String key) {
+    if (keys != null) {
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i].equals(key)) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public int getCapacity() {
+    return capacity;
+  }
+
+  @Override
+  public int getSize() {
+    int size = 0;
+    for (Segment segment : segments) {
+      segment.lock.lock();
+      try {
+        size += segment.size();
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public long getHits() {
+    return hits.sum();
+  }
+
+  @Override
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  @Override
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  @Override
+  public double getHitRate() {
+    long h = hits.sum();
+    long total = h + misses.sum();
+    return (total == 0) ? 0.0 : (double) h / total;
+  }
+
+  @Override
+  public String getReport() {
+    return String.format("Property cache: size %d/%d, hits %d, misses %d, "
+        + "hit rate %.3f, evictions %d\n", getSize(), capacity, getHits(),
+        getMisses(), getHitRate(), getEvictions());
+  }
+
+  /**
+   * Registers these metrics with the platform MBean server, so that they can
+   * be read with jconsole and the like.
+   */
+  public void registerMBean() throws Exception {
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+        new ObjectName(
+            "net.ellitron.ldbcsnbimpls.interactive.torc:type=PropertyCache"));
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+/**
+ * JMX management interface for TorcDbPropertyCache.
+ */
+public interface TorcDbPropertyCacheMBean {
+
+  /**
+   * Returns the maximum number of vertices cached, 0 if disabled.
+   */
+  int getCapacity();
+
+  /**
+   * Returns the number of vertices cached.
+   */
+  int getSize();
+
+  /**
+   * Returns the number of reads of cached properties served from the cache.
+   */
+  long getHits();
+
+  /**
+   * Returns the number of reads of cached properties that had to read the
+   * vertex.
+   */
+  long getMisses();
+
+  /**
+   * Returns the number of vertices evicted to make room for others.
+   */
+  long getEvictions();
+
+  /**
+   * Returns hits / (hits + misses), or 0 if there were none.
+   */
+  double getHitRate();
+
+  /**
+   * Returns a one line summary of the above.
+   */
+  String getReport();
+}
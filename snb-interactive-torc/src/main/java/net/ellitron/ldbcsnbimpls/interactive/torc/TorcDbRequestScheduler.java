@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import com.ldbc.driver.Operation;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery1PersonProfile;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery2PersonPosts;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery3PersonFriends;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery4MessageContent;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery5MessageCreator;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery6MessageForum;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery7MessageReplies;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate1AddPerson;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate2AddPostLike;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate3AddCommentLike;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate4AddForum;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate5AddForumMembership;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate6AddPost;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate7AddComment;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate8AddFriendship;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Schedules requests onto a fixed set of worker threads, keeping a separate
+ * queue for each class of operation (complex reads, short reads, and
+ * updates). Each class has its own concurrency limit and queue depth, and
+ * the classes are ordered by priority: when a worker frees up it takes the
+ * oldest request of the highest priority class that is below its concurrency
+ * limit.
+ *
+ * This keeps a burst of expensive complex reads from delaying short reads and
+ * updates. Setting the complex read limit below the number of workers
+ * reserves workers for the other classes, so short reads and updates do not
+ * have to wait for a long running query to finish before they can start.
+ *
+ * When a class's queue is full, submit() refuses the request and it is up to
+ * the caller to reject it, rather than letting the queue grow without bound.
+ */
+public class TorcDbRequestScheduler {
+
+  /**
+   * Classes of operations, each scheduled from its own queue.
+   */
+  public enum OperationClass {
+    COMPLEX_READ("complex"),
+    SHORT_READ("short"),
+    UPDATE("update");
+
+    public final String shortName;
+
+    private OperationClass(String shortName) {
+      this.shortName = shortName;
+    }
+
+    public static OperationClass of(Operation op) {
+      if (op instanceof LdbcShortQuery1PersonProfile
+          || op instanceof LdbcShortQuery2PersonPosts
+          || op instanceof LdbcShortQuery3PersonFriends
+          || op instanceof LdbcShortQuery4MessageContent
+          || op instanceof LdbcShortQuery5MessageCreator
+          || op instanceof LdbcShortQuery6MessageForum
+          || op instanceof LdbcShortQuery7MessageReplies) {
+        return SHORT_READ;
+      } else if (op instanceof LdbcUpdate1AddPerson
+          || op instanceof LdbcUpdate2AddPostLike
+          || op instanceof LdbcUpdate3AddCommentLike
+          || op instanceof LdbcUpdate4AddForum
+          || op instanceof LdbcUpdate5AddForumMembership
+          || op instanceof LdbcUpdate6AddPost
+          || op instanceof LdbcUpdate7AddComment
+          || op instanceof LdbcUpdate8AddFriendship) {
+        return UPDATE;
+      } else {
+        return COMPLEX_READ;
+      }
+    }
+
+    public static OperationClass forShortName(String shortName) {
+      for (OperationClass c : values()) {
+        if (c.shortName.equals(shortName)) {
+          return c;
+        }
+      }
+      throw new IllegalArgumentException(
+          "Unrecognized operation class: " + shortName);
+    }
+  }
+
+  /**
+   * Queue and accounting for one class of operations.
+   */
+  private static class ClassQueue {
+    public final OperationClass opClass;
+    public final int limit;
+    public final int queueDepth;
+    public final ArrayDeque<Runnable> queue;
+    public int running = 0;
+    public long rejected = 0;
+
+    public ClassQueue(OperationClass opClass, int limit, int queueDepth) {
+      this.opClass = opClass;
+      this.limit = limit;
+      this.queueDepth = queueDepth;
+      this.queue = new ArrayDeque<>();
+    }
+  }
+
+  // Queues in priority order, highest first.
+  private final ClassQueue[] queues;
+
+  // Indexed by OperationClass.ordinal().
+  private final ClassQueue[] queuesByClass;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition workAvailable = lock.newCondition();
+
+  private final List<Thread> workers;
+
+  /**
+   * @param workers Number of worker threads.
+   * @param priority Operation classes in order of decreasing priority. Must
+   * list every class exactly once.
+   * @param limits Maximum number of requests of each class (indexed by
+   * ordinal) to execute concurrently.
+   * @param queueDepth Maximum number of requests of each class waiting for a
+   * worker.
+   */
+  public TorcDbRequestScheduler(int workers, OperationClass[] priority,
+      int[] limits, int queueDepth) {
+    this(workers, priority, limits, queueDepth,
+        TorcDbVirtualThreads.threadFactory("TorcDbWorker-", false, true));
+  }
+
+  /**
+   * @param workers Number of worker threads.
+   * @param priority Operation classes in order of decreasing priority. Must
+   * list every class exactly once.
+   * @param limits Maximum number of requests of each class (indexed by
+   * ordinal) to execute concurrently.
+   * @param queueDepth Maximum number of requests of each class waiting for a
+   * worker.
+   * @param threadFactory Creates the worker threads.
+   */
+  public TorcDbRequestScheduler(int workers, OperationClass[] priority,
+      int[] limits, int queueDepth, ThreadFactory threadFactory) {
+    if (priority.length != OperationClass.values().length) {
+      throw new IllegalArgumentException(
+          "Priority order must list every operation class");
+    }
+
+    this.queues = new ClassQueue[priority.length];
+    this.queuesByClass = new ClassQueue[priority.length];
+    for (int i = 0; i < priority.length; i++) {
+      OperationClass c = priority[i];
+      if (queuesByClass[c.ordinal()] != null) {
+        throw new IllegalArgumentException(
+            "Operation class listed twice in priority order: " + c.shortName);
+      }
+      ClassQueue q = new ClassQueue(c, limits[c.ordinal()], queueDepth);
+      queues[i] = q;
+      queuesByClass[c.ordinal()] = q;
+    }
+
+    this.workers = new ArrayList<>(workers);
+    for (int i = 0; i < workers; i++) {
+      Thread t = threadFactory.newThread(() -> workerLoop());
+      this.workers.add(t);
+      t.start();
+    }
+  }
+
+  /**
+   * Queues a request for execution.
+   *
+   * @param opClass Class of the request's operation.
+   * @param task Executes the request.
+   * @return False if the class's queue is full and the request was not
+   * queued.
+   */
+  public boolean submit(OperationClass opClass, Runnable task) {
+    ClassQueue q = queuesByClass[opClass.ordinal()];
+    lock.lock();
+    try {
+      if (q.queue.size() >= q.queueDepth) {
+        q.rejected++;
+        return false;
+      }
+      q.queue.addLast(task);
+      workAvailable.signal();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void workerLoop() {
+    while (true) {
+      ClassQueue q = null;
+      Runnable task = null;
+
+      lock.lock();
+      try {
+        while (task == null) {
+          for (ClassQueue c : queues) {
+            if (!c.queue.isEmpty() && c.running < c.limit) {
+              q = c;
+              task = c.queue.pollFirst();
+              c.running++;
+              break;
+            }
+          }
+
+          if (task == null) {
+            workAvailable.awaitUninterruptibly();
+          }
+        }
+      } finally {
+        lock.unlock();
+      }
+
+      try {
+        task.run();
+      } catch (Throwable t) {
+        // Tasks report their own errors to the client, don't let one take
+        // the worker down with it.
+      }
+
+      lock.lock();
+      try {
+        q.running--;
+        // A slot opened up for this class, which a worker waiting on a
+        // request held back by the limit may now be able to take.
+        if (!q.queue.isEmpty()) {
+          workAvailable.signal();
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    lock.lock();
+    try {
+      sb.append(String.format("{workers: %d", workers.size()));
+      for (ClassQueue q : queues) {
+        sb.append(String.format(", %s: {limit: %d, queueDepth: %d, "
+            + "running: %d, queued: %d, rejected: %d}",
+            q.opClass.shortName,
+            q.limit,
+            q.queueDepth,
+            q.running,
+            q.queue.size(),
+            q.rejected));
+      }
+      sb.append("}");
+    } finally {
+      lock.unlock();
+    }
+    return sb.toString();
+  }
+}
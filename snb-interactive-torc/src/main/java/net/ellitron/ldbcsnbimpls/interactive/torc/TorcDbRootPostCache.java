@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import net.ellitron.torc.*;
+import net.ellitron.torc.util.UInt128;
+
+import org.apache.tinkerpop.gremlin.structure.Direction;
+import org.apache.tinkerpop.gremlin.structure.Edge;
+import org.apache.tinkerpop.gremlin.structure.Graph;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bounded cache from Comment id to the Post at the root of its thread, along
+ * with the Post's author and Forum, shared by all the threads using a
+ * TorcDbConnectionState. Comments never change thread once created, so
+ * entries never go stale.
+ *
+ * resolve() finds a message's root Post. A cache hit costs no reads. On a
+ * miss it follows the Comment's rootPost edge when the graph has them
+ * (GraphLoader rootPosts, and LdbcUpdate7AddCommentHandler for new
+ * Comments), or else walks replyOf edges one round trip at a time, caching
+ * every Comment passed on the way. LdbcUpdate7AddCommentHandler also adds
+ * each new Comment to the cache, since replies to recent Comments are
+ * common.
+ *
+ * A root Post resolved with the cache disabled reads its author and Forum
+ * only when asked for them, since LdbcShortQuery2PersonPosts needs only the
+ * author and LdbcShortQuery6MessageForum only the Forum. Cached entries
+ * carry both, so that a hit never costs a read.
+ *
+ * When the cache is full, put() evicts an arbitrary eighth of the entries.
+ * Since entries never go stale, a precise eviction order buys little.
+ */
+public class TorcDbRootPostCache {
+
+  private static final String[] REPLY_OF = new String[] {"replyOf"};
+  private static final String[] ROOT_POST = new String[] {"rootPost"};
+  private static final String[] HAS_CREATOR = new String[] {"hasCreator"};
+  private static final String[] CONTAINER_OF = new String[] {"containerOf"};
+  private static final String[] POST = new String[] {TorcEntity.POST.label};
+  private static final String[] MESSAGE =
+      new String[] {TorcEntity.POST.label, TorcEntity.COMMENT.label};
+  private static final String[] PERSON =
+      new String[] {TorcEntity.PERSON.label};
+  private static final String[] FORUM = new String[] {TorcEntity.FORUM.label};
+
+  /**
+   * The Post at the root of a thread, its author, and the Forum containing
+   * it. Either complete, or holding the Post vertex to read the author and
+   * Forum from on demand. The latter are never shared between threads.
+   */
+  public static class RootPost {
+    public final long postId;
+    private final TorcVertex post;
+    private long authorId;
+    private long forumId;
+    private Vertex forum;
+
+    public RootPost(long postId, long authorId, long forumId) {
+      this.postId = postId;
+      this.post = null;
+      this.authorId = authorId;
+      this.forumId = forumId;
+    }
+
+    private RootPost(Vertex post) {
+      this.postId = ((UInt128) post.id()).getLowerLong();
+      this.post = (TorcVertex) post;
+      this.authorId = -1;
+      this.forumId = -1;
+    }
+
+    public long authorId() {
+      if (authorId == -1) {
+        Vertex author =
+            post.edges(Direction.OUT, HAS_CREATOR, PERSON).next().inVertex();
+        authorId = ((UInt128) author.id()).getLowerLong();
+      }
+      return authorId;
+    }
+
+    /**
+     * Returns the Forum vertex. Only a RootPost from the cache looks it up
+     * by id in the given graph, the others reach it from the Post.
+     */
+    public Vertex forum(Graph graph) {
+      if (post == null) {
+        // Shared by all threads, so nothing to remember it in.
+        return graph.vertices(
+            new UInt128(TorcEntity.FORUM.idSpace, forumId)).next();
+      }
+      if (forum == null) {
+        readForum();
+      }
+      return forum;
+    }
+
+    private void readForum() {
+      forum = post.edges(Direction.IN, CONTAINER_OF, FORUM).next().outVertex();
+      forumId = ((UInt128) forum.id()).getLowerLong();
+    }
+
+    /**
+     * Returns a complete copy of this RootPost, for caching.
+     */
+    private RootPost complete() {
+      if (post == null) {
+        return this;
+      }
+      if (forum == null) {
+        readForum();
+      }
+      return new RootPost(postId, authorId(), forumId);
+    }
+  }
+
+  private final ConcurrentHashMap<Long, RootPost> map;
+  private final int capacity;
+  private final boolean useRootPostEdges;
+
+  /**
+   * @param capacity Maximum number of Comments to cache. 0 disables caching,
+   * leaving only the rootPost edges, if any.
+   * @param useRootPostEdges Whether the graph has rootPost edges.
+   */
+  public TorcDbRootPostCache(int capacity, boolean useRootPostEdges) {
+    this.map = new ConcurrentHashMap<>(Math.min(capacity, 1 << 16));
+    this.capacity = capacity;
+    this.useRootPostEdges = useRootPostEdges;
+  }
+
+  public boolean useRootPostEdges() {
+    return useRootPostEdges;
+  }
+
+  /**
+   * Returns whether there is anything to maintain for new Comments, i.e.
+   * whether either the cache or rootPost edges are in use.
+   */
+  public boolean isEnabled() {
+    return capacity > 0 || useRootPostEdges;
+  }
+
+  /**
+   * Returns the cached root Post of a Comment, or null.
+   */
+  public RootPost get(long commentId) {
+    return map.get(commentId);
+  }
+
+  public void put(long commentId, RootPost rootPost) {
+    if (capacity == 0) {
+      return;
+    }
+    rootPost = rootPost.complete();
+
+    if (map.size() >= capacity) {
+      int toEvict = Math.max(1, capacity / 8);
+      Iterator<Long> it = map.keySet().iterator();
+      while (toEvict > 0 && it.hasNext()) {
+        it.next();
+        it.remove();
+        toEvict--;
+      }
+    }
+
+    map.put(commentId, rootPost);
+  }
+
+  public int size() {
+    return map.size();
+  }
+
+  /**
+   * Returns the root Post of a message. For a Post this is the Post itself.
+   * When the cache is enabled the RootPost is complete, so that the caller
+   * can put() it after its transaction.
+   *
+   * @param message A Post or Comment vertex.
+   */
+  public RootPost resolve(Vertex message) {
+    if (message.label().equals(TorcEntity.POST.label)) {
+      return rootPostOf(message);
+    }
+
+    long commentId = ((UInt128) message.id()).getLowerLong();
+    RootPost rootPost = map.get(commentId);
+    if (rootPost != null) {
+      return rootPost;
+    }
+
+    if (useRootPostEdges) {
+      Iterator<Edge> edges =
+          ((TorcVertex) message).edges(Direction.OUT, ROOT_POST, POST);
+      if (edges.hasNext()) {
+        rootPost = rootPostOf(edges.next().inVertex());
+        put(commentId, rootPost);
+        return rootPost;
+      }
+    }
+
+    // Walk up the thread, stopping early at a cached Comment.
+    List<Long> visited = new ArrayList<>();
+    visited.add(commentId);
+    Vertex v = message;
+    while (true) {
+      v = ((TorcVertex) v).edges(Direction.OUT, REPLY_OF, MESSAGE).next()
+          .inVertex();
+      if (v.label().equals(TorcEntity.POST.label)) {
+        rootPost = rootPostOf(v);
+        break;
+      }
+
+      long id = ((UInt128) v.id()).getLowerLong();
+      rootPost = map.get(id);
+      if (rootPost != null) {
+        break;
+      }
+      visited.add(id);
+    }
+
+    for (long id : visited) {
+      put(id, rootPost);
+    }
+    return rootPost;
+  }
+
+  private RootPost rootPostOf(Vertex post) {
+    RootPost rootPost = new RootPost(post);
+    return (capacity > 0) ? rootPost.complete() : rootPost;
+  }
+}
@@ -84,7 +84,17 @@ import org.docopt.Docopt;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * A multithreaded server that executes LDBC SNB Interactive Workload queries
@@ -111,20 +121,105 @@ public class TorcDbServer {
       + "Options:\n"
       + "  --port=<n>        Port on which to listen for new connections.\n"
       + "                    [default: 5577].\n"
-      + "  --verbose         Print verbose output to stdout.\n"
+      + "  --protocol=<p>    Wire protocol to speak to clients. Either java\n"
+      + "                    (Java object serialization) or binary\n"
+      + "                    (TorcDbWireProtocol). Must match the client's\n"
+      + "                    protocol property. [default: java].\n"
+      + "  --workers=<n>     Number of threads executing queries when\n"
+      + "                    using the binary protocol. 0 means one per\n"
+      + "                    core, or 1024 with --virtualThreads.\n"
+      + "                    [default: 0].\n"
+      + "  --queueDepth=<n>  Maximum number of binary protocol requests of\n"
+      + "                    each operation class (complex reads, short\n"
+      + "                    reads, updates) waiting for a worker. Requests\n"
+      + "                    beyond this are rejected. [default: 1024].\n"
+      + "  --complexReadLimit=<n>  Maximum number of complex reads to execute\n"
+      + "                    at once. 0 means all workers but one, leaving\n"
+      + "                    one free for short reads and updates.\n"
+      + "                    [default: 0].\n"
+      + "  --shortReadLimit=<n>  Maximum number of short reads to execute at\n"
+      + "                    once. 0 means all workers. [default: 0].\n"
+      + "  --updateLimit=<n> Maximum number of updates to execute at once. 0\n"
+      + "                    means all workers. [default: 0].\n"
+      + "  --priority=<p>    Comma separated operation classes in order of\n"
+      + "                    decreasing priority. Free workers take the\n"
+      + "                    oldest request of the highest priority class\n"
+      + "                    that is under its limit.\n"
+      + "                    [default: short,update,complex].\n"
+      + "  --shmDir=<d>      Also serve binary protocol clients on this\n"
+      + "                    host over shared memory channels they create\n"
+      + "                    in this directory (clients set transport=shm\n"
+      + "                    and the same shmDir), e.g. /dev/shm/torcdb.\n"
+      + "                    Their requests go to the same workers as\n"
+      + "                    those of socket clients.\n"
+      + "  --nativeQueries=<q>  Comma separated list of complex queries to\n"
+      + "                    execute with TorcDb's native handlers instead\n"
+      + "                    of Gremlin, or all.\n"
+      + "  --timeOrderedMessages=<t>  The graph was loaded with GraphLoader\n"
+      + "                    --timeOrderedMessages, and t is the\n"
+      + "                    creationDate (ms since the epoch) of its\n"
+      + "                    newest message, so handlers can find a\n"
+      + "                    person's newest messages without reading all\n"
+      + "                    of them. Only set this for a graph loaded that\n"
+      + "                    way, otherwise queries silently return wrong\n"
+      + "                    results.\n"
+      + "  --rootPostCacheSize=<n>  Number of Comments to cache the root\n"
+      + "                    Post of their thread for. 0 disables the\n"
+      + "                    cache. [default: 0].\n"
+      + "  --rootPostEdges   The graph has rootPost edges (GraphLoader\n"
+      + "                    rootPosts), so handlers can find a Comment's\n"
+      + "                    root Post without walking its thread.\n"
+      + "  --propertyCacheSize=<n>  Number of vertices to cache immutable\n"
+      + "                    properties (names and titles) of. 0 disables\n"
+      + "                    the cache. [default: 0].\n"
+      + "  --friendCacheSize=<n>  Number of persons to cache the friends,\n"
+      + "                    and friends of friends, of. 0 disables the\n"
+      + "                    cache. [default: 0].\n"
+      + "  --nameIndexDir=<d>  Directory of the SNB dataset's place files,\n"
+      + "                    from which to index country names, so\n"
+      + "                    handlers can match countries by id.\n"
+      + "  --queryParallelism=<n>  Maximum number of threads to split each\n"
+      + "                    of complex reads 3, 4, 6 and 9 across, by\n"
+      + "                    friend. 1 disables this. [default: 1].\n"
+      + "  --parallelPoolSize=<n>  Number of threads shared by all split\n"
+      + "                    queries. 0 means one per core. [default: 0].\n"
+      + "  --parallelChunkSize=<n>  Minimum number of friends per thread of\n"
+      + "                    a split query. [default: 64].\n"
+      + "  --groupCommitWindow=<us>  Microseconds to wait for more like and\n"
+      + "                    forum membership updates to commit in the\n"
+      + "                    same transaction. 0 disables group commit.\n"
+      + "                    [default: 0].\n"
+      + "  --groupCommitSize=<n>  Maximum number of updates to commit in\n"
+      + "                    one transaction. [default: 64].\n"
+      + "  --virtualThreads  Serve each java protocol connection, and run\n"
+      + "                    binary protocol workers, on virtual threads.\n"
+      + "                    Requires a JDK 21 or later runtime. Note that\n"
+      + "                    RAMCloud calls still pin their carrier\n"
+      + "                    thread (see TorcDbVirtualThreads).\n"
+      + "  --statsFile=<f>   Periodically append per operation, per stage\n"
+      + "                    server latency statistics to this file.\n"
+      + "  --statsInterval=<s>  Seconds between statistics dumps.\n"
+      + "                    [default: 60].\n"
+      + "  --jmx             Expose statistics through JMX.\n"
+      + "  --verbose         Print verbose output to stdout, including\n"
+      + "                    periodic statistics dumps.\n"
       + "  -h --help         Show this screen.\n"
       + "  --version         Show version.\n"
       + "\n";
 
   /**
    * Thread that listens for connections and spins off new threads to serve
-   * client connections.
+   * client connections speaking the java protocol. Public so that tools like
+   * TransportBenchmark can serve their own set of operation handlers.
    */
-  private static class ListenerThread implements Runnable {
+  public static class ListenerThread implements Runnable {
 
     // Port on which we listen for incoming connections.
     private final int port;
 
+    // Where to record per request stage latencies.
+    private final TorcDbServerMetrics metrics;
+
     // Passed off to each client thread for executing queries.
     private final TorcDbConnectionState connectionState;
     private final Map<Class<? extends Operation>, OperationHandler> 
@@ -132,10 +227,26 @@ public class TorcDbServer {
     private final ConcurrentErrorReporter concurrentErrorReporter;
     private int clientID = 1;
 
-    public ListenerThread(int port, TorcDbConnectionState connectionState,
+    // Creates the thread serving each client connection.
+    private final ThreadFactory clientThreadFactory;
+
+    public ListenerThread(int port, TorcDbServerMetrics metrics,
+        TorcDbConnectionState connectionState,
         Map<Class<? extends Operation>, OperationHandler> queryHandlerMap,
         ConcurrentErrorReporter concurrentErrorReporter) {
+      this(port, metrics, connectionState, queryHandlerMap,
+          concurrentErrorReporter,
+          TorcDbVirtualThreads.threadFactory("TorcDbClient-", false, false));
+    }
+
+    public ListenerThread(int port, TorcDbServerMetrics metrics,
+        TorcDbConnectionState connectionState,
+        Map<Class<? extends Operation>, OperationHandler> queryHandlerMap,
+        ConcurrentErrorReporter concurrentErrorReporter,
+        ThreadFactory clientThreadFactory) {
+      this.clientThreadFactory = clientThreadFactory;
       this.port = port;
+      this.metrics = metrics;
       this.connectionState = connectionState;
       this.queryHandlerMap = queryHandlerMap;
       this.concurrentErrorReporter = concurrentErrorReporter;
@@ -153,9 +264,9 @@ public class TorcDbServer {
 
           System.out.println("Client connected: " + client.toString());
 
-          Thread clientThread = new Thread(new ClientThread(client, 
-               concurrentErrorReporter, connectionState, queryHandlerMap,
-               clientID));
+          Thread clientThread = clientThreadFactory.newThread(
+              new ClientThread(client, concurrentErrorReporter, 
+                connectionState, queryHandlerMap, clientID, metrics));
 
           clientThread.start();
 
@@ -183,12 +294,13 @@ public class TorcDbServer {
     private final Map<Class<? extends Operation>, OperationHandler> 
         queryHandlerMap;
     private final int clientID;
+    private final TorcDbServerMetrics metrics;
 
     public ClientThread(Socket client, 
         ConcurrentErrorReporter concurrentErrorReporter, 
         TorcDbConnectionState connectionState,
         Map<Class<? extends Operation>, OperationHandler> queryHandlerMap,
-        int clientID) {
+        int clientID, TorcDbServerMetrics metrics) {
       this.client = client;
       this.concurrentErrorReporter = concurrentErrorReporter;
       this.resultReporter = 
@@ -196,6 +308,7 @@ public class TorcDbServer {
       this.connectionState = connectionState;
       this.queryHandlerMap = queryHandlerMap;
       this.clientID = clientID;
+      this.metrics = metrics;
     }
 
     public void run() {
@@ -207,13 +320,17 @@ public class TorcDbServer {
         while (true) {
           Object query = in.readObject();
 
-          System.out.println("Client " + clientID + " Received Query: " + query.toString());
+          // Reading the object blocks until the client sends its next
+          // request, so the decode stage only covers unpacking it.
+          long decodeStart = System.nanoTime();
 
           if (query instanceof LdbcQuery1Serializable) {
             LdbcQuery1 op = ((LdbcQuery1Serializable) query).unpack();
 
-            queryHandlerMap.get(op.getClass()).executeOperation(op, 
+            long executeStart = System.nanoTime();
+            queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
             List<LdbcQuery1Result> result = 
                 (List<LdbcQuery1Result>) resultReporter.result();
 
@@ -222,13 +339,18 @@ public class TorcDbServer {
               resp.add(new LdbcQuery1ResultSerializable(v));
             });
 
+            long writeStart = System.nanoTime();
             out.writeObject(resp);
             out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcQuery2Serializable) {
             LdbcQuery2 op = ((LdbcQuery2Serializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
             List<LdbcQuery2Result> result = 
                 (List<LdbcQuery2Result>) resultReporter.result();
 
@@ -237,13 +359,18 @@ public class TorcDbServer {
               resp.add(new LdbcQuery2ResultSerializable(v));
             });
 
+            long writeStart = System.nanoTime();
             out.writeObject(resp);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcQuery3Serializable) {
             LdbcQuery3 op = ((LdbcQuery3Serializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
             List<LdbcQuery3Result> result = 
                 (List<LdbcQuery3Result>) resultReporter.result();
 
@@ -252,13 +379,18 @@ public class TorcDbServer {
               resp.add(new LdbcQuery3ResultSerializable(v));
             });
 
+            long writeStart = System.nanoTime();
             out.writeObject(resp);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcQuery4Serializable) {
             LdbcQuery4 op = ((LdbcQuery4Serializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
             List<LdbcQuery4Result> result = 
                 (List<LdbcQuery4Result>) resultReporter.result();
 
@@ -267,13 +399,18 @@ public class TorcDbServer {
               resp.add(new LdbcQuery4ResultSerializable(v));
             });
 
+            long writeStart = System.nanoTime();
             out.writeObject(resp);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcQuery5Serializable) {
             LdbcQuery5 op = ((LdbcQuery5Serializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
             List<LdbcQuery5Result> result = 
                 (List<LdbcQuery5Result>) resultReporter.result();
 
@@ -282,13 +419,18 @@ public class TorcDbServer {
               resp.add(new LdbcQuery5ResultSerializable(v));
             });
 
+            long writeStart = System.nanoTime();
             out.writeObject(resp);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcQuery6Serializable) {
             LdbcQuery6 op = ((LdbcQuery6Serializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
             List<LdbcQuery6Result> result = 
                 (List<LdbcQuery6Result>) resultReporter.result();
 
@@ -297,13 +439,18 @@ public class TorcDbServer {
               resp.add(new LdbcQuery6ResultSerializable(v));
             });
 
+            long writeStart = System.nanoTime();
             out.writeObject(resp);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcQuery7Serializable) {
             LdbcQuery7 op = ((LdbcQuery7Serializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
             List<LdbcQuery7Result> result = 
                 (List<LdbcQuery7Result>) resultReporter.result();
 
@@ -312,13 +459,18 @@ public class TorcDbServer {
               resp.add(new LdbcQuery7ResultSerializable(v));
             });
 
+            long writeStart = System.nanoTime();
             out.writeObject(resp);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcQuery8Serializable) {
             LdbcQuery8 op = ((LdbcQuery8Serializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
             List<LdbcQuery8Result> result = 
                 (List<LdbcQuery8Result>) resultReporter.result();
 
@@ -327,13 +479,18 @@ public class TorcDbServer {
               resp.add(new LdbcQuery8ResultSerializable(v));
             });
 
+            long writeStart = System.nanoTime();
             out.writeObject(resp);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcQuery9Serializable) {
             LdbcQuery9 op = ((LdbcQuery9Serializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
             List<LdbcQuery9Result> result = 
                 (List<LdbcQuery9Result>) resultReporter.result();
 
@@ -342,13 +499,18 @@ public class TorcDbServer {
               resp.add(new LdbcQuery9ResultSerializable(v));
             });
 
+            long writeStart = System.nanoTime();
             out.writeObject(resp);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcQuery10Serializable) {
             LdbcQuery10 op = ((LdbcQuery10Serializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
             List<LdbcQuery10Result> result = 
                 (List<LdbcQuery10Result>) resultReporter.result();
 
@@ -357,13 +519,18 @@ public class TorcDbServer {
               resp.add(new LdbcQuery10ResultSerializable(v));
             });
 
+            long writeStart = System.nanoTime();
             out.writeObject(resp);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcQuery11Serializable) {
             LdbcQuery11 op = ((LdbcQuery11Serializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
             List<LdbcQuery11Result> result = 
                 (List<LdbcQuery11Result>) resultReporter.result();
 
@@ -372,13 +539,18 @@ public class TorcDbServer {
               resp.add(new LdbcQuery11ResultSerializable(v));
             });
 
+            long writeStart = System.nanoTime();
             out.writeObject(resp);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcQuery12Serializable) {
             LdbcQuery12 op = ((LdbcQuery12Serializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
             List<LdbcQuery12Result> result = 
                 (List<LdbcQuery12Result>) resultReporter.result();
 
@@ -387,26 +559,36 @@ public class TorcDbServer {
               resp.add(new LdbcQuery12ResultSerializable(v));
             });
 
+            long writeStart = System.nanoTime();
             out.writeObject(resp);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcQuery13Serializable) {
             LdbcQuery13 op = ((LdbcQuery13Serializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
             LdbcQuery13Result result = 
                 (LdbcQuery13Result) resultReporter.result();
 
             LdbcQuery13ResultSerializable resp = 
                 new LdbcQuery13ResultSerializable(result);
 
+            long writeStart = System.nanoTime();
             out.writeObject(resp);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcQuery14Serializable) {
             LdbcQuery14 op = ((LdbcQuery14Serializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
             List<LdbcQuery14Result> result = 
                 (List<LdbcQuery14Result>) resultReporter.result();
 
@@ -415,28 +597,38 @@ public class TorcDbServer {
               resp.add(new LdbcQuery14ResultSerializable(v));
             });
 
+            long writeStart = System.nanoTime();
             out.writeObject(resp);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcShortQuery1PersonProfileSerializable) {
             LdbcShortQuery1PersonProfile op = 
                 ((LdbcShortQuery1PersonProfileSerializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
             LdbcShortQuery1PersonProfileResult result = 
                 (LdbcShortQuery1PersonProfileResult) resultReporter.result();
 
             LdbcShortQuery1PersonProfileResultSerializable resp = 
                 new LdbcShortQuery1PersonProfileResultSerializable(result);
 
+            long writeStart = System.nanoTime();
             out.writeObject(resp);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcShortQuery2PersonPostsSerializable) {
             LdbcShortQuery2PersonPosts op = 
                 ((LdbcShortQuery2PersonPostsSerializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
             List<LdbcShortQuery2PersonPostsResult> result = 
                 (List<LdbcShortQuery2PersonPostsResult>) resultReporter.result();
 
@@ -446,14 +638,19 @@ public class TorcDbServer {
               resp.add(new LdbcShortQuery2PersonPostsResultSerializable(v));
             });
 
+            long writeStart = System.nanoTime();
             out.writeObject(resp);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcShortQuery3PersonFriendsSerializable) {
             LdbcShortQuery3PersonFriends op = 
                 ((LdbcShortQuery3PersonFriendsSerializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
             List<LdbcShortQuery3PersonFriendsResult> result = 
                 (List<LdbcShortQuery3PersonFriendsResult>) resultReporter.result();
 
@@ -463,56 +660,76 @@ public class TorcDbServer {
               resp.add(new LdbcShortQuery3PersonFriendsResultSerializable(v));
             });
 
+            long writeStart = System.nanoTime();
             out.writeObject(resp);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcShortQuery4MessageContentSerializable) {
             LdbcShortQuery4MessageContent op = 
                 ((LdbcShortQuery4MessageContentSerializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
             LdbcShortQuery4MessageContentResult result = 
                 (LdbcShortQuery4MessageContentResult) resultReporter.result();
 
             LdbcShortQuery4MessageContentResultSerializable resp = 
                 new LdbcShortQuery4MessageContentResultSerializable(result);
 
+            long writeStart = System.nanoTime();
             out.writeObject(resp);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcShortQuery5MessageCreatorSerializable) {
             LdbcShortQuery5MessageCreator op = 
                 ((LdbcShortQuery5MessageCreatorSerializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
             LdbcShortQuery5MessageCreatorResult result = 
                 (LdbcShortQuery5MessageCreatorResult) resultReporter.result();
 
             LdbcShortQuery5MessageCreatorResultSerializable resp = 
                 new LdbcShortQuery5MessageCreatorResultSerializable(result);
 
+            long writeStart = System.nanoTime();
             out.writeObject(resp);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcShortQuery6MessageForumSerializable) {
             LdbcShortQuery6MessageForum op = 
                 ((LdbcShortQuery6MessageForumSerializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
             LdbcShortQuery6MessageForumResult result = 
                 (LdbcShortQuery6MessageForumResult) resultReporter.result();
 
             LdbcShortQuery6MessageForumResultSerializable resp = 
                 new LdbcShortQuery6MessageForumResultSerializable(result);
 
+            long writeStart = System.nanoTime();
             out.writeObject(resp);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcShortQuery7MessageRepliesSerializable) {
             LdbcShortQuery7MessageReplies op = 
                 ((LdbcShortQuery7MessageRepliesSerializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
             List<LdbcShortQuery7MessageRepliesResult> result = 
                 (List<LdbcShortQuery7MessageRepliesResult>) resultReporter.result();
 
@@ -522,80 +739,123 @@ public class TorcDbServer {
               resp.add(new LdbcShortQuery7MessageRepliesResultSerializable(v));
             });
 
+            long writeStart = System.nanoTime();
             out.writeObject(resp);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcUpdate1AddPersonSerializable) {
             LdbcUpdate1AddPerson op = 
                 ((LdbcUpdate1AddPersonSerializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
 
+            long writeStart = System.nanoTime();
             out.writeObject(LdbcNoResultSerializable.INSTANCE);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcUpdate2AddPostLikeSerializable) {
             LdbcUpdate2AddPostLike op = 
                 ((LdbcUpdate2AddPostLikeSerializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
 
+            long writeStart = System.nanoTime();
             out.writeObject(LdbcNoResultSerializable.INSTANCE);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcUpdate3AddCommentLikeSerializable) {
             LdbcUpdate3AddCommentLike op = 
                 ((LdbcUpdate3AddCommentLikeSerializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
 
+            long writeStart = System.nanoTime();
             out.writeObject(LdbcNoResultSerializable.INSTANCE);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcUpdate4AddForumSerializable) {
             LdbcUpdate4AddForum op = 
                 ((LdbcUpdate4AddForumSerializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
 
+            long writeStart = System.nanoTime();
             out.writeObject(LdbcNoResultSerializable.INSTANCE);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcUpdate5AddForumMembershipSerializable) {
             LdbcUpdate5AddForumMembership op = 
                 ((LdbcUpdate5AddForumMembershipSerializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
 
+            long writeStart = System.nanoTime();
             out.writeObject(LdbcNoResultSerializable.INSTANCE);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcUpdate6AddPostSerializable) {
             LdbcUpdate6AddPost op = 
                 ((LdbcUpdate6AddPostSerializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
 
+            long writeStart = System.nanoTime();
             out.writeObject(LdbcNoResultSerializable.INSTANCE);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcUpdate7AddCommentSerializable) {
             LdbcUpdate7AddComment op = 
                 ((LdbcUpdate7AddCommentSerializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
 
+            long writeStart = System.nanoTime();
             out.writeObject(LdbcNoResultSerializable.INSTANCE);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else if (query instanceof LdbcUpdate8AddFriendshipSerializable) {
             LdbcUpdate8AddFriendship op = 
                 ((LdbcUpdate8AddFriendshipSerializable) query).unpack();
 
+            long executeStart = System.nanoTime();
             queryHandlerMap.get(op.getClass()).executeOperation(op,
                 connectionState, resultReporter);
+            long executeEnd = System.nanoTime();
 
+            long writeStart = System.nanoTime();
             out.writeObject(LdbcNoResultSerializable.INSTANCE);
-            out.flush(); 
+            out.flush();
+            metrics.record(op, decodeStart, executeStart, executeEnd,
+                writeStart, System.nanoTime());
           } else {
             throw new RuntimeException("Unrecognized query type.");
           }
@@ -606,6 +866,498 @@ public class TorcDbServer {
     }
   }
 
+  /**
+   * Watches a directory for TorcDbShmChannels created by clients on this
+   * host, claims them, and serves each on its own thread. A channel's thread
+   * receives and decodes its requests and sends back their responses, but
+   * hands the requests to the same TorcDbRequestScheduler as
+   * NioListenerThread to execute, so that shared memory clients are subject
+   * to the same worker limits and priorities as socket clients. Public so
+   * that tools like TransportBenchmark can serve their own set of operation
+   * handlers.
+   */
+  public static class ShmListenerThread implements Runnable {
+
+    // How often to look for new channels.
+    private static final long POLL_INTERVAL_MS = 10;
+
+    private final File dir;
+    private final TorcDbServerMetrics metrics;
+    private final TorcDbConnectionState connectionState;
+    private final Map<Class<? extends Operation>, OperationHandler> 
+        queryHandlerMap;
+    private final ConcurrentErrorReporter concurrentErrorReporter;
+    private final ThreadFactory channelThreadFactory;
+
+    // Executes requests on its worker threads.
+    private final TorcDbRequestScheduler scheduler;
+
+    // Files of channels we're serving.
+    private final Set<File> served = ConcurrentHashMap.newKeySet();
+
+    public ShmListenerThread(String dir, TorcDbServerMetrics metrics,
+        TorcDbConnectionState connectionState,
+        Map<Class<? extends Operation>, OperationHandler> queryHandlerMap,
+        ConcurrentErrorReporter concurrentErrorReporter, 
+        TorcDbRequestScheduler scheduler) {
+      this.dir = new File(dir);
+      this.metrics = metrics;
+      this.connectionState = connectionState;
+      this.queryHandlerMap = queryHandlerMap;
+      this.concurrentErrorReporter = concurrentErrorReporter;
+      this.scheduler = scheduler;
+      // Channel threads spin waiting for requests, so they are platform
+      // threads regardless of --virtualThreads.
+      this.channelThreadFactory = 
+          TorcDbVirtualThreads.threadFactory("TorcDbShm-", false, true);
+    }
+
+    @Override
+    public void run() {
+      dir.mkdirs();
+      System.out.println("Listening on: shared memory channels in " + dir);
+
+      while (true) {
+        File[] files = dir.listFiles((d, name) -> 
+            name.endsWith(TorcDbShmChannel.FILE_SUFFIX));
+
+        if (files != null) {
+          for (File f : files) {
+            if (served.contains(f)) {
+              continue;
+            }
+
+            TorcDbShmChannel ch;
+            try {
+              ch = TorcDbShmChannel.claim(f);
+            } catch (IOException e) {
+              // Client went away while we were looking at it.
+              continue;
+            }
+
+            if (ch != null) {
+              System.out.println("Client connected: " + f);
+              served.add(f);
+              channelThreadFactory.newThread(() -> serve(ch)).start();
+            }
+          }
+        }
+
+        try {
+          Thread.sleep(POLL_INTERVAL_MS);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }
+
+    /**
+     * Passes requests from the channel to the scheduler one at a time, and
+     * sends back each response once it is executed, until the client closes
+     * the channel. Requests that the scheduler has no room for are answered
+     * with an error.
+     */
+    private void serve(TorcDbShmChannel ch) {
+      TorcDbWireProtocol.FrameBuffer buf = 
+          TorcDbWireProtocol.getThreadLocalFrameBuffer();
+
+      try {
+        while (true) {
+          ByteBuffer frame = ch.receive();
+
+          long decodeStart = System.nanoTime();
+          int requestId = frame.getInt();
+          Operation op = TorcDbWireProtocol.decodeRequest(frame);
+          long queuedTime = System.nanoTime();
+          metrics.record(op, TorcDbServerMetrics.Stage.DECODE, 
+              queuedTime - decodeStart);
+
+          TorcDbRequestScheduler.OperationClass opClass = 
+              TorcDbRequestScheduler.OperationClass.of(op);
+          CompletableFuture<ByteBuffer> response = new CompletableFuture<>();
+          boolean queued = scheduler.submit(opClass, () -> {
+            try {
+              response.complete(executeRequest(requestId, op, queuedTime));
+            } catch (Throwable t) {
+              response.completeExceptionally(t);
+            }
+          });
+
+          ByteBuffer out;
+          if (!queued) {
+            TorcDbWireProtocol.encodeError(buf, requestId, 
+                TorcDbWireProtocol.opcodeOf(op), 
+                "Server overloaded: " + opClass.shortName + " queue full");
+            out = buf.frame();
+          } else {
+            try {
+              out = response.join();
+            } catch (CompletionException e) {
+              TorcDbWireProtocol.encodeError(buf, requestId, 
+                  TorcDbWireProtocol.opcodeOf(op), e.getCause().toString());
+              out = buf.frame();
+            }
+          }
+
+          long writeStart = System.nanoTime();
+          ch.send(out);
+          metrics.record(op, TorcDbServerMetrics.Stage.WRITE, 
+              System.nanoTime() - writeStart);
+        }
+      } catch (IOException e) {
+        System.out.println("Client disconnected: " + ch.getFile());
+      } finally {
+        try {
+          ch.close();
+        } catch (IOException e) {
+          // Nothing more we can do.
+        }
+        served.remove(ch.getFile());
+      }
+    }
+
+    /**
+     * Executes a request on a worker thread.
+     *
+     * @return The encoded response frame.
+     */
+    private ByteBuffer executeRequest(int requestId, Operation op, 
+        long queuedTime) {
+      long executeStart = System.nanoTime();
+      metrics.record(op, TorcDbServerMetrics.Stage.QUEUE, 
+          executeStart - queuedTime);
+
+      ResultReporter resultReporter = 
+          new ResultReporter.SimpleResultReporter(concurrentErrorReporter);
+
+      TorcDbWireProtocol.FrameBuffer buf = 
+          TorcDbWireProtocol.getThreadLocalFrameBuffer();
+      try {
+        queryHandlerMap.get(op.getClass()).executeOperation(op, 
+            connectionState, resultReporter);
+        long executeEnd = System.nanoTime();
+        metrics.record(op, TorcDbServerMetrics.Stage.EXECUTE, 
+            executeEnd - executeStart);
+
+        TorcDbWireProtocol.encodeResponse(buf, requestId, op, 
+            resultReporter.result());
+        metrics.record(op, TorcDbServerMetrics.Stage.CONVERT, 
+            System.nanoTime() - executeEnd);
+      } catch (Exception e) {
+        TorcDbWireProtocol.encodeError(buf, requestId, 
+            TorcDbWireProtocol.opcodeOf(op), e.toString());
+      }
+
+      // The worker's buffer is reused by its next request.
+      return buf.copy();
+    }
+  }
+
+  /**
+   * Serves clients speaking the binary protocol (TorcDbWireProtocol) from a
+   * single selector thread, instead of dedicating a thread to each client
+   * connection. The selector thread accepts connections, reads and decodes
+   * requests, and hands the decoded operations to a TorcDbRequestScheduler,
+   * whose fixed set of worker threads execute them by operation class and
+   * priority. Workers encode their responses and queue them on the
+   * connection, to be written out by the selector thread.
+   *
+   * The scheduler's queues are bounded. When a request's queue is full it is
+   * answered with an error straight away rather than being allowed to pile up
+   * behind the others, which tells the client the server is overloaded.
+   */
+  public static class NioListenerThread implements Runnable {
+
+    // Port on which we listen for incoming connections.
+    private final int port;
+
+    // Where to record per request stage latencies.
+    private final TorcDbServerMetrics metrics;
+
+    // Passed off to worker threads for executing queries.
+    private final TorcDbConnectionState connectionState;
+    private final Map<Class<? extends Operation>, OperationHandler> 
+        queryHandlerMap;
+    private final ConcurrentErrorReporter concurrentErrorReporter;
+    private int clientID = 1;
+
+    // Queues requests by operation class for the worker threads.
+    private final TorcDbRequestScheduler scheduler;
+
+    private Selector selector;
+
+    // Connections with responses queued by workers that the selector thread
+    // has yet to start writing.
+    private final ConcurrentLinkedQueue<NioConnection> pendingWrites = 
+        new ConcurrentLinkedQueue<>();
+
+    /**
+     * An encoded response and what's needed to account for the time it
+     * spends waiting to be written.
+     */
+    private static class Response {
+      public final ByteBuffer frame;
+      public final Operation op;
+      public final long queuedTime;
+
+      public Response(ByteBuffer frame, Operation op) {
+        this.frame = frame;
+        this.op = op;
+        this.queuedTime = System.nanoTime();
+      }
+    }
+
+    /**
+     * State of a single client connection.
+     */
+    private static class NioConnection {
+      public final SocketChannel channel;
+      public final int clientID;
+      public SelectionKey key;
+
+      // Bytes read from the channel that have not yet been consumed as
+      // complete frames.
+      public ByteBuffer readBuf = ByteBuffer.allocate(4096);
+
+      // Encoded responses waiting to be written.
+      public final ConcurrentLinkedQueue<Response> writeQueue = 
+          new ConcurrentLinkedQueue<>();
+
+      public NioConnection(SocketChannel channel, int clientID) {
+        this.channel = channel;
+        this.clientID = clientID;
+      }
+    }
+
+    public NioListenerThread(int port, TorcDbServerMetrics metrics, 
+        TorcDbConnectionState connectionState,
+        Map<Class<? extends Operation>, OperationHandler> queryHandlerMap,
+        ConcurrentErrorReporter concurrentErrorReporter, 
+        TorcDbRequestScheduler scheduler) {
+      this.port = port;
+      this.metrics = metrics;
+      this.connectionState = connectionState;
+      this.queryHandlerMap = queryHandlerMap;
+      this.concurrentErrorReporter = concurrentErrorReporter;
+      this.scheduler = scheduler;
+    }
+
+    @Override
+    public void run() {
+      try {
+        selector = Selector.open();
+
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+
+        System.out.println("Listening on: " + server.toString() 
+            + " with scheduler " + scheduler.toString());
+
+        while (true) {
+          selector.select();
+
+          NioConnection conn;
+          while ((conn = pendingWrites.poll()) != null) {
+            write(conn);
+          }
+
+          Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+          while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+
+            if (!key.isValid()) {
+              continue;
+            }
+
+            try {
+              if (key.isAcceptable()) {
+                accept(server);
+              } else {
+                if (key.isReadable()) {
+                  read((NioConnection) key.attachment());
+                }
+                if (key.isValid() && key.isWritable()) {
+                  write((NioConnection) key.attachment());
+                }
+              }
+            } catch (IOException e) {
+              close(key);
+            } catch (RuntimeException e) {
+              // A malformed frame. Drop the client that sent it, not the
+              // loop serving every other client.
+              System.out.println("Closing client " + key.channel()
+                  + ": " + e);
+              close(key);
+            }
+          }
+        }
+      } catch (Exception e) {
+        System.out.println("NioListenerThread exiting: " + e);
+        e.printStackTrace();
+      }
+    }
+
+    private void accept(ServerSocketChannel server) throws IOException {
+      SocketChannel channel = server.accept();
+      if (channel == null) {
+        return;
+      }
+
+      System.out.println("Client connected: " + channel.toString());
+
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      NioConnection conn = new NioConnection(channel, clientID++);
+      conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+    }
+
+    private void close(SelectionKey key) {
+      key.cancel();
+      try {
+        key.channel().close();
+      } catch (IOException e) {
+        // Nothing left to do with it anyway.
+      }
+    }
+
+    /**
+     * Reads what is available on the connection and dispatches each complete
+     * request frame to the worker pool.
+     */
+    private void read(NioConnection conn) throws IOException {
+      if (conn.channel.read(conn.readBuf) < 0) {
+        close(conn.key);
+        return;
+      }
+
+      ByteBuffer buf = conn.readBuf;
+      buf.flip();
+      while (buf.remaining() >= 4) {
+        int length = buf.getInt(buf.position());
+        if (length <= 0 || length > TorcDbWireProtocol.MAX_FRAME_LENGTH) {
+          throw new IOException("Invalid frame length: " + length);
+        }
+
+        if (buf.remaining() < 4 + length) {
+          if (buf.capacity() < 4 + length) {
+            // Frame doesn't fit, grow the buffer to hold it.
+            ByteBuffer newBuf = ByteBuffer.allocate(4 + length);
+            newBuf.put(buf);
+            newBuf.flip();
+            conn.readBuf = buf = newBuf;
+          }
+          break;
+        }
+
+        buf.position(buf.position() + 4);
+        ByteBuffer frame = buf.slice();
+        frame.limit(length);
+        buf.position(buf.position() + length);
+
+        dispatch(conn, frame);
+      }
+      buf.compact();
+    }
+
+    /**
+     * Decodes a request and hands it to the worker pool. Requests that the
+     * pool has no room for are answered with an error.
+     */
+    private void dispatch(NioConnection conn, ByteBuffer frame) 
+        throws IOException {
+      long decodeStart = System.nanoTime();
+      int requestId = frame.getInt();
+      Operation op = TorcDbWireProtocol.decodeRequest(frame);
+      long queuedTime = System.nanoTime();
+      metrics.record(op, TorcDbServerMetrics.Stage.DECODE, 
+          queuedTime - decodeStart);
+
+      TorcDbRequestScheduler.OperationClass opClass = 
+          TorcDbRequestScheduler.OperationClass.of(op);
+      boolean queued = scheduler.submit(opClass, () -> {
+        executeRequest(conn, requestId, op, queuedTime);
+      });
+
+      if (!queued) {
+        TorcDbWireProtocol.FrameBuffer buf = 
+            TorcDbWireProtocol.getThreadLocalFrameBuffer();
+        TorcDbWireProtocol.encodeError(buf, requestId, 
+            TorcDbWireProtocol.opcodeOf(op), 
+            "Server overloaded: " + opClass.shortName + " queue full");
+        conn.writeQueue.add(new Response(buf.copy(), op));
+        write(conn);
+      }
+    }
+
+    /**
+     * Executes a request on a worker thread and queues its response.
+     */
+    private void executeRequest(NioConnection conn, int requestId, 
+        Operation op, long queuedTime) {
+      long executeStart = System.nanoTime();
+      metrics.record(op, TorcDbServerMetrics.Stage.QUEUE, 
+          executeStart - queuedTime);
+
+      ResultReporter resultReporter = 
+          new ResultReporter.SimpleResultReporter(concurrentErrorReporter);
+
+      TorcDbWireProtocol.FrameBuffer buf = 
+          TorcDbWireProtocol.getThreadLocalFrameBuffer();
+      try {
+        queryHandlerMap.get(op.getClass()).executeOperation(op, 
+            connectionState, resultReporter);
+        long executeEnd = System.nanoTime();
+        metrics.record(op, TorcDbServerMetrics.Stage.EXECUTE, 
+            executeEnd - executeStart);
+
+        TorcDbWireProtocol.encodeResponse(buf, requestId, op, 
+            resultReporter.result());
+        metrics.record(op, TorcDbServerMetrics.Stage.CONVERT, 
+            System.nanoTime() - executeEnd);
+      } catch (Exception e) {
+        TorcDbWireProtocol.encodeError(buf, requestId, 
+            TorcDbWireProtocol.opcodeOf(op), e.toString());
+      }
+
+      conn.writeQueue.add(new Response(buf.copy(), op));
+      pendingWrites.add(conn);
+      selector.wakeup();
+    }
+
+    /**
+     * Writes as many queued responses as the connection will take, and
+     * registers interest in writability for the rest.
+     */
+    private void write(NioConnection conn) {
+      if (!conn.key.isValid()) {
+        conn.writeQueue.clear();
+        return;
+      }
+
+      try {
+        Response resp;
+        while ((resp = conn.writeQueue.peek()) != null) {
+          conn.channel.write(resp.frame);
+          if (resp.frame.hasRemaining()) {
+            conn.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            return;
+          }
+          conn.writeQueue.poll();
+          // Includes the time spent waiting for the selector thread to get
+          // around to writing it.
+          metrics.record(resp.op, TorcDbServerMetrics.Stage.WRITE, 
+              System.nanoTime() - resp.queuedTime);
+        }
+        conn.key.interestOps(SelectionKey.OP_READ);
+      } catch (IOException e) {
+        close(conn.key);
+      }
+    }
+  }
+
   public static void main(String[] args) throws Exception {
     Map<String, Object> opts =
         new Docopt(doc).withVersion("TorcDbServer 1.0").parse(args);
@@ -614,37 +1366,162 @@ public class TorcDbServer {
     final String coordinatorLocator = (String) opts.get("COORDLOC");
     final String graphName = (String) opts.get("GRAPHNAME");
     final int port = Integer.decode((String) opts.get("--port"));
+    final String protocol = (String) opts.get("--protocol");
+    final boolean verbose = (Boolean) opts.get("--verbose");
+    final String statsFile = (String) opts.get("--statsFile");
+    final long statsInterval = 
+        Long.decode((String) opts.get("--statsInterval"));
+    final boolean jmx = (Boolean) opts.get("--jmx");
+    int workers = Integer.decode((String) opts.get("--workers"));
+    final int queueDepth = Integer.decode((String) opts.get("--queueDepth"));
+
+    final boolean virtualThreads = (Boolean) opts.get("--virtualThreads");
+    final String shmDir = (String) opts.get("--shmDir");
+    final String nativeQueriesList = (String) opts.get("--nativeQueries");
+    final Set<Integer> nativeQueries = (nativeQueriesList == null) 
+        ? Collections.emptySet() 
+        : TorcDb.parseNativeQueries(nativeQueriesList);
+
+    if (virtualThreads && !TorcDbVirtualThreads.isSupported()) {
+      System.out.println("--virtualThreads requires a JDK 21 or later "
+          + "runtime, running on " + System.getProperty("java.version"));
+      return;
+    }
+
+    if (workers == 0) {
+      if (virtualThreads) {
+        workers = 1024;
+      } else {
+        workers = Runtime.getRuntime().availableProcessors();
+      }
+    }
+
+    int[] limits = new int[TorcDbRequestScheduler.OperationClass.values().length];
+    limits[TorcDbRequestScheduler.OperationClass.COMPLEX_READ.ordinal()] = 
+        Integer.decode((String) opts.get("--complexReadLimit"));
+    limits[TorcDbRequestScheduler.OperationClass.SHORT_READ.ordinal()] = 
+        Integer.decode((String) opts.get("--shortReadLimit"));
+    limits[TorcDbRequestScheduler.OperationClass.UPDATE.ordinal()] = 
+        Integer.decode((String) opts.get("--updateLimit"));
+    if (limits[TorcDbRequestScheduler.OperationClass.COMPLEX_READ.ordinal()] 
+        == 0) {
+      limits[TorcDbRequestScheduler.OperationClass.COMPLEX_READ.ordinal()] = 
+          Math.max(1, workers - 1);
+    }
+    for (int i = 0; i < limits.length; i++) {
+      if (limits[i] == 0) {
+        limits[i] = workers;
+      }
+    }
+
+    String[] priorityNames = ((String) opts.get("--priority")).split(",");
+    TorcDbRequestScheduler.OperationClass[] priority = 
+        new TorcDbRequestScheduler.OperationClass[priorityNames.length];
+    for (int i = 0; i < priorityNames.length; i++) {
+      priority[i] = 
+          TorcDbRequestScheduler.OperationClass.forShortName(priorityNames[i]);
+    }
+
+    if (!protocol.equals("java") && !protocol.equals("binary")) {
+      System.out.println("Unrecognized protocol: " + protocol);
+      return;
+    }
+
+    if (shmDir != null && !protocol.equals("binary")) {
+      System.out.println("--shmDir requires the binary protocol");
+      return;
+    }
+
+    if (shmDir != null && !TorcDbShmChannel.isSupported()) {
+      System.out.println("--shmDir requires a Java 9 or later runtime");
+      return;
+    }
 
     System.out.println(String.format("TorcDbServer: {coordinatorLocator: %s, "
-        + "graphName: %s, port: %d}",
+        + "graphName: %s, port: %d, protocol: %s, workers: %d, "
+        + "queueDepth: %d, virtualThreads: %b}",
         coordinatorLocator,
         graphName,
-        port));
+        port,
+        protocol,
+        workers,
+        queueDepth,
+        virtualThreads));
    
     // Connect to database. 
     Map<String, String> props = new HashMap<>();
     props.put("coordinatorLocator", coordinatorLocator);
     props.put("graphName", graphName);
+    if (opts.get("--timeOrderedMessages") != null) {
+      props.put("timeOrderedMessages", 
+          (String) opts.get("--timeOrderedMessages"));
+    }
+    props.put("rootPostCacheSize", (String) opts.get("--rootPostCacheSize"));
+    if ((Boolean) opts.get("--rootPostEdges")) {
+      props.put("rootPostEdges", "true");
+    }
+    props.put("propertyCacheSize", (String) opts.get("--propertyCacheSize"));
+    props.put("friendCacheSize", (String) opts.get("--friendCacheSize"));
+    if (opts.get("--nameIndexDir") != null) {
+      props.put("nameIndexDir", (String) opts.get("--nameIndexDir"));
+    }
+    props.put("queryParallelism", (String) opts.get("--queryParallelism"));
+    props.put("parallelPoolSize", (String) opts.get("--parallelPoolSize"));
+    props.put("parallelChunkSize", 
+        (String) opts.get("--parallelChunkSize"));
+    props.put("groupCommitWindow", 
+        (String) opts.get("--groupCommitWindow"));
+    props.put("groupCommitSize", (String) opts.get("--groupCommitSize"));
     System.out.println("Connecting to TorcDB...");
     TorcDbConnectionState connectionState = new TorcDbConnectionState(props);
 
     // Create mapping from op type to op handler for processing requests.
     Map<Class<? extends Operation>, OperationHandler> queryHandlerMap = 
         new HashMap<>();
-    queryHandlerMap.put(LdbcQuery1.class, new TorcDb.LdbcQuery1Handler());
-    queryHandlerMap.put(LdbcQuery2.class, new TorcDb.LdbcQuery2Handler());
+    if (nativeQueries.contains(1)) {
+      queryHandlerMap.put(LdbcQuery1.class, 
+          new TorcDb.LdbcQuery1NativeHandler());
+    } else {
+      queryHandlerMap.put(LdbcQuery1.class, new TorcDb.LdbcQuery1Handler());
+    }
+    if (nativeQueries.contains(2)) {
+      queryHandlerMap.put(LdbcQuery2.class, 
+          new TorcDb.LdbcQuery2NativeHandler());
+    } else {
+      queryHandlerMap.put(LdbcQuery2.class, new TorcDb.LdbcQuery2Handler());
+    }
     queryHandlerMap.put(LdbcQuery3.class, new TorcDb.LdbcQuery3Handler());
     queryHandlerMap.put(LdbcQuery4.class, new TorcDb.LdbcQuery4Handler());
-    queryHandlerMap.put(LdbcQuery5.class, new TorcDb.LdbcQuery5Handler());
+    if (nativeQueries.contains(5)) {
+      queryHandlerMap.put(LdbcQuery5.class, 
+          new TorcDb.LdbcQuery5NativeHandler());
+    } else {
+      queryHandlerMap.put(LdbcQuery5.class, new TorcDb.LdbcQuery5Handler());
+    }
     queryHandlerMap.put(LdbcQuery6.class, new TorcDb.LdbcQuery6Handler());
     queryHandlerMap.put(LdbcQuery7.class, new TorcDb.LdbcQuery7Handler());
     queryHandlerMap.put(LdbcQuery8.class, new TorcDb.LdbcQuery8Handler());
-    queryHandlerMap.put(LdbcQuery9.class, new TorcDb.LdbcQuery9Handler());
+    if (nativeQueries.contains(9)) {
+      queryHandlerMap.put(LdbcQuery9.class, 
+          new TorcDb.LdbcQuery9NativeHandler());
+    } else {
+      queryHandlerMap.put(LdbcQuery9.class, new TorcDb.LdbcQuery9Handler());
+    }
     queryHandlerMap.put(LdbcQuery10.class, new TorcDb.LdbcQuery10Handler());
     queryHandlerMap.put(LdbcQuery11.class, new TorcDb.LdbcQuery11Handler());
     queryHandlerMap.put(LdbcQuery12.class, new TorcDb.LdbcQuery12Handler());
-    queryHandlerMap.put(LdbcQuery13.class, new TorcDb.LdbcQuery13Handler());
-    queryHandlerMap.put(LdbcQuery14.class, new TorcDb.LdbcQuery14Handler());
+    if (nativeQueries.contains(13)) {
+      queryHandlerMap.put(LdbcQuery13.class, 
+          new TorcDb.LdbcQuery13NativeHandler());
+    } else {
+      queryHandlerMap.put(LdbcQuery13.class, new TorcDb.LdbcQuery13Handler());
+    }
+    if (nativeQueries.contains(14)) {
+      queryHandlerMap.put(LdbcQuery14.class, 
+          new TorcDb.LdbcQuery14NativeHandler());
+    } else {
+      queryHandlerMap.put(LdbcQuery14.class, new TorcDb.LdbcQuery14Handler());
+    }
     queryHandlerMap.put(LdbcShortQuery1PersonProfile.class, 
         new TorcDb.LdbcShortQuery1PersonProfileHandler());
     queryHandlerMap.put(LdbcShortQuery2PersonPosts.class, 
@@ -680,10 +1557,58 @@ public class TorcDbServer {
     ConcurrentErrorReporter concurrentErrorReporter = 
         new ConcurrentErrorReporter();
 
-    // Listener thread accepts connections and spawns client threads.
-    Thread listener = new Thread(new ListenerThread(port, connectionState,
-          queryHandlerMap, concurrentErrorReporter));
+    // Per request stage latencies.
+    TorcDbServerMetrics metrics = new TorcDbServerMetrics();
+    TorcDbPropertyCache propertyCache = connectionState.getPropertyCache();
+    if (propertyCache.isEnabled()) {
+      metrics.addCache(propertyCache);
+    }
+    TorcDbGroupCommit groupCommit = connectionState.getGroupCommit();
+    if (groupCommit.isEnabled()) {
+      metrics.setGroupCommit(groupCommit);
+    }
+    if (statsFile != null || verbose) {
+      metrics.startDumping(statsFile, statsInterval, verbose);
+    }
+    if (jmx) {
+      metrics.registerMBean();
+      if (propertyCache.isEnabled()) {
+        propertyCache.registerMBean();
+      }
+      if (groupCommit.isEnabled()) {
+        groupCommit.registerMBean();
+      }
+    }
+
+    // Listener thread accepts connections and spawns client threads, or for
+    // the binary protocol serves all clients from a selector loop.
+    // The binary protocol's worker threads, shared by socket and shared
+    // memory clients.
+    TorcDbRequestScheduler scheduler = null;
+    Thread listener;
+    if (protocol.equals("binary")) {
+      scheduler = new TorcDbRequestScheduler(workers, priority, limits, 
+          queueDepth, TorcDbVirtualThreads.threadFactory("TorcDbWorker-", 
+              virtualThreads, true));
+      listener = new Thread(new NioListenerThread(port, metrics, 
+            connectionState, queryHandlerMap, concurrentErrorReporter, 
+            scheduler));
+    } else {
+      listener = new Thread(new ListenerThread(port, metrics, 
+            connectionState, queryHandlerMap, concurrentErrorReporter,
+            TorcDbVirtualThreads.threadFactory("TorcDbClient-", 
+                virtualThreads, false)));
+    }
     listener.start();
+
+    if (shmDir != null) {
+      Thread shmListener = new Thread(new ShmListenerThread(shmDir, metrics,
+            connectionState, queryHandlerMap, concurrentErrorReporter, 
+            scheduler));
+      shmListener.setDaemon(true);
+      shmListener.start();
+    }
+
     listener.join();
   }
 }
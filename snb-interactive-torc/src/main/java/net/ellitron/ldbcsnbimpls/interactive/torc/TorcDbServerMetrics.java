@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import com.ldbc.driver.Operation;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.management.ObjectName;
+
+/**
+ * Breaks down where TorcDbServer spends its time on each request, per
+ * operation type. Every request records the time it spent in each of the
+ * stages below into a TorcDbLatencyHistogram, which is cheap enough to do on
+ * every request. The histograms accumulate over the lifetime of the server,
+ * and can be periodically dumped to a file and/or read through JMX.
+ */
+public class TorcDbServerMetrics implements TorcDbServerMetricsMBean {
+
+  /**
+   * Stages of processing a request.
+   */
+  public enum Stage {
+    // Turning the bytes read off the wire into an LDBC driver operation.
+    DECODE("decode"),
+    // Waiting for a worker thread to pick the request up.
+    QUEUE("queue"),
+    // Running the operation's handler from the queryHandlerMap.
+    EXECUTE("execute"),
+    // Turning the handler's result into what is sent on the wire.
+    CONVERT("convert"),
+    // Writing the response to the client.
+    WRITE("write");
+
+    public final String shortName;
+
+    private Stage(String shortName) {
+      this.shortName = shortName;
+    }
+  }
+
+  private final ConcurrentHashMap<Class<?>, TorcDbLatencyHistogram[]>
+      histograms = new ConcurrentHashMap<>();
+
+  private ScheduledExecutorService dumper = null;
+
+  // Caches whose statistics to include in each dump.
+  private final List<TorcDbPropertyCacheMBean> caches =
+      new CopyOnWriteArrayList<>();
+
+  // Group commit whose statistics to include in each dump, if any.
+  private volatile TorcDbGroupCommitMBean groupCommit = null;
+
+  private TorcDbLatencyHistogram[] histogramsFor(Class<?> opClass) {
+    TorcDbLatencyHistogram[] h = histograms.get(opClass);
+    if (h == null) {
+      h = histograms.computeIfAbsent(opClass, (k) -> {
+        TorcDbLatencyHistogram[] a =
+            new TorcDbLatencyHistogram[Stage.values().length];
+        for (int i = 0; i < a.length; i++) {
+          a[i] = new TorcDbLatencyHistogram();
+        }
+        return a;
+      });
+    }
+    return h;
+  }
+
+  /**
+   * Records time spent in a stage.
+   *
+   * @param op The operation being processed.
+   * @param stage The stage.
+   * @param nanos Time spent in the stage in nanoseconds.
+   */
+  public void record(Operation op, Stage stage, long nanos) {
+    histogramsFor(op.getClass())[stage.ordinal()].record(nanos);
+  }
+
+  /**
+   * Records all stages of a request handled start to finish on one thread,
+   * from timestamps taken at the boundaries between stages. There is no queue
+   * stage.
+   */
+  public void record(Operation op, long decodeStart, long executeStart,
+      long executeEnd, long writeStart, long writeEnd) {
+    TorcDbLatencyHistogram[] h = histogramsFor(op.getClass());
+    h[Stage.DECODE.ordinal()].record(executeStart - decodeStart);
+    h[Stage.EXECUTE.ordinal()].record(executeEnd - executeStart);
+    h[Stage.CONVERT.ordinal()].record(writeStart - executeEnd);
+    h[Stage.WRITE.ordinal()].record(writeEnd - writeStart);
+  }
+
+  @Override
+  public String getReport() {
+    // Sort by operation name for a stable layout.
+    Map<String, TorcDbLatencyHistogram[]> sorted = new TreeMap<>();
+    histograms.forEach((k, v) -> sorted.put(k.getSimpleName(), v));
+
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%-32s %-8s %10s %10s %10s %10s %10s %10s\n",
+        "Operation", "Stage", "Count", "Mean(us)", "50th(us)", "99th(us)",
+        "99.9th(us)", "Max(us)"));
+    sorted.forEach((opName, h) -> {
+      for (Stage stage : Stage.values()) {
+        TorcDbLatencyHistogram s = h[stage.ordinal()];
+        if (s.getCount() == 0) {
+          continue;
+        }
+        sb.append(String.format(
+            "%-32s %-8s %10d %10.1f %10.1f %10.1f %10.1f %10.1f\n",
+            opName,
+            stage.shortName,
+            s.getCount(),
+            s.getMean() / 1000.0,
+            s.getPercentile(50) / 1000.0,
+            s.getPercentile(99) / 1000.0,
+            s.getPercentile(99.9) / 1000.0,
+            s.getMax() / 1000.0));
+      }
+    });
+    return sb.toString();
+  }
+
+  @Override
+  public double getLatencyMicros(String operation, String stage,
+      double percentile) {
+    for (Map.Entry<Class<?>, TorcDbLatencyHistogram[]> e :
+        histograms.entrySet()) {
+      if (!e.getKey().getSimpleName().equals(operation)) {
+        continue;
+      }
+      for (Stage s : Stage.values()) {
+        if (s.shortName.equals(stage)) {
+          TorcDbLatencyHistogram h = e.getValue()[s.ordinal()];
+          return (h.getCount() == 0)
+              ? -1 : h.getPercentile(percentile) / 1000.0;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Includes a cache's hit and miss counts in each dump.
+   */
+  public void addCache(TorcDbPropertyCacheMBean cache) {
+    caches.add(cache);
+  }
+
+  /**
+   * Includes group commit batch counts and per operation commit latencies
+   * in each dump.
+   */
+  public void setGroupCommit(TorcDbGroupCommitMBean groupCommit) {
+    this.groupCommit = groupCommit;
+  }
+
+  /**
+   * Starts appending the report to a file at a fixed interval.
+   *
+   * @param fileName File to append to.
+   * @param intervalSeconds Seconds between dumps.
+   * @param toStdout Also print each report to stdout.
+   */
+  public synchronized void startDumping(String fileName, long intervalSeconds,
+      boolean toStdout) {
+    if (dumper != null) {
+      return;
+    }
+
+    dumper = Executors.newSingleThreadScheduledExecutor((r) -> {
+      Thread t = new Thread(r, "TorcDbServerMetrics-dumper");
+      t.setDaemon(true);
+      return t;
+    });
+
+    dumper.scheduleAtFixedRate(() -> {
+      String report = "TorcDbServer stage latencies at " + new Date() + "\n"
+          + getReport();
+      for (TorcDbPropertyCacheMBean cache : caches) {
+        report += cache.getReport();
+      }
+      if (groupCommit != null) {
+        report += groupCommit.getReport();
+      }
+      if (fileName != null) {
+        try (PrintWriter out = new PrintWriter(new FileWriter(fileName, true))) {
+          out.println(report);
+        } catch (IOException e) {
+          System.out.println("Failed to write stats to " + fileName + ": "
+              + e.getMessage());
+        }
+      }
+      if (toStdout) {
+        System.out.println(report);
+      }
+    }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Registers these metrics with the platform MBean server, so that they can
+   * be read with jconsole and the like.
+   */
+  public void registerMBean() throws Exception {
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+        new ObjectName(
+            "net.ellitron.ldbcsnbimpls.interactive.torc:type=TorcDbServer"));
+  }
+}
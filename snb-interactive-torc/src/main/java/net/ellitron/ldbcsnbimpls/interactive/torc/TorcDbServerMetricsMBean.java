@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+/**
+ * JMX management interface for TorcDbServerMetrics.
+ */
+public interface TorcDbServerMetricsMBean {
+
+  /**
+   * Returns a table of per operation, per stage latency statistics.
+   */
+  String getReport();
+
+  /**
+   * Returns a percentile of the latency of one stage of one operation type.
+   *
+   * @param operation Simple class name of the operation, e.g. LdbcQuery1.
+   * @param stage Name of the stage, e.g. execute.
+   * @param percentile Percentile between 0 and 100.
+   * @return Latency in microseconds, or -1 if nothing has been recorded.
+   */
+  double getLatencyMicros(String operation, String stage, double percentile);
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import com.ldbc.driver.Operation;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides which TorcDbServer a TorcDbClient sends each operation to. The
+ * policy is chosen with the serverSelection property:
+ * <ul>
+ * <li>random: Uniformly at random (default).</li>
+ * <li>leastOutstanding: The server with the fewest requests in flight from
+ * this client.</li>
+ * <li>powerOfTwo: The better of two servers picked at random, scoring each by
+ * its requests in flight times its latency EWMA.</li>
+ * <li>affinity: The server owning the operation's primary entity on a
+ * consistent hash ring (see TorcDbAffinityPolicy).</li>
+ * </ul>
+ * Servers marked unavailable in their TorcDbServerStats are skipped, until
+ * their retry backoff expires, as long as at least one server is still
+ * available.
+ */
+public interface TorcDbServerSelectionPolicy {
+
+  /**
+   * Chooses a server for the operation.
+   *
+   * @param op The operation about to be sent.
+   * @param servers Current stats of each server.
+   * @return Index of the chosen server in servers.
+   */
+  int selectServer(Operation op, TorcDbServerStats[] servers);
+
+  /**
+   * Creates the policy configured in the given properties.
+   */
+  static TorcDbServerSelectionPolicy create(Map<String, String> props) {
+    String name = props.getOrDefault("serverSelection", "random");
+    switch (name) {
+      case "random":
+        return new RandomPolicy();
+      case "leastOutstanding":
+        return new LeastOutstandingPolicy();
+      case "powerOfTwo":
+        return new PowerOfTwoChoicesPolicy();
+      case "affinity":
+        return new TorcDbAffinityPolicy();
+      default:
+        throw new IllegalArgumentException(
+            "Unrecognized serverSelection: " + name);
+    }
+  }
+
+  /**
+   * Picks a server uniformly at random from those available.
+   */
+  static int randomAvailable(TorcDbServerStats[] servers) {
+    ThreadLocalRandom rand = ThreadLocalRandom.current();
+    int n = rand.nextInt(servers.length);
+    for (int i = 0; i < servers.length; i++) {
+      int s = (n + i) % servers.length;
+      if (servers[s].isAvailable()) {
+        return s;
+      }
+    }
+    return n;
+  }
+
+  public static class RandomPolicy implements TorcDbServerSelectionPolicy {
+    @Override
+    public int selectServer(Operation op, TorcDbServerStats[] servers) {
+      return randomAvailable(servers);
+    }
+  }
+
+  public static class LeastOutstandingPolicy
+      implements TorcDbServerSelectionPolicy {
+    @Override
+    public int selectServer(Operation op, TorcDbServerStats[] servers) {
+      // Start the scan at a random server so that ties don't all go to the
+      // first one.
+      int start = ThreadLocalRandom.current().nextInt(servers.length);
+      int best = -1;
+      int bestOutstanding = Integer.MAX_VALUE;
+      for (int i = 0; i < servers.length; i++) {
+        int s = (start + i) % servers.length;
+        if (!servers[s].isAvailable()) {
+          continue;
+        }
+        int outstanding = servers[s].getOutstanding();
+        if (outstanding < bestOutstanding) {
+          best = s;
+          bestOutstanding = outstanding;
+        }
+      }
+      return (best == -1) ? start : best;
+    }
+  }
+
+  public static class PowerOfTwoChoicesPolicy
+      implements TorcDbServerSelectionPolicy {
+    @Override
+    public int selectServer(Operation op, TorcDbServerStats[] servers) {
+      if (servers.length == 1) {
+        return 0;
+      }
+
+      ThreadLocalRandom rand = ThreadLocalRandom.current();
+      int a = randomAvailable(servers);
+      int b = rand.nextInt(servers.length - 1);
+      if (b >= a) {
+        b++;
+      }
+
+      if (!servers[b].isAvailable()) {
+        return a;
+      }
+
+      return (score(servers[b]) < score(servers[a])) ? b : a;
+    }
+
+    private static double score(TorcDbServerStats server) {
+      // Servers we haven't heard back from yet have no latency estimate, so
+      // count them as cheap and let them prove otherwise.
+      return (server.getOutstanding() + 1) * server.getEwmaLatencyNanos();
+    }
+  }
+}
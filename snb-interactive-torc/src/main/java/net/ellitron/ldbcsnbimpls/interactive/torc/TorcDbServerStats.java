@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Client side view of the load on a single TorcDbServer, as observed through
+ * the requests this client has sent it. Used by TorcDbServerSelectionPolicy
+ * implementations to choose where to send the next request, and reported at
+ * the end of the run to show how traffic was actually distributed.
+ */
+public class TorcDbServerStats {
+
+  // Weight given to each new latency sample in the moving average.
+  private static final double EWMA_ALPHA = 0.2;
+
+  // How long a server marked unavailable is skipped before we try it again.
+  // Doubles each time it is marked unavailable again without a request
+  // succeeding in between, up to the maximum.
+  private static final long MIN_RETRY_BACKOFF_NANOS = 
+      TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long MAX_RETRY_BACKOFF_NANOS = 
+      TimeUnit.SECONDS.toNanos(10);
+
+  private final String address;
+
+  // Requests sent to the server that have not yet completed.
+  private final AtomicInteger outstanding = new AtomicInteger(0);
+
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  private final LongAdder totalLatencyNanos = new LongAdder();
+
+  // Exponentially weighted moving average of request latency in nanoseconds,
+  // stored as the raw bits of a double so it can be updated with CAS. 0 until
+  // the first request completes.
+  private final AtomicLong ewmaLatencyBits =
+      new AtomicLong(Double.doubleToLongBits(0.0));
+
+  // Cleared by markUnavailable() when a request fails on account of the
+  // server or the connection to it, rather than the query itself, and set
+  // again by the next request to succeed. While cleared the server is skipped
+  // until retryTime, after which requests are let through to see whether it
+  // is back.
+  private volatile boolean available = true;
+  private volatile long retryTime = 0;
+  private volatile long retryBackoffNanos = 0;
+  private final LongAdder markedUnavailable = new LongAdder();
+
+  public TorcDbServerStats(String address) {
+    this.address = address;
+  }
+
+  /**
+   * Records that a request is being sent to the server.
+   *
+   * @return Start time of the request, to pass to requestCompleted().
+   */
+  public long requestStarted() {
+    outstanding.incrementAndGet();
+    requests.increment();
+    return System.nanoTime();
+  }
+
+  /**
+   * Records that a request to the server has completed.
+   *
+   * @param startTime Value returned by requestStarted().
+   * @param success Whether the request succeeded.
+   */
+  public void requestCompleted(long startTime, boolean success) {
+    long latency = System.nanoTime() - startTime;
+    outstanding.decrementAndGet();
+
+    if (!success) {
+      failures.increment();
+      return;
+    }
+
+    if (!available) {
+      retryBackoffNanos = 0;
+      available = true;
+    }
+
+    totalLatencyNanos.add(latency);
+
+    long prevBits, nextBits;
+    do {
+      prevBits = ewmaLatencyBits.get();
+      double prev = Double.longBitsToDouble(prevBits);
+      double next = (prev == 0.0)
+          ? latency : (EWMA_ALPHA * latency + (1.0 - EWMA_ALPHA) * prev);
+      nextBits = Double.doubleToLongBits(next);
+    } while (!ewmaLatencyBits.compareAndSet(prevBits, nextBits));
+  }
+
+  public String getAddress() {
+    return address;
+  }
+
+  public int getOutstanding() {
+    return outstanding.get();
+  }
+
+  public long getRequests() {
+    return requests.sum();
+  }
+
+  public long getFailures() {
+    return failures.sum();
+  }
+
+  public double getEwmaLatencyNanos() {
+    return Double.longBitsToDouble(ewmaLatencyBits.get());
+  }
+
+  /**
+   * Returns whether requests should be sent to the server, which is the case
+   * unless it was marked unavailable and its retry backoff has not yet
+   * expired.
+   */
+  public boolean isAvailable() {
+    return available || System.nanoTime() - retryTime >= 0;
+  }
+
+  /**
+   * Records that a request failed on account of the server or the connection
+   * to it. The server is skipped for a backoff period, after which requests
+   * are sent to it again, and the first of those to succeed makes it
+   * available again.
+   */
+  public void markUnavailable() {
+    long backoff = retryBackoffNanos;
+    backoff = (backoff == 0) 
+        ? MIN_RETRY_BACKOFF_NANOS 
+        : Math.min(2 * backoff, MAX_RETRY_BACKOFF_NANOS);
+    retryBackoffNanos = backoff;
+    retryTime = System.nanoTime() + backoff;
+    available = false;
+    markedUnavailable.increment();
+  }
+
+  public long getMarkedUnavailable() {
+    return markedUnavailable.sum();
+  }
+
+  @Override
+  public String toString() {
+    long n = requests.sum();
+    long f = failures.sum();
+    double meanLatencyUs = (n - f) > 0
+        ? totalLatencyNanos.sum() / (double) (n - f) / 1000.0 : 0.0;
+    return String.format("%s: {requests: %d, failures: %d, "
+        + "meanLatency: %.1fus, ewmaLatency: %.1fus, outstanding: %d, "
+        + "available: %b, markedUnavailable: %d}",
+        address,
+        n,
+        f,
+        meanLatencyUs,
+        getEwmaLatencyNanos() / 1000.0,
+        outstanding.get(),
+        available,
+        markedUnavailable.sum());
+  }
+}
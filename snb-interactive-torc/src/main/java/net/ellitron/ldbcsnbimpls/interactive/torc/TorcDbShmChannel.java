@@ -0,0 +1,524 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A channel between a TorcDbClient thread and a TorcDbServer on the same host,
+ * over a memory mapped file instead of a socket. Carries TorcDbWireProtocol
+ * frames, one request at a time, just like a binary protocol socket.
+ *
+ * The file holds a header and two single producer, single consumer ring
+ * buffers, one for requests and one for responses. Each side publishes what
+ * it has written, or consumed, by advancing a position counter in the header
+ * with an ordered store, and the other side polls the counter. Polling spins
+ * for a while before backing off to yielding and then parking, so that a busy
+ * channel has microsecond round trips without burning a core when idle.
+ *
+ * The client creates the file in a directory the server watches (see
+ * TorcDbServer's --shmDir) and waits for the server to claim it. Each side
+ * holds a lock on its own byte of the file for as long as it has the channel
+ * open, so that the other side can tell when it has died, since the OS
+ * releases the lock then.
+ *
+ * The counters are read and written through VarHandle views of the mapped
+ * buffer, which need a Java 9 or later runtime. This module is still
+ * compiled for Java 8, so like TorcDbVirtualThreads it looks them up through
+ * reflection, and isSupported() says whether it found them.
+ */
+public class TorcDbShmChannel implements AutoCloseable {
+
+  private static final int MAGIC = 0x54444253; // "TDBS"
+
+  // Header layout. Fields written by different sides are on separate cache
+  // lines.
+  private static final int MAGIC_OFFSET = 0;
+  private static final int RING_SIZE_OFFSET = 4;
+  private static final int STATE_OFFSET = 64;
+  private static final int REQUEST_WRITE_OFFSET = 128;
+  private static final int REQUEST_READ_OFFSET = 192;
+  private static final int RESPONSE_WRITE_OFFSET = 256;
+  private static final int RESPONSE_READ_OFFSET = 320;
+  private static final int CLIENT_LOCK_OFFSET = 384;
+  private static final int SERVER_LOCK_OFFSET = 448;
+  private static final int HEADER_SIZE = 4096;
+
+  // Channel states.
+  private static final int STATE_INIT = 0;
+  private static final int STATE_CREATED = 1;
+  private static final int STATE_CLAIMED = 2;
+  private static final int STATE_CLOSED = 3;
+
+  // Marks the rest of the ring as unused, the next record starts at 0.
+  private static final int PADDING = -1;
+
+  // Backoff while waiting on the other side. Spinning only helps when the
+  // other side can run at the same time.
+  private static final int SPIN_LIMIT = 
+      (Runtime.getRuntime().availableProcessors() > 1) ? 20000 : 0;
+  private static final int YIELD_LIMIT = SPIN_LIMIT + 1000;
+  private static final long PARK_NANOS = 20000;
+
+  // How often to check whether the other side is still alive, while parked.
+  private static final long LIVENESS_CHECK_NANOS = 100L * 1000 * 1000;
+
+  // How long the client waits for a server to claim a new channel.
+  private static final long CLAIM_TIMEOUT_NANOS = 5L * 1000 * 1000 * 1000;
+
+  public static final String FILE_SUFFIX = ".ring";
+
+  public static final int DEFAULT_RING_SIZE = 4 * 1024 * 1024;
+
+  // Accessors for the header fields, from VarHandle views of the mapped
+  // buffer, or null if the runtime has no VarHandles.
+  private static final MethodHandle GET_INT_VOLATILE = 
+      accessor(int[].class, "GET_VOLATILE");
+  private static final MethodHandle SET_INT_RELEASE = 
+      accessor(int[].class, "SET_RELEASE");
+  private static final MethodHandle COMPARE_AND_SET_INT = 
+      accessor(int[].class, "COMPARE_AND_SET");
+  private static final MethodHandle GET_LONG_VOLATILE = 
+      accessor(long[].class, "GET_VOLATILE");
+  private static final MethodHandle SET_LONG_RELEASE = 
+      accessor(long[].class, "SET_RELEASE");
+
+  private static final AtomicInteger nextChannelId = new AtomicInteger(0);
+
+  private final File file;
+  private final FileChannel fileChannel;
+  private final MappedByteBuffer mapped;
+  private final int ringSize;
+  private final boolean isClient;
+  private final FileLock ownLock;
+
+  // Offsets of the ring we write to and the ring we read from, and of their
+  // position counters.
+  private final int txRing;
+  private final int txWriteOffset;
+  private final int txReadOffset;
+  private final int rxRing;
+  private final int rxWriteOffset;
+  private final int rxReadOffset;
+
+  // Local copies of our own counters, which only we advance.
+  private long txWrite;
+  private long rxRead;
+
+  // Frames are copied out of the ring into here, so that the ring space can
+  // be released before the frame is decoded.
+  private byte[] rxBuffer = new byte[4096];
+
+  private long lastLivenessCheck = 0;
+
+  private TorcDbShmChannel(File file, FileChannel fileChannel,
+      MappedByteBuffer mapped, boolean isClient, int ringSize, 
+      FileLock ownLock) {
+    this.file = file;
+    this.fileChannel = fileChannel;
+    this.mapped = mapped;
+    this.isClient = isClient;
+    this.ringSize = ringSize;
+    this.ownLock = ownLock;
+
+    int requestRing = HEADER_SIZE;
+    int responseRing = HEADER_SIZE + ringSize;
+    if (isClient) {
+      txRing = requestRing;
+      txWriteOffset = REQUEST_WRITE_OFFSET;
+      txReadOffset = REQUEST_READ_OFFSET;
+      rxRing = responseRing;
+      rxWriteOffset = RESPONSE_WRITE_OFFSET;
+      rxReadOffset = RESPONSE_READ_OFFSET;
+    } else {
+      txRing = responseRing;
+      txWriteOffset = RESPONSE_WRITE_OFFSET;
+      txReadOffset = RESPONSE_READ_OFFSET;
+      rxRing = requestRing;
+      rxWriteOffset = REQUEST_WRITE_OFFSET;
+      rxReadOffset = REQUEST_READ_OFFSET;
+    }
+
+    this.txWrite = getLongVolatile(mapped, txWriteOffset);
+    this.rxRead = getLongVolatile(mapped, rxReadOffset);
+  }
+
+  /**
+   * Returns whether the running JVM supports shared memory channels.
+   */
+  public static boolean isSupported() {
+    return GET_INT_VOLATILE != null && SET_INT_RELEASE != null 
+        && COMPARE_AND_SET_INT != null && GET_LONG_VOLATILE != null 
+        && SET_LONG_RELEASE != null;
+  }
+
+  /**
+   * Creates a new channel in the given directory and waits for a server
+   * watching the directory to claim it.
+   *
+   * @param dir Directory the server watches.
+   * @param ringSize Size in bytes of each ring. Must be a power of two, and
+   * at least twice the size of the largest frame.
+   */
+  public static TorcDbShmChannel create(String dir, int ringSize)
+      throws IOException {
+    checkSupported();
+    if (Integer.bitCount(ringSize) != 1 || ringSize < 4096) {
+      throw new IllegalArgumentException(
+          "Ring size must be a power of two of at least 4096: " + ringSize);
+    }
+
+    // The JVM name is pid@host, which is unique enough for file names.
+    String jvm = ManagementFactory.getRuntimeMXBean().getName();
+    File file = new File(dir, "channel-" + jvm.replaceAll("[^0-9A-Za-z]", "_")
+        + "-" + nextChannelId.getAndIncrement() + FILE_SUFFIX);
+
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    FileChannel fc = raf.getChannel();
+    raf.setLength(HEADER_SIZE + 2L * ringSize);
+    MappedByteBuffer mapped = fc.map(FileChannel.MapMode.READ_WRITE, 0,
+        fc.size());
+    mapped.putInt(MAGIC_OFFSET, MAGIC);
+    mapped.putInt(RING_SIZE_OFFSET, ringSize);
+    FileLock lock = fc.lock(CLIENT_LOCK_OFFSET, 1, false);
+
+    TorcDbShmChannel ch = 
+        new TorcDbShmChannel(file, fc, mapped, true, ringSize, lock);
+
+    // Publishes the header written above.
+    ch.putOrderedInt(STATE_OFFSET, STATE_CREATED);
+
+    long start = System.nanoTime();
+    int spins = 0;
+    while (ch.getVolatileInt(STATE_OFFSET) != STATE_CLAIMED) {
+      if (System.nanoTime() - start > CLAIM_TIMEOUT_NANOS) {
+        ch.close();
+        file.delete();
+        throw new IOException("No TorcDbServer claimed shared memory "
+            + "channel " + file + ", is a server running with --shmDir="
+            + dir + "?");
+      }
+      spins = backoff(spins);
+    }
+
+    return ch;
+  }
+
+  /**
+   * Claims a channel created by a client, for the server side.
+   *
+   * @return The channel, or null if it isn't ready to be claimed or another
+   * server got to it first.
+   */
+  public static TorcDbShmChannel claim(File file) throws IOException {
+    checkSupported();
+    FileChannel fc = new RandomAccessFile(file, "rw").getChannel();
+    try {
+      if (fc.size() < HEADER_SIZE) {
+        fc.close();
+        return null;
+      }
+
+      MappedByteBuffer header = fc.map(FileChannel.MapMode.READ_WRITE, 0, 
+          HEADER_SIZE);
+      // Reading the state first makes the rest of the header visible.
+      if (getIntVolatile(header, STATE_OFFSET) != STATE_CREATED
+          || header.getInt(MAGIC_OFFSET) != MAGIC) {
+        fc.close();
+        return null;
+      }
+      int ringSize = header.getInt(RING_SIZE_OFFSET);
+
+      FileLock lock;
+      try {
+        lock = fc.tryLock(SERVER_LOCK_OFFSET, 1, false);
+      } catch (OverlappingFileLockException e) {
+        lock = null;
+      }
+      if (lock == null) {
+        // Another server has it.
+        fc.close();
+        return null;
+      }
+
+      if (!compareAndSetInt(header, STATE_OFFSET, STATE_CREATED, 
+          STATE_CLAIMED)) {
+        lock.release();
+        fc.close();
+        return null;
+      }
+
+      MappedByteBuffer mapped = fc.map(FileChannel.MapMode.READ_WRITE, 0,
+          HEADER_SIZE + 2L * ringSize);
+      return new TorcDbShmChannel(file, fc, mapped, false, ringSize, lock);
+    } catch (IOException e) {
+      fc.close();
+      throw e;
+    }
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Sends a finished frame.
+   *
+   * @param frame Frame including its length field, as returned by
+   * TorcDbWireProtocol.FrameBuffer.frame().
+   */
+  public void send(ByteBuffer frame) throws IOException {
+    int length = frame.remaining();
+    int recordSize = align(length);
+    if (recordSize > ringSize / 2) {
+      throw new IOException("Frame of " + length + " bytes is too large for "
+          + "a shared memory ring of " + ringSize + " bytes, increase "
+          + "shmRingSize");
+    }
+
+    int mask = ringSize - 1;
+    int idx = (int) (txWrite & mask);
+    if (ringSize - idx < recordSize) {
+      // Doesn't fit before the end of the ring, skip to the start.
+      waitForSpace(ringSize - idx);
+      mapped.putInt(txRing + idx, PADDING);
+      txWrite += ringSize - idx;
+      idx = 0;
+    }
+
+    waitForSpace(recordSize);
+
+    // The frame's own length field doubles as the record's.
+    ByteBuffer dst = mapped.duplicate();
+    dst.position(txRing + idx);
+    dst.put(frame);
+
+    txWrite += recordSize;
+    setLongRelease(mapped, txWriteOffset, txWrite);
+  }
+
+  /**
+   * Receives the next frame, waiting for one to arrive if necessary.
+   *
+   * @return Frame contents, positioned just after the length field, like
+   * TorcDbWireProtocol.readFrame(). Only valid until the next call.
+   */
+  public ByteBuffer receive() throws IOException {
+    int mask = ringSize - 1;
+    int spins = 0;
+    while (true) {
+      long write = getLongVolatile(mapped, rxWriteOffset);
+      if (rxRead == write) {
+        spins = backoff(spins);
+        if (spins > YIELD_LIMIT) {
+          checkPeer();
+        }
+        continue;
+      }
+
+      int idx = (int) (rxRead & mask);
+      int length = mapped.getInt(rxRing + idx);
+      if (length == PADDING) {
+        rxRead += ringSize - idx;
+        continue;
+      }
+
+      if (length <= 0 || length > ringSize / 2) {
+        throw new IOException("Invalid frame length in shared memory "
+            + "channel: " + length);
+      }
+
+      if (rxBuffer.length < length) {
+        rxBuffer = new byte[Math.max(length, rxBuffer.length * 2)];
+      }
+      ByteBuffer src = mapped.duplicate();
+      src.position(rxRing + idx + 4);
+      src.get(rxBuffer, 0, length);
+
+      rxRead += align(4 + length);
+      setLongRelease(mapped, rxReadOffset, rxRead);
+
+      return ByteBuffer.wrap(rxBuffer, 0, length);
+    }
+  }
+
+  /**
+   * Closes our end of the channel and deletes its file. The other side keeps
+   * its mapping of the file until it notices and closes its end too.
+   */
+  @Override
+  public void close() throws IOException {
+    putOrderedInt(STATE_OFFSET, STATE_CLOSED);
+    try {
+      ownLock.release();
+    } catch (IOException e) {
+      // Closing the channel releases it anyway.
+    }
+    fileChannel.close();
+    file.delete();
+  }
+
+  private void waitForSpace(int n) throws IOException {
+    int spins = 0;
+    while (ringSize - (txWrite - getLongVolatile(mapped, txReadOffset)) < n) {
+      spins = backoff(spins);
+      if (spins > YIELD_LIMIT) {
+        checkPeer();
+      }
+    }
+  }
+
+  /**
+   * Throws if the other side has closed the channel or died.
+   */
+  private void checkPeer() throws IOException {
+    if (getVolatileInt(STATE_OFFSET) == STATE_CLOSED) {
+      throw new EOFException("Shared memory channel closed: " + file);
+    }
+
+    long now = System.nanoTime();
+    if (now - lastLivenessCheck < LIVENESS_CHECK_NANOS) {
+      return;
+    }
+    lastLivenessCheck = now;
+
+    // If we can take the other side's lock, it's gone.
+    FileLock peerLock;
+    try {
+      peerLock = fileChannel.tryLock(
+          isClient ? SERVER_LOCK_OFFSET : CLIENT_LOCK_OFFSET, 1, false);
+    } catch (OverlappingFileLockException e) {
+      // The other side is in this JVM and still holds it.
+      return;
+    }
+    if (peerLock != null) {
+      peerLock.release();
+      throw new EOFException("Other side of shared memory channel died: "
+          + file);
+    }
+  }
+
+  private static int backoff(int spins) {
+    if (spins >= YIELD_LIMIT) {
+      LockSupport.parkNanos(PARK_NANOS);
+    } else if (spins >= SPIN_LIMIT) {
+      Thread.yield();
+    }
+    return Math.min(spins + 1, YIELD_LIMIT + 1);
+  }
+
+  private static int align(int n) {
+    return (n + 7) & ~7;
+  }
+
+  private int getVolatileInt(int offset) {
+    return getIntVolatile(mapped, offset);
+  }
+
+  private void putOrderedInt(int offset, int value) {
+    setIntRelease(mapped, offset, value);
+  }
+
+  private static void checkSupported() {
+    if (!isSupported()) {
+      throw new UnsupportedOperationException(
+          "Shared memory channels require a Java 9 or later runtime");
+    }
+  }
+
+  /**
+   * Looks up MethodHandles.byteBufferViewVarHandle(viewType, BIG_ENDIAN)
+   * .toMethodHandle(accessMode).
+   *
+   * @return The accessor, or null if the runtime has no VarHandles.
+   */
+  private static MethodHandle accessor(Class<?> viewType, String accessMode) {
+    try {
+      Class<?> varHandleClass = Class.forName("java.lang.invoke.VarHandle");
+      Class<?> accessModeClass = 
+          Class.forName("java.lang.invoke.VarHandle$AccessMode");
+      Object varHandle = MethodHandles.class.getMethod(
+          "byteBufferViewVarHandle", Class.class, ByteOrder.class)
+          .invoke(null, viewType, ByteOrder.BIG_ENDIAN);
+      return (MethodHandle) varHandleClass.getMethod("toMethodHandle", 
+          accessModeClass).invoke(varHandle, 
+              accessModeClass.getField(accessMode).get(null));
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  // invokeExact() is declared to throw Throwable, but the accessors are only
+  // called on direct buffers at aligned offsets, where they can't fail.
+
+  private static int getIntVolatile(ByteBuffer buf, int offset) {
+    try {
+      return (int) GET_INT_VOLATILE.invokeExact(buf, offset);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  private static void setIntRelease(ByteBuffer buf, int offset, int value) {
+    try {
+      SET_INT_RELEASE.invokeExact(buf, offset, value);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  private static boolean compareAndSetInt(ByteBuffer buf, int offset, 
+      int expected, int value) {
+    try {
+      return (boolean) COMPARE_AND_SET_INT.invokeExact(buf, offset, expected,
+          value);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  private static long getLongVolatile(ByteBuffer buf, int offset) {
+    try {
+      return (long) GET_LONG_VOLATILE.invokeExact(buf, offset);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  private static void setLongRelease(ByteBuffer buf, int offset, 
+      long value) {
+    try {
+      SET_LONG_RELEASE.invokeExact(buf, offset, value);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+}
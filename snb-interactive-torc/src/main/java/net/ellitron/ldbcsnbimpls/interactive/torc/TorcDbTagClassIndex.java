@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import net.ellitron.torc.*;
+import net.ellitron.torc.util.UInt128;
+
+import org.apache.tinkerpop.gremlin.structure.Direction;
+import org.apache.tinkerpop.gremlin.structure.Edge;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Maps each TagClass name to the ids of all the Tags whose type is that
+ * TagClass or one of its descendants, as a bitmap indexed by Tag id, for
+ * LdbcQuery12. Shared by all the threads using a TorcDbConnectionState.
+ *
+ * The TagClass hierarchy is a tree of a few dozen TagClasses over some tens of
+ * thousands of Tags, and no update adds to it. So the whole index is built
+ * once, when first needed: starting from any Tag, go up its hasType and
+ * isSubclassOf edges to the root TagClass, then down the isSubclassOf and
+ * hasType edges from there. That is two edge list reads per TagClass, after
+ * which testing a Tag is a bit lookup.
+ */
+public class TorcDbTagClassIndex {
+
+  private static final String[] HAS_TYPE = new String[] {"hasType"};
+  private static final String[] IS_SUBCLASS_OF =
+      new String[] {"isSubclassOf"};
+  private static final String[] TAG = new String[] {TorcEntity.TAG.label};
+  private static final String[] TAGCLASS =
+      new String[] {TorcEntity.TAGCLASS.label};
+
+  private static final BitSet EMPTY = new BitSet();
+
+  // TagClass name to descendant Tag ids. Null until built.
+  private volatile Map<String, BitSet> descendantTags = null;
+
+  // Held while building the index, so it is only built once. A lock rather
+  // than a synchronized method so that callers on virtual threads don't pin
+  // their carrier while the build reads from RAMCloud.
+  private final ReentrantLock buildLock = new ReentrantLock();
+
+  /**
+   * Returns whether a Tag's type is the named TagClass or a descendant of it.
+   *
+   * @param tag A Tag vertex, from which to find the hierarchy if the index
+   * has yet to be built.
+   */
+  public boolean isInClass(Vertex tag, String tagClassName) {
+    return getDescendantTags(tag, tagClassName)
+        .get(tagIndex((UInt128) tag.id()));
+  }
+
+  /**
+   * Returns the ids of the Tags whose type is the named TagClass or a
+   * descendant of it. The BitSet must not be modified.
+   *
+   * @param anyTag Any Tag vertex, from which to find the hierarchy if the
+   * index has yet to be built.
+   */
+  public BitSet getDescendantTags(Vertex anyTag, String tagClassName) {
+    Map<String, BitSet> index = descendantTags;
+    if (index == null) {
+      index = build(anyTag);
+    }
+    return index.getOrDefault(tagClassName, EMPTY);
+  }
+
+  private Map<String, BitSet> build(Vertex anyTag) {
+    buildLock.lock();
+    try {
+      if (descendantTags != null) {
+        return descendantTags;
+      }
+
+      // Find the root.
+      Vertex root = ((TorcVertex) anyTag).edges(Direction.OUT, HAS_TYPE,
+          TAGCLASS).next().inVertex();
+      while (true) {
+        Iterator<Edge> parent = ((TorcVertex) root).edges(Direction.OUT,
+            IS_SUBCLASS_OF, TAGCLASS);
+        if (!parent.hasNext()) {
+          break;
+        }
+        root = parent.next().inVertex();
+      }
+
+      Map<String, BitSet> index = new HashMap<>();
+      collect((TorcVertex) root, index);
+      descendantTags = index;
+      return index;
+    } finally {
+      buildLock.unlock();
+    }
+  }
+
+  /**
+   * Adds a TagClass and all its descendants to the index.
+   *
+   * @return The TagClass's descendant Tags.
+   */
+  private static BitSet collect(TorcVertex tagClass,
+      Map<String, BitSet> index) {
+    BitSet tags = new BitSet();
+    tagClass.edges(Direction.IN, HAS_TYPE, TAG).forEachRemaining((e) -> {
+      tags.set(tagIndex((UInt128) e.outVertex().id()));
+    });
+
+    List<Vertex> subclasses = new ArrayList<>();
+    tagClass.edges(Direction.IN, IS_SUBCLASS_OF, TAGCLASS)
+        .forEachRemaining((e) -> subclasses.add(e.outVertex()));
+    for (Vertex subclass : subclasses) {
+      tags.or(collect((TorcVertex) subclass, index));
+    }
+
+    index.put(tagClass.<String>property("name").value(), tags);
+    return tags;
+  }
+
+  private static int tagIndex(UInt128 id) {
+    long tagId = id.getLowerLong();
+    if (tagId < 0 || tagId > Integer.MAX_VALUE) {
+      throw new IllegalStateException(
+          "Tag id out of range for TorcDbTagClassIndex: " + tagId);
+    }
+    return (int) tagId;
+  }
+}
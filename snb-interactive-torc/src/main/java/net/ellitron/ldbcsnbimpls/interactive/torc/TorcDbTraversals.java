@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import net.ellitron.torc.TorcGraphProviderOptimizationStrategy;
+
+import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversalSource;
+import org.apache.tinkerpop.gremlin.structure.Graph;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared traversal sources for the Gremlin query handlers.
+ *
+ * The handlers used to start every execution with graph.traversal()
+ * .withStrategies(TorcGraphProviderOptimizationStrategy.instance()), which
+ * builds a new traversal source and copies and re-sorts the whole strategy
+ * list each time. Traversal sources are immutable (each step such as
+ * withSideEffect() or V() works on a copy), and traversals get the calling
+ * thread's transaction from the graph when they run, so one configured source
+ * per graph can be shared by every thread.
+ */
+public class TorcDbTraversals {
+
+  private static final ConcurrentHashMap<Graph, GraphTraversalSource>
+      sources = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the traversal source for the graph, with TorcDB's optimization
+   * strategy added.
+   */
+  public static GraphTraversalSource source(Graph graph) {
+    GraphTraversalSource g = sources.get(graph);
+    if (g == null) {
+      g = sources.computeIfAbsent(graph, (k) -> k.traversal()
+          .withStrategies(TorcGraphProviderOptimizationStrategy.instance()));
+    }
+    return g;
+  }
+
+  /**
+   * Drops the graph's traversal source, once the graph is closed.
+   */
+  public static void release(Graph graph) {
+    sources.remove(graph);
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the threads TorcDbServer runs connections and requests on, which
+ * are either ordinary platform threads or, with --virtualThreads, virtual
+ * threads. Virtual threads need a JDK 21 or later runtime. This module is
+ * still compiled for Java 8, so they are created through reflection.
+ *
+ * Things in the request path that pin a virtual thread to its carrier thread
+ * while it blocks, or otherwise behave differently on virtual threads:
+ * <ul>
+ * <li>RAMCloud round trips. TorcGraph calls into RAMCloud through JNI, and a
+ * virtual thread blocked in a native method can't unmount. Every handler
+ * therefore holds its carrier for the duration of each RAMCloud read or
+ * write, and the number of handlers making progress at once is bounded by
+ * the carrier pool (-Djdk.virtualThreadScheduler.parallelism), not by the
+ * number of virtual threads. What virtual threads do buy is that idle
+ * connections, and requests waiting on a socket or for a scheduler slot,
+ * cost no platform thread.</li>
+ * <li>TorcDbWireProtocol's thread-local frame and read buffers. These don't
+ * pin, but each virtual thread gets its own, so with a virtual thread per
+ * connection they cost a few KB per connection rather than per worker.</li>
+ * <li>TorcIdScratch's thread-local sets and maps. Likewise these don't pin,
+ * but each virtual thread that runs a native handler grows its own, and
+ * they are dropped with the thread, so they are reused much less than on a
+ * fixed pool of platform workers.</li>
+ * <li>TorcGraph's per-thread transactions. These don't pin either, and
+ * behave as before since a request still runs start to finish on one
+ * thread.</li>
+ * </ul>
+ * The locking in the request path (TorcDbRequestScheduler,
+ * TorcDbMultiplexedConnection, the segments of TorcDbPropertyCache and
+ * TorcDbFriendCache, and the build of TorcDbTagClassIndex) uses
+ * java.util.concurrent locks rather than synchronized blocks, so waiting on
+ * it doesn't pin. To check for pinning at runtime, run with
+ * -Djdk.tracePinnedThreads=full.
+ */
+public class TorcDbVirtualThreads {
+
+  /**
+   * Returns whether the running JVM supports virtual threads.
+   */
+  public static boolean isSupported() {
+    try {
+      Thread.class.getMethod("ofVirtual");
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns a factory for threads named prefix followed by a counter.
+   *
+   * @param prefix Thread name prefix.
+   * @param virtual Create virtual threads instead of platform threads.
+   * @param daemon Make platform threads daemons. Virtual threads always are.
+   */
+  public static ThreadFactory threadFactory(String prefix, boolean virtual,
+      boolean daemon) {
+    if (virtual) {
+      try {
+        // Thread.ofVirtual().name(prefix, 0).factory(), looking the methods
+        // up on the public Thread.Builder interface, since the builder's own
+        // class isn't accessible.
+        Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        builder = builderClass.getMethod("name", String.class, long.class)
+            .invoke(builder, prefix, 0L);
+        Method factory = builderClass.getMethod("factory");
+        return (ThreadFactory) factory.invoke(builder);
+      } catch (ReflectiveOperationException e) {
+        throw new UnsupportedOperationException(
+            "Virtual threads require a JDK 21 or later runtime", e);
+      }
+    }
+
+    AtomicInteger count = new AtomicInteger(0);
+    return (r) -> {
+      Thread t = new Thread(r, prefix + count.getAndIncrement());
+      t.setDaemon(daemon);
+      return t;
+    };
+  }
+}
@@ -0,0 +1,1456 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import com.ldbc.driver.Operation;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcNoResult;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery1;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery1Result;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery2;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery2Result;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery3;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery3Result;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery4;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery4Result;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery5;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery5Result;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery6;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery6Result;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery7;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery7Result;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery8;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery8Result;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery9;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery9Result;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery10;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery10Result;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery11;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery11Result;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery12;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery12Result;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery13;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery13Result;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery14;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery14Result;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery1PersonProfile;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery1PersonProfileResult;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery2PersonPosts;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery2PersonPostsResult;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery3PersonFriends;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery3PersonFriendsResult;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery4MessageContent;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery4MessageContentResult;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery5MessageCreator;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery5MessageCreatorResult;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery6MessageForum;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery6MessageForumResult;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery7MessageReplies;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery7MessageRepliesResult;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate1AddPerson;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate1AddPerson.Organization;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate2AddPostLike;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate3AddCommentLike;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate4AddForum;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate5AddForumMembership;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate6AddPost;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate7AddComment;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate8AddFriendship;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A compact binary wire protocol for shipping LDBC SNB operations and their
+ * results between TorcDbClients and TorcDbServers. This is an alternative to
+ * writing the wrappers in LdbcSerializableQueriesAndResults to Java object
+ * streams, which on short reads spends more time (and garbage) on
+ * serialization than the server spends executing the query.
+ * <p>
+ * Every message is a length-prefixed frame. The length field counts the bytes
+ * that follow it:
+ * <pre>
+ *   request:  [int length][int requestId][byte opcode][operation fields]
+ *   response: [int length][int requestId][byte opcode][byte status][result fields]
+ * </pre>
+ * Each operation type has its own opcode and a hand-written codec below. A
+ * response with status STATUS_ERROR carries a single string describing the
+ * failure in place of the result fields.
+ * <p>
+ * A response carries the requestId of the request it answers. This lets many
+ * threads share one connection with several requests in flight at once (see
+ * TorcDbMultiplexedConnection), and lets the server answer them out of order.
+ * Clients that only ever have one request outstanding on a connection can
+ * simply use a requestId of 0.
+ */
+public class TorcDbWireProtocol {
+
+  /*
+   * Operation opcodes.
+   */
+  public static final byte OP_QUERY1 = 1;
+  public static final byte OP_QUERY2 = 2;
+  public static final byte OP_QUERY3 = 3;
+  public static final byte OP_QUERY4 = 4;
+  public static final byte OP_QUERY5 = 5;
+  public static final byte OP_QUERY6 = 6;
+  public static final byte OP_QUERY7 = 7;
+  public static final byte OP_QUERY8 = 8;
+  public static final byte OP_QUERY9 = 9;
+  public static final byte OP_QUERY10 = 10;
+  public static final byte OP_QUERY11 = 11;
+  public static final byte OP_QUERY12 = 12;
+  public static final byte OP_QUERY13 = 13;
+  public static final byte OP_QUERY14 = 14;
+  public static final byte OP_SHORT_QUERY1 = 21;
+  public static final byte OP_SHORT_QUERY2 = 22;
+  public static final byte OP_SHORT_QUERY3 = 23;
+  public static final byte OP_SHORT_QUERY4 = 24;
+  public static final byte OP_SHORT_QUERY5 = 25;
+  public static final byte OP_SHORT_QUERY6 = 26;
+  public static final byte OP_SHORT_QUERY7 = 27;
+  public static final byte OP_UPDATE1 = 31;
+  public static final byte OP_UPDATE2 = 32;
+  public static final byte OP_UPDATE3 = 33;
+  public static final byte OP_UPDATE4 = 34;
+  public static final byte OP_UPDATE5 = 35;
+  public static final byte OP_UPDATE6 = 36;
+  public static final byte OP_UPDATE7 = 37;
+  public static final byte OP_UPDATE8 = 38;
+
+  /*
+   * Response status codes.
+   */
+  public static final byte STATUS_OK = 0;
+  public static final byte STATUS_ERROR = 1;
+
+  // Upper bound on the size of a single frame, used to detect a corrupted or
+  // out of sync stream before trying to allocate a huge buffer for it.
+  public static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+  // Tags for the loosely typed values in LdbcQuery1Result's university and
+  // company lists.
+  private static final byte VALUE_NULL = 0;
+  private static final byte VALUE_STRING = 1;
+  private static final byte VALUE_INTEGER = 2;
+  private static final byte VALUE_LONG = 3;
+
+  // Marks a null Date on the wire.
+  private static final long NULL_DATE = Long.MIN_VALUE;
+
+  // Per-thread buffers for the blocking stream helpers below, so that steady
+  // state request processing does not allocate any frame buffers.
+  private static final ThreadLocal<FrameBuffer> threadLocalFrameBuffer =
+      ThreadLocal.withInitial(() -> new FrameBuffer(4096));
+  private static final ThreadLocal<byte[][]> threadLocalReadBuffer =
+      ThreadLocal.withInitial(() -> new byte[][] {new byte[4096]});
+
+  /**
+   * Thrown when the server answers a request with STATUS_ERROR. Unlike other
+   * IOExceptions, this says nothing about the health of the connection.
+   */
+  public static class ServerException extends IOException {
+    public ServerException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * A growable buffer into which a single frame is encoded. The first four
+   * bytes of the buffer are reserved for the frame length, which is filled in
+   * by finish().
+   */
+  public static class FrameBuffer {
+
+    private ByteBuffer buf;
+
+    public FrameBuffer(int initialCapacity) {
+      this.buf = ByteBuffer.allocate(Math.max(initialCapacity, 16));
+      clear();
+    }
+
+    /**
+     * Discards the contents of this buffer and reserves space for the length
+     * field of a new frame.
+     */
+    public void clear() {
+      buf.clear();
+      buf.putInt(0);
+    }
+
+    /**
+     * Fills in the length field of the frame and flips the buffer for
+     * reading.
+     *
+     * @return The underlying buffer, positioned at the start of the frame.
+     */
+    public ByteBuffer finish() {
+      buf.putInt(0, buf.position() - 4);
+      buf.flip();
+      return buf;
+    }
+
+    /**
+     * Returns a copy of the finished frame, for handing off to another thread
+     * while this buffer is reused.
+     */
+    public ByteBuffer copy() {
+      ByteBuffer c = ByteBuffer.allocate(buf.remaining());
+      c.put(buf.array(), buf.position(), buf.remaining());
+      c.flip();
+      return c;
+    }
+
+    /**
+     * Returns a view of the finished frame, positioned at its start, without
+     * copying it.
+     */
+    public ByteBuffer frame() {
+      return buf.duplicate();
+    }
+
+    /**
+     * Writes the finished frame to the given stream (does not flush).
+     */
+    public void writeTo(OutputStream out) throws IOException {
+      out.write(buf.array(), buf.position(), buf.remaining());
+    }
+
+    private void ensure(int n) {
+      if (buf.remaining() < n) {
+        int newCapacity = Math.max(buf.capacity() * 2, buf.position() + n);
+        ByteBuffer newBuf = ByteBuffer.allocate(newCapacity);
+        buf.flip();
+        newBuf.put(buf);
+        buf = newBuf;
+      }
+    }
+
+    public void putByte(byte v) {
+      ensure(1);
+      buf.put(v);
+    }
+
+    public void putBoolean(boolean v) {
+      ensure(1);
+      buf.put(v ? (byte) 1 : (byte) 0);
+    }
+
+    public void putInt(int v) {
+      ensure(4);
+      buf.putInt(v);
+    }
+
+    public void putLong(long v) {
+      ensure(8);
+      buf.putLong(v);
+    }
+
+    public void putDouble(double v) {
+      ensure(8);
+      buf.putDouble(v);
+    }
+
+    public void putString(String v) {
+      if (v == null) {
+        putInt(-1);
+        return;
+      }
+      byte[] bytes = v.getBytes(StandardCharsets.UTF_8);
+      putInt(bytes.length);
+      ensure(bytes.length);
+      buf.put(bytes);
+    }
+
+    public void putDate(Date v) {
+      putLong(v == null ? NULL_DATE : v.getTime());
+    }
+
+    public void putStrings(Iterable<String> v) {
+      if (v == null) {
+        putInt(-1);
+        return;
+      }
+      int countPos = buf.position();
+      putInt(0);
+      int count = 0;
+      for (String s : v) {
+        putString(s);
+        count++;
+      }
+      buf.putInt(countPos, count);
+    }
+
+    public void putLongs(Iterable<? extends Number> v) {
+      if (v == null) {
+        putInt(-1);
+        return;
+      }
+      int countPos = buf.position();
+      putInt(0);
+      int count = 0;
+      for (Number n : v) {
+        putLong(n.longValue());
+        count++;
+      }
+      buf.putInt(countPos, count);
+    }
+
+    public void putValue(Object v) {
+      if (v == null) {
+        putByte(VALUE_NULL);
+      } else if (v instanceof Integer) {
+        putByte(VALUE_INTEGER);
+        putInt((Integer) v);
+      } else if (v instanceof Long) {
+        putByte(VALUE_LONG);
+        putLong((Long) v);
+      } else {
+        putByte(VALUE_STRING);
+        putString(v.toString());
+      }
+    }
+
+    public void putValueLists(Iterable<List<Object>> v) {
+      if (v == null) {
+        putInt(-1);
+        return;
+      }
+      int countPos = buf.position();
+      putInt(0);
+      int count = 0;
+      for (List<Object> l : v) {
+        putInt(l.size());
+        for (Object o : l) {
+          putValue(o);
+        }
+        count++;
+      }
+      buf.putInt(countPos, count);
+    }
+  }
+
+  /*
+   * Decoding helpers for the field types used above.
+   */
+
+  /**
+   * Checks that the rest of the frame can hold count elements of at least
+   * minSize bytes each, so that a corrupt count is rejected before anything
+   * is allocated for it.
+   */
+  private static void checkCount(ByteBuffer in, int count, int minSize)
+      throws IOException {
+    if (count < 0 || count > in.remaining() / minSize) {
+      throw new IOException(String.format(
+          "Count %d does not fit in the %d bytes left in the frame", count,
+          in.remaining()));
+    }
+  }
+
+  private static int getCount(ByteBuffer in, int minSize)
+      throws IOException {
+    int count = in.getInt();
+    checkCount(in, count, minSize);
+    return count;
+  }
+
+  private static boolean getBoolean(ByteBuffer in) {
+    return in.get() != 0;
+  }
+
+  private static String getString(ByteBuffer in) throws IOException {
+    int len = in.getInt();
+    if (len < 0) {
+      return null;
+    }
+    checkCount(in, len, 1);
+    String s;
+    if (in.hasArray()) {
+      s = new String(in.array(), in.arrayOffset() + in.position(), len,
+          StandardCharsets.UTF_8);
+      in.position(in.position() + len);
+    } else {
+      byte[] bytes = new byte[len];
+      in.get(bytes);
+      s = new String(bytes, StandardCharsets.UTF_8);
+    }
+    return s;
+  }
+
+  private static Date getDate(ByteBuffer in) {
+    long v = in.getLong();
+    return v == NULL_DATE ? null : new Date(v);
+  }
+
+  private static List<String> getStrings(ByteBuffer in) throws IOException {
+    int count = in.getInt();
+    if (count < 0) {
+      return null;
+    }
+    checkCount(in, count, 4);
+    List<String> list = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      list.add(getString(in));
+    }
+    return list;
+  }
+
+  private static List<Long> getLongs(ByteBuffer in) throws IOException {
+    int count = in.getInt();
+    if (count < 0) {
+      return null;
+    }
+    checkCount(in, count, 8);
+    List<Long> list = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      list.add(in.getLong());
+    }
+    return list;
+  }
+
+  private static Object getValue(ByteBuffer in) throws IOException {
+    byte tag = in.get();
+    switch (tag) {
+      case VALUE_NULL:
+        return null;
+      case VALUE_STRING:
+        return getString(in);
+      case VALUE_INTEGER:
+        return in.getInt();
+      case VALUE_LONG:
+        return in.getLong();
+      default:
+        throw new IOException("Unrecognized value tag: " + tag);
+    }
+  }
+
+  private static List<List<Object>> getValueLists(ByteBuffer in)
+      throws IOException {
+    int count = in.getInt();
+    if (count < 0) {
+      return null;
+    }
+    checkCount(in, count, 4);
+    List<List<Object>> list = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      int n = getCount(in, 1);
+      List<Object> l = new ArrayList<>(n);
+      for (int j = 0; j < n; j++) {
+        l.add(getValue(in));
+      }
+      list.add(l);
+    }
+    return list;
+  }
+
+  /**
+   * Returns the opcode used on the wire for the given operation.
+   *
+   * @param op The operation.
+   * @return Opcode of the operation.
+   */
+  public static byte opcodeOf(Operation op) {
+    if (op instanceof LdbcQuery1) {
+      return OP_QUERY1;
+    } else if (op instanceof LdbcQuery2) {
+      return OP_QUERY2;
+    } else if (op instanceof LdbcQuery3) {
+      return OP_QUERY3;
+    } else if (op instanceof LdbcQuery4) {
+      return OP_QUERY4;
+    } else if (op instanceof LdbcQuery5) {
+      return OP_QUERY5;
+    } else if (op instanceof LdbcQuery6) {
+      return OP_QUERY6;
+    } else if (op instanceof LdbcQuery7) {
+      return OP_QUERY7;
+    } else if (op instanceof LdbcQuery8) {
+      return OP_QUERY8;
+    } else if (op instanceof LdbcQuery9) {
+      return OP_QUERY9;
+    } else if (op instanceof LdbcQuery10) {
+      return OP_QUERY10;
+    } else if (op instanceof LdbcQuery11) {
+      return OP_QUERY11;
+    } else if (op instanceof LdbcQuery12) {
+      return OP_QUERY12;
+    } else if (op instanceof LdbcQuery13) {
+      return OP_QUERY13;
+    } else if (op instanceof LdbcQuery14) {
+      return OP_QUERY14;
+    } else if (op instanceof LdbcShortQuery1PersonProfile) {
+      return OP_SHORT_QUERY1;
+    } else if (op instanceof LdbcShortQuery2PersonPosts) {
+      return OP_SHORT_QUERY2;
+    } else if (op instanceof LdbcShortQuery3PersonFriends) {
+      return OP_SHORT_QUERY3;
+    } else if (op instanceof LdbcShortQuery4MessageContent) {
+      return OP_SHORT_QUERY4;
+    } else if (op instanceof LdbcShortQuery5MessageCreator) {
+      return OP_SHORT_QUERY5;
+    } else if (op instanceof LdbcShortQuery6MessageForum) {
+      return OP_SHORT_QUERY6;
+    } else if (op instanceof LdbcShortQuery7MessageReplies) {
+      return OP_SHORT_QUERY7;
+    } else if (op instanceof LdbcUpdate1AddPerson) {
+      return OP_UPDATE1;
+    } else if (op instanceof LdbcUpdate2AddPostLike) {
+      return OP_UPDATE2;
+    } else if (op instanceof LdbcUpdate3AddCommentLike) {
+      return OP_UPDATE3;
+    } else if (op instanceof LdbcUpdate4AddForum) {
+      return OP_UPDATE4;
+    } else if (op instanceof LdbcUpdate5AddForumMembership) {
+      return OP_UPDATE5;
+    } else if (op instanceof LdbcUpdate6AddPost) {
+      return OP_UPDATE6;
+    } else if (op instanceof LdbcUpdate7AddComment) {
+      return OP_UPDATE7;
+    } else if (op instanceof LdbcUpdate8AddFriendship) {
+      return OP_UPDATE8;
+    } else {
+      throw new IllegalArgumentException(
+          "Unrecognized operation: " + op.getClass().getName());
+    }
+  }
+
+  /**
+   * Encodes a request frame for the given operation.
+   *
+   * @param buf Buffer to encode into (will be cleared first).
+   * @param requestId Identifies the request's response on the connection.
+   * @param op Operation to encode.
+   */
+  public static void encodeRequest(FrameBuffer buf, int requestId,
+      Operation op) {
+    buf.clear();
+    buf.putInt(requestId);
+    byte opcode = opcodeOf(op);
+    buf.putByte(opcode);
+    switch (opcode) {
+      case OP_QUERY1: {
+        LdbcQuery1 q = (LdbcQuery1) op;
+        buf.putLong(q.personId());
+        buf.putString(q.firstName());
+        buf.putInt(q.limit());
+        break;
+      }
+      case OP_QUERY2: {
+        LdbcQuery2 q = (LdbcQuery2) op;
+        buf.putLong(q.personId());
+        buf.putDate(q.maxDate());
+        buf.putInt(q.limit());
+        break;
+      }
+      case OP_QUERY3: {
+        LdbcQuery3 q = (LdbcQuery3) op;
+        buf.putLong(q.personId());
+        buf.putString(q.countryXName());
+        buf.putString(q.countryYName());
+        buf.putDate(q.startDate());
+        buf.putInt(q.durationDays());
+        buf.putInt(q.limit());
+        break;
+      }
+      case OP_QUERY4: {
+        LdbcQuery4 q = (LdbcQuery4) op;
+        buf.putLong(q.personId());
+        buf.putDate(q.startDate());
+        buf.putInt(q.durationDays());
+        buf.putInt(q.limit());
+        break;
+      }
+      case OP_QUERY5: {
+        LdbcQuery5 q = (LdbcQuery5) op;
+        buf.putLong(q.personId());
+        buf.putDate(q.minDate());
+        buf.putInt(q.limit());
+        break;
+      }
+      case OP_QUERY6: {
+        LdbcQuery6 q = (LdbcQuery6) op;
+        buf.putLong(q.personId());
+        buf.putString(q.tagName());
+        buf.putInt(q.limit());
+        break;
+      }
+      case OP_QUERY7: {
+        LdbcQuery7 q = (LdbcQuery7) op;
+        buf.putLong(q.personId());
+        buf.putInt(q.limit());
+        break;
+      }
+      case OP_QUERY8: {
+        LdbcQuery8 q = (LdbcQuery8) op;
+        buf.putLong(q.personId());
+        buf.putInt(q.limit());
+        break;
+      }
+      case OP_QUERY9: {
+        LdbcQuery9 q = (LdbcQuery9) op;
+        buf.putLong(q.personId());
+        buf.putDate(q.maxDate());
+        buf.putInt(q.limit());
+        break;
+      }
+      case OP_QUERY10: {
+        LdbcQuery10 q = (LdbcQuery10) op;
+        buf.putLong(q.personId());
+        buf.putInt(q.month());
+        buf.putInt(q.limit());
+        break;
+      }
+      case OP_QUERY11: {
+        LdbcQuery11 q = (LdbcQuery11) op;
+        buf.putLong(q.personId());
+        buf.putString(q.countryName());
+        buf.putInt(q.workFromYear());
+        buf.putInt(q.limit());
+        break;
+      }
+      case OP_QUERY12: {
+        LdbcQuery12 q = (LdbcQuery12) op;
+        buf.putLong(q.personId());
+        buf.putString(q.tagClassName());
+        buf.putInt(q.limit());
+        break;
+      }
+      case OP_QUERY13: {
+        LdbcQuery13 q = (LdbcQuery13) op;
+        buf.putLong(q.person1Id());
+        buf.putLong(q.person2Id());
+        break;
+      }
+      case OP_QUERY14: {
+        LdbcQuery14 q = (LdbcQuery14) op;
+        buf.putLong(q.person1Id());
+        buf.putLong(q.person2Id());
+        break;
+      }
+      case OP_SHORT_QUERY1: {
+        LdbcShortQuery1PersonProfile q = (LdbcShortQuery1PersonProfile) op;
+        buf.putLong(q.personId());
+        break;
+      }
+      case OP_SHORT_QUERY2: {
+        LdbcShortQuery2PersonPosts q = (LdbcShortQuery2PersonPosts) op;
+        buf.putLong(q.personId());
+        buf.putInt(q.limit());
+        break;
+      }
+      case OP_SHORT_QUERY3: {
+        LdbcShortQuery3PersonFriends q = (LdbcShortQuery3PersonFriends) op;
+        buf.putLong(q.personId());
+        break;
+      }
+      case OP_SHORT_QUERY4: {
+        LdbcShortQuery4MessageContent q = (LdbcShortQuery4MessageContent) op;
+        buf.putLong(q.messageId());
+        break;
+      }
+      case OP_SHORT_QUERY5: {
+        LdbcShortQuery5MessageCreator q = (LdbcShortQuery5MessageCreator) op;
+        buf.putLong(q.messageId());
+        break;
+      }
+      case OP_SHORT_QUERY6: {
+        LdbcShortQuery6MessageForum q = (LdbcShortQuery6MessageForum) op;
+        buf.putLong(q.messageId());
+        break;
+      }
+      case OP_SHORT_QUERY7: {
+        LdbcShortQuery7MessageReplies q = (LdbcShortQuery7MessageReplies) op;
+        buf.putLong(q.messageId());
+        break;
+      }
+      case OP_UPDATE1: {
+        LdbcUpdate1AddPerson q = (LdbcUpdate1AddPerson) op;
+        buf.putLong(q.personId());
+        buf.putString(q.personFirstName());
+        buf.putString(q.personLastName());
+        buf.putString(q.gender());
+        buf.putDate(q.birthday());
+        buf.putDate(q.creationDate());
+        buf.putString(q.locationIp());
+        buf.putString(q.browserUsed());
+        buf.putLong(q.cityId());
+        buf.putStrings(q.languages());
+        buf.putStrings(q.emails());
+        buf.putLongs(q.tagIds());
+        buf.putInt(q.studyAt().size());
+        for (Organization org : q.studyAt()) {
+          buf.putLong(org.organizationId());
+          buf.putInt(org.year());
+        }
+        buf.putInt(q.workAt().size());
+        for (Organization org : q.workAt()) {
+          buf.putLong(org.organizationId());
+          buf.putInt(org.year());
+        }
+        break;
+      }
+      case OP_UPDATE2: {
+        LdbcUpdate2AddPostLike q = (LdbcUpdate2AddPostLike) op;
+        buf.putLong(q.personId());
+        buf.putLong(q.postId());
+        buf.putDate(q.creationDate());
+        break;
+      }
+      case OP_UPDATE3: {
+        LdbcUpdate3AddCommentLike q = (LdbcUpdate3AddCommentLike) op;
+        buf.putLong(q.personId());
+        buf.putLong(q.commentId());
+        buf.putDate(q.creationDate());
+        break;
+      }
+      case OP_UPDATE4: {
+        LdbcUpdate4AddForum q = (LdbcUpdate4AddForum) op;
+        buf.putLong(q.forumId());
+        buf.putString(q.forumTitle());
+        buf.putDate(q.creationDate());
+        buf.putLong(q.moderatorPersonId());
+        buf.putLongs(q.tagIds());
+        break;
+      }
+      case OP_UPDATE5: {
+        LdbcUpdate5AddForumMembership q = (LdbcUpdate5AddForumMembership) op;
+        buf.putLong(q.forumId());
+        buf.putLong(q.personId());
+        buf.putDate(q.joinDate());
+        break;
+      }
+      case OP_UPDATE6: {
+        LdbcUpdate6AddPost q = (LdbcUpdate6AddPost) op;
+        buf.putLong(q.postId());
+        buf.putString(q.imageFile());
+        buf.putDate(q.creationDate());
+        buf.putString(q.locationIp());
+        buf.putString(q.browserUsed());
+        buf.putString(q.language());
+        buf.putString(q.content());
+        buf.putInt(q.length());
+        buf.putLong(q.authorPersonId());
+        buf.putLong(q.forumId());
+        buf.putLong(q.countryId());
+        buf.putLongs(q.tagIds());
+        break;
+      }
+      case OP_UPDATE7: {
+        LdbcUpdate7AddComment q = (LdbcUpdate7AddComment) op;
+        buf.putLong(q.commentId());
+        buf.putDate(q.creationDate());
+        buf.putString(q.locationIp());
+        buf.putString(q.browserUsed());
+        buf.putString(q.content());
+        buf.putInt(q.length());
+        buf.putLong(q.authorPersonId());
+        buf.putLong(q.countryId());
+        buf.putLong(q.replyToPostId());
+        buf.putLong(q.replyToCommentId());
+        buf.putLongs(q.tagIds());
+        break;
+      }
+      case OP_UPDATE8: {
+        LdbcUpdate8AddFriendship q = (LdbcUpdate8AddFriendship) op;
+        buf.putLong(q.person1Id());
+        buf.putLong(q.person2Id());
+        buf.putDate(q.creationDate());
+        break;
+      }
+    }
+    buf.finish();
+  }
+
+  /**
+   * Decodes a request frame.
+   *
+   * @param in Frame contents, positioned just after the request ID.
+   * @return The decoded operation.
+   */
+  public static Operation decodeRequest(ByteBuffer in) throws IOException {
+    byte opcode = in.get();
+    switch (opcode) {
+      case OP_QUERY1:
+        return new LdbcQuery1(in.getLong(), getString(in), in.getInt());
+      case OP_QUERY2:
+        return new LdbcQuery2(in.getLong(), getDate(in), in.getInt());
+      case OP_QUERY3:
+        return new LdbcQuery3(in.getLong(), getString(in), getString(in),
+            getDate(in), in.getInt(), in.getInt());
+      case OP_QUERY4:
+        return new LdbcQuery4(in.getLong(), getDate(in), in.getInt(),
+            in.getInt());
+      case OP_QUERY5:
+        return new LdbcQuery5(in.getLong(), getDate(in), in.getInt());
+      case OP_QUERY6:
+        return new LdbcQuery6(in.getLong(), getString(in), in.getInt());
+      case OP_QUERY7:
+        return new LdbcQuery7(in.getLong(), in.getInt());
+      case OP_QUERY8:
+        return new LdbcQuery8(in.getLong(), in.getInt());
+      case OP_QUERY9:
+        return new LdbcQuery9(in.getLong(), getDate(in), in.getInt());
+      case OP_QUERY10:
+        return new LdbcQuery10(in.getLong(), in.getInt(), in.getInt());
+      case OP_QUERY11:
+        return new LdbcQuery11(in.getLong(), getString(in), in.getInt(),
+            in.getInt());
+      case OP_QUERY12:
+        return new LdbcQuery12(in.getLong(), getString(in), in.getInt());
+      case OP_QUERY13:
+        return new LdbcQuery13(in.getLong(), in.getLong());
+      case OP_QUERY14:
+        return new LdbcQuery14(in.getLong(), in.getLong());
+      case OP_SHORT_QUERY1:
+        return new LdbcShortQuery1PersonProfile(in.getLong());
+      case OP_SHORT_QUERY2:
+        return new LdbcShortQuery2PersonPosts(in.getLong(), in.getInt());
+      case OP_SHORT_QUERY3:
+        return new LdbcShortQuery3PersonFriends(in.getLong());
+      case OP_SHORT_QUERY4:
+        return new LdbcShortQuery4MessageContent(in.getLong());
+      case OP_SHORT_QUERY5:
+        return new LdbcShortQuery5MessageCreator(in.getLong());
+      case OP_SHORT_QUERY6:
+        return new LdbcShortQuery6MessageForum(in.getLong());
+      case OP_SHORT_QUERY7:
+        return new LdbcShortQuery7MessageReplies(in.getLong());
+      case OP_UPDATE1: {
+        long personId = in.getLong();
+        String firstName = getString(in);
+        String lastName = getString(in);
+        String gender = getString(in);
+        Date birthday = getDate(in);
+        Date creationDate = getDate(in);
+        String locationIp = getString(in);
+        String browserUsed = getString(in);
+        long cityId = in.getLong();
+        List<String> languages = getStrings(in);
+        List<String> emails = getStrings(in);
+        List<Long> tagIds = getLongs(in);
+        int numStudyAt = getCount(in, 12);
+        List<Organization> studyAt = new ArrayList<>(numStudyAt);
+        for (int i = 0; i < numStudyAt; i++) {
+          studyAt.add(new Organization(in.getLong(), in.getInt()));
+        }
+        int numWorkAt = getCount(in, 12);
+        List<Organization> workAt = new ArrayList<>(numWorkAt);
+        for (int i = 0; i < numWorkAt; i++) {
+          workAt.add(new Organization(in.getLong(), in.getInt()));
+        }
+        return new LdbcUpdate1AddPerson(personId, firstName, lastName, gender,
+            birthday, creationDate, locationIp, browserUsed, cityId,
+            languages, emails, tagIds, studyAt, workAt);
+      }
+      case OP_UPDATE2:
+        return new LdbcUpdate2AddPostLike(in.getLong(), in.getLong(),
+            getDate(in));
+      case OP_UPDATE3:
+        return new LdbcUpdate3AddCommentLike(in.getLong(), in.getLong(),
+            getDate(in));
+      case OP_UPDATE4:
+        return new LdbcUpdate4AddForum(in.getLong(), getString(in),
+            getDate(in), in.getLong(), getLongs(in));
+      case OP_UPDATE5:
+        return new LdbcUpdate5AddForumMembership(in.getLong(), in.getLong(),
+            getDate(in));
+      case OP_UPDATE6:
+        return new LdbcUpdate6AddPost(in.getLong(), getString(in),
+            getDate(in), getString(in), getString(in), getString(in),
+            getString(in), in.getInt(), in.getLong(), in.getLong(),
+            in.getLong(), getLongs(in));
+      case OP_UPDATE7:
+        return new LdbcUpdate7AddComment(in.getLong(), getDate(in),
+            getString(in), getString(in), getString(in), in.getInt(),
+            in.getLong(), in.getLong(), in.getLong(), in.getLong(),
+            getLongs(in));
+      case OP_UPDATE8:
+        return new LdbcUpdate8AddFriendship(in.getLong(), in.getLong(),
+            getDate(in));
+      default:
+        throw new IOException("Unrecognized opcode: " + opcode);
+    }
+  }
+
+  /**
+   * Encodes a successful response frame carrying the result of the given
+   * operation.
+   *
+   * @param buf Buffer to encode into (will be cleared first).
+   * @param requestId ID of the request this is a response to.
+   * @param op The operation that was executed.
+   * @param result The result reported by the operation's handler.
+   */
+  public static void encodeResponse(FrameBuffer buf, int requestId,
+      Operation op, Object result) {
+    buf.clear();
+    buf.putInt(requestId);
+    byte opcode = opcodeOf(op);
+    buf.putByte(opcode);
+    buf.putByte(STATUS_OK);
+    switch (opcode) {
+      case OP_QUERY1: {
+        List<LdbcQuery1Result> l = (List<LdbcQuery1Result>) result;
+        buf.putInt(l.size());
+        for (LdbcQuery1Result r : l) {
+          buf.putLong(r.friendId());
+          buf.putString(r.friendLastName());
+          buf.putInt(r.distanceFromPerson());
+          buf.putLong(r.friendBirthday());
+          buf.putLong(r.friendCreationDate());
+          buf.putString(r.friendGender());
+          buf.putString(r.friendBrowserUsed());
+          buf.putString(r.friendLocationIp());
+          buf.putStrings(r.friendEmails());
+          buf.putStrings(r.friendLanguages());
+          buf.putString(r.friendCityName());
+          buf.putValueLists(r.friendUniversities());
+          buf.putValueLists(r.friendCompanies());
+        }
+        break;
+      }
+      case OP_QUERY2: {
+        List<LdbcQuery2Result> l = (List<LdbcQuery2Result>) result;
+        buf.putInt(l.size());
+        for (LdbcQuery2Result r : l) {
+          buf.putLong(r.personId());
+          buf.putString(r.personFirstName());
+          buf.putString(r.personLastName());
+          buf.putLong(r.postOrCommentId());
+          buf.putString(r.postOrCommentContent());
+          buf.putLong(r.postOrCommentCreationDate());
+        }
+        break;
+      }
+      case OP_QUERY3: {
+        List<LdbcQuery3Result> l = (List<LdbcQuery3Result>) result;
+        buf.putInt(l.size());
+        for (LdbcQuery3Result r : l) {
+          buf.putLong(r.personId());
+          buf.putString(r.personFirstName());
+          buf.putString(r.personLastName());
+          buf.putLong(r.xCount());
+          buf.putLong(r.yCount());
+          buf.putLong(r.count());
+        }
+        break;
+      }
+      case OP_QUERY4: {
+        List<LdbcQuery4Result> l = (List<LdbcQuery4Result>) result;
+        buf.putInt(l.size());
+        for (LdbcQuery4Result r : l) {
+          buf.putString(r.tagName());
+          buf.putInt(r.postCount());
+        }
+        break;
+      }
+      case OP_QUERY5: {
+        List<LdbcQuery5Result> l = (List<LdbcQuery5Result>) result;
+        buf.putInt(l.size());
+        for (LdbcQuery5Result r : l) {
+          buf.putString(r.forumTitle());
+          buf.putInt(r.postCount());
+        }
+        break;
+      }
+      case OP_QUERY6: {
+        List<LdbcQuery6Result> l = (List<LdbcQuery6Result>) result;
+        buf.putInt(l.size());
+        for (LdbcQuery6Result r : l) {
+          buf.putString(r.tagName());
+          buf.putInt(r.postCount());
+        }
+        break;
+      }
+      case OP_QUERY7: {
+        List<LdbcQuery7Result> l = (List<LdbcQuery7Result>) result;
+        buf.putInt(l.size());
+        for (LdbcQuery7Result r : l) {
+          buf.putLong(r.personId());
+          buf.putString(r.personFirstName());
+          buf.putString(r.personLastName());
+          buf.putLong(r.likeCreationDate());
+          buf.putLong(r.commentOrPostId());
+          buf.putString(r.commentOrPostContent());
+          buf.putInt(r.minutesLatency());
+          buf.putBoolean(r.isNew());
+        }
+        break;
+      }
+      case OP_QUERY8: {
+        List<LdbcQuery8Result> l = (List<LdbcQuery8Result>) result;
+        buf.putInt(l.size());
+        for (LdbcQuery8Result r : l) {
+          buf.putLong(r.personId());
+          buf.putString(r.personFirstName());
+          buf.putString(r.personLastName());
+          buf.putLong(r.commentCreationDate());
+          buf.putLong(r.commentId());
+          buf.putString(r.commentContent());
+        }
+        break;
+      }
+      case OP_QUERY9: {
+        List<LdbcQuery9Result> l = (List<LdbcQuery9Result>) result;
+        buf.putInt(l.size());
+        for (LdbcQuery9Result r : l) {
+          buf.putLong(r.personId());
+          buf.putString(r.personFirstName());
+          buf.putString(r.personLastName());
+          buf.putLong(r.commentOrPostId());
+          buf.putString(r.commentOrPostContent());
+          buf.putLong(r.commentOrPostCreationDate());
+        }
+        break;
+      }
+      case OP_QUERY10: {
+        List<LdbcQuery10Result> l = (List<LdbcQuery10Result>) result;
+        buf.putInt(l.size());
+        for (LdbcQuery10Result r : l) {
+          buf.putLong(r.personId());
+          buf.putString(r.personFirstName());
+          buf.putString(r.personLastName());
+          buf.putInt(r.commonInterestScore());
+          buf.putString(r.personGender());
+          buf.putString(r.personCityName());
+        }
+        break;
+      }
+      case OP_QUERY11: {
+        List<LdbcQuery11Result> l = (List<LdbcQuery11Result>) result;
+        buf.putInt(l.size());
+        for (LdbcQuery11Result r : l) {
+          buf.putLong(r.personId());
+          buf.putString(r.personFirstName());
+          buf.putString(r.personLastName());
+          buf.putString(r.organizationName());
+          buf.putInt(r.organizationWorkFromYear());
+        }
+        break;
+      }
+      case OP_QUERY12: {
+        List<LdbcQuery12Result> l = (List<LdbcQuery12Result>) result;
+        buf.putInt(l.size());
+        for (LdbcQuery12Result r : l) {
+          buf.putLong(r.personId());
+          buf.putString(r.personFirstName());
+          buf.putString(r.personLastName());
+          buf.putStrings(r.tagNames());
+          buf.putInt(r.replyCount());
+        }
+        break;
+      }
+      case OP_QUERY13: {
+        LdbcQuery13Result r = (LdbcQuery13Result) result;
+        buf.putInt(r.shortestPathLength());
+        break;
+      }
+      case OP_QUERY14: {
+        List<LdbcQuery14Result> l = (List<LdbcQuery14Result>) result;
+        buf.putInt(l.size());
+        for (LdbcQuery14Result r : l) {
+          buf.putLongs(r.personsIdsInPath());
+          buf.putDouble(r.pathWeight());
+        }
+        break;
+      }
+      case OP_SHORT_QUERY1: {
+        LdbcShortQuery1PersonProfileResult r =
+            (LdbcShortQuery1PersonProfileResult) result;
+        buf.putString(r.firstName());
+        buf.putString(r.lastName());
+        buf.putLong(r.birthday());
+        buf.putString(r.locationIp());
+        buf.putString(r.browserUsed());
+        buf.putLong(r.cityId());
+        buf.putString(r.gender());
+        buf.putLong(r.creationDate());
+        break;
+      }
+      case OP_SHORT_QUERY2: {
+        List<LdbcShortQuery2PersonPostsResult> l =
+            (List<LdbcShortQuery2PersonPostsResult>) result;
+        buf.putInt(l.size());
+        for (LdbcShortQuery2PersonPostsResult r : l) {
+          buf.putLong(r.messageId());
+          buf.putString(r.messageContent());
+          buf.putLong(r.messageCreationDate());
+          buf.putLong(r.originalPostId());
+          buf.putLong(r.originalPostAuthorId());
+          buf.putString(r.originalPostAuthorFirstName());
+          buf.putString(r.originalPostAuthorLastName());
+        }
+        break;
+      }
+      case OP_SHORT_QUERY3: {
+        List<LdbcShortQuery3PersonFriendsResult> l =
+            (List<LdbcShortQuery3PersonFriendsResult>) result;
+        buf.putInt(l.size());
+        for (LdbcShortQuery3PersonFriendsResult r : l) {
+          buf.putLong(r.personId());
+          buf.putString(r.firstName());
+          buf.putString(r.lastName());
+          buf.putLong(r.friendshipCreationDate());
+        }
+        break;
+      }
+      case OP_SHORT_QUERY4: {
+        LdbcShortQuery4MessageContentResult r =
+            (LdbcShortQuery4MessageContentResult) result;
+        buf.putString(r.messageContent());
+        buf.putLong(r.messageCreationDate());
+        break;
+      }
+      case OP_SHORT_QUERY5: {
+        LdbcShortQuery5MessageCreatorResult r =
+            (LdbcShortQuery5MessageCreatorResult) result;
+        buf.putLong(r.personId());
+        buf.putString(r.firstName());
+        buf.putString(r.lastName());
+        break;
+      }
+      case OP_SHORT_QUERY6: {
+        LdbcShortQuery6MessageForumResult r =
+            (LdbcShortQuery6MessageForumResult) result;
+        buf.putLong(r.forumId());
+        buf.putString(r.forumTitle());
+        buf.putLong(r.moderatorId());
+        buf.putString(r.moderatorFirstName());
+        buf.putString(r.moderatorLastName());
+        break;
+      }
+      case OP_SHORT_QUERY7: {
+        List<LdbcShortQuery7MessageRepliesResult> l =
+            (List<LdbcShortQuery7MessageRepliesResult>) result;
+        buf.putInt(l.size());
+        for (LdbcShortQuery7MessageRepliesResult r : l) {
+          buf.putLong(r.commentId());
+          buf.putString(r.commentContent());
+          buf.putLong(r.commentCreationDate());
+          buf.putLong(r.replyAuthorId());
+          buf.putString(r.replyAuthorFirstName());
+          buf.putString(r.replyAuthorLastName());
+          buf.putBoolean(r.isReplyAuthorKnowsOriginalMessageAuthor());
+        }
+        break;
+      }
+      default:
+        // Updates have no result fields.
+        break;
+    }
+    buf.finish();
+  }
+
+  /**
+   * Encodes an error response frame.
+   *
+   * @param buf Buffer to encode into (will be cleared first).
+   * @param requestId ID of the request that failed.
+   * @param opcode Opcode of the request that failed.
+   * @param message Description of the failure.
+   */
+  public static void encodeError(FrameBuffer buf, int requestId, byte opcode,
+      String message) {
+    buf.clear();
+    buf.putInt(requestId);
+    buf.putByte(opcode);
+    buf.putByte(STATUS_ERROR);
+    buf.putString(message);
+    buf.finish();
+  }
+
+  /**
+   * Decodes a response frame into the result type expected by the LDBC
+   * driver for the given operation. Operations that return a list of results
+   * are decoded into a List, and updates are decoded into
+   * LdbcNoResult.INSTANCE.
+   *
+   * @param in Frame contents, positioned just after the request ID.
+   * @param op The operation this is a response to.
+   * @return The decoded result.
+   * @throws IOException If the frame is malformed or the server reported an
+   * error executing the operation.
+   */
+  public static Object decodeResponse(ByteBuffer in, Operation op)
+      throws IOException {
+    byte opcode = in.get();
+    byte status = in.get();
+
+    if (opcode != opcodeOf(op)) {
+      throw new IOException(String.format(
+          "Response opcode %d does not match request %s", opcode,
+          op.getClass().getSimpleName()));
+    }
+
+    if (status == STATUS_ERROR) {
+      throw new ServerException("Server failed to execute "
+          + op.getClass().getSimpleName() + ": " + getString(in));
+    }
+
+    switch (opcode) {
+      case OP_QUERY1: {
+        // Every result takes at least 8 bytes.
+        int n = getCount(in, 8);
+        List<LdbcQuery1Result> l = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+          l.add(new LdbcQuery1Result(in.getLong(), getString(in), in.getInt(),
+              in.getLong(), in.getLong(), getString(in), getString(in),
+              getString(in), getStrings(in), getStrings(in), getString(in),
+              getValueLists(in), getValueLists(in)));
+        }
+        return l;
+      }
+      case OP_QUERY2: {
+        int n = getCount(in, 8);
+        List<LdbcQuery2Result> l = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+          l.add(new LdbcQuery2Result(in.getLong(), getString(in),
+              getString(in), in.getLong(), getString(in), in.getLong()));
+        }
+        return l;
+      }
+      case OP_QUERY3: {
+        int n = getCount(in, 8);
+        List<LdbcQuery3Result> l = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+          l.add(new LdbcQuery3Result(in.getLong(), getString(in),
+              getString(in), in.getLong(), in.getLong(), in.getLong()));
+        }
+        return l;
+      }
+      case OP_QUERY4: {
+        int n = getCount(in, 8);
+        List<LdbcQuery4Result> l = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+          l.add(new LdbcQuery4Result(getString(in), in.getInt()));
+        }
+        return l;
+      }
+      case OP_QUERY5: {
+        int n = getCount(in, 8);
+        List<LdbcQuery5Result> l = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+          l.add(new LdbcQuery5Result(getString(in), in.getInt()));
+        }
+        return l;
+      }
+      case OP_QUERY6: {
+        int n = getCount(in, 8);
+        List<LdbcQuery6Result> l = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+          l.add(new LdbcQuery6Result(getString(in), in.getInt()));
+        }
+        return l;
+      }
+      case OP_QUERY7: {
+        int n = getCount(in, 8);
+        List<LdbcQuery7Result> l = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+          l.add(new LdbcQuery7Result(in.getLong(), getString(in),
+              getString(in), in.getLong(), in.getLong(), getString(in),
+              in.getInt(), getBoolean(in)));
+        }
+        return l;
+      }
+      case OP_QUERY8: {
+        int n = getCount(in, 8);
+        List<LdbcQuery8Result> l = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+          l.add(new LdbcQuery8Result(in.getLong(), getString(in),
+              getString(in), in.getLong(), in.getLong(), getString(in)));
+        }
+        return l;
+      }
+      case OP_QUERY9: {
+        int n = getCount(in, 8);
+        List<LdbcQuery9Result> l = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+          l.add(new LdbcQuery9Result(in.getLong(), getString(in),
+              getString(in), in.getLong(), getString(in), in.getLong()));
+        }
+        return l;
+      }
+      case OP_QUERY10: {
+        int n = getCount(in, 8);
+        List<LdbcQuery10Result> l = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+          l.add(new LdbcQuery10Result(in.getLong(), getString(in),
+              getString(in), in.getInt(), getString(in), getString(in)));
+        }
+        return l;
+      }
+      case OP_QUERY11: {
+        int n = getCount(in, 8);
+        List<LdbcQuery11Result> l = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+          l.add(new LdbcQuery11Result(in.getLong(), getString(in),
+              getString(in), getString(in), in.getInt()));
+        }
+        return l;
+      }
+      case OP_QUERY12: {
+        int n = getCount(in, 8);
+        List<LdbcQuery12Result> l = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+          l.add(new LdbcQuery12Result(in.getLong(), getString(in),
+              getString(in), getStrings(in), in.getInt()));
+        }
+        return l;
+      }
+      case OP_QUERY13:
+        return new LdbcQuery13Result(in.getInt());
+      case OP_QUERY14: {
+        int n = getCount(in, 8);
+        List<LdbcQuery14Result> l = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+          l.add(new LdbcQuery14Result(getLongs(in), in.getDouble()));
+        }
+        return l;
+      }
+      case OP_SHORT_QUERY1:
+        return new LdbcShortQuery1PersonProfileResult(getString(in),
+            getString(in), in.getLong(), getString(in), getString(in),
+            in.getLong(), getString(in), in.getLong());
+      case OP_SHORT_QUERY2: {
+        int n = getCount(in, 8);
+        List<LdbcShortQuery2PersonPostsResult> l = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+          l.add(new LdbcShortQuery2PersonPostsResult(in.getLong(),
+              getString(in), in.getLong(), in.getLong(), in.getLong(),
+              getString(in), getString(in)));
+        }
+        return l;
+      }
+      case OP_SHORT_QUERY3: {
+        int n = getCount(in, 8);
+        List<LdbcShortQuery3PersonFriendsResult> l = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+          l.add(new LdbcShortQuery3PersonFriendsResult(in.getLong(),
+              getString(in), getString(in), in.getLong()));
+        }
+        return l;
+      }
+      case OP_SHORT_QUERY4:
+        return new LdbcShortQuery4MessageContentResult(getString(in),
+            in.getLong());
+      case OP_SHORT_QUERY5:
+        return new LdbcShortQuery5MessageCreatorResult(in.getLong(),
+            getString(in), getString(in));
+      case OP_SHORT_QUERY6:
+        return new LdbcShortQuery6MessageForumResult(in.getLong(),
+            getString(in), in.getLong(), getString(in), getString(in));
+      case OP_SHORT_QUERY7: {
+        int n = getCount(in, 8);
+        List<LdbcShortQuery7MessageRepliesResult> l = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+          l.add(new LdbcShortQuery7MessageRepliesResult(in.getLong(),
+              getString(in), in.getLong(), in.getLong(), getString(in),
+              getString(in), getBoolean(in)));
+        }
+        return l;
+      }
+      default:
+        return LdbcNoResult.INSTANCE;
+    }
+  }
+
+  /**
+   * Returns the result count to report to the LDBC driver for a result
+   * returned by decodeResponse().
+   */
+  public static int resultCount(Object result) {
+    if (result instanceof List) {
+      return ((List) result).size();
+    } else if (result == LdbcNoResult.INSTANCE) {
+      return 0;
+    } else {
+      return 1;
+    }
+  }
+
+  /*
+   * Helpers for speaking the protocol over blocking streams.
+   */
+
+  /**
+   * Returns this thread's frame buffer, for callers that need to encode a
+   * frame outside of a lock and write it to a shared stream inside of one.
+   */
+  public static FrameBuffer getThreadLocalFrameBuffer() {
+    return threadLocalFrameBuffer.get();
+  }
+
+  /**
+   * Reads one frame from the stream into a per-thread buffer.
+   *
+   * @param in Stream to read from.
+   * @return Frame contents, positioned just after the length field. Only
+   * valid until the next call to readFrame() on this thread.
+   */
+  public static ByteBuffer readFrame(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length <= 0 || length > MAX_FRAME_LENGTH) {
+      throw new IOException("Invalid frame length: " + length);
+    }
+    byte[][] holder = threadLocalReadBuffer.get();
+    if (holder[0].length < length) {
+      holder[0] = new byte[Math.max(length, holder[0].length * 2)];
+    }
+    in.readFully(holder[0], 0, length);
+    return ByteBuffer.wrap(holder[0], 0, length);
+  }
+
+  /**
+   * Writes a request for the given operation to the stream and flushes it.
+   */
+  public static void writeRequest(OutputStream out, int requestId,
+      Operation op) throws IOException {
+    FrameBuffer buf = threadLocalFrameBuffer.get();
+    encodeRequest(buf, requestId, op);
+    buf.writeTo(out);
+    out.flush();
+  }
+
+  /**
+   * Writes a successful response for the given operation to the stream and
+   * flushes it.
+   */
+  public static void writeResponse(OutputStream out, int requestId,
+      Operation op, Object result) throws IOException {
+    FrameBuffer buf = threadLocalFrameBuffer.get();
+    encodeResponse(buf, requestId, op, result);
+    buf.writeTo(out);
+    out.flush();
+  }
+
+  /**
+   * Writes an error response to the stream and flushes it.
+   */
+  public static void writeError(OutputStream out, int requestId, byte opcode,
+      String message) throws IOException {
+    FrameBuffer buf = threadLocalFrameBuffer.get();
+    encodeError(buf, requestId, opcode, message);
+    buf.writeTo(out);
+    out.flush();
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import java.util.Arrays;
+
+/**
+ * TorcIdLongMap's counterpart for primitive double values, such as the
+ * weights and scores that some queries accumulate per person. Ids are the
+ * lower long of UInt128 ids within a single idSpace.
+ *
+ * Absent ids have the value 0.0, so add() accumulates from zero.
+ */
+public class TorcIdDoubleMap {
+
+  // Marks an empty slot. The id 0 itself is tracked separately.
+  private static final long EMPTY = 0;
+
+  /**
+   * Receives the entries of a map in forEach().
+   */
+  public interface Visitor {
+    void visit(long id, double value);
+  }
+
+  private long[] keys;
+  private double[] values;
+  private int size = 0;
+  private boolean containsZero = false;
+  private double zeroValue = 0;
+
+  public TorcIdDoubleMap() {
+    this(16);
+  }
+
+  /**
+   * @param expectedSize Number of ids to size the table for.
+   */
+  public TorcIdDoubleMap(int expectedSize) {
+    int n = TorcIdSet.tableSizeFor(expectedSize);
+    keys = new long[n];
+    values = new double[n];
+  }
+
+  /**
+   * Returns the value for an id, or 0 if the id is not in the map.
+   */
+  public double get(long id) {
+    if (id == EMPTY) {
+      return zeroValue;
+    }
+
+    int i = find(id);
+    return (i < 0) ? 0 : values[i];
+  }
+
+  public boolean containsKey(long id) {
+    if (id == EMPTY) {
+      return containsZero;
+    }
+    return find(id) >= 0;
+  }
+
+  public void put(long id, double value) {
+    if (id == EMPTY) {
+      if (!containsZero) {
+        containsZero = true;
+        size++;
+      }
+      zeroValue = value;
+      return;
+    }
+
+    int i = find(id);
+    if (i >= 0) {
+      values[i] = value;
+    } else {
+      insert(~i, id, value);
+    }
+  }
+
+  /**
+   * Adds delta to the value for an id, adding the id if absent.
+   *
+   * @return The new value.
+   */
+  public double add(long id, double delta) {
+    if (id == EMPTY) {
+      if (!containsZero) {
+        containsZero = true;
+        size++;
+      }
+      zeroValue += delta;
+      return zeroValue;
+    }
+
+    int i = find(id);
+    if (i >= 0) {
+      values[i] += delta;
+      return values[i];
+    }
+    insert(~i, id, delta);
+    return delta;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Removes all entries, keeping the table for reuse.
+   */
+  public void clear() {
+    Arrays.fill(keys, EMPTY);
+    size = 0;
+    containsZero = false;
+    zeroValue = 0;
+  }
+
+  /**
+   * Calls the visitor with each entry, in no particular order.
+   */
+  public void forEach(Visitor visitor) {
+    if (containsZero) {
+      visitor.visit(0, zeroValue);
+    }
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != EMPTY) {
+        visitor.visit(keys[i], values[i]);
+      }
+    }
+  }
+
+  /**
+   * Returns the ids in the map, in no particular order.
+   */
+  public long[] keys() {
+    long[] a = new long[size];
+    int n = 0;
+    if (containsZero) {
+      a[n++] = 0;
+    }
+    for (long id : keys) {
+      if (id != EMPTY) {
+        a[n++] = id;
+      }
+    }
+    return a;
+  }
+
+  int tableLength() {
+    return keys.length;
+  }
+
+  /**
+   * Returns the slot of a non-zero id, or if absent, ~ the empty slot where
+   * it would go.
+   */
+  private int find(long id) {
+    int mask = keys.length - 1;
+    int i = TorcIdSet.hash(id) & mask;
+    while (keys[i] != EMPTY) {
+      if (keys[i] == id) {
+        return i;
+      }
+      i = (i + 1) & mask;
+    }
+    return ~i;
+  }
+
+  private void insert(int slot, long id, double value) {
+    keys[slot] = id;
+    values[slot] = value;
+    size++;
+    if (size * 2 > keys.length) {
+      rehash(keys.length * 2);
+    }
+  }
+
+  private void rehash(int newLength) {
+    long[] oldKeys = keys;
+    double[] oldValues = values;
+    keys = new long[newLength];
+    values = new double[newLength];
+    int mask = newLength - 1;
+    for (int j = 0; j < oldKeys.length; j++) {
+      if (oldKeys[j] != EMPTY) {
+        int i = TorcIdSet.hash(oldKeys[j]) & mask;
+        while (keys[i] != EMPTY) {
+          i = (i + 1) & mask;
+        }
+        keys[i] = oldKeys[j];
+        values[i] = oldValues[j];
+      }
+    }
+  }
+}
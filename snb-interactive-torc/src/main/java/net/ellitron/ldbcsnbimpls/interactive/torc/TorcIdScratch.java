@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+/**
+ * Per thread TorcIdSets and TorcId maps for the native handlers to reuse from
+ * one execution to the next, instead of allocating and growing new tables
+ * each time. Each kind comes in a few numbered slots, for handlers that need
+ * more than one at once.
+ *
+ * Each accessor returns its slot's instance cleared, so an instance is only
+ * good until the same thread asks for the same slot again. Callers must not
+ * hold on to one past the end of the execution, or hand it to code that may
+ * use the same slot. Tables that grew past MAX_RETAINED_SLOTS are dropped
+ * rather than cleared, so that one huge query doesn't make every later
+ * clear() slow or pin its memory.
+ */
+public class TorcIdScratch {
+
+  public static final int NUM_SLOTS = 4;
+
+  private static final int MAX_RETAINED_SLOTS = 1 << 16;
+
+  private static final ThreadLocal<TorcIdScratch> scratch =
+      ThreadLocal.withInitial(TorcIdScratch::new);
+
+  private final TorcIdSet[] sets = new TorcIdSet[NUM_SLOTS];
+  private final TorcIdLongMap[] longMaps = new TorcIdLongMap[NUM_SLOTS];
+  private final TorcIdDoubleMap[] doubleMaps = new TorcIdDoubleMap[NUM_SLOTS];
+
+  private TorcIdScratch() {
+  }
+
+  /**
+   * Returns this thread's scratch instances.
+   */
+  public static TorcIdScratch get() {
+    return scratch.get();
+  }
+
+  /**
+   * Returns the empty set in the given slot.
+   */
+  public TorcIdSet set(int slot) {
+    TorcIdSet s = sets[slot];
+    if (s == null || s.tableLength() > MAX_RETAINED_SLOTS) {
+      s = new TorcIdSet();
+      sets[slot] = s;
+    } else {
+      s.clear();
+    }
+    return s;
+  }
+
+  /**
+   * Returns the empty long map in the given slot.
+   */
+  public TorcIdLongMap longMap(int slot) {
+    TorcIdLongMap m = longMaps[slot];
+    if (m == null || m.tableLength() > MAX_RETAINED_SLOTS) {
+      m = new TorcIdLongMap();
+      longMaps[slot] = m;
+    } else {
+      m.clear();
+    }
+    return m;
+  }
+
+  /**
+   * Returns the empty double map in the given slot.
+   */
+  public TorcIdDoubleMap doubleMap(int slot) {
+    TorcIdDoubleMap m = doubleMaps[slot];
+    if (m == null || m.tableLength() > MAX_RETAINED_SLOTS) {
+      m = new TorcIdDoubleMap();
+      doubleMaps[slot] = m;
+    } else {
+      m.clear();
+    }
+    return m;
+  }
+}
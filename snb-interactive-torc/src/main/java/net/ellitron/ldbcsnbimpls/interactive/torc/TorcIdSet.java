@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import java.util.Arrays;
+
+/**
+ * A set of entity ids, stored as the lower long of their UInt128 ids within a
+ * single idSpace (e.g. all Persons), in an open addressing hash table of
+ * primitive longs. Unlike a HashSet of UInt128s this allocates nothing per
+ * element, which matters in traversals that visit thousands of vertices.
+ */
+public class TorcIdSet {
+
+  // Marks an empty slot. The id 0 itself is tracked separately.
+  private static final long EMPTY = 0;
+
+  private long[] slots;
+  private int size = 0;
+  private boolean containsZero = false;
+
+  public TorcIdSet() {
+    this(16);
+  }
+
+  /**
+   * @param expectedSize Number of ids to size the table for.
+   */
+  public TorcIdSet(int expectedSize) {
+    slots = new long[tableSizeFor(expectedSize)];
+  }
+
+  /**
+   * Adds an id to the set.
+   *
+   * @return True if the id was not already in the set.
+   */
+  public boolean add(long id) {
+    if (id == EMPTY) {
+      if (containsZero) {
+        return false;
+      }
+      containsZero = true;
+      size++;
+      return true;
+    }
+
+    int mask = slots.length - 1;
+    int i = hash(id) & mask;
+    while (slots[i] != EMPTY) {
+      if (slots[i] == id) {
+        return false;
+      }
+      i = (i + 1) & mask;
+    }
+
+    slots[i] = id;
+    size++;
+    if (size * 2 > slots.length) {
+      rehash(slots.length * 2);
+    }
+    return true;
+  }
+
+  public boolean contains(long id) {
+    if (id == EMPTY) {
+      return containsZero;
+    }
+
+    int mask = slots.length - 1;
+    int i = hash(id) & mask;
+    while (slots[i] != EMPTY) {
+      if (slots[i] == id) {
+        return true;
+      }
+      i = (i + 1) & mask;
+    }
+    return false;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Removes all ids, keeping the table for reuse.
+   */
+  public void clear() {
+    Arrays.fill(slots, EMPTY);
+    size = 0;
+    containsZero = false;
+  }
+
+  /**
+   * Returns the ids in the set, in no particular order.
+   */
+  public long[] toArray() {
+    long[] a = new long[size];
+    int n = 0;
+    if (containsZero) {
+      a[n++] = 0;
+    }
+    for (long id : slots) {
+      if (id != EMPTY) {
+        a[n++] = id;
+      }
+    }
+    return a;
+  }
+
+  int tableLength() {
+    return slots.length;
+  }
+
+  private void rehash(int newLength) {
+    long[] old = slots;
+    slots = new long[newLength];
+    int mask = newLength - 1;
+    for (long id : old) {
+      if (id != EMPTY) {
+        int i = hash(id) & mask;
+        while (slots[i] != EMPTY) {
+          i = (i + 1) & mask;
+        }
+        slots[i] = id;
+      }
+    }
+  }
+
+  static int tableSizeFor(int expectedSize) {
+    int n = 16;
+    while (n < expectedSize * 2) {
+      n <<= 1;
+    }
+    return n;
+  }
+
+  /**
+   * Spreads ids, which in LDBC SNB datasets are dense and share their upper
+   * bits, across the table (splitmix64 finalizer).
+   */
+  static int hash(long x) {
+    x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+    x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+    return (int) (x ^ (x >>> 31));
+  }
+}
@@ -18,11 +18,13 @@ package net.ellitron.ldbcsnbimpls.interactive.torc.util;
 
 import net.ellitron.ldbcsnbimpls.interactive.core.SnbEntity;
 import net.ellitron.ldbcsnbimpls.interactive.core.SnbRelation;
+import net.ellitron.ldbcsnbimpls.interactive.torc.TorcDbProperties;
 import net.ellitron.ldbcsnbimpls.interactive.torc.TorcEntity;
 import net.ellitron.torc.TorcGraph;
 import net.ellitron.torc.TorcVertex;
 import net.ellitron.torc.util.UInt128;
 
+import org.apache.tinkerpop.gremlin.structure.Direction;
 import org.apache.tinkerpop.gremlin.structure.T;
 import org.apache.tinkerpop.gremlin.structure.Graph;
 
@@ -35,6 +37,7 @@ import java.io.File;
 import java.io.FilenameFilter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -42,6 +45,7 @@ import java.nio.file.Paths;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -69,17 +73,24 @@ public class GraphLoader {
 
   private static final Logger logger = Logger.getLogger(GraphLoader.class);
 
+  private static final String[] REPLY_OF = new String[] {"replyOf"};
+  private static final String[] MESSAGE =
+      new String[] {TorcEntity.POST.label, TorcEntity.COMMENT.label};
+
   private static final String doc =
       "GraphLoader: A utility for loading dataset files generated by the\n"
       + "LDBC SNB Data Generator into TorcDB. Nodes, props, and edges are\n"
       + "loaded separately using the \"nodes\", \"props\" or \"edges\"\n"
       + "command. Nodes must be loaded first before props or edges can be\n"
-      + "loaded.\n"
+      + "loaded. Optionally, once edges are loaded, the \"rootPosts\"\n"
+      + "command adds a rootPost edge from each Comment to the Post at the\n"
+      + "root of its thread (see TorcDbRootPostCache).\n"
       + "\n"
       + "Usage:\n"
       + "  GraphLoader [options] nodes SOURCE\n"
       + "  GraphLoader [options] props SOURCE\n"
       + "  GraphLoader [options] edges SOURCE\n"
+      + "  GraphLoader [options] rootPosts SOURCE\n"
       + "  GraphLoader (-h | --help)\n"
       + "  GraphLoader --version\n"
       + "\n"
@@ -134,6 +145,14 @@ public class GraphLoader {
       + "                    time range to be [0,txBoffCeil]. The units of\n"
       + "                    this parameter is in milliseconds.\n"
       + "                    [default: 10000].\n"
+      + "  --timeOrderedMessages  When loading edges, add each person's\n"
+      + "                    hasCreator edges in order of message\n"
+      + "                    creationDate, so that TorcDB stores them\n"
+      + "                    newest first (see TorcDbMessageMerge). Each\n"
+      + "                    loader thread reads every hasCreator file and\n"
+      + "                    loads the edges of its share of the persons.\n"
+      + "                    Prints the --timeOrderedMessages value to\n"
+      + "                    start TorcDbServer with when done.\n"
       + "  --reportInt=<i>   Number of seconds between reporting status to\n"
       + "                    the screen. [default: 10].\n"
       + "  --reportFmt=<s>   Format options for status report output.\n"
@@ -162,6 +181,10 @@ public class GraphLoader {
     private SnbRelation relation;
     private Path filePath;
     private boolean isProperties;
+    private List<Path> partitionFiles;
+    private int partition;
+    private int numPartitions;
+    private boolean isRootPosts;
 
     /**
      * Constructor for LoadUnit.
@@ -185,10 +208,46 @@ public class GraphLoader {
      * @param filePath The path to the file.
      */
     public LoadUnit(SnbRelation relation, Path filePath) {
+      this(relation, filePath, false);
+    }
+
+    /**
+     * Constructor for LoadUnit.
+     *
+     * @param relation The relations this file pertains to.
+     * @param filePath The path to the file.
+     * @param isRootPosts Whether or not to add rootPost edges for the tail
+     * Comments of this file's replyOf edges, rather than the edges themselves.
+     */
+    public LoadUnit(SnbRelation relation, Path filePath, 
+        boolean isRootPosts) {
       this.entity = null;
       this.relation = relation;
       this.filePath = filePath;
       this.isProperties = false;
+      this.isRootPosts = isRootPosts;
+    }
+
+    /**
+     * Constructor for LoadUnit for one partition of a relation's edges, to be
+     * loaded in order of the creationDate of their tail vertices. Edges are
+     * partitioned by their head vertex, so that all the edges of a head
+     * vertex are loaded in order by one thread.
+     *
+     * @param relation The relation these files pertain to.
+     * @param filePaths All the files for the relation.
+     * @param partition The partition of the edges to load.
+     * @param numPartitions Total number of partitions.
+     */
+    public LoadUnit(SnbRelation relation, List<Path> filePaths, 
+        int partition, int numPartitions) {
+      this.entity = null;
+      this.relation = relation;
+      this.filePath = filePaths.get(0);
+      this.isProperties = false;
+      this.partitionFiles = filePaths;
+      this.partition = partition;
+      this.numPartitions = numPartitions;
     }
 
     public boolean isEntity() {
@@ -203,6 +262,14 @@ public class GraphLoader {
       return relation != null;
     }
 
+    public boolean isTimeOrdered() {
+      return partitionFiles != null;
+    }
+
+    public boolean isRootPosts() {
+      return isRootPosts;
+    }
+
     public SnbEntity getSnbEntity() {
       return entity;
     }
@@ -214,6 +281,18 @@ public class GraphLoader {
     public Path getFilePath() {
       return filePath;
     }
+
+    public List<Path> getPartitionFiles() {
+      return partitionFiles;
+    }
+
+    public int getPartition() {
+      return partition;
+    }
+
+    public int getNumPartitions() {
+      return numPartitions;
+    }
   }
 
   /**
@@ -252,6 +331,12 @@ public class GraphLoader {
      */
     public long txFailures;
 
+    /*
+     * The largest creationDate of the messages whose hasCreator edges this
+     * thread has loaded in creationDate order, or Long.MIN_VALUE if none.
+     */
+    public long newestMessage;
+
     /**
      * Constructor.
      */
@@ -261,6 +346,7 @@ public class GraphLoader {
       this.filesProcessed = 0;
       this.totalFilesToProcess = 0;
       this.txFailures = 0;
+      this.newestMessage = Long.MIN_VALUE;
     }
 
     /**
@@ -379,14 +465,25 @@ public class GraphLoader {
 
         BufferedReader inFile;
         try {
-          inFile = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+          if (loadUnit.isTimeOrdered()) {
+            inFile = openTimeOrdered(loadUnit);
+          } else {
+            inFile = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+          }
         } catch (IOException ex) {
           throw new RuntimeException(String.format("Encountered error opening "
               + "file %s", path.getFileName()));
         }
 
-        System.out.println(String.format("Thread %d: Loading file: %s",
-            threadIdx, path.getFileName().toString()));
+        if (loadUnit.isTimeOrdered()) {
+          System.out.println(String.format("Thread %d: Loading partition "
+              + "%d/%d of %s edges in creationDate order", threadIdx, 
+              loadUnit.getPartition(), loadUnit.getNumPartitions(), 
+              loadUnit.getSnbRelation().name));
+        } else {
+          System.out.println(String.format("Thread %d: Loading file: %s",
+              threadIdx, path.getFileName().toString()));
+        }
 
         // First line of the file contains the column headers.
         String[] fieldNames;
@@ -447,15 +544,15 @@ public class GraphLoader {
                       propMap.put(T.id,
                           new UInt128(idSpace, Long.decode(fieldValues[j])));
                     } else if (fieldNames[j].equals("birthday")) {
-                      propMap.put(fieldNames[j], String.valueOf(
+                      propMap.put(fieldNames[j], TorcDbProperties.encode(
                           birthdayDateFormat.parse(fieldValues[j])
                           .getTime()));
                     } else if (fieldNames[j].equals("creationDate")) {
-                      propMap.put(fieldNames[j], String.valueOf(
+                      propMap.put(fieldNames[j], TorcDbProperties.encode(
                           creationDateDateFormat.parse(fieldValues[j])
                           .getTime()));
                     } else if (fieldNames[j].equals("joinDate")) {
-                      propMap.put(fieldNames[j], String.valueOf(
+                      propMap.put(fieldNames[j], TorcDbProperties.encode(
                           creationDateDateFormat.parse(fieldValues[j])
                           .getTime()));
                     } else if (fieldNames[j].equals("emails")
@@ -490,6 +587,32 @@ public class GraphLoader {
               }
             };
           }
+        } else if (loadUnit.isRootPosts()) {
+          SnbRelation snbRelation = loadUnit.getSnbRelation();
+
+          long headIdSpace = TorcEntity.valueOf(snbRelation.head).idSpace;
+
+          lineGobbler = (List<String> lineBuffer) -> {
+            for (int i = 0; i < lineBuffer.size(); i++) {
+              String[] fieldValues = lineBuffer.get(i).split("\\|");
+
+              TorcVertex comment = (TorcVertex) graph.vertices(
+                  new UInt128(TorcEntity.COMMENT.idSpace, 
+                      Long.decode(fieldValues[0])))
+                  .next();
+              TorcVertex parent = (TorcVertex) graph.vertices(
+                  new UInt128(headIdSpace, Long.decode(fieldValues[1])))
+                  .next();
+
+              // Walk up the thread from the parent to its root Post.
+              while (!parent.label().equals(TorcEntity.POST.label)) {
+                parent = (TorcVertex) parent.edges(Direction.OUT, REPLY_OF, 
+                    MESSAGE).next().inVertex();
+              }
+
+              comment.addEdge("rootPost", parent);
+            }
+          };
         } else {
           SnbRelation snbRelation = loadUnit.getSnbRelation();
 
@@ -513,7 +636,7 @@ public class GraphLoader {
                 try {
                   if (fieldNames[j].equals("creationDate")
                       || fieldNames[j].equals("joinDate")) {
-                    propMap.put(fieldNames[j], String.valueOf(
+                    propMap.put(fieldNames[j], TorcDbProperties.encode(
                         creationDateDateFormat.parse(fieldValues[j])
                         .getTime()));
                   } else {
@@ -666,6 +789,77 @@ public class GraphLoader {
         stats.filesProcessed++;
       }
     }
+
+    /**
+     * Opens a time ordered LoadUnit. Reads the lines of all its files whose
+     * head vertex falls in its partition, looks up the creationDate of each
+     * line's tail vertex in the graph, txSize vertices per multi-get, and
+     * sorts the lines by creationDate and then tail vertex id.
+     *
+     * @return A reader over the header line followed by the sorted lines.
+     */
+    private BufferedReader openTimeOrdered(LoadUnit loadUnit) 
+        throws IOException {
+      long tailIdSpace = 
+          TorcEntity.valueOf(loadUnit.getSnbRelation().tail).idSpace;
+
+      String header = null;
+      List<String> lines = new ArrayList<>();
+      List<UInt128> tailIds = new ArrayList<>();
+      for (Path p : loadUnit.getPartitionFiles()) {
+        try (BufferedReader in = 
+            Files.newBufferedReader(p, StandardCharsets.UTF_8)) {
+          header = in.readLine();
+          String line;
+          while ((line = in.readLine()) != null) {
+            String[] fieldValues = line.split("\\|");
+            long headId = Long.decode(fieldValues[1]);
+            if (Math.floorMod(headId, loadUnit.getNumPartitions()) 
+                == loadUnit.getPartition()) {
+              lines.add(line);
+              tailIds.add(
+                  new UInt128(tailIdSpace, Long.decode(fieldValues[0])));
+            }
+          }
+        }
+      }
+
+      Map<UInt128, Long> creationDates = new HashMap<>(tailIds.size());
+      for (int i = 0; i < tailIds.size(); i += txSize) {
+        Object[] ids = 
+            tailIds.subList(i, Math.min(i + txSize, tailIds.size())).toArray();
+        graph.vertices(ids).forEachRemaining((v) -> {
+          creationDates.put((UInt128) v.id(), 
+              TorcDbProperties.getLong(v, "creationDate"));
+        });
+      }
+      graph.tx().rollback();
+
+      for (long creationDate : creationDates.values()) {
+        stats.newestMessage = Math.max(stats.newestMessage, creationDate);
+      }
+
+      Integer[] order = new Integer[lines.size()];
+      for (int i = 0; i < order.length; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> {
+        UInt128 aId = tailIds.get(a);
+        UInt128 bId = tailIds.get(b);
+        int c = Long.compare(creationDates.get(aId), creationDates.get(bId));
+        if (c != 0) {
+          return c;
+        }
+        return Long.compare(aId.getLowerLong(), bId.getLowerLong());
+      });
+
+      StringBuilder sb = new StringBuilder();
+      sb.append(header).append('\n');
+      for (int i : order) {
+        sb.append(lines.get(i)).append('\n');
+      }
+      return new BufferedReader(new StringReader(sb.toString()));
+    }
   }
 
   /**
@@ -863,12 +1057,16 @@ public class GraphLoader {
     long reportInterval = Long.decode((String) opts.get("--reportInt"));
     String formatString = (String) opts.get("--reportFmt");
     String inputDir = (String) opts.get("SOURCE");
+    boolean timeOrderedMessages = 
+        (Boolean) opts.get("--timeOrderedMessages");
 
     String command;
     if ((Boolean) opts.get("nodes")) {
       command = "nodes";
     } else if ((Boolean) opts.get("props")) {
       command = "props";
+    } else if ((Boolean) opts.get("rootPosts")) {
+      command = "rootPosts";
     } else {
       command = "edges";
     }
@@ -877,7 +1075,8 @@ public class GraphLoader {
         "GraphLoader: {coordLoc: %s, masters: %s, graphName: %s, "
         + "numLoaders: %d, loaderIdx: %d, numThreads: %d, txSize: %d, "
         + "txRetries: %d, txBackoff: %d, txBoffCeil: %d, "
-        + "reportFmt: %s, inputDir: %s, command: %s}",
+        + "timeOrderedMessages: %s, reportFmt: %s, inputDir: %s, "
+        + "command: %s}",
         (String) opts.get("--coordLoc"),
         (String) opts.get("--masters"),
         (String) opts.get("--graphName"),
@@ -888,6 +1087,7 @@ public class GraphLoader {
         txRetries,
         txBackoff,
         txBoffCeil,
+        timeOrderedMessages,
         formatString,
         inputDir,
         command));
@@ -965,6 +1165,32 @@ public class GraphLoader {
 
       System.out.println(String.format("Found %d total property files",
           loadList.size()));
+    } else if (command.equals("rootPosts")) {
+      for (SnbRelation snbRelation : new SnbRelation[] {
+          SnbRelation.REPLYOF_COMMENT_POST, 
+          SnbRelation.REPLYOF_COMMENT_COMMENT}) {
+        File [] fileList = dir.listFiles(new FilenameFilter() {
+              @Override
+              public boolean accept(File dir, String name) {
+                return name.matches(
+                    "^" + snbRelation.tail.name + 
+                    "_" + snbRelation.name + 
+                    "_" + snbRelation.head.name + 
+                    "_[0-9]+_[0-9]+\\.csv");
+              }
+            });
+
+        for (File f : fileList) {
+          loadList.add(new LoadUnit(snbRelation, f.toPath(), true));
+          System.out.println(String.format(
+              "Found file for (%s)-[%s]->(%s) edges (%s)", 
+              snbRelation.tail.name, snbRelation.name, 
+              snbRelation.head.name, f.getName()));
+        }
+      }
+
+      System.out.println(String.format("Found %d total replyOf files",
+          loadList.size()));
     } else {
       for (SnbRelation snbRelation : SnbRelation.values()) {
 
@@ -991,7 +1217,22 @@ public class GraphLoader {
               }
             });
 
-        if (fileList.length > 0) {
+        if (fileList.length > 0 && timeOrderedMessages 
+            && (snbRelation == SnbRelation.HASCREATOR_POST_PERSON
+              || snbRelation == SnbRelation.HASCREATOR_COMMENT_PERSON)) {
+          List<Path> filePaths = new ArrayList<>();
+          for (File f : fileList) {
+            filePaths.add(f.toPath());
+            System.out.println(String.format("Found file for %s edges (%s)",
+                edgeStr, f.getName()));
+          }
+
+          int numPartitions = numLoaders * numThreads;
+          for (int i = 0; i < numPartitions; i++) {
+            loadList.add(new LoadUnit(snbRelation, filePaths, i, 
+                numPartitions));
+          }
+        } else if (fileList.length > 0) {
           for (File f : fileList) {
             loadList.add(new LoadUnit(snbRelation, f.toPath()));
             System.out.println(String.format("Found file for %s edges (%s)",
@@ -1040,5 +1281,24 @@ public class GraphLoader {
     for (Thread thread : threads) {
       thread.join();
     }
+
+    if (timeOrderedMessages) {
+      long newestMessage = Long.MIN_VALUE;
+      for (ThreadStats stats : threadStats) {
+        newestMessage = Math.max(newestMessage, stats.newestMessage);
+      }
+
+      if (newestMessage != Long.MIN_VALUE) {
+        System.out.println(String.format("Loaded hasCreator edges in "
+            + "creationDate order up to message creationDate %d. Start "
+            + "TorcDbServer with:", newestMessage));
+        System.out.println(String.format("  --timeOrderedMessages=%d",
+            newestMessage));
+        if (numLoaders > 1) {
+          System.out.println("With several loaders, use the largest value "
+              + "printed by any of them.");
+        }
+      }
+    }
   }
 }
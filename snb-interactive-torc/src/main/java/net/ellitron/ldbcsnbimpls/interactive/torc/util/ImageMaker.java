@@ -18,6 +18,7 @@ package net.ellitron.ldbcsnbimpls.interactive.torc.util;
 
 import net.ellitron.ldbcsnbimpls.interactive.core.SnbEntity;
 import net.ellitron.ldbcsnbimpls.interactive.core.SnbRelation;
+import net.ellitron.ldbcsnbimpls.interactive.torc.TorcDbProperties;
 import net.ellitron.ldbcsnbimpls.interactive.torc.TorcEntity;
 import net.ellitron.torc.TorcGraph;
 import net.ellitron.torc.TorcVertex;
@@ -367,11 +368,11 @@ public class ImageMaker {
                   if (fieldNames[j].equals("id")) {
                     vertexId = new UInt128(idSpace, Long.decode(fieldValues[j]));
                   } else if (fieldNames[j].equals("birthday")) {
-                    propValues.add(String.valueOf(
+                    propValues.add(TorcDbProperties.encode(
                         birthdayDateFormat.parse(fieldValues[j]).getTime()));
                   } else if (fieldNames[j].equals("creationDate") || 
                       fieldNames[j].equals("joinDate")) {
-                    propValues.add(String.valueOf(
+                    propValues.add(TorcDbProperties.encode(
                         creationDateDateFormat.parse(fieldValues[j]).getTime()));
                   } else if (fieldNames[j].equals("email") || 
                       fieldNames[j].equals("language")) {
@@ -459,7 +460,7 @@ public class ImageMaker {
                     List<String> propValues = new ArrayList<>(8);
                     if (fieldNames[j].equals("creationDate") || 
                         fieldNames[j].equals("joinDate")) {
-                      propValues.add(String.valueOf(
+                      propValues.add(TorcDbProperties.encode(
                           creationDateDateFormat.parse(fieldValues[j]).getTime()));
                     } else {
                       propValues.add(fieldValues[j]);
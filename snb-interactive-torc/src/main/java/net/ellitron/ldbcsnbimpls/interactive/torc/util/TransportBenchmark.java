@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc.util;
+
+import net.ellitron.ldbcsnbimpls.interactive.torc.*;
+
+import com.ldbc.driver.DbConnectionState;
+import com.ldbc.driver.DbException;
+import com.ldbc.driver.Operation;
+import com.ldbc.driver.OperationHandler;
+import com.ldbc.driver.ResultReporter;
+import com.ldbc.driver.runtime.ConcurrentErrorReporter;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcNoResult;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery1;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery1Result;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery1PersonProfile;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery1PersonProfileResult;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery2PersonPosts;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery2PersonPostsResult;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate2AddPostLike;
+
+import org.docopt.Docopt;
+
+import java.util.*;
+
+/**
+ * Measures the latency and throughput of the transport between TorcDbClient
+ * and TorcDbServer, isolated from the cost of executing queries against
+ * TorcDB. Starts a TorcDbServer listener in this process whose operation
+ * handlers return canned results, and then drives a mix of operations at it
+ * through TorcDbClient once per protocol being compared.
+ */
+public class TransportBenchmark {
+  private static final String doc =
+      "TransportBenchmark: Compare the latency and throughput of the wire\n"
+      + "protocols spoken between TorcDbClient and TorcDbServer.\n"
+      + "\n"
+      + "Usage:\n"
+      + "  TransportBenchmark [options]\n"
+      + "  TransportBenchmark (-h | --help)\n"
+      + "  TransportBenchmark --version\n"
+      + "\n"
+      + "Options:\n"
+      + "  --protocols=<p>   Comma separated list of protocols to compare.\n"
+      + "                    shm is the binary protocol over shared memory\n"
+      + "                    channels. [default: java,binary].\n"
+      + "  --port=<n>        Base port for the benchmark servers. Each\n"
+      + "                    protocol gets its own port starting here.\n"
+      + "                    [default: 5677].\n"
+      + "  --threads=<n>     Number of client threads. [default: 4].\n"
+      + "  --connectionsPerServer=<n>  Share this many multiplexed\n"
+      + "                    connections among all client threads when\n"
+      + "                    using the binary protocol. 0 gives each thread\n"
+      + "                    its own connection. [default: 0].\n"
+      + "  --workers=<n>     Server worker threads for the binary and shm\n"
+      + "                    protocols. 0 means one per core. [default: 0].\n"
+      + "  --queueDepth=<n>  Server queue depth for the binary and shm\n"
+      + "                    protocols.\n"
+      + "                    [default: 1024].\n"
+      + "  --shmDir=<d>      Directory for shm protocol channels.\n"
+      + "                    [default: /dev/shm/torcdb-bench].\n"
+      + "  --ops=<n>         Operations per client thread per operation\n"
+      + "                    type. [default: 20000].\n"
+      + "  --warmup=<n>      Warmup operations per client thread per\n"
+      + "                    operation type. [default: 5000].\n"
+      + "  -h --help         Show this screen.\n"
+      + "  --version         Show version.\n"
+      + "\n";
+
+  /*
+   * Canned results returned by the stub handlers. Sized like typical results
+   * on an SF10 dataset.
+   */
+
+  private static final LdbcShortQuery1PersonProfileResult sq1Result =
+      new LdbcShortQuery1PersonProfileResult("Jan", "Zakrzewski",
+          476928000000L, "31.192.118.181", "Firefox", 1234L, "male",
+          1263385637184L);
+
+  private static final List<LdbcShortQuery2PersonPostsResult> sq2Result;
+
+  private static final List<LdbcQuery1Result> q1Result;
+
+  static {
+    sq2Result = new ArrayList<>(10);
+    for (int i = 0; i < 10; i++) {
+      sq2Result.add(new LdbcShortQuery2PersonPostsResult(
+          2199023262543L + i,
+          "About Augustine of Hippo, rooted in the Platonist tradition and "
+          + "his role in the development of Western Christianity.",
+          1347527630580L + i, 2199023262543L, 4398046512167L, "Jan",
+          "Zakrzewski"));
+    }
+
+    q1Result = new ArrayList<>(20);
+    for (int i = 0; i < 20; i++) {
+      List<List<Object>> universities = new ArrayList<>();
+      universities.add(Arrays.asList("Warsaw_University", 2005, "Warsaw"));
+      List<List<Object>> companies = new ArrayList<>();
+      companies.add(Arrays.asList("LOT_Polish_Airlines", 2010, "Poland"));
+      companies.add(Arrays.asList("Polskie_Radio", 2012, "Poland"));
+      q1Result.add(new LdbcQuery1Result(4398046512167L + i, "Zakrzewski",
+          1 + (i % 3), 476928000000L, 1263385637184L, "male", "Firefox",
+          "31.192.118.181",
+          Arrays.asList("Jan4398046512167@gmail.com",
+              "Jan4398046512167@yahoo.com"),
+          Arrays.asList("pl", "en"), "Warsaw", universities, companies));
+    }
+  }
+
+  private static class StubQuery1Handler implements
+      OperationHandler<LdbcQuery1, DbConnectionState> {
+    @Override
+    public void executeOperation(final LdbcQuery1 operation,
+        DbConnectionState dbConnectionState,
+        ResultReporter resultReporter) throws DbException {
+      resultReporter.report(q1Result.size(), q1Result, operation);
+    }
+  }
+
+  private static class StubShortQuery1Handler implements
+      OperationHandler<LdbcShortQuery1PersonProfile, DbConnectionState> {
+    @Override
+    public void executeOperation(final LdbcShortQuery1PersonProfile operation,
+        DbConnectionState dbConnectionState,
+        ResultReporter resultReporter) throws DbException {
+      resultReporter.report(1, sq1Result, operation);
+    }
+  }
+
+  private static class StubShortQuery2Handler implements
+      OperationHandler<LdbcShortQuery2PersonPosts, DbConnectionState> {
+    @Override
+    public void executeOperation(final LdbcShortQuery2PersonPosts operation,
+        DbConnectionState dbConnectionState,
+        ResultReporter resultReporter) throws DbException {
+      resultReporter.report(sq2Result.size(), sq2Result, operation);
+    }
+  }
+
+  private static class StubUpdate2Handler implements
+      OperationHandler<LdbcUpdate2AddPostLike, DbConnectionState> {
+    @Override
+    public void executeOperation(final LdbcUpdate2AddPostLike operation,
+        DbConnectionState dbConnectionState,
+        ResultReporter resultReporter) throws DbException {
+      resultReporter.report(0, LdbcNoResult.INSTANCE, operation);
+    }
+  }
+
+  /**
+   * Issues a fixed number of one type of operation and records the latency of
+   * each.
+   */
+  private static class ClientThread implements Runnable {
+
+    private final TorcDbClientConnectionState connState;
+    private final ResultReporter resultReporter;
+    private final Operation op;
+    private final int count;
+    private final long[] latencies;
+
+    public ClientThread(TorcDbClientConnectionState connState,
+        ConcurrentErrorReporter concurrentErrorReporter, Operation op,
+        int count) {
+      this.connState = connState;
+      this.resultReporter =
+          new ResultReporter.SimpleResultReporter(concurrentErrorReporter);
+      this.op = op;
+      this.count = count;
+      this.latencies = new long[count];
+    }
+
+    @Override
+    public void run() {
+      try {
+        for (int i = 0; i < count; i++) {
+          long start = System.nanoTime();
+          TorcDbClient.executeQuery(op, connState, resultReporter);
+          latencies[i] = System.nanoTime() - start;
+        }
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /**
+   * Runs count operations on each of numThreads threads.
+   *
+   * @return Latencies of all operations, in nanoseconds, followed by the
+   * total elapsed time as the last element.
+   */
+  private static long[] runOps(TorcDbClientConnectionState connState,
+      ConcurrentErrorReporter concurrentErrorReporter, Operation op,
+      int numThreads, int count) throws Exception {
+    List<ClientThread> clients = new ArrayList<>(numThreads);
+    List<Thread> threads = new ArrayList<>(numThreads);
+    for (int i = 0; i < numThreads; i++) {
+      ClientThread c =
+          new ClientThread(connState, concurrentErrorReporter, op, count);
+      clients.add(c);
+      threads.add(new Thread(c));
+    }
+
+    long start = System.nanoTime();
+    for (Thread t : threads) {
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    long elapsed = System.nanoTime() - start;
+
+    long[] latencies = new long[numThreads * count + 1];
+    for (int i = 0; i < numThreads; i++) {
+      System.arraycopy(clients.get(i).latencies, 0, latencies, i * count,
+          count);
+    }
+    latencies[numThreads * count] = elapsed;
+    return latencies;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, Object> opts =
+        new Docopt(doc).withVersion("TransportBenchmark 1.0").parse(args);
+
+    final String[] protocols = ((String) opts.get("--protocols")).split(",");
+    final int basePort = Integer.decode((String) opts.get("--port"));
+    final int numThreads = Integer.decode((String) opts.get("--threads"));
+    final int connectionsPerServer = 
+        Integer.decode((String) opts.get("--connectionsPerServer"));
+    int workers = Integer.decode((String) opts.get("--workers"));
+    final int queueDepth = Integer.decode((String) opts.get("--queueDepth"));
+    final int numOps = Integer.decode((String) opts.get("--ops"));
+    final int numWarmup = Integer.decode((String) opts.get("--warmup"));
+    final String shmDir = (String) opts.get("--shmDir");
+
+    Map<Class<? extends Operation>, OperationHandler> queryHandlerMap =
+        new HashMap<>();
+    queryHandlerMap.put(LdbcQuery1.class, new StubQuery1Handler());
+    queryHandlerMap.put(LdbcShortQuery1PersonProfile.class,
+        new StubShortQuery1Handler());
+    queryHandlerMap.put(LdbcShortQuery2PersonPosts.class,
+        new StubShortQuery2Handler());
+    queryHandlerMap.put(LdbcUpdate2AddPostLike.class,
+        new StubUpdate2Handler());
+
+    if (workers == 0) {
+      workers = Runtime.getRuntime().availableProcessors();
+    }
+
+    List<Operation> ops = new ArrayList<>();
+    ops.add(new LdbcShortQuery1PersonProfile(4398046512167L));
+    ops.add(new LdbcShortQuery2PersonPosts(4398046512167L, 10));
+    ops.add(new LdbcQuery1(4398046512167L, "Jan", 20));
+    ops.add(new LdbcUpdate2AddPostLike(4398046512167L, 2199023262543L,
+        new Date(1347527630580L)));
+
+    ConcurrentErrorReporter concurrentErrorReporter =
+        new ConcurrentErrorReporter();
+
+    System.out.println(String.format("%-8s %-32s %10s %10s %10s %10s %12s",
+        "Protocol", "Operation", "Mean(us)", "50th(us)", "99th(us)",
+        "99.9th(us)", "Ops/s"));
+
+    for (int p = 0; p < protocols.length; p++) {
+      String protocol = protocols[p];
+      int port = basePort + p;
+      TorcDbServerMetrics metrics = new TorcDbServerMetrics();
+
+      // The stub handlers never touch the database, so the server does not
+      // need a connection to TorcDB.
+      Thread listener;
+      if (protocol.equals("java")) {
+        listener = new Thread(new TorcDbServer.ListenerThread(port, metrics,
+            null, queryHandlerMap, concurrentErrorReporter));
+      } else {
+        int[] limits = 
+            new int[TorcDbRequestScheduler.OperationClass.values().length];
+        Arrays.fill(limits, workers);
+        TorcDbRequestScheduler scheduler = new TorcDbRequestScheduler(workers,
+            TorcDbRequestScheduler.OperationClass.values(), limits, 
+            queueDepth);
+        if (protocol.equals("shm")) {
+          listener = new Thread(new TorcDbServer.ShmListenerThread(shmDir, 
+              metrics, null, queryHandlerMap, concurrentErrorReporter, 
+              scheduler));
+        } else {
+          listener = new Thread(new TorcDbServer.NioListenerThread(port, 
+              metrics, null, queryHandlerMap, concurrentErrorReporter, 
+              scheduler));
+        }
+      }
+      listener.setDaemon(true);
+      listener.start();
+
+      // Give the listener a moment to bind its port.
+      Thread.sleep(500);
+
+      Map<String, String> props = new HashMap<>();
+      props.put("serverIPs", "127.0.0.1");
+      props.put("port", String.valueOf(port));
+      if (protocol.equals("shm")) {
+        props.put("protocol", "binary");
+        props.put("transport", "shm");
+        props.put("shmDir", shmDir);
+      } else {
+        props.put("protocol", protocol);
+      }
+      if (protocol.equals("binary")) {
+        props.put("connectionsPerServer", 
+            String.valueOf(connectionsPerServer));
+      }
+      TorcDbClientConnectionState connState =
+          new TorcDbClientConnectionState(props);
+
+      for (Operation op : ops) {
+        runOps(connState, concurrentErrorReporter, op, numThreads, numWarmup);
+
+        long[] latencies = runOps(connState, concurrentErrorReporter, op,
+            numThreads, numOps);
+        int n = latencies.length - 1;
+        long elapsed = latencies[n];
+        Arrays.sort(latencies, 0, n);
+
+        long sum = 0;
+        for (int i = 0; i < n; i++) {
+          sum += latencies[i];
+        }
+
+        System.out.println(String.format(
+            "%-8s %-32s %10.1f %10.1f %10.1f %10.1f %12.0f",
+            protocol,
+            op.getClass().getSimpleName(),
+            (double) sum / n / 1000.0,
+            latencies[(int) (n * 0.5)] / 1000.0,
+            latencies[(int) (n * 0.99)] / 1000.0,
+            latencies[(int) (n * 0.999)] / 1000.0,
+            (double) n / (elapsed / 1000000000.0)));
+      }
+
+      connState.close();
+
+      System.out.println("Server side stage latencies for " + protocol 
+          + " protocol:");
+      System.out.println(metrics.getReport());
+    }
+  }
+}
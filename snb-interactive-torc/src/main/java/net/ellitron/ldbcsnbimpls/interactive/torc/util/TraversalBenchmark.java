@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc.util;
+
+import net.ellitron.ldbcsnbimpls.interactive.torc.TorcDbTraversals;
+import net.ellitron.ldbcsnbimpls.interactive.torc.TorcEntity;
+import net.ellitron.torc.TorcGraph;
+import net.ellitron.torc.TorcGraphProviderOptimizationStrategy;
+import net.ellitron.torc.util.UInt128;
+
+import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversal;
+import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversalSource;
+import org.apache.tinkerpop.gremlin.structure.Graph;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+
+import org.docopt.Docopt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Measures what the Gremlin query handlers spend on getting a traversal
+ * source and building a traversal, before and after TorcDbTraversals: a new
+ * graph.traversal().withStrategies(...) source per execution, against the
+ * one source per graph that TorcDbTraversals shares.
+ *
+ * The traversal is the size of a short read: a side effect to collect into,
+ * a start vertex, one hop, and a property. Each is timed twice, once only
+ * built and strategy-applied, which isolates the CPU cost that the source
+ * affects, and once executed against TorcDB, which puts that cost next to
+ * the reads it is paid for.
+ */
+public class TraversalBenchmark {
+  private static final String doc =
+      "TraversalBenchmark: Compare a traversal source per execution with\n"
+      + "the shared TorcDbTraversals source for a short Gremlin traversal.\n"
+      + "\n"
+      + "Usage:\n"
+      + "  TraversalBenchmark [options] <personId>\n"
+      + "  TraversalBenchmark (-h | --help)\n"
+      + "  TraversalBenchmark --version\n"
+      + "\n"
+      + "Arguments:\n"
+      + "  personId          Id of a Person in the loaded graph, at which\n"
+      + "                    the traversal starts.\n"
+      + "\n"
+      + "Options:\n"
+      + "  --coordLoc=<loc>  RAMCloud coordinator locator string\n"
+      + "                    [default: tcp:host=127.0.0.1,port=12246].\n"
+      + "  --graphName=<g>   The name of the graph in RAMCloud\n"
+      + "                    [default: default].\n"
+      + "  --ops=<n>         Operations per source per phase.\n"
+      + "                    [default: 100000].\n"
+      + "  --warmup=<n>      Warmup operations per source per phase.\n"
+      + "                    [default: 20000].\n"
+      + "  -h --help         Show this screen.\n"
+      + "  --version         Show version.\n"
+      + "\n";
+
+  /**
+   * Builds the traversal the handlers would for a short read.
+   */
+  private static GraphTraversal<Vertex, Object> traversal(
+      GraphTraversalSource g, UInt128 personId, List<Object> result) {
+    return g.withSideEffect("result", result).V(personId)
+        .out("isLocatedIn").hasLabel(TorcEntity.PLACE.label)
+        .values("name").aggregate("result");
+  }
+
+  /**
+   * Runs count operations and returns their latencies, followed by the
+   * total elapsed time, in nanoseconds.
+   */
+  private static long[] run(Graph graph,
+      Function<Graph, GraphTraversalSource> sources, UInt128 personId,
+      boolean execute, int count) {
+    long[] latencies = new long[count + 1];
+    long start = System.nanoTime();
+    for (int i = 0; i < count; i++) {
+      long opStart = System.nanoTime();
+      List<Object> result = new ArrayList<>(1);
+      GraphTraversal<Vertex, Object> t =
+          traversal(sources.apply(graph), personId, result);
+      if (execute) {
+        t.iterate();
+        graph.tx().rollback();
+      } else {
+        t.asAdmin().applyStrategies();
+      }
+      latencies[i] = System.nanoTime() - opStart;
+    }
+    latencies[count] = System.nanoTime() - start;
+    return latencies;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, Object> opts =
+        new Docopt(doc).withVersion("TraversalBenchmark 1.0").parse(args);
+
+    final UInt128 personId = new UInt128(TorcEntity.PERSON.idSpace,
+        Long.decode((String) opts.get("<personId>")));
+    final int numOps = Integer.decode((String) opts.get("--ops"));
+    final int numWarmup = Integer.decode((String) opts.get("--warmup"));
+
+    Map<String, String> config = new HashMap<>();
+    config.put(TorcGraph.CONFIG_COORD_LOCATOR,
+        (String) opts.get("--coordLoc"));
+    config.put(TorcGraph.CONFIG_GRAPH_NAME,
+        (String) opts.get("--graphName"));
+    Graph graph = TorcGraph.open(config);
+
+    Map<String, Function<Graph, GraphTraversalSource>> sources =
+        new LinkedHashMap<>();
+    sources.put("perCall", (gr) -> gr.traversal()
+        .withStrategies(TorcGraphProviderOptimizationStrategy.instance()));
+    sources.put("shared", TorcDbTraversals::source);
+
+    System.out.println(String.format("%-8s %-8s %10s %10s %10s %12s",
+        "Source", "Phase", "Mean(us)", "50th(us)", "99th(us)", "Ops/s"));
+
+    for (boolean execute : new boolean[] {false, true}) {
+      for (Map.Entry<String, Function<Graph, GraphTraversalSource>> e :
+          sources.entrySet()) {
+        run(graph, e.getValue(), personId, execute, numWarmup);
+
+        long[] latencies =
+            run(graph, e.getValue(), personId, execute, numOps);
+        int n = latencies.length - 1;
+        long elapsed = latencies[n];
+        Arrays.sort(latencies, 0, n);
+
+        long sum = 0;
+        for (int i = 0; i < n; i++) {
+          sum += latencies[i];
+        }
+
+        System.out.println(String.format(
+            "%-8s %-8s %10.2f %10.2f %10.2f %12.0f",
+            e.getKey(),
+            execute ? "execute" : "build",
+            (double) sum / n / 1000.0,
+            latencies[(int) (n * 0.5)] / 1000.0,
+            latencies[(int) (n * 0.99)] / 1000.0,
+            (double) n / (elapsed / 1000000000.0)));
+      }
+    }
+
+    TorcDbTraversals.release(graph);
+    graph.close();
+  }
+}
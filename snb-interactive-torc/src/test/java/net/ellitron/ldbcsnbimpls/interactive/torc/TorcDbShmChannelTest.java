@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import junit.framework.TestCase;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for TorcDbShmChannel, with the client and server sides of each
+ * channel in this JVM. Skipped on runtimes that don't support the channels.
+ */
+public class TorcDbShmChannelTest extends TestCase {
+
+  private static final int RING_SIZE = 4096;
+
+  private File dir;
+  private TorcDbShmChannel client;
+  private TorcDbShmChannel server;
+
+  @Override
+  protected void setUp() throws Exception {
+    if (!TorcDbShmChannel.isSupported()) {
+      return;
+    }
+
+    dir = Files.createTempDirectory("TorcDbShmChannelTest").toFile();
+
+    // create() waits for a server to claim the channel, as TorcDbServer's
+    // ShmListenerThread would.
+    AtomicReference<TorcDbShmChannel> claimed = new AtomicReference<>();
+    Thread claimer = new Thread(() -> {
+      try {
+        while (claimed.get() == null) {
+          File[] files = dir.listFiles((d, name) ->
+              name.endsWith(TorcDbShmChannel.FILE_SUFFIX));
+          for (File f : files) {
+            TorcDbShmChannel ch = TorcDbShmChannel.claim(f);
+            if (ch != null) {
+              claimed.set(ch);
+            }
+          }
+          Thread.sleep(1);
+        }
+      } catch (IOException | InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    claimer.start();
+
+    client = TorcDbShmChannel.create(dir.getPath(), RING_SIZE);
+    claimer.join();
+    server = claimed.get();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    if (dir == null) {
+      return;
+    }
+
+    if (client != null) {
+      client.close();
+    }
+    if (server != null) {
+      server.close();
+    }
+    for (File f : dir.listFiles()) {
+      f.delete();
+    }
+    dir.delete();
+  }
+
+  /**
+   * Returns a frame with a length field followed by length bytes, each the
+   * low byte of seed plus its index.
+   */
+  private static ByteBuffer frame(int length, int seed) {
+    ByteBuffer buf = ByteBuffer.allocate(4 + length);
+    buf.putInt(length);
+    for (int i = 0; i < length; i++) {
+      buf.put((byte) (seed + i));
+    }
+    buf.flip();
+    return buf;
+  }
+
+  private static void assertFrame(int length, int seed, ByteBuffer received) {
+    assertEquals(length, received.remaining());
+    for (int i = 0; i < length; i++) {
+      assertEquals((byte) (seed + i), received.get());
+    }
+  }
+
+  public void testRoundTrip() throws IOException {
+    if (!TorcDbShmChannel.isSupported()) {
+      return;
+    }
+
+    client.send(frame(100, 1));
+    assertFrame(100, 1, server.receive());
+
+    server.send(frame(200, 2));
+    assertFrame(200, 2, client.receive());
+  }
+
+  public void testSeveralFramesInFlight() throws IOException {
+    if (!TorcDbShmChannel.isSupported()) {
+      return;
+    }
+
+    for (int i = 0; i < 8; i++) {
+      client.send(frame(200 + i, i));
+    }
+    for (int i = 0; i < 8; i++) {
+      assertFrame(200 + i, i, server.receive());
+    }
+  }
+
+  public void testWrapAround() throws IOException {
+    if (!TorcDbShmChannel.isSupported()) {
+      return;
+    }
+
+    // Frame sizes that don't divide the ring, so that frames regularly don't
+    // fit before its end and the rest of it is skipped with PADDING.
+    for (int i = 0; i < 1000; i++) {
+      int length = 1 + (i * 397) % 2000;
+      client.send(frame(length, i));
+      assertFrame(length, i, server.receive());
+      server.send(frame(length, -i));
+      assertFrame(length, -i, client.receive());
+    }
+  }
+
+  public void testOversizeFrameRejected() throws IOException {
+    if (!TorcDbShmChannel.isSupported()) {
+      return;
+    }
+
+    try {
+      client.send(frame(RING_SIZE / 2, 0));
+      fail("Expected an IOException");
+    } catch (EOFException e) {
+      fail("Expected the frame to be rejected, not the channel closed");
+    } catch (IOException e) {
+      // Expected.
+    }
+
+    // The channel is still usable.
+    client.send(frame(10, 3));
+    assertFrame(10, 3, server.receive());
+  }
+
+  public void testEofAfterPeerCloses() throws IOException {
+    if (!TorcDbShmChannel.isSupported()) {
+      return;
+    }
+
+    server.close();
+    server = null;
+    try {
+      client.receive();
+      fail("Expected an EOFException");
+    } catch (EOFException e) {
+      // Expected.
+    }
+  }
+}
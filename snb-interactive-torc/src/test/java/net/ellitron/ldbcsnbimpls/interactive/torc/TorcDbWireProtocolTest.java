@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import com.ldbc.driver.Operation;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcNoResult;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery1;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery2;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcQuery2Result;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery2PersonPosts;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcShortQuery2PersonPostsResult;
+import com.ldbc.driver.workloads.ldbc.snb.interactive.LdbcUpdate2AddPostLike;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Round trip tests for the TorcDbWireProtocol codecs. Each frame is written
+ * to a stream and read back with readFrame(), as the client and server do.
+ */
+public class TorcDbWireProtocolTest extends TestCase {
+
+  private final TorcDbWireProtocol.FrameBuffer buf =
+      new TorcDbWireProtocol.FrameBuffer(16);
+
+  /**
+   * Reads back the frame in buf, checks its request ID, and returns it
+   * positioned just after the request ID.
+   */
+  private ByteBuffer readBack(int requestId) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    buf.writeTo(out);
+    ByteBuffer in = TorcDbWireProtocol.readFrame(new DataInputStream(
+        new ByteArrayInputStream(out.toByteArray())));
+    assertEquals(requestId, in.getInt());
+    return in;
+  }
+
+  private Operation requestRoundTrip(Operation op) throws IOException {
+    TorcDbWireProtocol.encodeRequest(buf, 7, op);
+    ByteBuffer in = readBack(7);
+    Operation decoded = TorcDbWireProtocol.decodeRequest(in);
+    assertFalse(in.hasRemaining());
+    assertEquals(op.getClass(), decoded.getClass());
+    return decoded;
+  }
+
+  private Object responseRoundTrip(Operation op, Object result)
+      throws IOException {
+    TorcDbWireProtocol.encodeResponse(buf, 9, op, result);
+    ByteBuffer in = readBack(9);
+    Object decoded = TorcDbWireProtocol.decodeResponse(in, op);
+    assertFalse(in.hasRemaining());
+    return decoded;
+  }
+
+  public void testQuery1Request() throws IOException {
+    LdbcQuery1 q = (LdbcQuery1) requestRoundTrip(
+        new LdbcQuery1(933L, "Mahinda", 20));
+    assertEquals(933L, q.personId());
+    assertEquals("Mahinda", q.firstName());
+    assertEquals(20, q.limit());
+  }
+
+  public void testQuery2Request() throws IOException {
+    Date maxDate = new Date(1354060800000L);
+    LdbcQuery2 q = (LdbcQuery2) requestRoundTrip(
+        new LdbcQuery2(1L << 40, maxDate, 20));
+    assertEquals(1L << 40, q.personId());
+    assertEquals(maxDate, q.maxDate());
+    assertEquals(20, q.limit());
+  }
+
+  public void testShortQuery2Request() throws IOException {
+    LdbcShortQuery2PersonPosts q = (LdbcShortQuery2PersonPosts)
+        requestRoundTrip(new LdbcShortQuery2PersonPosts(0L, 10));
+    assertEquals(0L, q.personId());
+    assertEquals(10, q.limit());
+  }
+
+  public void testUpdate2Request() throws IOException {
+    Date creationDate = new Date(1347527611000L);
+    LdbcUpdate2AddPostLike u = (LdbcUpdate2AddPostLike) requestRoundTrip(
+        new LdbcUpdate2AddPostLike(1099511627776L, 2061584302088L,
+            creationDate));
+    assertEquals(1099511627776L, u.personId());
+    assertEquals(2061584302088L, u.postId());
+    assertEquals(creationDate, u.creationDate());
+  }
+
+  public void testNonAsciiString() throws IOException {
+    LdbcQuery1 q = (LdbcQuery1) requestRoundTrip(
+        new LdbcQuery1(1L, "José 李", 20));
+    assertEquals("José 李", q.firstName());
+  }
+
+  public void testQuery2Response() throws IOException {
+    List<LdbcQuery2Result> result = new ArrayList<>();
+    result.add(new LdbcQuery2Result(1L, "Mahinda", "Perera", 3L, "",
+        1347527611000L));
+    result.add(new LdbcQuery2Result(2L, "Jun", "Wang", 1L << 41,
+        "About Napoleon, to be dismissed as a", 1347527612000L));
+
+    List<LdbcQuery2Result> decoded = (List<LdbcQuery2Result>)
+        responseRoundTrip(new LdbcQuery2(1L, new Date(0), 20), result);
+    assertEquals(result.size(), decoded.size());
+    for (int i = 0; i < result.size(); i++) {
+      LdbcQuery2Result r = result.get(i);
+      LdbcQuery2Result d = decoded.get(i);
+      assertEquals(r.personId(), d.personId());
+      assertEquals(r.personFirstName(), d.personFirstName());
+      assertEquals(r.personLastName(), d.personLastName());
+      assertEquals(r.postOrCommentId(), d.postOrCommentId());
+      assertEquals(r.postOrCommentContent(), d.postOrCommentContent());
+      assertEquals(r.postOrCommentCreationDate(),
+          d.postOrCommentCreationDate());
+    }
+  }
+
+  public void testShortQuery2Response() throws IOException {
+    List<LdbcShortQuery2PersonPostsResult> result = Arrays.asList(
+        new LdbcShortQuery2PersonPostsResult(5L, "photo1.jpg",
+            1347527611000L, 5L, 933L, "Mahinda", "Perera"),
+        new LdbcShortQuery2PersonPostsResult(6L, "thx", 1347527612000L, 5L,
+            933L, "Mahinda", "Perera"));
+
+    List<LdbcShortQuery2PersonPostsResult> decoded =
+        (List<LdbcShortQuery2PersonPostsResult>) responseRoundTrip(
+            new LdbcShortQuery2PersonPosts(933L, 10), result);
+    assertEquals(result.size(), decoded.size());
+    for (int i = 0; i < result.size(); i++) {
+      LdbcShortQuery2PersonPostsResult r = result.get(i);
+      LdbcShortQuery2PersonPostsResult d = decoded.get(i);
+      assertEquals(r.messageId(), d.messageId());
+      assertEquals(r.messageContent(), d.messageContent());
+      assertEquals(r.messageCreationDate(), d.messageCreationDate());
+      assertEquals(r.originalPostId(), d.originalPostId());
+      assertEquals(r.originalPostAuthorId(), d.originalPostAuthorId());
+      assertEquals(r.originalPostAuthorFirstName(),
+          d.originalPostAuthorFirstName());
+      assertEquals(r.originalPostAuthorLastName(),
+          d.originalPostAuthorLastName());
+    }
+  }
+
+  public void testEmptyResponse() throws IOException {
+    List<?> decoded = (List<?>) responseRoundTrip(
+        new LdbcQuery2(1L, new Date(0), 20), Collections.emptyList());
+    assertTrue(decoded.isEmpty());
+  }
+
+  public void testUpdateResponse() throws IOException {
+    Object decoded = responseRoundTrip(
+        new LdbcUpdate2AddPostLike(1L, 2L, new Date(0)),
+        LdbcNoResult.INSTANCE);
+    assertSame(LdbcNoResult.INSTANCE, decoded);
+  }
+
+  public void testErrorResponse() throws IOException {
+    LdbcQuery1 q = new LdbcQuery1(1L, "Mahinda", 20);
+    TorcDbWireProtocol.encodeError(buf, 11, TorcDbWireProtocol.opcodeOf(q),
+        "no such person");
+    ByteBuffer in = readBack(11);
+    try {
+      TorcDbWireProtocol.decodeResponse(in, q);
+      fail("Expected a ServerException");
+    } catch (TorcDbWireProtocol.ServerException e) {
+      assertTrue(e.getMessage().contains("no such person"));
+    }
+  }
+
+  public void testMismatchedResponse() throws IOException {
+    TorcDbWireProtocol.encodeResponse(buf, 13,
+        new LdbcQuery2(1L, new Date(0), 20), Collections.emptyList());
+    ByteBuffer in = readBack(13);
+    try {
+      TorcDbWireProtocol.decodeResponse(in,
+          new LdbcShortQuery2PersonPosts(1L, 10));
+      fail("Expected an IOException");
+    } catch (TorcDbWireProtocol.ServerException e) {
+      fail("Expected a malformed frame, not a server error");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  public void testCorruptCountRejected() throws IOException {
+    LdbcQuery2 q = new LdbcQuery2(1L, new Date(0), 20);
+    TorcDbWireProtocol.encodeResponse(buf, 15, q, Collections.emptyList());
+    ByteBuffer in = readBack(15);
+    // Result count, after the opcode and status bytes.
+    in.putInt(in.position() + 2, Integer.MAX_VALUE);
+    try {
+      TorcDbWireProtocol.decodeResponse(in, q);
+      fail("Expected an IOException");
+    } catch (TorcDbWireProtocol.ServerException e) {
+      fail("Expected a malformed frame, not a server error");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests for TorcIdLongMap.
+ */
+public class TorcIdLongMapTest extends TestCase {
+
+  public void testAbsentIdsAreZero() {
+    TorcIdLongMap m = new TorcIdLongMap();
+    assertEquals(0, m.get(7));
+    assertEquals(0, m.get(0));
+    assertFalse(m.containsKey(7));
+    assertFalse(m.containsKey(0));
+    assertTrue(m.isEmpty());
+  }
+
+  public void testPutAndGet() {
+    TorcIdLongMap m = new TorcIdLongMap();
+    m.put(7, 70);
+    m.put(0, 5);
+    m.put(-3, -30);
+    m.put(7, 71);
+
+    assertEquals(71, m.get(7));
+    assertEquals(5, m.get(0));
+    assertEquals(-30, m.get(-3));
+    assertTrue(m.containsKey(0));
+    assertEquals(3, m.size());
+  }
+
+  public void testAddCounts() {
+    TorcIdLongMap m = new TorcIdLongMap(2);
+    Map<Long, Long> expected = new HashMap<>();
+    Random rand = new Random(42);
+    for (int i = 0; i < 20000; i++) {
+      // Few enough distinct ids that most adds hit an existing entry.
+      long id = rand.nextInt(1000) - 100;
+      long delta = rand.nextInt(10);
+      long sum = expected.merge(id, delta, Long::sum);
+      assertEquals(sum, m.add(id, delta));
+    }
+
+    assertEquals(expected.size(), m.size());
+    expected.forEach((id, sum) -> assertEquals((long) sum, m.get(id)));
+  }
+
+  public void testForEachAndKeys() {
+    TorcIdLongMap m = new TorcIdLongMap();
+    long[] ids = new long[] {0, 1, 1L << 40, -5};
+    for (long id : ids) {
+      m.put(id, id * 2);
+    }
+
+    Map<Long, Long> seen = new HashMap<>();
+    m.forEach((id, value) -> seen.put(id, value));
+    assertEquals(ids.length, seen.size());
+    for (long id : ids) {
+      assertEquals(Long.valueOf(id * 2), seen.get(id));
+    }
+
+    long[] keys = m.keys();
+    Arrays.sort(keys);
+    Arrays.sort(ids);
+    assertTrue(Arrays.equals(ids, keys));
+  }
+
+  public void testClear() {
+    TorcIdLongMap m = new TorcIdLongMap();
+    m.put(0, 1);
+    m.put(9, 2);
+    m.clear();
+
+    assertTrue(m.isEmpty());
+    assertEquals(0, m.get(0));
+    assertEquals(0, m.get(9));
+    assertEquals(0, m.keys().length);
+    assertEquals(3, m.add(9, 3));
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015-2018 Stanford University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ellitron.ldbcsnbimpls.interactive.torc;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests for TorcIdSet.
+ */
+public class TorcIdSetTest extends TestCase {
+
+  public void testAddAndContains() {
+    TorcIdSet s = new TorcIdSet();
+    assertTrue(s.isEmpty());
+    assertTrue(s.add(42));
+    assertFalse(s.add(42));
+    assertTrue(s.contains(42));
+    assertFalse(s.contains(43));
+    assertEquals(1, s.size());
+  }
+
+  public void testZeroAndNegativeIds() {
+    TorcIdSet s = new TorcIdSet();
+    assertFalse(s.contains(0));
+    assertTrue(s.add(0));
+    assertFalse(s.add(0));
+    assertTrue(s.add(-1));
+    assertTrue(s.add(Long.MIN_VALUE));
+    assertTrue(s.contains(0));
+    assertTrue(s.contains(-1));
+    assertTrue(s.contains(Long.MIN_VALUE));
+    assertEquals(3, s.size());
+  }
+
+  public void testGrowsPastExpectedSize() {
+    TorcIdSet s = new TorcIdSet(4);
+    Set<Long> expected = new HashSet<>();
+    Random rand = new Random(42);
+    for (int i = 0; i < 10000; i++) {
+      long id = rand.nextLong();
+      assertEquals(expected.add(id), s.add(id));
+    }
+
+    assertEquals(expected.size(), s.size());
+    for (long id : expected) {
+      assertTrue(s.contains(id));
+    }
+  }
+
+  public void testToArray() {
+    TorcIdSet s = new TorcIdSet();
+    long[] ids = new long[] {0, 1, 2, 1L << 40, -5};
+    for (long id : ids) {
+      s.add(id);
+    }
+
+    long[] a = s.toArray();
+    Arrays.sort(a);
+    Arrays.sort(ids);
+    assertTrue(Arrays.equals(ids, a));
+  }
+
+  public void testClear() {
+    TorcIdSet s = new TorcIdSet();
+    for (long id = 0; id < 100; id++) {
+      s.add(id);
+    }
+    s.clear();
+
+    assertTrue(s.isEmpty());
+    assertFalse(s.contains(0));
+    assertFalse(s.contains(50));
+    assertEquals(0, s.toArray().length);
+    assertTrue(s.add(50));
+  }
+}